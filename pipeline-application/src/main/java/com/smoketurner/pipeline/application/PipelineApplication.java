@@ -15,28 +15,59 @@
  */
 package com.smoketurner.pipeline.application;
 
-import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.sqs.AmazonSQS;
+import com.smoketurner.pipeline.application.codec.CodecRegistry;
+import com.smoketurner.pipeline.application.codec.GzipCodec;
+import com.smoketurner.pipeline.application.codec.InflaterPool;
 import com.smoketurner.pipeline.application.config.AwsConfiguration;
+import com.smoketurner.pipeline.application.config.BroadcastConfiguration;
+import com.smoketurner.pipeline.application.config.ChannelConfiguration;
+import com.smoketurner.pipeline.application.config.ConsumerConfiguration;
+import com.smoketurner.pipeline.application.config.DownloadConfiguration;
 import com.smoketurner.pipeline.application.config.PipelineConfiguration;
+import com.smoketurner.pipeline.application.core.AckTracker;
+import com.smoketurner.pipeline.application.core.AdaptivePollScheduler;
+import com.smoketurner.pipeline.application.core.AmazonS3ClientCache;
 import com.smoketurner.pipeline.application.core.AmazonS3Downloader;
+import com.smoketurner.pipeline.application.core.AmazonSQSDeleteBatcher;
 import com.smoketurner.pipeline.application.core.AmazonSQSIterator;
+import com.smoketurner.pipeline.application.core.AmazonSQSLeaseTracker;
+import com.smoketurner.pipeline.application.core.AmazonSQSPrefetcher;
+import com.smoketurner.pipeline.application.core.ChannelRouter;
+import com.smoketurner.pipeline.application.core.EventHistory;
+import com.smoketurner.pipeline.application.core.EventLog;
+import com.smoketurner.pipeline.application.core.EventSpool;
 import com.smoketurner.pipeline.application.core.InstrumentedSseBroadcaster;
 import com.smoketurner.pipeline.application.core.MessageProcessor;
 import com.smoketurner.pipeline.application.core.PipelineRunnable;
+import com.smoketurner.pipeline.application.core.PipelineRunnablePool;
+import com.smoketurner.pipeline.application.managed.AmazonSQSDeleteBatcherManager;
 import com.smoketurner.pipeline.application.managed.AmazonSQSIteratorManager;
+import com.smoketurner.pipeline.application.managed.AmazonSQSLeaseTrackerManager;
+import com.smoketurner.pipeline.application.managed.EventLogManager;
+import com.smoketurner.pipeline.application.managed.EventSpoolManager;
+import com.smoketurner.pipeline.application.managed.PipelineRunnablePoolManager;
 import com.smoketurner.pipeline.application.resources.EventResource;
 import com.smoketurner.pipeline.application.resources.PingResource;
 import com.smoketurner.pipeline.application.resources.VersionResource;
+import com.smoketurner.pipeline.application.tasks.PollersTask;
 import io.dropwizard.Application;
 import io.dropwizard.configuration.EnvironmentVariableSubstitutor;
 import io.dropwizard.configuration.SubstitutingSourceProvider;
 import io.dropwizard.jetty.BiDiGzipHandler;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 import org.eclipse.jetty.server.Handler;
 import org.glassfish.jersey.media.sse.SseFeature;
 
@@ -67,28 +98,199 @@ public class PipelineApplication extends Application<PipelineConfiguration> {
 
     // AWS clients
     final AwsConfiguration awsConfig = configuration.getAws();
-    final AmazonS3 s3 = awsConfig.buildS3(environment);
+    final AmazonS3ClientCache s3Clients = awsConfig.buildS3ClientCache(environment);
     final AmazonSQS sqs = awsConfig.buildSQS(environment);
 
-    final AmazonSQSIterator sqsIterator = new AmazonSQSIterator(sqs, awsConfig.getQueueUrl());
+    final ConsumerConfiguration consumerConfig = configuration.getConsumer();
+
+    final AmazonSQSIterator sqsIterator =
+        new AmazonSQSIterator(
+            sqs, awsConfig.getQueueUrl(), (int) consumerConfig.getVisibilityTimeout().toSeconds());
     environment.lifecycle().manage(new AmazonSQSIteratorManager(sqsIterator));
-    final AmazonS3Downloader s3Downloader = new AmazonS3Downloader(s3);
 
-    // SSE message broadcaster
-    final InstrumentedSseBroadcaster broadcaster = new InstrumentedSseBroadcaster();
+    // extend the visibility of in-flight messages while they are being processed
+    final ScheduledExecutorService leaseScheduler =
+        environment.lifecycle().scheduledExecutorService("sqs-lease-%d").threads(1).build();
+    final AmazonSQSLeaseTracker leases =
+        new AmazonSQSLeaseTracker(
+            sqs,
+            awsConfig.getQueueUrl(),
+            leaseScheduler,
+            consumerConfig.getVisibilityTimeout(),
+            consumerConfig.getVisibilityHeartbeat());
+    environment.lifecycle().manage(new AmazonSQSLeaseTrackerManager(leases));
+
+    // batch message deletes, flushing any partial batch on an interval
+    final ScheduledExecutorService deleteScheduler =
+        environment.lifecycle().scheduledExecutorService("sqs-delete-%d").threads(1).build();
+    final AmazonSQSDeleteBatcher deleter =
+        new AmazonSQSDeleteBatcher(
+            sqs,
+            awsConfig.getQueueUrl(),
+            deleteScheduler,
+            consumerConfig.getDeleteFlushInterval(),
+            consumerConfig.getDeleteMaxAttempts());
+    environment.lifecycle().manage(new AmazonSQSDeleteBatcherManager(deleter));
+
+    // large objects are downloaded as concurrent Range GETs
+    final DownloadConfiguration downloadConfig = configuration.getDownload();
+    final ExecutorService rangeService =
+        environment
+            .lifecycle()
+            .executorService("s3-range-%d")
+            .minThreads(0)
+            .maxThreads(Integer.MAX_VALUE)
+            .workQueue(new SynchronousQueue<>())
+            .build();
+    final AmazonS3Downloader s3Downloader =
+        new AmazonS3Downloader(
+            s3Clients,
+            rangeService,
+            downloadConfig.getRangedThreshold().toBytes(),
+            downloadConfig.getPartSize().toBytes(),
+            downloadConfig.getRangeConcurrency(),
+            downloadConfig.getMaxResumes());
+
+    // SSE message broadcaster, with each connection written to from its own
+    // bounded queue so a slow client cannot stall the others
+    final BroadcastConfiguration broadcastConfig = configuration.getBroadcast();
+    final ExecutorService writerService =
+        environment
+            .lifecycle()
+            .executorService("sse-writer-%d")
+            .minThreads(0)
+            .maxThreads(Integer.MAX_VALUE)
+            .workQueue(new SynchronousQueue<>())
+            .build();
+
+    // optionally append every event to a disk-backed log for long replays
+    ScheduledExecutorService retentionScheduler = null;
+    if (broadcastConfig.getLogDirectory() != null) {
+      retentionScheduler =
+          environment.lifecycle().scheduledExecutorService("event-log-%d").threads(1).build();
+    }
+
+    // optionally defer deleting messages until required consumers have
+    // acknowledged their events
+    final AckTracker acks =
+        broadcastConfig.getRequiredConsumers().isEmpty()
+            ? null
+            : new AckTracker(
+                broadcastConfig.getRequiredConsumers(),
+                broadcastConfig.getMaxUnackedEvents(),
+                deleter,
+                leases);
+    final InstrumentedSseBroadcaster broadcaster =
+        buildBroadcaster(
+            environment, broadcastConfig, writerService, retentionScheduler, acks, null);
+
+    // each channel has its own broadcaster, history and log, which only
+    // receive the events of objects matching the channel's rules
+    final List<ChannelRouter.Channel> channels = new ArrayList<>();
+    for (Map.Entry<String, ChannelConfiguration> entry : broadcastConfig.getChannels().entrySet()) {
+      channels.add(
+          new ChannelRouter.Channel(
+              entry.getKey(),
+              entry.getValue().getBuckets(),
+              entry.getValue().getKeys(),
+              buildBroadcaster(
+                  environment,
+                  broadcastConfig,
+                  writerService,
+                  retentionScheduler,
+                  acks,
+                  entry.getKey())));
+    }
+    final ChannelRouter router = new ChannelRouter(broadcaster, channels);
+
+    // additional records of a batched S3 notification are streamed concurrently
+    final ExecutorService recordService =
+        environment
+            .lifecycle()
+            .executorService("s3-record-%d")
+            .minThreads(0)
+            .maxThreads(Integer.MAX_VALUE)
+            .workQueue(new SynchronousQueue<>())
+            .build();
+
+    // gzip inflaters and buffers are reused across objects, and BGZF objects
+    // can be inflated concurrently on a shared pool
+    final InflaterPool inflaters =
+        new InflaterPool(
+            (int) downloadConfig.getInflateInputBufferSize().toBytes(),
+            (int) downloadConfig.getInflateOutputBufferSize().toBytes(),
+            downloadConfig.getInflaterPoolSize());
+    ExecutorService inflateService = null;
+    if (downloadConfig.getInflateThreads() > 0) {
+      inflateService =
+          environment
+              .lifecycle()
+              .executorService("gzip-inflate-%d")
+              .minThreads(downloadConfig.getInflateThreads())
+              .maxThreads(downloadConfig.getInflateThreads())
+              .build();
+    }
+    final CodecRegistry codecs = new CodecRegistry();
+    codecs.register(new GzipCodec(inflaters, inflateService, downloadConfig.getInflateReadAhead()));
 
-    final MessageProcessor processor = new MessageProcessor(s3Downloader, broadcaster);
+    final MessageProcessor processor =
+        new MessageProcessor(
+            s3Downloader, router, codecs, recordService, consumerConfig.getRecordConcurrency());
+    final ExecutorService processorService = consumerConfig.buildProcessorExecutor(environment);
 
+    // each poller runs its own receive loop on a dedicated thread
     final ExecutorService service =
-        environment.lifecycle().executorService("sqs-%d").minThreads(1).build();
+        environment
+            .lifecycle()
+            .executorService("sqs-%d")
+            .minThreads(0)
+            .maxThreads(Integer.MAX_VALUE)
+            .workQueue(new SynchronousQueue<>())
+            .build();
 
-    final PipelineRunnable runnable = new PipelineRunnable(processor, sqsIterator, broadcaster);
-    service.execute(runnable);
+    // receive-ahead requests run in the background while batches are processed
+    final ExecutorService prefetchService =
+        environment
+            .lifecycle()
+            .executorService("sqs-prefetch-%d")
+            .minThreads(0)
+            .maxThreads(Integer.MAX_VALUE)
+            .workQueue(new SynchronousQueue<>())
+            .build();
+
+    final PipelineRunnablePool pollers =
+        new PipelineRunnablePool(
+            service,
+            name ->
+                new PipelineRunnable(
+                    processor,
+                    processorService,
+                    sqsIterator,
+                    new AmazonSQSPrefetcher(
+                        sqsIterator,
+                        leases,
+                        prefetchService,
+                        consumerConfig.getPrefetchDepth(),
+                        consumerConfig.getMaxInFlightMessages()),
+                    new AdaptivePollScheduler(
+                        consumerConfig.getMinPollBackoff(),
+                        consumerConfig.getMaxPollBackoff(),
+                        sqsIterator::getApproximateNumberOfMessages),
+                    deleter,
+                    leases,
+                    router,
+                    acks,
+                    name),
+            consumerConfig.getMaxPollers());
+    environment
+        .lifecycle()
+        .manage(new PipelineRunnablePoolManager(pollers, consumerConfig.getPollers()));
+    environment.admin().addTask(new PollersTask(pollers));
 
     // send heartbeat pings every second to all connected clients
     final ScheduledExecutorService scheduler =
         environment.lifecycle().scheduledExecutorService("heartbeat-%d").threads(1).build();
-    scheduler.scheduleAtFixedRate(() -> broadcaster.ping(), 0, 1, TimeUnit.SECONDS);
+    scheduler.scheduleAtFixedRate(router::ping, 0, 1, TimeUnit.SECONDS);
 
     // Disable GZIP content encoding for SSE endpoints
     environment
@@ -101,8 +303,74 @@ public class PipelineApplication extends Application<PipelineConfiguration> {
             });
 
     // resources
-    environment.jersey().register(new EventResource(broadcaster));
+    environment.jersey().register(new EventResource(router, acks));
     environment.jersey().register(new PingResource());
     environment.jersey().register(new VersionResource());
   }
+
+  /**
+   * Build the SSE broadcaster of all events, or of one channel
+   *
+   * @param environment Environment
+   * @param config Broadcast configuration
+   * @param writerService Executor service to write to SSE connections on
+   * @param retentionScheduler Executor service to enforce log retention on, if logging is enabled
+   * @param acks Tracker of the events acknowledged by required consumers, if any
+   * @param channel Channel name, or null for the broadcaster of all events
+   * @return the broadcaster
+   * @throws IOException if unable to open the event log or spool
+   */
+  private static InstrumentedSseBroadcaster buildBroadcaster(
+      final Environment environment,
+      final BroadcastConfiguration config,
+      final ExecutorService writerService,
+      @Nullable final ScheduledExecutorService retentionScheduler,
+      @Nullable final AckTracker acks,
+      @Nullable final String channel)
+      throws IOException {
+
+    EventLog eventLog = null;
+    if (config.getLogDirectory() != null && retentionScheduler != null) {
+      Path directory = Paths.get(config.getLogDirectory());
+      if (channel != null) {
+        directory = directory.resolve("channels").resolve(channel);
+      }
+      eventLog =
+          new EventLog(
+              directory,
+              (int) config.getLogSegmentSize().toBytes(),
+              config.getLogRetentionSize().toBytes(),
+              config.getLogRetentionAge(),
+              (int) config.getLogIndexInterval().toBytes());
+      environment.lifecycle().manage(new EventLogManager(eventLog));
+      retentionScheduler.scheduleWithFixedDelay(eventLog::enforceRetention, 1, 1, TimeUnit.MINUTES);
+    }
+
+    // optionally keep consuming into a compressed spool while there are
+    // no connections, which is drained when one is added
+    EventSpool spool = null;
+    if (config.getSpoolDirectory() != null) {
+      Path directory = Paths.get(config.getSpoolDirectory());
+      if (channel != null) {
+        directory = directory.resolve("channels").resolve(channel);
+      }
+      spool =
+          new EventSpool(
+              directory,
+              config.getSpoolSegmentSize().toBytes(),
+              config.getSpoolMaxSize().toBytes(),
+              config.getSpoolMaxAge());
+      environment.lifecycle().manage(new EventSpoolManager(spool));
+    }
+
+    return InstrumentedSseBroadcaster.builder()
+        .writerExecutor(writerService)
+        .queueSize(config.getQueueSize())
+        .overflowPolicy(config.getOverflowPolicy())
+        .history(new EventHistory(config.getHistorySize(), config.getHistoryMaxAge()))
+        .log(eventLog)
+        .acks(acks)
+        .spool(spool)
+        .build();
+  }
 }
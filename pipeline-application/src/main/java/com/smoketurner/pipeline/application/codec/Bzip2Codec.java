@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.codec;
+
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+public class Bzip2Codec implements Codec {
+
+  // "BZh", the block size from '1' to '9', then the magic of the first block
+  private static final byte[] MAGIC = {'B', 'Z', 'h', '9', 0x31, 0x41, 0x59, 0x26, 0x53, 0x59};
+  private static final int BLOCK_SIZE_OFFSET = 3;
+  // the magic of the end of stream, which follows the header of an empty stream
+  private static final byte[] END_OF_STREAM = {0x17, 0x72, 0x45, 0x38, 0x50, (byte) 0x90};
+
+  @Override
+  public String getName() {
+    return "bzip2";
+  }
+
+  @Override
+  public byte[] getMagic() {
+    return MAGIC.clone();
+  }
+
+  /**
+   * Match the whole stream header rather than just "BZh", so text which happens to start with it is
+   * not taken for bzip2
+   */
+  @Override
+  public boolean matches(final byte[] header, final int length) {
+    if (length < MAGIC.length) {
+      return false;
+    }
+    for (int i = 0; i < BLOCK_SIZE_OFFSET; i++) {
+      if (header[i] != MAGIC[i]) {
+        return false;
+      }
+    }
+    if (header[BLOCK_SIZE_OFFSET] < '1' || header[BLOCK_SIZE_OFFSET] > '9') {
+      return false;
+    }
+    boolean block = true;
+    boolean end = true;
+    for (int i = BLOCK_SIZE_OFFSET + 1; i < MAGIC.length; i++) {
+      block &= header[i] == MAGIC[i];
+      end &= header[i] == END_OF_STREAM[i - BLOCK_SIZE_OFFSET - 1];
+    }
+    return block || end;
+  }
+
+  @Override
+  public Set<String> getEncodings() {
+    return ImmutableSet.of("bzip2", "x-bzip2");
+  }
+
+  @Override
+  public Set<String> getExtensions() {
+    return ImmutableSet.of(".bz2");
+  }
+
+  @Override
+  public InputStream decode(final InputStream input) throws IOException {
+    return new BZip2CompressorInputStream(input, true);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+/** A streaming decompression format that can be recognised from an object's leading bytes. */
+public interface Codec {
+
+  /**
+   * Return the name of this codec, used in logs and metric names
+   *
+   * @return codec name
+   */
+  String getName();
+
+  /**
+   * Return the bytes every stream in this format starts with
+   *
+   * @return magic bytes
+   */
+  byte[] getMagic();
+
+  /**
+   * Does an object start with a stream in this format? By default its leading bytes must be the
+   * magic bytes, and a codec whose header has variable bytes must match it itself.
+   *
+   * @param header Leading bytes of the object, at least as many as {@link #getMagic()} if the
+   *     object is long enough
+   * @param length Number of valid bytes in {@code header}
+   * @return true if the object is in this format, otherwise false
+   */
+  default boolean matches(final byte[] header, final int length) {
+    final byte[] magic = getMagic();
+    if (magic.length == 0 || length < magic.length) {
+      return false;
+    }
+    for (int i = 0; i < magic.length; i++) {
+      if (header[i] != magic[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Return the Content-Encoding values that identify this format
+   *
+   * @return lower-case content encodings
+   */
+  Set<String> getEncodings();
+
+  /**
+   * Return the key suffixes that identify this format
+   *
+   * @return lower-case file extensions, including the leading dot
+   */
+  Set<String> getExtensions();
+
+  /**
+   * Wrap a compressed stream with a streaming decoder
+   *
+   * @param input Compressed input
+   * @return decompressed input
+   * @throws IOException if the stream header is invalid
+   */
+  InputStream decode(InputStream input) throws IOException;
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.codec;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Strings;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses a decompression codec for an S3 object. The leading bytes of the object are checked
+ * against each codec's magic bytes first, since producers do not always set metadata correctly. If
+ * none match, the Content-Encoding and then the key's extension are used. Objects that match
+ * nothing are read as-is.
+ */
+public class CodecRegistry {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CodecRegistry.class);
+  private static final String IDENTITY = "identity";
+  private final List<Codec> codecs = new CopyOnWriteArrayList<>();
+  private final Map<String, Meter> decompressedBytes = new ConcurrentHashMap<>();
+  private volatile int maxMagicLength = 0;
+
+  /** Constructor with all of the built-in codecs registered */
+  public CodecRegistry() {
+    this(
+        Arrays.asList(
+            new GzipCodec(), new ZstdCodec(), new Lz4Codec(), new SnappyCodec(), new Bzip2Codec()));
+  }
+
+  /**
+   * Constructor
+   *
+   * @param codecs Codecs to register
+   */
+  public CodecRegistry(@Nonnull final List<Codec> codecs) {
+    Objects.requireNonNull(codecs).forEach(this::register);
+  }
+
+  /**
+   * Register a codec, replacing any codec with the same name
+   *
+   * @param codec Codec to register
+   */
+  public synchronized void register(@Nonnull final Codec codec) {
+    Objects.requireNonNull(codec);
+    codecs.removeIf(c -> c.getName().equals(codec.getName()));
+    codecs.add(codec);
+    maxMagicLength = Math.max(maxMagicLength, codec.getMagic().length);
+  }
+
+  /**
+   * Find the codec for an object
+   *
+   * @param header Leading bytes of the object
+   * @param length Number of valid bytes in {@code header}
+   * @param encoding Content-Encoding of the object
+   * @param key Object key
+   * @return the codec, or empty if the object is not compressed in a known format
+   */
+  public Optional<Codec> detect(
+      @Nonnull final byte[] header,
+      final int length,
+      @Nullable final String encoding,
+      @Nullable final String key) {
+    for (Codec codec : codecs) {
+      if (codec.matches(header, length)) {
+        return Optional.of(codec);
+      }
+    }
+
+    final String contentEncoding = Strings.nullToEmpty(encoding).trim().toLowerCase(Locale.ROOT);
+    if (!contentEncoding.isEmpty()) {
+      for (Codec codec : codecs) {
+        if (codec.getEncodings().contains(contentEncoding)) {
+          return Optional.of(codec);
+        }
+      }
+    }
+
+    final String name = Strings.nullToEmpty(key).trim().toLowerCase(Locale.ROOT);
+    for (Codec codec : codecs) {
+      if (codec.getExtensions().stream().anyMatch(name::endsWith)) {
+        return Optional.of(codec);
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Wrap an object's stream with the decoder for its format
+   *
+   * @param input Raw object stream
+   * @param encoding Content-Encoding of the object
+   * @param key Object key
+   * @return decompressed stream
+   * @throws IOException if unable to read the object header
+   */
+  public InputStream decode(
+      @Nonnull final InputStream input, @Nullable final String encoding, @Nullable final String key)
+      throws IOException {
+    final int length = maxMagicLength;
+    final PushbackInputStream pushback = new PushbackInputStream(input, Math.max(1, length));
+
+    final byte[] header = new byte[length];
+    int read = 0;
+    while (read < length) {
+      final int n = pushback.read(header, read, length - read);
+      if (n < 0) {
+        break;
+      }
+      read += n;
+    }
+    pushback.unread(header, 0, read);
+
+    final Optional<Codec> codec = detect(header, read, encoding, key);
+    final String name = codec.map(Codec::getName).orElse(IDENTITY);
+    LOGGER.debug("Decoding key {} as {}", key, name);
+
+    final InputStream decoded = codec.isPresent() ? codec.get().decode(pushback) : pushback;
+    return new MeteredInputStream(decoded, meter(name));
+  }
+
+  private Meter meter(final String codec) {
+    return decompressedBytes.computeIfAbsent(
+        codec,
+        c ->
+            SharedMetricRegistries.getOrCreate("default")
+                .meter(name(CodecRegistry.class, c, "decompressed-bytes")));
+  }
+
+  /** Marks a meter with the number of bytes read, giving decompression throughput per codec. */
+  private static final class MeteredInputStream extends FilterInputStream {
+    private final Meter meter;
+
+    MeteredInputStream(final InputStream in, final Meter meter) {
+      super(in);
+      this.meter = meter;
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int b = super.read();
+      if (b >= 0) {
+        meter.mark();
+      }
+      return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      final int n = super.read(b, off, len);
+      if (n > 0) {
+        meter.mark(n);
+      }
+      return n;
+    }
+  }
+}
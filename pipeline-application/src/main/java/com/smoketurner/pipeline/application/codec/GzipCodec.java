@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.codec;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.smoketurner.pipeline.application.core.StreamingGZIPInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import javax.annotation.Nullable;
+
+/**
+ * Gzip codec. BGZF (blocked gzip) objects are inflated concurrently when an executor is configured;
+ * all other gzip objects, including ordinary multi-member files whose member boundaries cannot be
+ * found without inflating them, are decoded sequentially.
+ */
+public class GzipCodec implements Codec {
+
+  private static final byte[] MAGIC = {(byte) 0x1f, (byte) 0x8b};
+  @Nullable private final InflaterPool pool;
+  @Nullable private final ExecutorService executor;
+  private final int maxBlocksInFlight;
+
+  // metrics
+  private final Meter parallelStreams;
+
+  /** Constructor for sequential decoding with the JDK gzip decoder */
+  public GzipCodec() {
+    this(null, null, 1);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param pool Pool of inflaters and buffers, or null to use the JDK gzip decoder
+   * @param executor Executor service to inflate BGZF blocks on, or null to always decode
+   *     sequentially. Requires a pool.
+   * @param maxBlocksInFlight Maximum number of BGZF blocks to read ahead per object
+   */
+  public GzipCodec(
+      @Nullable final InflaterPool pool,
+      @Nullable final ExecutorService executor,
+      final int maxBlocksInFlight) {
+    Preconditions.checkArgument(
+        executor == null || pool != null, "an InflaterPool is required for parallel inflation");
+    this.pool = pool;
+    this.executor = executor;
+    this.maxBlocksInFlight = maxBlocksInFlight;
+    this.parallelStreams =
+        SharedMetricRegistries.getOrCreate("default")
+            .meter(name(GzipCodec.class, "parallel-streams"));
+  }
+
+  @Override
+  public String getName() {
+    return "gzip";
+  }
+
+  @Override
+  public byte[] getMagic() {
+    return MAGIC.clone();
+  }
+
+  @Override
+  public Set<String> getEncodings() {
+    return ImmutableSet.of("gzip", "x-gzip");
+  }
+
+  @Override
+  public Set<String> getExtensions() {
+    return ImmutableSet.of(".gz", ".gzip", ".bgz");
+  }
+
+  @Override
+  public InputStream decode(final InputStream input) throws IOException {
+    if (pool == null) {
+      return new StreamingGZIPInputStream(input);
+    }
+    if (executor == null) {
+      return new PooledGzipInputStream(input, pool);
+    }
+
+    final PushbackInputStream pushback =
+        new PushbackInputStream(input, ParallelBgzfInputStream.HEADER_LENGTH);
+    final byte[] header = new byte[ParallelBgzfInputStream.HEADER_LENGTH];
+    int read = 0;
+    while (read < header.length) {
+      final int n = pushback.read(header, read, header.length - read);
+      if (n < 0) {
+        break;
+      }
+      read += n;
+    }
+    pushback.unread(header, 0, read);
+
+    if (ParallelBgzfInputStream.isBgzf(header, read)) {
+      parallelStreams.mark();
+      return new ParallelBgzfInputStream(pushback, executor, pool, maxBlocksInFlight);
+    }
+    return new PooledGzipInputStream(pushback, pool);
+  }
+}
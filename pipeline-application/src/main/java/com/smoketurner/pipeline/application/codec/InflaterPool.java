@@ -0,0 +1,121 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.codec;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Preconditions;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Inflater;
+import javax.annotation.Nonnull;
+
+/**
+ * Pool of raw (nowrap) {@link Inflater} instances and their input/output buffers, so decoding an
+ * object does not allocate a new native zlib stream and fresh buffers every time. At most {@code
+ * maxPooled} entries are kept; extra entries are released when they are returned.
+ */
+public class InflaterPool {
+
+  private final int inputBufferSize;
+  private final int outputBufferSize;
+  private final BlockingQueue<Entry> pool;
+
+  // metrics
+  private final Counter createdInflaters;
+
+  /**
+   * Constructor
+   *
+   * @param inputBufferSize Size of the compressed input buffer in bytes
+   * @param outputBufferSize Size of the decompressed output buffer in bytes
+   * @param maxPooled Maximum number of idle entries to keep
+   */
+  public InflaterPool(final int inputBufferSize, final int outputBufferSize, final int maxPooled) {
+    Preconditions.checkArgument(inputBufferSize > 0, "inputBufferSize must be greater than zero");
+    Preconditions.checkArgument(outputBufferSize > 0, "outputBufferSize must be greater than zero");
+    Preconditions.checkArgument(maxPooled > 0, "maxPooled must be greater than zero");
+    this.inputBufferSize = inputBufferSize;
+    this.outputBufferSize = outputBufferSize;
+    this.pool = new ArrayBlockingQueue<>(maxPooled);
+
+    this.createdInflaters =
+        SharedMetricRegistries.getOrCreate("default")
+            .counter(name(InflaterPool.class, "created-inflaters"));
+  }
+
+  /**
+   * Take an idle entry from the pool, or create a new one if the pool is empty
+   *
+   * @return inflater and buffers
+   */
+  public Entry acquire() {
+    final Entry entry = pool.poll();
+    if (entry != null) {
+      return entry;
+    }
+    createdInflaters.inc();
+    return new Entry(new Inflater(true), new byte[inputBufferSize], new byte[outputBufferSize]);
+  }
+
+  /**
+   * Return an entry to the pool
+   *
+   * @param entry Entry previously returned by {@link #acquire()}
+   */
+  public void release(@Nonnull final Entry entry) {
+    Objects.requireNonNull(entry).inflater.reset();
+    if (!pool.offer(entry)) {
+      entry.inflater.end();
+    }
+  }
+
+  /**
+   * Return the number of idle entries in the pool
+   *
+   * @return idle entries
+   */
+  public int size() {
+    return pool.size();
+  }
+
+  public static final class Entry {
+    private final Inflater inflater;
+    private final byte[] input;
+    private final byte[] output;
+
+    Entry(final Inflater inflater, final byte[] input, final byte[] output) {
+      this.inflater = inflater;
+      this.input = input;
+      this.output = output;
+    }
+
+    public Inflater getInflater() {
+      return inflater;
+    }
+
+    public byte[] getInput() {
+      return input;
+    }
+
+    public byte[] getOutput() {
+      return output;
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.codec;
+
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+
+/** LZ4 frame format, as written by the lz4 command line tool. */
+public class Lz4Codec implements Codec {
+
+  private static final byte[] MAGIC = {(byte) 0x04, (byte) 0x22, (byte) 0x4d, (byte) 0x18};
+
+  @Override
+  public String getName() {
+    return "lz4";
+  }
+
+  @Override
+  public byte[] getMagic() {
+    return MAGIC.clone();
+  }
+
+  @Override
+  public Set<String> getEncodings() {
+    return ImmutableSet.of("lz4");
+  }
+
+  @Override
+  public Set<String> getExtensions() {
+    return ImmutableSet.of(".lz4");
+  }
+
+  @Override
+  public InputStream decode(final InputStream input) throws IOException {
+    return new FramedLZ4CompressorInputStream(input, true);
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.codec;
+
+import com.google.common.base.Preconditions;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Decompresses a BGZF (blocked gzip) stream by inflating its blocks concurrently. BGZF is a series
+ * of gzip members of at most 64 KB, each recording its compressed size in a "BC" extra field, so
+ * block boundaries are known without inflating anything. Compressed blocks are read on the calling
+ * thread, inflated on the executor and returned in order. At most {@code maxBlocksInFlight} blocks
+ * are buffered at once.
+ */
+@NotThreadSafe
+public class ParallelBgzfInputStream extends InputStream {
+
+  /** Length of a BGZF member header, including the "BC" extra subfield */
+  static final int HEADER_LENGTH = 18;
+
+  private static final int TRAILER_LENGTH = 8;
+  private static final int MAX_BLOCK_SIZE = 65536;
+  private final InputStream input;
+  private final ExecutorService executor;
+  private final InflaterPool pool;
+  private final int maxBlocksInFlight;
+  private final Deque<Future<byte[]>> blocks = new ArrayDeque<>();
+  private byte[] current = new byte[0];
+  private int position = 0;
+  private boolean eof = false;
+  private boolean closed = false;
+
+  /**
+   * Constructor
+   *
+   * @param input Compressed BGZF stream, positioned at the start of a block
+   * @param executor Executor service to inflate blocks on
+   * @param pool Pool to borrow inflaters from
+   * @param maxBlocksInFlight Maximum number of blocks to read ahead of the reader
+   */
+  public ParallelBgzfInputStream(
+      @Nonnull final InputStream input,
+      @Nonnull final ExecutorService executor,
+      @Nonnull final InflaterPool pool,
+      final int maxBlocksInFlight) {
+    Preconditions.checkArgument(
+        maxBlocksInFlight > 0, "maxBlocksInFlight must be greater than zero");
+    this.input = Objects.requireNonNull(input);
+    this.executor = Objects.requireNonNull(executor);
+    this.pool = Objects.requireNonNull(pool);
+    this.maxBlocksInFlight = maxBlocksInFlight;
+  }
+
+  /**
+   * Does this header start a BGZF block?
+   *
+   * @param header Leading bytes of the stream
+   * @param length Number of valid bytes in {@code header}
+   * @return true if the header has a BGZF "BC" extra subfield, otherwise false
+   */
+  public static boolean isBgzf(final byte[] header, final int length) {
+    return length >= HEADER_LENGTH
+        && (header[0] & 0xff) == 0x1f
+        && (header[1] & 0xff) == 0x8b
+        && header[2] == 8 // deflate
+        && (header[3] & 0x04) != 0 // FEXTRA
+        && unsignedShort(header, 10) == 6
+        && header[12] == 'B'
+        && header[13] == 'C'
+        && unsignedShort(header, 14) == 2;
+  }
+
+  @Override
+  public int read() throws IOException {
+    final byte[] b = new byte[1];
+    final int n = read(b, 0, 1);
+    return n < 0 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException {
+    Objects.checkFromIndexSize(off, len, b.length);
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (len == 0) {
+      return 0;
+    }
+
+    while (position >= current.length) {
+      fill();
+      final Future<byte[]> block = blocks.poll();
+      if (block == null) {
+        return -1;
+      }
+      current = await(block);
+      position = 0;
+    }
+
+    final int n = Math.min(len, current.length - position);
+    System.arraycopy(current, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return current.length - position;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    Future<byte[]> block;
+    while ((block = blocks.poll()) != null) {
+      block.cancel(true);
+    }
+    input.close();
+  }
+
+  /**
+   * Read compressed blocks and submit them for inflation until the read-ahead limit is reached
+   *
+   * @throws IOException if a block header is invalid or the stream is truncated
+   */
+  private void fill() throws IOException {
+    while (!eof && blocks.size() < maxBlocksInFlight) {
+      final byte[] header = new byte[HEADER_LENGTH];
+      final int read = readFully(header, 0, HEADER_LENGTH);
+      if (read == 0) {
+        eof = true;
+        return;
+      }
+      if (read < HEADER_LENGTH || !isBgzf(header, read)) {
+        throw new ZipException("Not in BGZF format");
+      }
+
+      final int blockSize = unsignedShort(header, 16) + 1;
+      if (blockSize < HEADER_LENGTH + TRAILER_LENGTH) {
+        throw new ZipException("Invalid BGZF block size: " + blockSize);
+      }
+
+      final byte[] block = new byte[blockSize];
+      System.arraycopy(header, 0, block, 0, HEADER_LENGTH);
+      if (readFully(block, HEADER_LENGTH, blockSize - HEADER_LENGTH) < blockSize - HEADER_LENGTH) {
+        throw new EOFException("Truncated BGZF block");
+      }
+      blocks.add(executor.submit(() -> inflate(block, pool)));
+    }
+  }
+
+  private int readFully(final byte[] b, final int off, final int len) throws IOException {
+    int read = 0;
+    while (read < len) {
+      final int n = input.read(b, off + read, len - read);
+      if (n < 0) {
+        break;
+      }
+      read += n;
+    }
+    return read;
+  }
+
+  /**
+   * Inflate one BGZF block and check its CRC
+   *
+   * @param block Complete gzip member
+   * @param pool Pool to borrow an inflater from
+   * @return uncompressed bytes
+   * @throws ZipException if the block is corrupt
+   */
+  static byte[] inflate(final byte[] block, final InflaterPool pool) throws ZipException {
+    final int trailer = block.length - TRAILER_LENGTH;
+    final long crc = unsignedInt(block, trailer);
+    final int size = (int) unsignedInt(block, trailer + 4);
+    if (size > MAX_BLOCK_SIZE) {
+      throw new ZipException("Invalid BGZF uncompressed size: " + size);
+    }
+
+    final byte[] output = new byte[size];
+    final InflaterPool.Entry entry = pool.acquire();
+    final Inflater inflater = entry.getInflater();
+    try {
+      inflater.setInput(block, HEADER_LENGTH, trailer - HEADER_LENGTH);
+      int inflated = 0;
+      while (inflated < size) {
+        final int n = inflater.inflate(output, inflated, size - inflated);
+        if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+          break;
+        }
+        inflated += n;
+      }
+      if (inflated != size) {
+        throw new ZipException("BGZF block inflated to " + inflated + " bytes, expected " + size);
+      }
+    } catch (DataFormatException e) {
+      throw new ZipException(e.getMessage());
+    } finally {
+      pool.release(entry);
+    }
+
+    final CRC32 checksum = new CRC32();
+    checksum.update(output, 0, size);
+    if (checksum.getValue() != crc) {
+      throw new ZipException("Corrupt BGZF block (CRC mismatch)");
+    }
+    return output;
+  }
+
+  private static byte[] await(final Future<byte[]> block) throws IOException {
+    try {
+      return block.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      block.cancel(true);
+      throw new InterruptedIOException("Interrupted waiting for BGZF block");
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException("Failed to inflate BGZF block", cause);
+    }
+  }
+
+  private static int unsignedShort(final byte[] b, final int off) {
+    return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8);
+  }
+
+  private static long unsignedInt(final byte[] b, final int off) {
+    return (unsignedShort(b, off) | ((long) unsignedShort(b, off + 2) << 16)) & 0xffffffffL;
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Gzip decoder that borrows its {@link Inflater} and buffers from an {@link InflaterPool} and
+ * returns them on close. Inflation writes into a large output buffer, so the native inflater is
+ * called once per buffer instead of once per small read. Like {@code StreamingGZIPInputStream},
+ * concatenated members are decoded until the underlying stream ends, without relying on {@code
+ * available()}.
+ */
+@NotThreadSafe
+public class PooledGzipInputStream extends InputStream {
+
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+  private final InputStream input;
+  private final InflaterPool pool;
+  private final CRC32 crc = new CRC32();
+  private InflaterPool.Entry entry;
+  private Inflater inflater;
+  private byte[] inBuffer;
+  private byte[] outBuffer;
+  private int inPos = 0;
+  private int inLimit = 0;
+  private int outPos = 0;
+  private int outLimit = 0;
+  private boolean eof = false;
+  private boolean closed = false;
+
+  /**
+   * Constructor
+   *
+   * @param input Compressed gzip stream
+   * @param pool Pool to borrow the inflater and buffers from
+   * @throws IOException if the stream does not start with a valid gzip header
+   */
+  public PooledGzipInputStream(@Nonnull final InputStream input, @Nonnull final InflaterPool pool)
+      throws IOException {
+    this.input = Objects.requireNonNull(input);
+    this.pool = Objects.requireNonNull(pool);
+    this.entry = pool.acquire();
+    this.inflater = entry.getInflater();
+    this.inBuffer = entry.getInput();
+    this.outBuffer = entry.getOutput();
+    try {
+      readHeader(readUByte());
+    } catch (IOException e) {
+      release();
+      throw e;
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    final byte[] b = new byte[1];
+    final int n = read(b, 0, 1);
+    return n < 0 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException {
+    Objects.checkFromIndexSize(off, len, b.length);
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (len == 0) {
+      return 0;
+    }
+
+    while (outPos >= outLimit) {
+      if (eof) {
+        return -1;
+      }
+      inflate();
+    }
+
+    final int n = Math.min(len, outLimit - outPos);
+    System.arraycopy(outBuffer, outPos, b, off, n);
+    outPos += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return outLimit - outPos;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    release();
+    input.close();
+  }
+
+  /**
+   * Inflate into the output buffer, moving on to the next member when the current one ends
+   *
+   * @throws IOException if the stream is corrupt or truncated
+   */
+  private void inflate() throws IOException {
+    if (inflater.needsInput()) {
+      if (inPos >= inLimit && !fill()) {
+        throw new EOFException("Unexpected end of ZLIB input stream");
+      }
+      inflater.setInput(inBuffer, inPos, inLimit - inPos);
+      inPos = inLimit;
+    }
+
+    final int n;
+    try {
+      n = inflater.inflate(outBuffer, 0, outBuffer.length);
+    } catch (DataFormatException e) {
+      throw new ZipException(e.getMessage());
+    }
+    crc.update(outBuffer, 0, n);
+    outPos = 0;
+    outLimit = n;
+
+    if (inflater.finished()) {
+      // whatever the inflater didn't consume belongs to the trailer
+      inPos = inLimit - inflater.getRemaining();
+      readTrailer();
+      final int next = readUByteOrEof();
+      if (next < 0) {
+        eof = true;
+        return;
+      }
+      try {
+        readHeader(next);
+      } catch (IOException e) {
+        // trailing garbage, which GZIPInputStream also treats as the end of the stream
+        eof = true;
+      }
+    } else if (n == 0 && inflater.needsDictionary()) {
+      throw new ZipException("Unexpected preset dictionary");
+    }
+  }
+
+  private void readHeader(final int first) throws IOException {
+    if (first != 0x1f || readUByte() != 0x8b) {
+      throw new ZipException("Not in GZIP format");
+    }
+    if (readUByte() != 8) {
+      throw new ZipException("Unsupported compression method");
+    }
+    final int flags = readUByte();
+    skip(6); // modification time, extra flags, operating system
+    if ((flags & FEXTRA) != 0) {
+      skip(readUByte() | (readUByte() << 8));
+    }
+    if ((flags & FNAME) != 0) {
+      while (readUByte() != 0) {}
+    }
+    if ((flags & FCOMMENT) != 0) {
+      while (readUByte() != 0) {}
+    }
+    if ((flags & FHCRC) != 0) {
+      skip(2);
+    }
+    inflater.reset();
+    crc.reset();
+  }
+
+  private void readTrailer() throws IOException {
+    final long expectedCrc = readUInt();
+    final long expectedSize = readUInt();
+    if (expectedCrc != crc.getValue()) {
+      throw new ZipException("Corrupt GZIP trailer");
+    }
+    if (expectedSize != (inflater.getBytesWritten() & 0xffffffffL)) {
+      throw new ZipException("Corrupt GZIP trailer");
+    }
+  }
+
+  private long readUInt() throws IOException {
+    final long low = readUByte() | (readUByte() << 8);
+    final long high = readUByte() | (readUByte() << 8);
+    return (high << 16) | low;
+  }
+
+  private void skip(final int n) throws IOException {
+    for (int i = 0; i < n; i++) {
+      readUByte();
+    }
+  }
+
+  private int readUByte() throws IOException {
+    final int b = readUByteOrEof();
+    if (b < 0) {
+      throw new EOFException();
+    }
+    return b;
+  }
+
+  private int readUByteOrEof() throws IOException {
+    if (inPos >= inLimit && !fill()) {
+      return -1;
+    }
+    return inBuffer[inPos++] & 0xff;
+  }
+
+  private boolean fill() throws IOException {
+    int n;
+    do {
+      n = input.read(inBuffer, 0, inBuffer.length);
+    } while (n == 0);
+    if (n < 0) {
+      return false;
+    }
+    inPos = 0;
+    inLimit = n;
+    return true;
+  }
+
+  private void release() {
+    if (entry != null) {
+      pool.release(entry);
+      entry = null;
+      inflater = null;
+      inBuffer = null;
+      outBuffer = null;
+    }
+  }
+}
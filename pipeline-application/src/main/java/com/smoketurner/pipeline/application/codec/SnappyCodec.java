@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.codec;
+
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import org.apache.commons.compress.compressors.snappy.FramedSnappyCompressorInputStream;
+
+/** Snappy framing format, the streaming variant of snappy. */
+public class SnappyCodec implements Codec {
+
+  private static final byte[] MAGIC = {
+    (byte) 0xff, 0x06, 0x00, 0x00, 0x73, 0x4e, 0x61, 0x50, 0x70, 0x59
+  };
+
+  @Override
+  public String getName() {
+    return "snappy";
+  }
+
+  @Override
+  public byte[] getMagic() {
+    return MAGIC.clone();
+  }
+
+  @Override
+  public Set<String> getEncodings() {
+    return ImmutableSet.of("snappy", "x-snappy-framed");
+  }
+
+  @Override
+  public Set<String> getExtensions() {
+    return ImmutableSet.of(".sz", ".snappy");
+  }
+
+  @Override
+  public InputStream decode(final InputStream input) throws IOException {
+    return new FramedSnappyCompressorInputStream(input);
+  }
+}
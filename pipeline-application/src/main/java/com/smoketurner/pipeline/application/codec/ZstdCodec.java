@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.codec;
+
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+
+public class ZstdCodec implements Codec {
+
+  private static final byte[] MAGIC = {(byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd};
+
+  @Override
+  public String getName() {
+    return "zstd";
+  }
+
+  @Override
+  public byte[] getMagic() {
+    return MAGIC.clone();
+  }
+
+  @Override
+  public Set<String> getEncodings() {
+    return ImmutableSet.of("zstd");
+  }
+
+  @Override
+  public Set<String> getExtensions() {
+    return ImmutableSet.of(".zst", ".zstd");
+  }
+
+  @Override
+  public InputStream decode(final InputStream input) throws IOException {
+    return new ZstdCompressorInputStream(input);
+  }
+}
@@ -34,6 +34,8 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.net.HostAndPort;
+import com.smoketurner.pipeline.application.core.AmazonS3ClientCache;
+import com.smoketurner.pipeline.application.managed.AmazonS3ClientCacheManager;
 import com.smoketurner.pipeline.application.managed.AmazonS3ClientManager;
 import com.smoketurner.pipeline.application.managed.AmazonSQSClientManager;
 import io.dropwizard.setup.Environment;
@@ -167,25 +169,51 @@ public class AwsConfiguration {
 
   @JsonIgnore
   public AmazonS3 buildS3(final Environment environment) {
+    final AmazonS3 s3 = buildS3(getProvider(), getClientConfiguration(), this.region);
+    environment.lifecycle().manage(new AmazonS3ClientManager(s3));
+    return s3;
+  }
+
+  /**
+   * Build a cache of S3 clients, one per region, which share the same credentials provider and
+   * client configuration. Clients for other regions are created the first time an object in that
+   * region is fetched.
+   *
+   * @param environment Environment
+   * @return S3 client cache
+   */
+  @JsonIgnore
+  public AmazonS3ClientCache buildS3ClientCache(final Environment environment) {
     final AWSCredentialsProvider provider = getProvider();
     final ClientConfiguration clientConfig = getClientConfiguration();
 
+    final AmazonS3 s3 = buildS3(provider, clientConfig, this.region);
+    environment.lifecycle().manage(new AmazonS3ClientManager(s3));
+
+    final AmazonS3ClientCache cache =
+        new AmazonS3ClientCache(s3, this.region, r -> buildS3(provider, clientConfig, r));
+    environment.lifecycle().manage(new AmazonS3ClientCacheManager(cache));
+    return cache;
+  }
+
+  private static AmazonS3 buildS3(
+      final AWSCredentialsProvider provider,
+      final ClientConfiguration clientConfig,
+      @Nullable final String regionName) {
     final AmazonS3ClientBuilder builder =
         AmazonS3ClientBuilder.standard()
             .withCredentials(provider)
             .withClientConfiguration(clientConfig);
 
-    if (!Strings.isNullOrEmpty(this.region)) {
-      final Region region = Region.getRegion(Regions.fromName(this.region));
+    if (!Strings.isNullOrEmpty(regionName)) {
+      final Region region = Region.getRegion(Regions.fromName(regionName));
       Preconditions.checkArgument(
           region.isServiceSupported("s3"), "S3 is not supported in " + region);
 
-      builder.withRegion(this.region);
+      builder.withRegion(regionName);
     }
 
-    final AmazonS3 s3 = builder.build();
-    environment.lifecycle().manage(new AmazonS3ClientManager(s3));
-    return s3;
+    return builder.build();
   }
 
   @JsonIgnore
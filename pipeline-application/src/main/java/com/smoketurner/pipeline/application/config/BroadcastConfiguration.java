@@ -0,0 +1,255 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.smoketurner.pipeline.application.core.OverflowPolicy;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import io.dropwizard.util.SizeUnit;
+import io.dropwizard.validation.MaxSize;
+import io.dropwizard.validation.MinDuration;
+import io.dropwizard.validation.MinSize;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+public class BroadcastConfiguration {
+
+  @Min(1)
+  @Max(1048576)
+  private int queueSize = 1024;
+
+  @NotNull private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+  @Min(0)
+  @Max(1048576)
+  private int historySize = 10000;
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.SECONDS)
+  private Duration historyMaxAge = Duration.minutes(5);
+
+  @Nullable private String logDirectory;
+
+  @NotNull
+  @MinSize(value = 1, unit = SizeUnit.MEGABYTES)
+  @MaxSize(value = 1, unit = SizeUnit.GIGABYTES)
+  private Size logSegmentSize = Size.megabytes(64);
+
+  @NotNull
+  @MinSize(value = 1, unit = SizeUnit.MEGABYTES)
+  private Size logRetentionSize = Size.gigabytes(4);
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.MINUTES)
+  private Duration logRetentionAge = Duration.hours(6);
+
+  @NotNull
+  @MinSize(value = 64, unit = SizeUnit.BYTES)
+  @MaxSize(value = 1, unit = SizeUnit.MEGABYTES)
+  private Size logIndexInterval = Size.kilobytes(4);
+
+  @Valid @NotNull private Map<String, ChannelConfiguration> channels = new LinkedHashMap<>();
+
+  @Nullable private String spoolDirectory;
+
+  @NotNull
+  @MinSize(value = 1, unit = SizeUnit.MEGABYTES)
+  private Size spoolSegmentSize = Size.megabytes(16);
+
+  @NotNull
+  @MinSize(value = 1, unit = SizeUnit.MEGABYTES)
+  private Size spoolMaxSize = Size.gigabytes(1);
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.MINUTES)
+  private Duration spoolMaxAge = Duration.hours(24);
+
+  @NotNull private List<String> requiredConsumers = new ArrayList<>();
+
+  @Min(1)
+  private int maxUnackedEvents = 100000;
+
+  @JsonProperty
+  public int getQueueSize() {
+    return queueSize;
+  }
+
+  @JsonProperty
+  public void setQueueSize(final int size) {
+    this.queueSize = size;
+  }
+
+  @JsonProperty
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  @JsonProperty
+  public void setOverflowPolicy(final OverflowPolicy policy) {
+    this.overflowPolicy = policy;
+  }
+
+  @JsonProperty
+  public int getHistorySize() {
+    return historySize;
+  }
+
+  @JsonProperty
+  public void setHistorySize(final int size) {
+    this.historySize = size;
+  }
+
+  @JsonProperty
+  public Duration getHistoryMaxAge() {
+    return historyMaxAge;
+  }
+
+  @JsonProperty
+  public void setHistoryMaxAge(final Duration maxAge) {
+    this.historyMaxAge = maxAge;
+  }
+
+  @Nullable
+  @JsonProperty
+  public String getLogDirectory() {
+    return logDirectory;
+  }
+
+  @JsonProperty
+  public void setLogDirectory(@Nullable final String directory) {
+    this.logDirectory = directory;
+  }
+
+  @JsonProperty
+  public Size getLogSegmentSize() {
+    return logSegmentSize;
+  }
+
+  @JsonProperty
+  public void setLogSegmentSize(final Size size) {
+    this.logSegmentSize = size;
+  }
+
+  @JsonProperty
+  public Size getLogRetentionSize() {
+    return logRetentionSize;
+  }
+
+  @JsonProperty
+  public void setLogRetentionSize(final Size size) {
+    this.logRetentionSize = size;
+  }
+
+  @JsonProperty
+  public Duration getLogRetentionAge() {
+    return logRetentionAge;
+  }
+
+  @JsonProperty
+  public void setLogRetentionAge(final Duration age) {
+    this.logRetentionAge = age;
+  }
+
+  @JsonProperty
+  public Size getLogIndexInterval() {
+    return logIndexInterval;
+  }
+
+  @JsonProperty
+  public void setLogIndexInterval(final Size interval) {
+    this.logIndexInterval = interval;
+  }
+
+  @JsonProperty
+  public Map<String, ChannelConfiguration> getChannels() {
+    return channels;
+  }
+
+  @JsonProperty
+  public void setChannels(final Map<String, ChannelConfiguration> channels) {
+    this.channels = channels;
+  }
+
+  @JsonProperty
+  @Nullable
+  public String getSpoolDirectory() {
+    return spoolDirectory;
+  }
+
+  @JsonProperty
+  public void setSpoolDirectory(@Nullable final String directory) {
+    this.spoolDirectory = directory;
+  }
+
+  @JsonProperty
+  public Size getSpoolSegmentSize() {
+    return spoolSegmentSize;
+  }
+
+  @JsonProperty
+  public void setSpoolSegmentSize(final Size size) {
+    this.spoolSegmentSize = size;
+  }
+
+  @JsonProperty
+  public Size getSpoolMaxSize() {
+    return spoolMaxSize;
+  }
+
+  @JsonProperty
+  public void setSpoolMaxSize(final Size size) {
+    this.spoolMaxSize = size;
+  }
+
+  @JsonProperty
+  public Duration getSpoolMaxAge() {
+    return spoolMaxAge;
+  }
+
+  @JsonProperty
+  public void setSpoolMaxAge(final Duration age) {
+    this.spoolMaxAge = age;
+  }
+
+  @JsonProperty
+  public List<String> getRequiredConsumers() {
+    return requiredConsumers;
+  }
+
+  @JsonProperty
+  public void setRequiredConsumers(final List<String> consumers) {
+    this.requiredConsumers = consumers;
+  }
+
+  @JsonProperty
+  public int getMaxUnackedEvents() {
+    return maxUnackedEvents;
+  }
+
+  @JsonProperty
+  public void setMaxUnackedEvents(final int events) {
+    this.maxUnackedEvents = events;
+  }
+}
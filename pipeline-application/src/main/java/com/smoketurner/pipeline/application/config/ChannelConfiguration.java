@@ -0,0 +1,48 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.ArrayList;
+import java.util.List;
+import javax.validation.constraints.NotNull;
+
+public class ChannelConfiguration {
+
+  @NotNull private List<String> buckets = new ArrayList<>();
+
+  @NotNull private List<String> keys = new ArrayList<>();
+
+  @JsonProperty
+  public List<String> getBuckets() {
+    return buckets;
+  }
+
+  @JsonProperty
+  public void setBuckets(final List<String> buckets) {
+    this.buckets = buckets;
+  }
+
+  @JsonProperty
+  public List<String> getKeys() {
+    return keys;
+  }
+
+  @JsonProperty
+  public void setKeys(final List<String> keys) {
+    this.keys = keys;
+  }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.config;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.InstrumentedExecutorService;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.smoketurner.pipeline.application.core.MessageProcessor;
+import io.dropwizard.lifecycle.ExecutorServiceManager;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import io.dropwizard.validation.MaxDuration;
+import io.dropwizard.validation.MinDuration;
+import io.dropwizard.validation.ValidationMethod;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ConsumerConfiguration {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConsumerConfiguration.class);
+
+  @Min(0)
+  @Max(256)
+  private int pollers = 1;
+
+  @Min(1)
+  @Max(256)
+  private int maxPollers = 32;
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.MILLISECONDS)
+  private Duration deleteFlushInterval = Duration.milliseconds(100);
+
+  @Min(1)
+  private int deleteMaxAttempts = 3;
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.SECONDS)
+  @MaxDuration(value = 12, unit = TimeUnit.HOURS)
+  private Duration visibilityTimeout = Duration.seconds(30);
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.SECONDS)
+  private Duration visibilityHeartbeat = Duration.seconds(10);
+
+  @Min(0)
+  @Max(16)
+  private int prefetchDepth = 1;
+
+  @Min(10)
+  private int maxInFlightMessages = 500;
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.MILLISECONDS)
+  private Duration minPollBackoff = Duration.milliseconds(100);
+
+  @NotNull
+  @MinDuration(value = 1, unit = TimeUnit.MILLISECONDS)
+  private Duration maxPollBackoff = Duration.seconds(20);
+
+  @Min(1)
+  @Max(4096)
+  private int processorThreads = 32;
+
+  @Min(1)
+  private int processorQueueSize = 100;
+
+  private boolean virtualThreads = false;
+
+  @Min(1)
+  @Max(64)
+  private int recordConcurrency = 1;
+
+  @JsonProperty
+  public int getPollers() {
+    return pollers;
+  }
+
+  @JsonProperty
+  public void setPollers(final int pollers) {
+    this.pollers = pollers;
+  }
+
+  @JsonProperty
+  public int getMaxPollers() {
+    return maxPollers;
+  }
+
+  @JsonProperty
+  public void setMaxPollers(final int maxPollers) {
+    this.maxPollers = maxPollers;
+  }
+
+  @JsonProperty
+  public Duration getDeleteFlushInterval() {
+    return deleteFlushInterval;
+  }
+
+  @JsonProperty
+  public void setDeleteFlushInterval(final Duration interval) {
+    this.deleteFlushInterval = interval;
+  }
+
+  @JsonProperty
+  public int getDeleteMaxAttempts() {
+    return deleteMaxAttempts;
+  }
+
+  @JsonProperty
+  public void setDeleteMaxAttempts(final int attempts) {
+    this.deleteMaxAttempts = attempts;
+  }
+
+  @JsonProperty
+  public Duration getVisibilityTimeout() {
+    return visibilityTimeout;
+  }
+
+  @JsonProperty
+  public void setVisibilityTimeout(final Duration timeout) {
+    this.visibilityTimeout = timeout;
+  }
+
+  @JsonProperty
+  public Duration getVisibilityHeartbeat() {
+    return visibilityHeartbeat;
+  }
+
+  @JsonProperty
+  public void setVisibilityHeartbeat(final Duration heartbeat) {
+    this.visibilityHeartbeat = heartbeat;
+  }
+
+  @JsonProperty
+  public int getPrefetchDepth() {
+    return prefetchDepth;
+  }
+
+  @JsonProperty
+  public void setPrefetchDepth(final int depth) {
+    this.prefetchDepth = depth;
+  }
+
+  @JsonProperty
+  public int getMaxInFlightMessages() {
+    return maxInFlightMessages;
+  }
+
+  @JsonProperty
+  public void setMaxInFlightMessages(final int messages) {
+    this.maxInFlightMessages = messages;
+  }
+
+  @JsonProperty
+  public Duration getMinPollBackoff() {
+    return minPollBackoff;
+  }
+
+  @JsonProperty
+  public void setMinPollBackoff(final Duration backoff) {
+    this.minPollBackoff = backoff;
+  }
+
+  @JsonProperty
+  public Duration getMaxPollBackoff() {
+    return maxPollBackoff;
+  }
+
+  @JsonProperty
+  public void setMaxPollBackoff(final Duration backoff) {
+    this.maxPollBackoff = backoff;
+  }
+
+  @JsonProperty
+  public int getProcessorThreads() {
+    return processorThreads;
+  }
+
+  @JsonProperty
+  public void setProcessorThreads(final int threads) {
+    this.processorThreads = threads;
+  }
+
+  @JsonProperty
+  public int getProcessorQueueSize() {
+    return processorQueueSize;
+  }
+
+  @JsonProperty
+  public void setProcessorQueueSize(final int size) {
+    this.processorQueueSize = size;
+  }
+
+  @JsonProperty
+  public boolean isVirtualThreads() {
+    return virtualThreads;
+  }
+
+  @JsonProperty
+  public void setVirtualThreads(final boolean virtualThreads) {
+    this.virtualThreads = virtualThreads;
+  }
+
+  @JsonProperty
+  public int getRecordConcurrency() {
+    return recordConcurrency;
+  }
+
+  @JsonProperty
+  public void setRecordConcurrency(final int concurrency) {
+    this.recordConcurrency = concurrency;
+  }
+
+  /**
+   * Build the executor that runs {@link MessageProcessor} work. By default this is a bounded pool
+   * of platform threads; when the queue is full the submitting poller processes the message itself,
+   * which applies back-pressure to SQS polling. Once the pool is shut down, submissions are
+   * rejected rather than discarded, so no poller waits on a task that will never run. If
+   * virtualThreads is enabled and the JVM supports them, each message runs on its own virtual
+   * thread instead.
+   *
+   * @param environment Environment
+   * @return instrumented executor service
+   */
+  @JsonIgnore
+  public ExecutorService buildProcessorExecutor(final Environment environment) {
+    final MetricRegistry registry = SharedMetricRegistries.getOrCreate("default");
+    final String prefix = name(MessageProcessor.class, "executor");
+
+    if (virtualThreads) {
+      try {
+        final ExecutorService executor =
+            (ExecutorService)
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        environment
+            .lifecycle()
+            .manage(new ExecutorServiceManager(executor, Duration.seconds(5), "processor"));
+        LOGGER.info("Processing messages on virtual threads");
+        return new InstrumentedExecutorService(executor, registry, prefix);
+      } catch (ReflectiveOperationException e) {
+        LOGGER.warn("Virtual threads are not supported by this JVM, using platform threads");
+      }
+    }
+
+    final Counter rejected = registry.counter(name(prefix, "rejected"));
+    final ThreadPoolExecutor executor =
+        (ThreadPoolExecutor)
+            environment
+                .lifecycle()
+                .executorService("processor-%d")
+                .minThreads(processorThreads)
+                .maxThreads(processorThreads)
+                .workQueue(new ArrayBlockingQueue<>(processorQueueSize))
+                .rejectedExecutionHandler(
+                    (runnable, pool) -> {
+                      rejected.inc();
+                      // unlike CallerRunsPolicy, never silently discard a task
+                      // once shut down, since the poller waits on its future
+                      if (pool.isShutdown()) {
+                        throw new RejectedExecutionException("Processor executor is shut down");
+                      }
+                      runnable.run();
+                    })
+                .build();
+
+    registry.register(
+        name(prefix, "queue-depth"),
+        new Gauge<Integer>() {
+          @Override
+          public Integer getValue() {
+            return executor.getQueue().size();
+          }
+        });
+    registry.register(
+        name(prefix, "active-threads"),
+        new Gauge<Integer>() {
+          @Override
+          public Integer getValue() {
+            return executor.getActiveCount();
+          }
+        });
+
+    return new InstrumentedExecutorService(executor, registry, prefix);
+  }
+
+  @JsonIgnore
+  @ValidationMethod(message = "pollers must not be greater than maxPollers")
+  public boolean isValidPollers() {
+    return pollers <= maxPollers;
+  }
+
+  @JsonIgnore
+  @ValidationMethod(message = "visibilityHeartbeat must be less than visibilityTimeout")
+  public boolean isValidVisibilityHeartbeat() {
+    return visibilityHeartbeat.toMilliseconds() < visibilityTimeout.toMilliseconds();
+  }
+
+  @JsonIgnore
+  @ValidationMethod(message = "minPollBackoff must not be greater than maxPollBackoff")
+  public boolean isValidPollBackoff() {
+    return minPollBackoff.toMilliseconds() <= maxPollBackoff.toMilliseconds();
+  }
+}
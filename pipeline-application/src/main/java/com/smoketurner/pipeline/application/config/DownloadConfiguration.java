@@ -0,0 +1,156 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Size;
+import io.dropwizard.util.SizeUnit;
+import io.dropwizard.validation.MaxSize;
+import io.dropwizard.validation.MinSize;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+public class DownloadConfiguration {
+
+  @NotNull
+  @MinSize(value = 1, unit = SizeUnit.MEGABYTES)
+  private Size rangedThreshold = Size.megabytes(64);
+
+  @NotNull
+  @MinSize(value = 1, unit = SizeUnit.MEGABYTES)
+  @MaxSize(value = 512, unit = SizeUnit.MEGABYTES)
+  private Size partSize = Size.megabytes(8);
+
+  @Min(1)
+  @Max(64)
+  private int rangeConcurrency = 4;
+
+  @Min(0)
+  @Max(100)
+  private int maxResumes = 3;
+
+  @Min(0)
+  @Max(256)
+  private int inflateThreads = 0;
+
+  @Min(1)
+  @Max(1024)
+  private int inflateReadAhead = 32;
+
+  @NotNull
+  @MinSize(value = 512, unit = SizeUnit.BYTES)
+  @MaxSize(value = 16, unit = SizeUnit.MEGABYTES)
+  private Size inflateInputBufferSize = Size.kilobytes(64);
+
+  @NotNull
+  @MinSize(value = 512, unit = SizeUnit.BYTES)
+  @MaxSize(value = 16, unit = SizeUnit.MEGABYTES)
+  private Size inflateOutputBufferSize = Size.kilobytes(64);
+
+  @Min(1)
+  private int inflaterPoolSize = 64;
+
+  @JsonProperty
+  public Size getRangedThreshold() {
+    return rangedThreshold;
+  }
+
+  @JsonProperty
+  public void setRangedThreshold(final Size threshold) {
+    this.rangedThreshold = threshold;
+  }
+
+  @JsonProperty
+  public Size getPartSize() {
+    return partSize;
+  }
+
+  @JsonProperty
+  public void setPartSize(final Size size) {
+    this.partSize = size;
+  }
+
+  @JsonProperty
+  public int getRangeConcurrency() {
+    return rangeConcurrency;
+  }
+
+  @JsonProperty
+  public void setRangeConcurrency(final int concurrency) {
+    this.rangeConcurrency = concurrency;
+  }
+
+  @JsonProperty
+  public int getMaxResumes() {
+    return maxResumes;
+  }
+
+  @JsonProperty
+  public void setMaxResumes(final int resumes) {
+    this.maxResumes = resumes;
+  }
+
+  @JsonProperty
+  public int getInflateThreads() {
+    return inflateThreads;
+  }
+
+  @JsonProperty
+  public void setInflateThreads(final int threads) {
+    this.inflateThreads = threads;
+  }
+
+  @JsonProperty
+  public int getInflateReadAhead() {
+    return inflateReadAhead;
+  }
+
+  @JsonProperty
+  public void setInflateReadAhead(final int blocks) {
+    this.inflateReadAhead = blocks;
+  }
+
+  @JsonProperty
+  public Size getInflateInputBufferSize() {
+    return inflateInputBufferSize;
+  }
+
+  @JsonProperty
+  public void setInflateInputBufferSize(final Size size) {
+    this.inflateInputBufferSize = size;
+  }
+
+  @JsonProperty
+  public Size getInflateOutputBufferSize() {
+    return inflateOutputBufferSize;
+  }
+
+  @JsonProperty
+  public void setInflateOutputBufferSize(final Size size) {
+    this.inflateOutputBufferSize = size;
+  }
+
+  @JsonProperty
+  public int getInflaterPoolSize() {
+    return inflaterPoolSize;
+  }
+
+  @JsonProperty
+  public void setInflaterPoolSize(final int size) {
+    this.inflaterPoolSize = size;
+  }
+}
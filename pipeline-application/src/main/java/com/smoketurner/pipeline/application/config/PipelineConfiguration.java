@@ -24,8 +24,29 @@ public class PipelineConfiguration extends Configuration {
 
   @Valid @NotNull private final AwsConfiguration aws = new AwsConfiguration();
 
+  @Valid @NotNull private final ConsumerConfiguration consumer = new ConsumerConfiguration();
+
+  @Valid @NotNull private final DownloadConfiguration download = new DownloadConfiguration();
+
+  @Valid @NotNull private final BroadcastConfiguration broadcast = new BroadcastConfiguration();
+
   @JsonProperty
   public AwsConfiguration getAws() {
     return aws;
   }
+
+  @JsonProperty
+  public ConsumerConfiguration getConsumer() {
+    return consumer;
+  }
+
+  @JsonProperty
+  public DownloadConfiguration getDownload() {
+    return download;
+  }
+
+  @JsonProperty
+  public BroadcastConfiguration getBroadcast() {
+    return broadcast;
+  }
 }
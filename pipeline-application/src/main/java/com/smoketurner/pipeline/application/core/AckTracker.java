@@ -0,0 +1,371 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Defers the deletion of processed SQS messages until every required consumer has acknowledged the
+ * events they produced. A required consumer is a named connection or consumer group; each of its
+ * connections acknowledges cumulatively, by event id, the events it was sent, and the ids it has
+ * not acknowledged are kept in an {@link AckWindow}. Connections acknowledge with a random token
+ * rather than their sequential id, so one client cannot acknowledge events sent to another.
+ *
+ * <p>Rather than tracking which events came from which message, each processed message records the
+ * last event id of each required consumer's broadcaster when it finished, which covers the events
+ * still waiting in the broadcaster's spool. Those bounds only increase, so processed messages wait
+ * in a FIFO queue, and the messages at its head are deleted once every required consumer's
+ * watermark (the id before its oldest unacknowledged event) has reached their bounds.
+ *
+ * <p>When a connection of a required consumer closes with unacknowledged events, or the consumer's
+ * last connection closes, the waiting messages and any being processed are released back to SQS to
+ * be delivered again.
+ */
+@ThreadSafe
+public class AckTracker {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AckTracker.class);
+  private final List<String> required;
+  private final Map<String, Set<Connection>> consumers;
+  private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+  private final Map<SseSubscriber, String> tokens = new ConcurrentHashMap<>();
+  private final int maxUnackedEvents;
+  private final AmazonSQSDeleteBatcher deleter;
+  private final AmazonSQSLeaseTracker leases;
+  private final AtomicLong failures = new AtomicLong(0);
+
+  @GuardedBy("this")
+  private final Deque<Pending> pending = new ArrayDeque<>();
+
+  @GuardedBy("this")
+  private long releasedFailures = 0;
+
+  // metrics
+  private final Meter acknowledgedMessages;
+  private final Meter releasedMessages;
+
+  /**
+   * Constructor
+   *
+   * @param required Names of the connections and consumer groups which must acknowledge every event
+   * @param maxUnackedEvents Maximum number of unacknowledged events per connection
+   * @param deleter Amazon SQS delete batcher
+   * @param leases Amazon SQS visibility lease tracker
+   */
+  public AckTracker(
+      @Nonnull final Collection<String> required,
+      final int maxUnackedEvents,
+      @Nonnull final AmazonSQSDeleteBatcher deleter,
+      @Nonnull final AmazonSQSLeaseTracker leases) {
+    Preconditions.checkArgument(!required.isEmpty(), "at least one required consumer is needed");
+    Preconditions.checkArgument(maxUnackedEvents > 0, "maxUnackedEvents must be greater than zero");
+    this.required = new ArrayList<>(required);
+    final ImmutableMap.Builder<String, Set<Connection>> builder = ImmutableMap.builder();
+    for (String consumer : this.required) {
+      builder.put(consumer, ConcurrentHashMap.newKeySet());
+    }
+    this.consumers = builder.build();
+    this.maxUnackedEvents = maxUnackedEvents;
+    this.deleter = Objects.requireNonNull(deleter);
+    this.leases = Objects.requireNonNull(leases);
+
+    final MetricRegistry registry = SharedMetricRegistries.getOrCreate("default");
+    this.acknowledgedMessages = registry.meter(name(AckTracker.class, "acknowledged-messages"));
+    this.releasedMessages = registry.meter(name(AckTracker.class, "released-messages"));
+    registry.gauge(name(AckTracker.class, "pending-messages"), () -> (Gauge<Integer>) this::size);
+  }
+
+  /**
+   * Must a consumer acknowledge the events it is sent?
+   *
+   * @param consumer Connection or consumer group name
+   * @return true if the consumer is required, otherwise false
+   */
+  public boolean isRequired(@Nullable final String consumer) {
+    return consumer != null && consumers.containsKey(consumer);
+  }
+
+  public int getMaxUnackedEvents() {
+    return maxUnackedEvents;
+  }
+
+  /**
+   * Start tracking a connection of a required consumer. This does not take the tracker's lock, so
+   * it may be called while holding the broadcaster's.
+   *
+   * @param consumer Required consumer name
+   * @param broadcaster Broadcaster the connection is subscribed to
+   * @param subscriber The connection
+   * @return the token the connection acknowledges events with
+   * @throws IllegalStateException if the consumer is connected to a different broadcaster
+   */
+  String register(
+      final String consumer,
+      final InstrumentedSseBroadcaster broadcaster,
+      final SseSubscriber subscriber) {
+    final Set<Connection> members = consumers.get(consumer);
+    final Connection connection = new Connection(consumer, broadcaster, subscriber);
+    synchronized (members) {
+      for (Connection member : members) {
+        if (member.broadcaster != broadcaster) {
+          throw new IllegalStateException(
+              "Consumer " + consumer + " is already connected to another channel");
+        }
+      }
+      members.add(connection);
+    }
+    final String token = UUID.randomUUID().toString();
+    connections.put(token, connection);
+    tokens.put(subscriber, token);
+    LOGGER.debug("Tracking acknowledgements of connection {} ({})", subscriber.getId(), consumer);
+    return token;
+  }
+
+  /**
+   * Stop tracking a closed connection. This does not take the tracker's lock, so it may be called
+   * while holding the broadcaster's.
+   *
+   * @param subscriber The closed connection
+   * @param unacked Number of events the connection did not acknowledge
+   */
+  void unregister(final SseSubscriber subscriber, final int unacked) {
+    final String token = tokens.remove(subscriber);
+    if (token == null) {
+      return;
+    }
+    final Connection connection = connections.remove(token);
+    final Set<Connection> members = consumers.get(connection.consumer);
+    final boolean last;
+    synchronized (members) {
+      members.remove(connection);
+      last = members.isEmpty();
+    }
+    if (unacked > 0 || last) {
+      LOGGER.warn(
+          "Connection {} of required consumer {} closed with {} unacknowledged events",
+          subscriber.getId(),
+          connection.consumer,
+          unacked);
+      failures.incrementAndGet();
+    }
+  }
+
+  /**
+   * Is every required consumer connected? Messages should only be processed while they are.
+   *
+   * @return true if every required consumer has a connection, otherwise false
+   */
+  public boolean isReady() {
+    synchronized (this) {
+      releaseIfFailed();
+    }
+    return allConnected();
+  }
+
+  /**
+   * Return the generation of the tracker, which changes whenever a required consumer loses events.
+   * Read it before processing a message, and pass it to {@link #await(Message, long)} afterwards.
+   *
+   * @return generation
+   */
+  public long getGeneration() {
+    return failures.get();
+  }
+
+  /**
+   * Wait for the events of a processed message to be acknowledged before deleting it. The message
+   * is released instead if a required consumer lost events, or was not connected, while it was
+   * being processed.
+   *
+   * @param message Processed message
+   * @param generation Generation read before the message was processed
+   */
+  public synchronized void await(@Nonnull final Message message, final long generation) {
+    releaseIfFailed();
+    final long[] bounds = new long[required.size()];
+    for (int i = 0; i < bounds.length; i++) {
+      final InstrumentedSseBroadcaster broadcaster = broadcasterOf(required.get(i));
+      if (broadcaster == null || generation != failures.get()) {
+        release(message);
+        return;
+      }
+      bounds[i] = broadcaster.getLastEventId();
+    }
+    pending.add(new Pending(message, bounds));
+    complete();
+  }
+
+  /**
+   * Acknowledge every event up to and including an event id on a connection
+   *
+   * @param token Connection token, as sent in its {@code subscribed} event
+   * @param eventId Last event id processed by the client
+   * @return true if the connection is tracked, otherwise false
+   */
+  public boolean acknowledge(@Nonnull final String token, final long eventId) {
+    final Connection connection = connections.get(token);
+    if (connection == null) {
+      return false;
+    }
+    connection.broadcaster.acknowledge(connection.subscriber, eventId);
+    synchronized (this) {
+      releaseIfFailed();
+      complete();
+    }
+    return true;
+  }
+
+  /**
+   * Return the number of processed messages waiting for acknowledgements
+   *
+   * @return number of pending messages
+   */
+  public synchronized int size() {
+    return pending.size();
+  }
+
+  /** Delete the messages at the head of the queue whose events have all been acknowledged */
+  @GuardedBy("this")
+  private void complete() {
+    long[] watermarks = null;
+    while (!pending.isEmpty()) {
+      if (watermarks == null) {
+        watermarks = new long[required.size()];
+        for (int i = 0; i < watermarks.length; i++) {
+          watermarks[i] = watermark(required.get(i));
+        }
+      }
+      final Pending head = pending.peek();
+      for (int i = 0; i < watermarks.length; i++) {
+        if (watermarks[i] < head.bounds[i]) {
+          return;
+        }
+      }
+      pending.poll();
+      acknowledgedMessages.mark();
+      leases.complete(head.message);
+      deleter.deleteMessage(head.message);
+    }
+  }
+
+  /** Release every pending message if a required consumer has lost events since the last check */
+  @GuardedBy("this")
+  private void releaseIfFailed() {
+    final long current = failures.get();
+    if (current == releasedFailures) {
+      return;
+    }
+    releasedFailures = current;
+    if (pending.isEmpty()) {
+      return;
+    }
+    final List<Message> messages = new ArrayList<>(pending.size());
+    for (Pending message : pending) {
+      messages.add(message.message);
+    }
+    pending.clear();
+    LOGGER.info("Releasing {} unacknowledged messages", messages.size());
+    releasedMessages.mark(messages.size());
+    leases.release(messages);
+  }
+
+  private void release(final Message message) {
+    releasedMessages.mark();
+    leases.release(Collections.singletonList(message));
+  }
+
+  /**
+   * Return the last event id up to which a consumer has acknowledged every event it was sent
+   *
+   * @param consumer Required consumer name
+   * @return watermark, or {@link Long#MIN_VALUE} if the consumer is not connected
+   */
+  private long watermark(final String consumer) {
+    long watermark = Long.MAX_VALUE;
+    for (Connection connection : consumers.get(consumer)) {
+      watermark = Math.min(watermark, connection.broadcaster.watermark(connection.subscriber));
+    }
+    return watermark == Long.MAX_VALUE ? Long.MIN_VALUE : watermark;
+  }
+
+  @Nullable
+  private InstrumentedSseBroadcaster broadcasterOf(final String consumer) {
+    for (Connection connection : consumers.get(consumer)) {
+      return connection.broadcaster;
+    }
+    return null;
+  }
+
+  private boolean allConnected() {
+    for (Set<Connection> members : consumers.values()) {
+      if (members.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static final class Connection {
+    private final String consumer;
+    private final InstrumentedSseBroadcaster broadcaster;
+    private final SseSubscriber subscriber;
+
+    Connection(
+        final String consumer,
+        final InstrumentedSseBroadcaster broadcaster,
+        final SseSubscriber subscriber) {
+      this.consumer = consumer;
+      this.broadcaster = broadcaster;
+      this.subscriber = subscriber;
+    }
+  }
+
+  private static final class Pending {
+    private final Message message;
+    private final long[] bounds;
+
+    Pending(final Message message, final long[] bounds) {
+      this.message = message;
+      this.bounds = bounds;
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import java.util.NoSuchElementException;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * The ids of the events sent to one connection which it has not acknowledged yet, in the order they
+ * were sent. Ids are kept in a growable ring buffer of primitive longs, so tracking an event costs
+ * eight bytes and a cumulative acknowledgement only advances the head of the ring.
+ */
+@NotThreadSafe
+public class AckWindow {
+
+  private static final int INITIAL_CAPACITY = 64;
+  private long[] ids = new long[INITIAL_CAPACITY];
+  private int head = 0;
+  private int size = 0;
+
+  /**
+   * Record an event sent to the connection
+   *
+   * @param id Event id, which must be greater than every id already in the window
+   */
+  public void add(final long id) {
+    if (size == ids.length) {
+      final long[] grown = new long[ids.length * 2];
+      final int tail = ids.length - head;
+      System.arraycopy(ids, head, grown, 0, tail);
+      System.arraycopy(ids, 0, grown, tail, head);
+      ids = grown;
+      head = 0;
+    }
+    ids[(head + size) % ids.length] = id;
+    size++;
+  }
+
+  /**
+   * Remove every event up to and including an acknowledged id
+   *
+   * @param id Cumulatively acknowledged event id
+   * @return number of events removed
+   */
+  public int acknowledge(final long id) {
+    int removed = 0;
+    while (size > 0 && ids[head] <= id) {
+      head = (head + 1) % ids.length;
+      size--;
+      removed++;
+    }
+    return removed;
+  }
+
+  /**
+   * Return the oldest unacknowledged event id
+   *
+   * @return event id
+   * @throws NoSuchElementException if every event has been acknowledged
+   */
+  public long first() {
+    if (size == 0) {
+      throw new NoSuchElementException();
+    }
+    return ids[head];
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return size;
+  }
+}
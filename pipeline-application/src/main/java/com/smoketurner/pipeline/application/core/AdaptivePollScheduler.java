@@ -0,0 +1,148 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.amazonaws.services.sqs.model.OverLimitException;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Preconditions;
+import io.dropwizard.util.Duration;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntSupplier;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides how long a poller should wait before its next receive request. A full batch, or a queue
+ * that still reports visible messages, is polled again immediately. Empty receives and SQS errors
+ * back off exponentially with full jitter between {@code minBackoff} and {@code maxBackoff}.
+ *
+ * <p>Each poller owns its own scheduler, so instances are not thread-safe.
+ */
+@NotThreadSafe
+public class AdaptivePollScheduler {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AdaptivePollScheduler.class);
+  private static final int MAX_SHIFT = 30;
+  private final long minBackoffMillis;
+  private final long maxBackoffMillis;
+  private final IntSupplier queuedMessages;
+  private int failures = 0;
+
+  // metrics
+  private final Histogram delays;
+  private final Meter immediatePolls;
+  private final Meter backoffs;
+
+  /**
+   * Constructor
+   *
+   * @param minBackoff Initial backoff after an empty receive or error
+   * @param maxBackoff Maximum backoff
+   * @param queuedMessages Approximate number of visible messages in the queue
+   */
+  public AdaptivePollScheduler(
+      @Nonnull final Duration minBackoff,
+      @Nonnull final Duration maxBackoff,
+      @Nonnull final IntSupplier queuedMessages) {
+    this.minBackoffMillis = Objects.requireNonNull(minBackoff).toMilliseconds();
+    this.maxBackoffMillis = Objects.requireNonNull(maxBackoff).toMilliseconds();
+    Preconditions.checkArgument(
+        minBackoffMillis > 0 && minBackoffMillis <= maxBackoffMillis,
+        "minBackoff must be greater than zero and not greater than maxBackoff");
+    this.queuedMessages = Objects.requireNonNull(queuedMessages);
+
+    final MetricRegistry registry = SharedMetricRegistries.getOrCreate("default");
+    this.delays = registry.histogram(name(AdaptivePollScheduler.class, "delays"));
+    this.immediatePolls = registry.meter(name(AdaptivePollScheduler.class, "immediate-polls"));
+    this.backoffs = registry.meter(name(AdaptivePollScheduler.class, "backoffs"));
+  }
+
+  /**
+   * Return the delay before the next receive after a batch of messages was received
+   *
+   * @param received Number of messages that were received
+   * @return delay in milliseconds
+   */
+  public long onReceive(final int received) {
+    if (received >= AmazonSQSIterator.MAX_NUMBER_OF_MESSAGES) {
+      // a full batch means there is likely more waiting
+      return immediate();
+    }
+
+    if (received > 0) {
+      failures = 0;
+      return queuedMessages.getAsInt() > 0 ? immediate() : record(minBackoffMillis);
+    }
+
+    if (queuedMessages.getAsInt() > 0) {
+      LOGGER.trace("Empty receive but messages are queued, polling again");
+      return immediate();
+    }
+    return backoff();
+  }
+
+  /**
+   * Return the delay before the next receive after a receive or processing error
+   *
+   * @param e Exception that was thrown
+   * @return delay in milliseconds
+   */
+  public long onError(@Nonnull final Exception e) {
+    if (e instanceof OverLimitException) {
+      // skip straight past the short backoffs when SQS is throttling us
+      failures = Math.max(failures, 3);
+    }
+    return backoff();
+  }
+
+  /**
+   * Return the current number of consecutive empty receives or errors
+   *
+   * @return consecutive failures
+   */
+  public int getFailures() {
+    return failures;
+  }
+
+  private long immediate() {
+    failures = 0;
+    immediatePolls.mark();
+    return record(0);
+  }
+
+  private long backoff() {
+    final int shift = Math.min(failures, MAX_SHIFT);
+    failures++;
+    final long ceiling = Math.min(maxBackoffMillis, minBackoffMillis << shift);
+    // "full jitter" keeps pollers from synchronizing their requests
+    final long delay = ThreadLocalRandom.current().nextLong(minBackoffMillis, ceiling + 1);
+    backoffs.mark();
+    return record(delay);
+  }
+
+  private long record(final long delay) {
+    delays.update(delay);
+    return delay;
+  }
+}
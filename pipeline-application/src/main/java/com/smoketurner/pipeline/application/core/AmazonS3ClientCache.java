@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.google.common.base.Strings;
+import java.io.Closeable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lazily creates one S3 client per region, so objects are fetched from the region their bucket
+ * lives in instead of through a redirect from the default region.
+ */
+public class AmazonS3ClientCache implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AmazonS3ClientCache.class);
+  private final AmazonS3 defaultClient;
+  @Nullable private final String defaultRegion;
+  @Nullable private final Function<String, AmazonS3> factory;
+  private final Map<String, AmazonS3> clients = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor for a cache that always returns the same client
+   *
+   * @param s3 Amazon S3 client
+   */
+  public AmazonS3ClientCache(@Nonnull final AmazonS3 s3) {
+    this(s3, null, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param defaultClient Client to use when no region is known or a region client fails to build
+   * @param defaultRegion Region of the default client
+   * @param factory Builds a client for a region name
+   */
+  public AmazonS3ClientCache(
+      @Nonnull final AmazonS3 defaultClient,
+      @Nullable final String defaultRegion,
+      @Nullable final Function<String, AmazonS3> factory) {
+    this.defaultClient = Objects.requireNonNull(defaultClient);
+    this.defaultRegion = defaultRegion;
+    this.factory = factory;
+  }
+
+  /**
+   * Return the client for a region, creating it on first use
+   *
+   * @param region Region name from the S3 event record
+   * @return Amazon S3 client
+   */
+  public AmazonS3 get(@Nullable final String region) {
+    if (factory == null || Strings.isNullOrEmpty(region) || region.equals(defaultRegion)) {
+      return defaultClient;
+    }
+    return clients.computeIfAbsent(region, this::build);
+  }
+
+  /**
+   * Build a client for a region, falling back to the default client if the region is unknown
+   *
+   * @param region Region name
+   * @return Amazon S3 client
+   */
+  private AmazonS3 build(final String region) {
+    try {
+      LOGGER.info("Creating S3 client for region: {}", region);
+      return factory.apply(region);
+    } catch (IllegalArgumentException e) {
+      LOGGER.warn("Unable to create S3 client for region {}, using default client", region, e);
+      return defaultClient;
+    }
+  }
+
+  /** Shut down the region clients. The default client is managed separately. */
+  @Override
+  public void close() {
+    clients.values().stream().filter(s3 -> s3 != defaultClient).forEach(AmazonS3::shutdown);
+    clients.clear();
+  }
+}
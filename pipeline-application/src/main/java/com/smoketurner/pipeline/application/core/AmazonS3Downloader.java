@@ -15,19 +15,29 @@
  */
 package com.smoketurner.pipeline.application.core;
 
+import static com.codahale.metrics.MetricRegistry.name;
+
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.event.S3EventNotification.S3EventNotificationRecord;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.smoketurner.pipeline.application.convert.AmazonS3ObjectConverter;
 import com.smoketurner.pipeline.application.exceptions.AmazonS3ConstraintException;
 import com.smoketurner.pipeline.application.exceptions.AmazonS3ZeroSizeException;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.slf4j.Logger;
@@ -36,10 +46,18 @@ import org.slf4j.LoggerFactory;
 public class AmazonS3Downloader {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(AmazonS3Downloader.class);
-  private static final String GZIP_ENCODING = "gzip";
-  private static final String GZIP_EXTENSION = ".gz";
   private final AmazonS3ObjectConverter converter = new AmazonS3ObjectConverter();
-  private final AmazonS3 s3;
+  private final AmazonS3ClientCache clients;
+  private final Map<String, Timer> requestTimers = new ConcurrentHashMap<>();
+  private final Map<String, Meter> requestErrors = new ConcurrentHashMap<>();
+  @Nullable private final ExecutorService rangeExecutor;
+  private final long rangedThreshold;
+  private final long partSize;
+  private final int rangeConcurrency;
+  private final int maxResumes;
+
+  // metrics
+  private final Meter rangedDownloads;
 
   /**
    * Constructor
@@ -47,7 +65,40 @@ public class AmazonS3Downloader {
    * @param s3 Amazon S3 client
    */
   public AmazonS3Downloader(@Nonnull final AmazonS3 s3) {
-    this.s3 = Objects.requireNonNull(s3);
+    this(new AmazonS3ClientCache(s3), null, Long.MAX_VALUE, Integer.MAX_VALUE, 1, 0);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param clients Amazon S3 clients by region
+   * @param rangeExecutor Executor service to download parts of large objects on
+   * @param rangedThreshold Objects of at least this many bytes are downloaded in parts
+   * @param partSize Size of each part in bytes
+   * @param rangeConcurrency Maximum number of parts of one object to download at once
+   * @param maxResumes Maximum number of times to resume a download after a network error
+   */
+  public AmazonS3Downloader(
+      @Nonnull final AmazonS3ClientCache clients,
+      @Nullable final ExecutorService rangeExecutor,
+      final long rangedThreshold,
+      final long partSize,
+      final int rangeConcurrency,
+      final int maxResumes) {
+    Preconditions.checkArgument(
+        partSize > 0 && partSize <= Integer.MAX_VALUE, "partSize must be between 1 and 2^31-1");
+    Preconditions.checkArgument(rangeConcurrency > 0, "rangeConcurrency must be greater than zero");
+    Preconditions.checkArgument(maxResumes >= 0, "maxResumes must not be negative");
+    this.clients = Objects.requireNonNull(clients);
+    this.rangeExecutor = rangeExecutor;
+    this.rangedThreshold = rangedThreshold;
+    this.partSize = partSize;
+    this.rangeConcurrency = rangeConcurrency;
+    this.maxResumes = maxResumes;
+
+    this.rangedDownloads =
+        SharedMetricRegistries.getOrCreate("default")
+            .meter(name(AmazonS3Downloader.class, "ranged-downloads"));
   }
 
   /**
@@ -68,15 +119,27 @@ public class AmazonS3Downloader {
         .getETag()
         .ifPresent(etag -> request.setMatchingETagConstraints(Collections.singletonList(etag)));
 
+    // large objects are downloaded as concurrent ranges, starting with the first part
+    final boolean ranged = rangeExecutor != null && object.getSize() >= rangedThreshold;
+    if (ranged) {
+      request.setRange(0, partSize - 1);
+    }
+
     LOGGER.debug("Fetching key: {}/{}", object.getBucketName(), object.getKey());
 
+    final String region =
+        Strings.isNullOrEmpty(object.getRegion()) ? "default" : object.getRegion();
+    final AmazonS3 s3 = clients.get(object.getRegion());
+
     final S3Object download;
-    try {
+    try (Timer.Context context = requestTimer(region).time()) {
       download = s3.getObject(request);
     } catch (AmazonServiceException e) {
+      requestErrors(region).mark();
       LOGGER.error("Service error while fetching object from S3", e);
       throw e;
     } catch (AmazonClientException e) {
+      requestErrors(region).mark();
       LOGGER.error("Client error while fetching object from S3", e);
       throw e;
     }
@@ -87,7 +150,10 @@ public class AmazonS3Downloader {
       throw new AmazonS3ConstraintException(object.getKey());
     }
 
-    final long contentLength = download.getObjectMetadata().getContentLength();
+    final long contentLength =
+        ranged
+            ? download.getObjectMetadata().getInstanceLength()
+            : download.getObjectMetadata().getContentLength();
     if (contentLength < 1) {
       try {
         download.close();
@@ -104,6 +170,20 @@ public class AmazonS3Downloader {
       throw new AmazonS3ZeroSizeException(object.getKey());
     }
 
+    if (ranged && contentLength > partSize) {
+      rangedDownloads.mark();
+      final AmazonS3RangedInputStream parts =
+          new AmazonS3RangedInputStream(
+              s3, rangeExecutor, download, partSize, rangeConcurrency, maxResumes);
+      download.setObjectContent(new S3ObjectInputStream(parts, null));
+      download.getObjectMetadata().setContentLength(contentLength);
+    } else if (maxResumes > 0 && download.getObjectContent() != null) {
+      // pick up where we left off if the connection fails part way through the object
+      final AmazonS3ResumableInputStream resumable =
+          new AmazonS3ResumableInputStream(s3, download, 0, contentLength - 1, maxResumes);
+      download.setObjectContent(new S3ObjectInputStream(resumable, null));
+    }
+
     LOGGER.debug(
         "Streaming key ({} bytes): {}/{}",
         contentLength,
@@ -113,24 +193,19 @@ public class AmazonS3Downloader {
     return download;
   }
 
-  /**
-   * Determine whether the object is gzipped or not by inspecting the ContentEncoding object
-   * property or whether the key ends in .gz
-   *
-   * @param object S3 object to inspect
-   * @return true if the file is gzipped, otherwise false
-   */
-  public static boolean isGZipped(@Nullable final S3Object object) {
-    if (object == null) {
-      return false;
-    }
-
-    final String encoding = Strings.nullToEmpty(object.getObjectMetadata().getContentEncoding());
-    if (GZIP_ENCODING.equalsIgnoreCase(encoding.trim())) {
-      return true;
-    }
+  private Timer requestTimer(final String region) {
+    return requestTimers.computeIfAbsent(
+        region,
+        r ->
+            SharedMetricRegistries.getOrCreate("default")
+                .timer(name(AmazonS3Downloader.class, "requests", r)));
+  }
 
-    final String key = Strings.nullToEmpty(object.getKey());
-    return key.trim().toLowerCase().endsWith(GZIP_EXTENSION);
+  private Meter requestErrors(final String region) {
+    return requestErrors.computeIfAbsent(
+        region,
+        r ->
+            SharedMetricRegistries.getOrCreate("default")
+                .meter(name(AmazonS3Downloader.class, "request-errors", r)));
   }
 }
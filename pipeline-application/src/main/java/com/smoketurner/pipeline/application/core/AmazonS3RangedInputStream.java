@@ -0,0 +1,294 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.smoketurner.pipeline.application.exceptions.AmazonS3ConstraintException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads an S3 object as a sequence of concurrent Range GETs, returning the bytes in order. The
+ * first part is read on the executor alongside the others, and at most {@code concurrency} parts
+ * are downloaded or buffered ahead of the part being read, so memory is bounded by {@code
+ * (concurrency + 1) * partSize}. Every part is pinned to the ETag (and version, if known) of the
+ * first part, so a concurrent overwrite of the key fails the stream instead of mixing versions.
+ */
+@NotThreadSafe
+public class AmazonS3RangedInputStream extends InputStream {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AmazonS3RangedInputStream.class);
+  private final AmazonS3 s3;
+  private final ExecutorService executor;
+  private final String bucketName;
+  private final String key;
+  @Nullable private final String versionId;
+  private final String eTag;
+  private final long length;
+  private final long partSize;
+  private final int concurrency;
+  private final int maxResumes;
+  private final Deque<Future<byte[]>> parts = new ArrayDeque<>();
+  private final Set<AmazonS3ResumableInputStream> downloads = ConcurrentHashMap.newKeySet();
+  private long nextOffset;
+  private byte[] current = new byte[0];
+  private int position = 0;
+  private volatile boolean closed = false;
+
+  // metrics
+  private final Meter rangedParts;
+
+  /**
+   * Constructor
+   *
+   * @param s3 Amazon S3 client
+   * @param executor Executor service to download parts on
+   * @param first Response to a Range GET for the first part of the object
+   * @param partSize Size of each part in bytes
+   * @param concurrency Maximum number of parts to download or buffer ahead of the reader
+   * @param maxResumes Maximum number of times to resume each part after a network error
+   */
+  public AmazonS3RangedInputStream(
+      @Nonnull final AmazonS3 s3,
+      @Nonnull final ExecutorService executor,
+      @Nonnull final S3Object first,
+      final long partSize,
+      final int concurrency,
+      final int maxResumes) {
+    Preconditions.checkArgument(partSize > 0, "partSize must be greater than zero");
+    Preconditions.checkArgument(concurrency > 0, "concurrency must be greater than zero");
+    this.s3 = Objects.requireNonNull(s3);
+    this.executor = Objects.requireNonNull(executor);
+    this.bucketName = first.getBucketName();
+    this.key = first.getKey();
+    this.versionId = first.getObjectMetadata().getVersionId();
+    this.eTag = first.getObjectMetadata().getETag();
+    this.length = first.getObjectMetadata().getInstanceLength();
+    this.partSize = partSize;
+    this.concurrency = concurrency;
+    this.maxResumes = maxResumes;
+
+    this.rangedParts =
+        SharedMetricRegistries.getOrCreate("default")
+            .meter(name(AmazonS3RangedInputStream.class, "ranged-parts"));
+
+    // the first part is read concurrently with the rest rather than before requesting them
+    final long firstEnd = first.getObjectMetadata().getContentLength() - 1;
+    try {
+      parts.add(executor.submit(() -> read(first, 0, firstEnd)));
+    } catch (RuntimeException e) {
+      first.getObjectContent().abort();
+      throw e;
+    }
+    this.nextOffset = firstEnd + 1;
+    fill();
+  }
+
+  /**
+   * Return the total length of the object being read
+   *
+   * @return object length in bytes
+   */
+  public long getLength() {
+    return length;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureAvailable()) {
+      return -1;
+    }
+    return current[position++] & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException {
+    Objects.checkFromIndexSize(off, len, b.length);
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureAvailable()) {
+      return -1;
+    }
+    final int n = Math.min(len, current.length - position);
+    System.arraycopy(current, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return closed ? 0 : current.length - position;
+  }
+
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    current = new byte[0];
+    Future<byte[]> part;
+    while ((part = parts.poll()) != null) {
+      part.cancel(true);
+    }
+    // cancelling does not stop a blocked socket read, so abort the connections too
+    for (AmazonS3ResumableInputStream download : downloads) {
+      download.abort();
+    }
+  }
+
+  /**
+   * Make sure the current part has unread bytes, waiting for the next part if necessary
+   *
+   * @return true if there are bytes to read, false at the end of the object
+   * @throws IOException if the stream is closed or a part failed to download
+   */
+  private boolean ensureAvailable() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    while (position >= current.length) {
+      final Future<byte[]> part = parts.poll();
+      if (part == null) {
+        return false;
+      }
+      current = await(part);
+      position = 0;
+      fill();
+    }
+    return true;
+  }
+
+  /** Start downloading parts until the read-ahead limit or the end of the object is reached. */
+  private void fill() {
+    while (parts.size() < concurrency && nextOffset < length) {
+      final long start = nextOffset;
+      final long end = Math.min(start + partSize, length) - 1;
+      parts.add(executor.submit(() -> download(start, end)));
+      nextOffset = end + 1;
+    }
+  }
+
+  /**
+   * Download one part of the object
+   *
+   * @param start First byte offset (inclusive)
+   * @param end Last byte offset (inclusive)
+   * @return bytes of the part
+   * @throws IOException if unable to download the part
+   */
+  private byte[] download(final long start, final long end) throws IOException {
+    final GetObjectRequest request = new GetObjectRequest(bucketName, key).withRange(start, end);
+    if (versionId != null) {
+      request.setVersionId(versionId);
+    }
+    if (eTag != null) {
+      request.setMatchingETagConstraints(Collections.singletonList(eTag));
+    }
+
+    LOGGER.trace("Fetching range {}-{} of key: {}/{}", start, end, bucketName, key);
+
+    final S3Object part = s3.getObject(request);
+    if (part == null) {
+      throw new IOException(
+          String.format("eTag changed during ranged download of key: %s/%s", bucketName, key),
+          new AmazonS3ConstraintException(key));
+    }
+
+    return read(part, start, end);
+  }
+
+  /**
+   * Read the body of a Range GET response, which is aborted if the stream is closed meanwhile
+   *
+   * @param part Response to the Range GET
+   * @param start First byte offset (inclusive)
+   * @param end Last byte offset (inclusive)
+   * @return bytes of the part
+   * @throws IOException if unable to read the part
+   */
+  private byte[] read(final S3Object part, final long start, final long end) throws IOException {
+    final AmazonS3ResumableInputStream input =
+        new AmazonS3ResumableInputStream(s3, part, start, end, maxResumes);
+    downloads.add(input);
+    try {
+      if (closed) {
+        // closed before the download was registered
+        input.abort();
+        throw new IOException("Stream closed");
+      }
+      final byte[] bytes = ByteStreams.toByteArray(input);
+      if (bytes.length != end - start + 1) {
+        throw new IOException(
+            String.format(
+                "Expected %d bytes but received %d for range %d-%d of key: %s/%s",
+                end - start + 1, bytes.length, start, end, bucketName, key));
+      }
+      rangedParts.mark();
+      return bytes;
+    } finally {
+      downloads.remove(input);
+      input.close();
+    }
+  }
+
+  /**
+   * Wait for a part to finish downloading
+   *
+   * @param part Pending part
+   * @return bytes of the part
+   * @throws IOException if the part failed to download
+   */
+  private static byte[] await(final Future<byte[]> part) throws IOException {
+    try {
+      return part.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      part.cancel(true);
+      throw new InterruptedIOException("Interrupted waiting for S3 part");
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException("Failed to download S3 part", cause);
+    }
+  }
+}
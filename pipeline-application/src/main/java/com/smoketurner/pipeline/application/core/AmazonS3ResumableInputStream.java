@@ -0,0 +1,251 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Preconditions;
+import com.smoketurner.pipeline.application.exceptions.AmazonS3ConstraintException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.Objects;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.apache.http.ConnectionClosedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads a byte range of an S3 object, tracking the current offset. If the connection fails part way
+ * through, a new Range GET is issued from the next unread byte, pinned to the same ETag and
+ * version, so the reader sees one uninterrupted stream and no bytes are read twice.
+ */
+@NotThreadSafe
+public class AmazonS3ResumableInputStream extends InputStream {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AmazonS3ResumableInputStream.class);
+  private final AmazonS3 s3;
+  private final String bucketName;
+  private final String key;
+  @Nullable private final String versionId;
+  @Nullable private final String eTag;
+  private final long end;
+  private final int maxResumes;
+  private volatile S3ObjectInputStream current;
+  private long offset;
+  private int resumes = 0;
+  private boolean closed = false;
+  private volatile boolean aborted = false;
+
+  // metrics
+  private final Meter resumedDownloads;
+
+  /**
+   * Constructor
+   *
+   * @param s3 Amazon S3 client
+   * @param download Response to a GET for the range starting at {@code start}
+   * @param start First byte offset of the range (inclusive)
+   * @param end Last byte offset of the range (inclusive)
+   * @param maxResumes Maximum number of times to resume the download after a failure
+   */
+  public AmazonS3ResumableInputStream(
+      @Nonnull final AmazonS3 s3,
+      @Nonnull final S3Object download,
+      final long start,
+      final long end,
+      final int maxResumes) {
+    Preconditions.checkArgument(start >= 0 && start <= end + 1, "invalid range");
+    Preconditions.checkArgument(maxResumes >= 0, "maxResumes must not be negative");
+    this.s3 = Objects.requireNonNull(s3);
+    this.bucketName = download.getBucketName();
+    this.key = download.getKey();
+    this.versionId = download.getObjectMetadata().getVersionId();
+    this.eTag = download.getObjectMetadata().getETag();
+    this.current = Objects.requireNonNull(download.getObjectContent());
+    this.offset = start;
+    this.end = end;
+    this.maxResumes = maxResumes;
+
+    this.resumedDownloads =
+        SharedMetricRegistries.getOrCreate("default")
+            .meter(name(AmazonS3ResumableInputStream.class, "resumed-downloads"));
+  }
+
+  /**
+   * Return the offset of the next byte to be read
+   *
+   * @return byte offset within the object
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * Return the number of times the download has been resumed
+   *
+   * @return number of resumes
+   */
+  public int getResumes() {
+    return resumes;
+  }
+
+  @Override
+  public int read() throws IOException {
+    final byte[] b = new byte[1];
+    final int n = read(b, 0, 1);
+    return n < 0 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException {
+    Objects.checkFromIndexSize(off, len, b.length);
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (len == 0) {
+      return 0;
+    }
+
+    while (true) {
+      if (offset > end) {
+        return -1;
+      }
+
+      final int n;
+      try {
+        n = current.read(b, off, (int) Math.min(len, end - offset + 1));
+      } catch (IOException e) {
+        resume(e, isTransient(e));
+        continue;
+      } catch (SdkClientException e) {
+        // the SDK wraps some read failures, such as a checksum mismatch
+        resume(new IOException(e.getMessage(), e), e.isRetryable());
+        continue;
+      }
+
+      if (n < 0) {
+        // the connection closed before the end of the range
+        resume(new EOFException("Unexpected end of stream at offset " + offset), true);
+        continue;
+      }
+      offset += n;
+      return n;
+    }
+  }
+
+  /**
+   * Abort the download, which may be called from another thread to fail a read in progress without
+   * draining the rest of the response
+   */
+  public void abort() {
+    aborted = true;
+    current.abort();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (offset <= end) {
+      // don't drain the rest of the response just to close the connection
+      current.abort();
+    } else {
+      current.close();
+    }
+  }
+
+  /**
+   * Reissue the GET from the current offset, or rethrow the failure if the download cannot be
+   * resumed.
+   *
+   * @param cause Failure that interrupted the download
+   * @param retryable Is the failure a network error that a new request may not hit?
+   * @throws IOException if the download cannot be resumed
+   */
+  private void resume(final IOException cause, final boolean retryable) throws IOException {
+    if (aborted || !retryable || resumes >= maxResumes) {
+      throw cause;
+    }
+    resumes++;
+
+    LOGGER.warn(
+        "Resuming key {}/{} at offset {} (attempt {} of {}): {}",
+        bucketName,
+        key,
+        offset,
+        resumes,
+        maxResumes,
+        cause.getMessage());
+    current.abort();
+
+    final GetObjectRequest request = new GetObjectRequest(bucketName, key).withRange(offset, end);
+    if (versionId != null) {
+      request.setVersionId(versionId);
+    }
+    if (eTag != null) {
+      request.setMatchingETagConstraints(Collections.singletonList(eTag));
+    }
+
+    final S3Object download;
+    try {
+      download = s3.getObject(request);
+    } catch (AmazonClientException e) {
+      cause.addSuppressed(e);
+      throw cause;
+    }
+
+    if (download == null) {
+      throw new IOException(
+          String.format("eTag changed while resuming key: %s/%s", bucketName, key),
+          new AmazonS3ConstraintException(key));
+    }
+
+    resumedDownloads.mark();
+    current = download.getObjectContent();
+    if (aborted) {
+      current.abort();
+      throw cause;
+    }
+  }
+
+  /**
+   * Should a failed read be retried from the current offset?
+   *
+   * @param e Read failure
+   * @return true if the connection was reset, closed early or timed out, otherwise false
+   */
+  private static boolean isTransient(final IOException e) {
+    return e instanceof SocketException
+        || e instanceof SocketTimeoutException
+        || e instanceof ConnectionClosedException;
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Preconditions;
+import io.dropwizard.util.Duration;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects processed SQS messages and deletes them with DeleteMessageBatch once ten messages are
+ * pending or the flush interval elapses, whichever comes first.
+ */
+public class AmazonSQSDeleteBatcher implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AmazonSQSDeleteBatcher.class);
+  private static final int MAX_BATCH_SIZE = 10;
+  private final AmazonSQS sqs;
+  private final String queueUrl;
+  private final int maxAttempts;
+  private final ScheduledFuture<?> flusher;
+
+  @GuardedBy("this")
+  private final List<PendingDelete> pending = new ArrayList<>();
+
+  // metrics
+  private final Counter batchRequests;
+  private final Counter deletedMessages;
+  private final Counter retriedMessages;
+  private final Counter failedMessages;
+  private final Histogram batchSizes;
+
+  /**
+   * Constructor
+   *
+   * @param sqs SQS client
+   * @param queueUrl Queue URL
+   * @param scheduler Scheduler used to periodically flush pending deletes
+   * @param flushInterval Maximum amount of time a delete waits for a full batch
+   * @param maxAttempts Maximum number of times to attempt deleting a message
+   */
+  public AmazonSQSDeleteBatcher(
+      @Nonnull final AmazonSQS sqs,
+      @Nonnull final String queueUrl,
+      @Nonnull final ScheduledExecutorService scheduler,
+      @Nonnull final Duration flushInterval,
+      final int maxAttempts) {
+    Preconditions.checkArgument(maxAttempts > 0, "maxAttempts must be greater than zero");
+    this.sqs = Objects.requireNonNull(sqs);
+    this.queueUrl = Objects.requireNonNull(queueUrl);
+    this.maxAttempts = maxAttempts;
+
+    final MetricRegistry registry = SharedMetricRegistries.getOrCreate("default");
+    this.batchRequests = registry.counter(name(AmazonSQSDeleteBatcher.class, "batch-requests"));
+    this.deletedMessages = registry.counter(name(AmazonSQSDeleteBatcher.class, "deleted-messages"));
+    this.retriedMessages = registry.counter(name(AmazonSQSDeleteBatcher.class, "retried-messages"));
+    this.failedMessages = registry.counter(name(AmazonSQSDeleteBatcher.class, "failed-messages"));
+    this.batchSizes = registry.histogram(name(AmazonSQSDeleteBatcher.class, "batch-sizes"));
+
+    final long interval = Objects.requireNonNull(flushInterval).toMilliseconds();
+    this.flusher =
+        scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Queue a message to be deleted from the SQS queue. If this fills a batch, the batch is deleted
+   * immediately on the calling thread.
+   *
+   * @param message Message handle to delete
+   * @return true if the message was queued for deletion, otherwise false
+   */
+  public boolean deleteMessage(@Nullable final Message message) {
+    if (message == null) {
+      return false;
+    }
+
+    LOGGER.debug("Queueing message for deletion from SQS: {}", message.getMessageId());
+
+    final List<PendingDelete> batch;
+    synchronized (this) {
+      pending.add(new PendingDelete(message));
+      if (pending.size() < MAX_BATCH_SIZE) {
+        return true;
+      }
+      batch = drain();
+    }
+
+    send(batch);
+    return true;
+  }
+
+  /**
+   * Delete all of the currently pending messages. Deletes that fail with a retryable error are
+   * attempted again on the next flush.
+   */
+  public void flush() {
+    final List<PendingDelete> deletes;
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        return;
+      }
+      deletes = new ArrayList<>(pending);
+      pending.clear();
+    }
+
+    try {
+      for (int i = 0; i < deletes.size(); i += MAX_BATCH_SIZE) {
+        send(deletes.subList(i, Math.min(i + MAX_BATCH_SIZE, deletes.size())));
+      }
+    } catch (Exception e) {
+      // never let an exception cancel the scheduled flush
+      LOGGER.error("Failed to flush pending SQS deletes", e);
+    }
+  }
+
+  /**
+   * Return the number of messages waiting to be deleted
+   *
+   * @return number of pending deletes
+   */
+  public synchronized int size() {
+    return pending.size();
+  }
+
+  /**
+   * Remove up to {@link #MAX_BATCH_SIZE} pending deletes
+   *
+   * @return batch of pending deletes
+   */
+  @GuardedBy("this")
+  private List<PendingDelete> drain() {
+    final List<PendingDelete> head = pending.subList(0, Math.min(MAX_BATCH_SIZE, pending.size()));
+    final List<PendingDelete> batch = new ArrayList<>(head);
+    head.clear();
+    return batch;
+  }
+
+  /**
+   * Delete a batch of messages, re-queuing any entries that failed with a retryable error.
+   *
+   * @param batch Messages to delete
+   */
+  private void send(final List<PendingDelete> batch) {
+    final List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      final PendingDelete delete = batch.get(i);
+      delete.attempts++;
+      entries.add(
+          new DeleteMessageBatchRequestEntry(String.valueOf(i), delete.message.getReceiptHandle()));
+    }
+
+    batchRequests.inc();
+    batchSizes.update(entries.size());
+
+    final DeleteMessageBatchResult result;
+    try {
+      result = sqs.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, entries));
+    } catch (Exception e) {
+      LOGGER.error("Failed to delete batch of " + entries.size() + " messages", e);
+      batch.forEach(this::retry);
+      return;
+    }
+
+    deletedMessages.inc(result.getSuccessful().size());
+
+    for (BatchResultErrorEntry error : result.getFailed()) {
+      final PendingDelete delete = batch.get(Integer.parseInt(error.getId()));
+      if (Boolean.TRUE.equals(error.getSenderFault())) {
+        // the receipt handle is invalid or has expired, retrying will not help
+        LOGGER.error(
+            "Unable to delete message {}: {} {}",
+            delete.message.getMessageId(),
+            error.getCode(),
+            error.getMessage());
+        failedMessages.inc();
+      } else {
+        retry(delete);
+      }
+    }
+  }
+
+  /**
+   * Re-queue a failed delete if it has not exceeded the maximum number of attempts
+   *
+   * @param delete Failed delete
+   */
+  private void retry(final PendingDelete delete) {
+    if (delete.attempts >= maxAttempts) {
+      LOGGER.error(
+          "Giving up deleting message {} after {} attempts",
+          delete.message.getMessageId(),
+          delete.attempts);
+      failedMessages.inc();
+      return;
+    }
+
+    LOGGER.debug("Retrying delete of message: {}", delete.message.getMessageId());
+    retriedMessages.inc();
+    synchronized (this) {
+      pending.add(delete);
+    }
+  }
+
+  @Override
+  public void close() {
+    flusher.cancel(false);
+    // retryable failures are re-queued, so keep flushing until they are exhausted
+    for (int attempt = 0; attempt < maxAttempts && size() > 0; attempt++) {
+      flush();
+    }
+  }
+
+  private static final class PendingDelete {
+    private final Message message;
+    private int attempts;
+
+    PendingDelete(final Message message) {
+      this.message = message;
+    }
+  }
+}
@@ -28,12 +28,14 @@ import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
-import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,17 +43,21 @@ public class AmazonSQSIterator implements Iterator<List<Message>>, Closeable {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(AmazonSQSIterator.class);
   private static final String NUM_MESSAGES_KEY = "ApproximateNumberOfMessages";
-  private static final int MAX_NUMBER_OF_MESSAGES = 10;
-  private static final int VISIBILITY_TIMEOUT_SECS = 10;
+  public static final int MAX_NUMBER_OF_MESSAGES = 10;
+  private static final int DEFAULT_VISIBILITY_TIMEOUT_SECS = 10;
   private static final int WAIT_TIME_SECS = 20;
+  private static final long NUM_MESSAGES_CACHE_SECS = 5;
   private final AmazonSQS sqs;
   private final String queueUrl;
+  private final int visibilityTimeoutSecs;
 
   // metrics
   private final Counter receiveRequests;
-  private final Counter deleteRequests;
   private final Histogram messageCounts;
   private final ReceiveMessageRequest request;
+  private final Supplier<Integer> numMessages =
+      Suppliers.memoizeWithExpiration(
+          this::getNumMessages, NUM_MESSAGES_CACHE_SECS, TimeUnit.SECONDS);
 
   private volatile boolean hasMore = true;
 
@@ -62,14 +68,26 @@ public class AmazonSQSIterator implements Iterator<List<Message>>, Closeable {
    * @param queueUrl Queue URL
    */
   public AmazonSQSIterator(final AmazonSQS sqs, final String queueUrl) {
+    this(sqs, queueUrl, DEFAULT_VISIBILITY_TIMEOUT_SECS);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param sqs SQS client
+   * @param queueUrl Queue URL
+   * @param visibilityTimeoutSecs Initial visibility timeout of received messages
+   */
+  public AmazonSQSIterator(
+      final AmazonSQS sqs, final String queueUrl, final int visibilityTimeoutSecs) {
 
     this.sqs = Objects.requireNonNull(sqs);
     this.queueUrl = Objects.requireNonNull(queueUrl);
+    this.visibilityTimeoutSecs = visibilityTimeoutSecs;
 
     final MetricRegistry registry = SharedMetricRegistries.getOrCreate("default");
 
     this.receiveRequests = registry.counter(name(AmazonSQSIterator.class, "receive-requests"));
-    this.deleteRequests = registry.counter(name(AmazonSQSIterator.class, "delete-requests"));
     this.messageCounts = registry.histogram(name(AmazonSQSIterator.class, "message-counts"));
 
     registry.register(
@@ -77,14 +95,14 @@ public class AmazonSQSIterator implements Iterator<List<Message>>, Closeable {
         new Gauge<Integer>() {
           @Override
           public Integer getValue() {
-            return getNumMessages();
+            return getApproximateNumberOfMessages();
           }
         });
 
     this.request =
         new ReceiveMessageRequest(queueUrl)
             .withMaxNumberOfMessages(MAX_NUMBER_OF_MESSAGES)
-            .withVisibilityTimeout(VISIBILITY_TIMEOUT_SECS)
+            .withVisibilityTimeout(visibilityTimeoutSecs)
             .withWaitTimeSeconds(WAIT_TIME_SECS);
 
     LOGGER.info("Using: {}", queueUrl);
@@ -101,7 +119,7 @@ public class AmazonSQSIterator implements Iterator<List<Message>>, Closeable {
         "Requesting {} messages from SQS (wait time={}, visibility timeout={})",
         MAX_NUMBER_OF_MESSAGES,
         WAIT_TIME_SECS,
-        VISIBILITY_TIMEOUT_SECS);
+        visibilityTimeoutSecs);
     receiveRequests.inc();
     final ReceiveMessageResult result = sqs.receiveMessage(request);
     final int numMessages = result.getMessages().size();
@@ -111,25 +129,13 @@ public class AmazonSQSIterator implements Iterator<List<Message>>, Closeable {
   }
 
   /**
-   * Delete a message from the SQS queue
+   * Return the approximate number of visible messages in an SQS queue. The value is cached for a
+   * few seconds so it can be consulted by every poller without adding SQS requests.
    *
-   * @param message Message handle to delete
-   * @return true if the delete was successful, otherwise false
+   * @return approximate number of visible messages
    */
-  public boolean deleteMessage(@Nullable final Message message) {
-    if (message == null) {
-      return false;
-    }
-
-    try {
-      LOGGER.debug("Deleting message from SQS: {}", message.getMessageId());
-      deleteRequests.inc();
-      sqs.deleteMessage(queueUrl, message.getReceiptHandle());
-      return true;
-    } catch (Exception e) {
-      LOGGER.error("Failed to delete message: " + message.getMessageId(), e);
-    }
-    return false;
+  public int getApproximateNumberOfMessages() {
+    return numMessages.get();
   }
 
   /**
@@ -144,7 +150,7 @@ public class AmazonSQSIterator implements Iterator<List<Message>>, Closeable {
               new GetQueueAttributesRequest(queueUrl).withAttributeNames(NUM_MESSAGES_KEY));
       final int count =
           Integer.parseInt(result.getAttributes().getOrDefault(NUM_MESSAGES_KEY, "0"));
-      LOGGER.info("Approximately {} messages in queue", count);
+      LOGGER.debug("Approximately {} messages in queue", count);
       return count;
     } catch (Exception e) {
       LOGGER.error("Unable to get approximate number of messages", e);
@@ -0,0 +1,345 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
+import io.dropwizard.util.Duration;
+import java.io.Closeable;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks in-flight SQS messages and periodically extends their visibility timeout with
+ * ChangeMessageVisibilityBatch while they are still being processed, so that slow S3 downloads are
+ * not redelivered to another poller.
+ */
+public class AmazonSQSLeaseTracker implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AmazonSQSLeaseTracker.class);
+  private static final int MAX_BATCH_SIZE = 10;
+
+  // SQS does not allow a message to remain invisible for more than 12 hours after it was received
+  private static final long MAX_LEASE_MILLIS = TimeUnit.HOURS.toMillis(12);
+  private final AmazonSQS sqs;
+  private final String queueUrl;
+  private final int visibilityTimeoutSecs;
+  private final long heartbeatMillis;
+  private final Clock clock;
+  private final ScheduledFuture<?> heartbeat;
+  private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+  // metrics
+  private final Counter extendedMessages;
+  private final Counter releasedMessages;
+  private final Counter expiredMessages;
+  private final Counter failedMessages;
+
+  /**
+   * Constructor
+   *
+   * @param sqs SQS client
+   * @param queueUrl Queue URL
+   * @param scheduler Scheduler used to run the visibility heartbeat
+   * @param visibilityTimeout Visibility timeout to apply to in-flight messages
+   * @param heartbeatInterval Interval between visibility extensions
+   */
+  public AmazonSQSLeaseTracker(
+      @Nonnull final AmazonSQS sqs,
+      @Nonnull final String queueUrl,
+      @Nonnull final ScheduledExecutorService scheduler,
+      @Nonnull final Duration visibilityTimeout,
+      @Nonnull final Duration heartbeatInterval) {
+    this(sqs, queueUrl, scheduler, visibilityTimeout, heartbeatInterval, Clock.systemUTC());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param sqs SQS client
+   * @param queueUrl Queue URL
+   * @param scheduler Scheduler used to run the visibility heartbeat
+   * @param visibilityTimeout Visibility timeout to apply to in-flight messages
+   * @param heartbeatInterval Interval between visibility extensions
+   * @param clock Clock used to track lease deadlines
+   */
+  public AmazonSQSLeaseTracker(
+      @Nonnull final AmazonSQS sqs,
+      @Nonnull final String queueUrl,
+      @Nonnull final ScheduledExecutorService scheduler,
+      @Nonnull final Duration visibilityTimeout,
+      @Nonnull final Duration heartbeatInterval,
+      @Nonnull final Clock clock) {
+    this.sqs = Objects.requireNonNull(sqs);
+    this.queueUrl = Objects.requireNonNull(queueUrl);
+    this.visibilityTimeoutSecs = (int) Objects.requireNonNull(visibilityTimeout).toSeconds();
+    this.heartbeatMillis = Objects.requireNonNull(heartbeatInterval).toMilliseconds();
+    Preconditions.checkArgument(
+        heartbeatMillis < visibilityTimeout.toMilliseconds(),
+        "heartbeatInterval must be less than visibilityTimeout");
+    this.clock = Objects.requireNonNull(clock);
+
+    final MetricRegistry registry = SharedMetricRegistries.getOrCreate("default");
+    this.extendedMessages =
+        registry.counter(name(AmazonSQSLeaseTracker.class, "extended-messages"));
+    this.releasedMessages =
+        registry.counter(name(AmazonSQSLeaseTracker.class, "released-messages"));
+    this.expiredMessages = registry.counter(name(AmazonSQSLeaseTracker.class, "expired-messages"));
+    this.failedMessages = registry.counter(name(AmazonSQSLeaseTracker.class, "failed-messages"));
+    registry.register(
+        name(AmazonSQSLeaseTracker.class, "in-flight-messages"),
+        new Gauge<Integer>() {
+          @Override
+          public Integer getValue() {
+            return size();
+          }
+        });
+
+    this.heartbeat =
+        scheduler.scheduleWithFixedDelay(
+            this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Return the visibility timeout applied to in-flight messages
+   *
+   * @return visibility timeout in seconds
+   */
+  public int getVisibilityTimeoutSecs() {
+    return visibilityTimeoutSecs;
+  }
+
+  /**
+   * Start tracking newly received messages
+   *
+   * @param messages Messages that were just received from SQS
+   */
+  public void track(@Nonnull final Collection<Message> messages) {
+    final long now = clock.millis();
+    final long deadline = now + TimeUnit.SECONDS.toMillis(visibilityTimeoutSecs);
+    for (Message message : messages) {
+      leases.put(message.getReceiptHandle(), new Lease(message, now, deadline));
+    }
+  }
+
+  /**
+   * Stop tracking a message that has been fully processed and is about to be deleted
+   *
+   * @param message Processed message
+   */
+  public void complete(@Nonnull final Message message) {
+    leases.remove(message.getReceiptHandle());
+  }
+
+  /**
+   * Stop tracking messages whose processing was abandoned and make them immediately visible to
+   * other consumers again.
+   *
+   * @param messages Abandoned messages
+   */
+  public void release(@Nonnull final Collection<Message> messages) {
+    final List<Message> released = new ArrayList<>(messages.size());
+    for (Message message : messages) {
+      final Lease lease = leases.remove(message.getReceiptHandle());
+      if (lease != null) {
+        lease.released = true;
+        released.add(message);
+      }
+    }
+    if (released.isEmpty()) {
+      return;
+    }
+
+    LOGGER.debug("Releasing {} messages back to SQS", released.size());
+    releasedMessages.inc(released.size());
+    for (List<Message> batch : Lists.partition(released, MAX_BATCH_SIZE)) {
+      changeVisibility(batch, 0);
+    }
+  }
+
+  /**
+   * Return the number of messages currently being tracked
+   *
+   * @return number of in-flight messages
+   */
+  public int size() {
+    return leases.size();
+  }
+
+  /**
+   * Extend the visibility of every in-flight message that would otherwise become visible before the
+   * next heartbeat has a chance to run.
+   */
+  @VisibleForTesting
+  void heartbeat() {
+    try {
+      final long now = clock.millis();
+      final long threshold = now + (2 * heartbeatMillis);
+      final long deadline = now + TimeUnit.SECONDS.toMillis(visibilityTimeoutSecs);
+
+      final List<Lease> expiring = new ArrayList<>();
+      for (Lease lease : leases.values()) {
+        if (lease.deadline > threshold) {
+          continue;
+        }
+        if (deadline - lease.received > MAX_LEASE_MILLIS) {
+          LOGGER.warn(
+              "Message {} has been in-flight for the maximum duration, no longer extending",
+              lease.message.getMessageId());
+          leases.remove(lease.message.getReceiptHandle());
+          expiredMessages.inc();
+          continue;
+        }
+        expiring.add(lease);
+      }
+
+      if (expiring.isEmpty()) {
+        return;
+      }
+
+      LOGGER.debug("Extending visibility of {} in-flight messages", expiring.size());
+      for (List<Lease> partition : Lists.partition(expiring, MAX_BATCH_SIZE)) {
+        // skip messages released since the leases were collected, so they stay visible
+        final List<Lease> batch = new ArrayList<>(partition.size());
+        for (Lease lease : partition) {
+          if (!lease.released) {
+            batch.add(lease);
+          }
+        }
+        if (batch.isEmpty()) {
+          continue;
+        }
+
+        final List<Message> messages = Lists.transform(batch, lease -> lease.message);
+        final Set<Integer> failed = changeVisibility(messages, visibilityTimeoutSecs);
+        extendedMessages.inc(batch.size() - failed.size());
+        // failed leases keep their old deadline, so the next heartbeat retries them
+        final List<Message> released = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+          final Lease lease = batch.get(i);
+          if (!failed.contains(i)) {
+            lease.deadline = deadline;
+            if (lease.released) {
+              released.add(lease.message);
+            }
+          }
+        }
+        // a message released while it was being extended may have been extended after its
+        // release, so make it visible again
+        if (!released.isEmpty()) {
+          changeVisibility(released, 0);
+        }
+      }
+    } catch (Exception e) {
+      // never let an exception cancel the scheduled heartbeat
+      LOGGER.error("Failed to extend message visibility", e);
+    }
+  }
+
+  /**
+   * Change the visibility timeout of a batch of messages
+   *
+   * @param batch Messages to change (at most ten)
+   * @param timeoutSecs New visibility timeout in seconds
+   * @return positions in the batch of the messages that could not be changed
+   */
+  private Set<Integer> changeVisibility(final List<Message> batch, final int timeoutSecs) {
+    final List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>(batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      entries.add(
+          new ChangeMessageVisibilityBatchRequestEntry(
+                  String.valueOf(i), batch.get(i).getReceiptHandle())
+              .withVisibilityTimeout(timeoutSecs));
+    }
+
+    final ChangeMessageVisibilityBatchResult result;
+    try {
+      result =
+          sqs.changeMessageVisibilityBatch(
+              new ChangeMessageVisibilityBatchRequest(queueUrl, entries));
+    } catch (Exception e) {
+      LOGGER.error("Failed to change visibility of " + entries.size() + " messages", e);
+      failedMessages.inc(entries.size());
+      return ContiguousSet.create(Range.closedOpen(0, entries.size()), DiscreteDomain.integers());
+    }
+
+    final Set<Integer> failed = new HashSet<>();
+    for (BatchResultErrorEntry error : result.getFailed()) {
+      final int position = Integer.parseInt(error.getId());
+      final Message message = batch.get(position);
+      failed.add(position);
+      LOGGER.warn(
+          "Unable to change visibility of message {}: {} {}",
+          message.getMessageId(),
+          error.getCode(),
+          error.getMessage());
+      if (Boolean.TRUE.equals(error.getSenderFault())) {
+        // the receipt handle is no longer valid, so stop tracking it
+        leases.remove(message.getReceiptHandle());
+      }
+    }
+    failedMessages.inc(failed.size());
+    return failed;
+  }
+
+  @Override
+  public void close() {
+    // messages still in-flight become visible again once their current timeout expires
+    heartbeat.cancel(false);
+  }
+
+  private static final class Lease {
+    private final Message message;
+    private final long received;
+    private volatile long deadline;
+    private volatile boolean released;
+
+    Lease(final Message message, final long received, final long deadline) {
+      this.message = message;
+      this.received = received;
+      this.deadline = deadline;
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Preconditions;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps up to {@code depth} SQS receive requests in flight ahead of the batch that is currently
+ * being processed, so that SQS latency overlaps with S3 streaming. Receive-ahead stops whenever the
+ * number of in-flight messages would exceed {@code maxInFlightMessages}.
+ *
+ * <p>Each poller owns its own prefetcher, so instances are not thread-safe.
+ */
+@NotThreadSafe
+public class AmazonSQSPrefetcher {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AmazonSQSPrefetcher.class);
+  private final AmazonSQSIterator sqs;
+  private final AmazonSQSLeaseTracker leases;
+  private final ExecutorService executor;
+  private final int depth;
+  private final int maxInFlightMessages;
+  private final Deque<Future<List<Message>>> pending = new ArrayDeque<>();
+
+  // metrics
+  private final Counter prefetchDepth;
+  private final Meter prefetchedMessages;
+  private final Meter throttledPrefetches;
+
+  /**
+   * Constructor
+   *
+   * @param sqs Amazon SQS iterator
+   * @param leases Amazon SQS visibility lease tracker
+   * @param executor Executor service to run receive-ahead requests on
+   * @param depth Maximum number of receive requests to keep in flight ahead of processing
+   * @param maxInFlightMessages Maximum number of received but unprocessed messages
+   */
+  public AmazonSQSPrefetcher(
+      @Nonnull final AmazonSQSIterator sqs,
+      @Nonnull final AmazonSQSLeaseTracker leases,
+      @Nonnull final ExecutorService executor,
+      final int depth,
+      final int maxInFlightMessages) {
+    Preconditions.checkArgument(depth >= 0, "depth must not be negative");
+    this.sqs = Objects.requireNonNull(sqs);
+    this.leases = Objects.requireNonNull(leases);
+    this.executor = Objects.requireNonNull(executor);
+    this.depth = depth;
+    this.maxInFlightMessages = maxInFlightMessages;
+
+    final MetricRegistry registry = SharedMetricRegistries.getOrCreate("default");
+    this.prefetchDepth = registry.counter(name(AmazonSQSPrefetcher.class, "prefetch-depth"));
+    this.prefetchedMessages =
+        registry.meter(name(AmazonSQSPrefetcher.class, "prefetched-messages"));
+    this.throttledPrefetches =
+        registry.meter(name(AmazonSQSPrefetcher.class, "throttled-prefetches"));
+  }
+
+  /**
+   * Return the next batch of messages, receiving them synchronously if no receive-ahead request is
+   * outstanding, then start receiving the following batches in the background.
+   *
+   * @return next batch of received messages
+   */
+  public List<Message> next() {
+    final List<Message> messages;
+    final Future<List<Message>> head = pending.poll();
+    if (head == null) {
+      messages = receive();
+    } else {
+      prefetchDepth.dec();
+      messages = await(head);
+      prefetchedMessages.mark(messages.size());
+    }
+
+    fill();
+    return messages;
+  }
+
+  /**
+   * Wait for any outstanding receive-ahead requests and release their messages back to SQS. This is
+   * called when messages can no longer be processed, such as when there are no consumers connected
+   * or the poller is stopping.
+   */
+  public void drain() {
+    Future<List<Message>> future;
+    while ((future = pending.poll()) != null) {
+      prefetchDepth.dec();
+      try {
+        leases.release(await(future));
+      } catch (Exception e) {
+        LOGGER.debug("Receive-ahead request failed while draining", e);
+      }
+    }
+  }
+
+  /**
+   * Return the number of receive-ahead requests currently outstanding
+   *
+   * @return number of batches received ahead of processing
+   */
+  public int depth() {
+    return pending.size();
+  }
+
+  /** Start receive-ahead requests until the depth or in-flight message limit is reached. */
+  private void fill() {
+    while (pending.size() < depth) {
+      final int inFlight =
+          leases.size() + (pending.size() * AmazonSQSIterator.MAX_NUMBER_OF_MESSAGES);
+      if (inFlight + AmazonSQSIterator.MAX_NUMBER_OF_MESSAGES > maxInFlightMessages) {
+        LOGGER.trace("{} messages in-flight, not receiving ahead", inFlight);
+        throttledPrefetches.mark();
+        return;
+      }
+      pending.add(executor.submit(this::receive));
+      prefetchDepth.inc();
+    }
+  }
+
+  /**
+   * Receive a batch of messages and start tracking their visibility
+   *
+   * @return received messages
+   */
+  private List<Message> receive() {
+    final List<Message> messages = sqs.next();
+    leases.track(messages);
+    return messages;
+  }
+
+  /**
+   * Wait for a receive-ahead request to complete, re-throwing any receive failure
+   *
+   * @param future Receive-ahead request
+   * @return received messages
+   */
+  private static List<Message> await(final Future<List<Message>> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      future.cancel(true);
+      throw new IllegalStateException("Interrupted waiting for SQS messages", e);
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException("Failed to receive SQS messages", cause);
+    }
+  }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import com.google.common.base.Preconditions;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Routes the events of each S3 object to the broadcaster of every channel whose rules match the
+ * object's bucket and key, in addition to the broadcaster of all events.
+ *
+ * <p>A channel rule is either a key prefix, such as {@code logs/2019/}, or a glob that must match
+ * the whole key, such as {@code logs/*&#47;app-*.gz}. In a glob, {@code *} matches any characters
+ * except {@code /}, {@code **} matches any characters and {@code ?} matches one character except
+ * {@code /}. The rules are compiled into a prefix trie per bucket, with each glob stored under its
+ * literal prefix, so routing a key walks the trie once and only evaluates the globs whose prefix
+ * the key starts with.
+ */
+@ThreadSafe
+public class ChannelRouter {
+
+  private final InstrumentedSseBroadcaster broadcaster;
+  private final Map<String, InstrumentedSseBroadcaster> channels = new LinkedHashMap<>();
+  private final List<InstrumentedSseBroadcaster> targets = new ArrayList<>();
+  private final Map<String, Node> buckets = new HashMap<>();
+  private final Node anyBucket = new Node();
+
+  /**
+   * Constructor
+   *
+   * @param broadcaster SSE broadcaster of all events
+   */
+  public ChannelRouter(@Nonnull final InstrumentedSseBroadcaster broadcaster) {
+    this(broadcaster, Collections.emptyList());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param broadcaster SSE broadcaster of all events
+   * @param channels Named channels and their rules
+   */
+  public ChannelRouter(
+      @Nonnull final InstrumentedSseBroadcaster broadcaster,
+      @Nonnull final Collection<Channel> channels) {
+    this.broadcaster = Objects.requireNonNull(broadcaster);
+    for (Channel channel : channels) {
+      Preconditions.checkArgument(
+          !this.channels.containsKey(channel.name), "duplicate channel: %s", channel.name);
+      this.channels.put(channel.name, channel.broadcaster);
+
+      final int target = targets.size();
+      targets.add(channel.broadcaster);
+
+      final List<String> keys =
+          channel.keys.isEmpty() ? Collections.singletonList("") : channel.keys;
+      if (channel.buckets.isEmpty()) {
+        for (String key : keys) {
+          anyBucket.insert(key, target);
+        }
+      } else {
+        for (String bucket : channel.buckets) {
+          final Node root = buckets.computeIfAbsent(bucket, b -> new Node());
+          for (String key : keys) {
+            root.insert(key, target);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Return the broadcaster of all events
+   *
+   * @return SSE broadcaster
+   */
+  public InstrumentedSseBroadcaster getBroadcaster() {
+    return broadcaster;
+  }
+
+  /**
+   * Return the broadcaster of a channel
+   *
+   * @param name Channel name
+   * @return SSE broadcaster, or null if there is no such channel
+   */
+  @Nullable
+  public InstrumentedSseBroadcaster getChannel(final String name) {
+    return channels.get(name);
+  }
+
+  /**
+   * Return the broadcasters to send the events of an S3 object to
+   *
+   * @param bucket Bucket name
+   * @param key Object key
+   * @return the broadcaster of all events, followed by the broadcaster of each matching channel
+   */
+  public List<InstrumentedSseBroadcaster> route(final String bucket, final String key) {
+    if (targets.isEmpty()) {
+      return Collections.singletonList(broadcaster);
+    }
+
+    final boolean[] matched = new boolean[targets.size()];
+    anyBucket.match(key, matched);
+    final Node root = buckets.get(bucket);
+    if (root != null) {
+      root.match(key, matched);
+    }
+
+    final List<InstrumentedSseBroadcaster> routes = new ArrayList<>(targets.size() + 1);
+    routes.add(broadcaster);
+    for (int i = 0; i < matched.length; i++) {
+      if (matched[i]) {
+        routes.add(targets.get(i));
+      }
+    }
+    return routes;
+  }
+
+  /**
+   * Do we have any connections on any channel?
+   *
+   * @return true if no broadcaster has any connections, otherwise false
+   */
+  public boolean isEmpty() {
+    if (!broadcaster.isEmpty()) {
+      return false;
+    }
+    for (InstrumentedSseBroadcaster target : targets) {
+      if (!target.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Will any broadcaster accept events, because it has connections or spools events until it does?
+   *
+   * @return true if any broadcaster is accepting events, otherwise false
+   */
+  public boolean isAccepting() {
+    if (broadcaster.isAccepting()) {
+      return true;
+    }
+    for (InstrumentedSseBroadcaster target : targets) {
+      if (target.isAccepting()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Send a ping event to all connected consumers of every channel */
+  public void ping() {
+    broadcaster.ping();
+    for (InstrumentedSseBroadcaster target : targets) {
+      target.ping();
+    }
+  }
+
+  /**
+   * Return the length of the literal prefix of a rule
+   *
+   * @param rule Key prefix or glob
+   * @return index of the first wildcard, or the length of the rule if it has none
+   */
+  static int literalLength(final String rule) {
+    for (int i = 0; i < rule.length(); i++) {
+      final char c = rule.charAt(i);
+      if (c == '*' || c == '?') {
+        return i;
+      }
+    }
+    return rule.length();
+  }
+
+  /**
+   * Compile a glob into a regular expression which matches whole keys
+   *
+   * @param glob Glob to compile
+   * @return the compiled pattern
+   */
+  static Pattern compileGlob(final String glob) {
+    final StringBuilder regex = new StringBuilder();
+    int literal = 0;
+    for (int i = 0; i < glob.length(); i++) {
+      final char c = glob.charAt(i);
+      if (c != '*' && c != '?') {
+        continue;
+      }
+      if (literal < i) {
+        regex.append(Pattern.quote(glob.substring(literal, i)));
+      }
+      if (c == '?') {
+        regex.append("[^/]");
+      } else if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+        regex.append(".*");
+        i++;
+      } else {
+        regex.append("[^/]*");
+      }
+      literal = i + 1;
+    }
+    if (literal < glob.length()) {
+      regex.append(Pattern.quote(glob.substring(literal)));
+    }
+    return Pattern.compile(regex.toString(), Pattern.DOTALL);
+  }
+
+  /** A named channel and the rules selecting its objects */
+  public static final class Channel {
+    private final String name;
+    private final List<String> buckets;
+    private final List<String> keys;
+    private final InstrumentedSseBroadcaster broadcaster;
+
+    /**
+     * Constructor
+     *
+     * @param name Channel name
+     * @param buckets Buckets to match, or empty to match every bucket
+     * @param keys Key prefixes or globs to match, or empty to match every key
+     * @param broadcaster SSE broadcaster of the channel
+     */
+    public Channel(
+        @Nonnull final String name,
+        @Nonnull final Collection<String> buckets,
+        @Nonnull final Collection<String> keys,
+        @Nonnull final InstrumentedSseBroadcaster broadcaster) {
+      this.name = Objects.requireNonNull(name);
+      this.buckets = new ArrayList<>(buckets);
+      this.keys = new ArrayList<>(keys);
+      this.broadcaster = Objects.requireNonNull(broadcaster);
+    }
+  }
+
+  /** A trie node for one character of a key prefix */
+  private static final class Node {
+    private final Map<Character, Node> children = new HashMap<>();
+    private final List<Integer> prefixes = new ArrayList<>(1);
+    private final List<Glob> globs = new ArrayList<>(1);
+
+    void insert(final String rule, final int target) {
+      final int length = literalLength(rule);
+      Node node = this;
+      for (int i = 0; i < length; i++) {
+        node = node.children.computeIfAbsent(rule.charAt(i), c -> new Node());
+      }
+      if (length == rule.length()) {
+        node.prefixes.add(target);
+      } else {
+        node.globs.add(new Glob(compileGlob(rule), target));
+      }
+    }
+
+    void match(final String key, final boolean[] matched) {
+      Node node = this;
+      int i = 0;
+      while (true) {
+        for (int target : node.prefixes) {
+          matched[target] = true;
+        }
+        for (Glob glob : node.globs) {
+          if (!matched[glob.target] && glob.pattern.matcher(key).matches()) {
+            matched[glob.target] = true;
+          }
+        }
+        if (i == key.length()) {
+          return;
+        }
+        node = node.children.get(key.charAt(i++));
+        if (node == null) {
+          return;
+        }
+      }
+    }
+  }
+
+  private static final class Glob {
+    private final Pattern pattern;
+    private final int target;
+
+    Glob(final Pattern pattern, final int target) {
+      this.pattern = pattern;
+      this.target = target;
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import com.google.common.base.Preconditions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Connections which share one stream of events, with each event sent to exactly one member. Without
+ * a partition key, each event goes to the member with the fewest queued frames, rotating between
+ * equally idle members. With a partition key, events with the same value of that field always go to
+ * the same member while the membership is unchanged, and events without the field fall back to the
+ * least loaded member.
+ */
+@NotThreadSafe
+public class ConsumerGroup {
+
+  private final String name;
+  @Nullable private final String partitionKey;
+  @Nullable private final EventFilter filter;
+  private final Set<String> fields;
+  private final Set<String> objects;
+  private final List<SseSubscriber> members = new ArrayList<>();
+  private int next = 0;
+
+  /**
+   * Constructor
+   *
+   * @param name Group name
+   * @param partitionKey Dotted path of the field to partition events by, or null to balance by load
+   * @param filter Filter of the events to send to the group, or null to send every event
+   */
+  public ConsumerGroup(
+      @Nonnull final String name,
+      @Nullable final String partitionKey,
+      @Nullable final EventFilter filter) {
+    Preconditions.checkArgument(!name.isEmpty(), "group name must not be empty");
+    Preconditions.checkArgument(
+        partitionKey == null || !partitionKey.isEmpty(), "partitionKey must not be empty");
+    this.name = Objects.requireNonNull(name);
+    this.partitionKey = partitionKey;
+    this.filter = filter;
+
+    final Set<String> fields = new HashSet<>();
+    if (partitionKey != null) {
+      fields.add(partitionKey);
+    }
+    if (filter != null) {
+      fields.addAll(filter.getPredicates().keySet());
+    }
+    this.fields = Collections.unmodifiableSet(fields);
+    this.objects = EventFilter.prefixes(fields);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  @Nullable
+  public String getPartitionKey() {
+    return partitionKey;
+  }
+
+  @Nullable
+  public EventFilter getFilter() {
+    return filter;
+  }
+
+  /**
+   * Return the fields used by the group's filter and partition key
+   *
+   * @return dotted field paths
+   */
+  public Set<String> getFields() {
+    return fields;
+  }
+
+  /**
+   * Does a new member's partition key and filter agree with this group's?
+   *
+   * @param partitionKey Partition key of the new member
+   * @param filter Filter of the new member
+   * @return true if they are the same, otherwise false
+   */
+  public boolean accepts(@Nullable final String partitionKey, @Nullable final EventFilter filter) {
+    return Objects.equals(this.partitionKey, partitionKey) && Objects.equals(this.filter, filter);
+  }
+
+  public void add(@Nonnull final SseSubscriber subscriber) {
+    members.add(Objects.requireNonNull(subscriber));
+  }
+
+  /**
+   * Remove a member
+   *
+   * @param subscriber Member to remove
+   * @return true if the subscriber was a member, otherwise false
+   */
+  public boolean remove(@Nonnull final SseSubscriber subscriber) {
+    return members.remove(subscriber);
+  }
+
+  public boolean isEmpty() {
+    return members.isEmpty();
+  }
+
+  public int size() {
+    return members.size();
+  }
+
+  /**
+   * Choose the member to send an event to
+   *
+   * @param event UTF-8 bytes of the event
+   * @return the member, or null if the group's filter does not accept the event or the group is
+   *     empty
+   */
+  @Nullable
+  public SseSubscriber select(@Nonnull final byte[] event) {
+    if (members.isEmpty()) {
+      return null;
+    }
+    // the filter and partition key share one pass over the event
+    return select(
+        fields.isEmpty() ? Collections.emptyMap() : EventFilter.extract(event, fields, objects));
+  }
+
+  /**
+   * Choose the member to send an event to from the event's field values
+   *
+   * @param values Field values extracted from the event, which must include every field returned by
+   *     {@link #getFields()} that the event has, and may include others
+   * @return the member, or null if the group's filter does not accept the event or the group is
+   *     empty
+   */
+  @Nullable
+  public SseSubscriber select(@Nonnull final Map<String, String> values) {
+    if (members.isEmpty()) {
+      return null;
+    }
+
+    String key = null;
+    if (!fields.isEmpty()) {
+      if (filter != null && !filter.test(values)) {
+        return null;
+      }
+      if (partitionKey != null) {
+        key = values.get(partitionKey);
+      }
+    }
+
+    if (key != null) {
+      return members.get(Math.floorMod(key.hashCode(), members.size()));
+    }
+    return leastLoaded();
+  }
+
+  /**
+   * Return the member with the fewest queued frames, starting after the last chosen member so that
+   * ties are broken in turn
+   *
+   * @return the least loaded member
+   */
+  private SseSubscriber leastLoaded() {
+    final int size = members.size();
+    int chosen = next % size;
+    int depth = members.get(chosen).getQueueDepth();
+    for (int i = 1; i < size && depth > 0; i++) {
+      final int candidate = (next + i) % size;
+      final int candidateDepth = members.get(candidate).getQueueDepth();
+      if (candidateDepth < depth) {
+        chosen = candidate;
+        depth = candidateDepth;
+      }
+    }
+    next = chosen + 1;
+    return members.get(chosen);
+  }
+}
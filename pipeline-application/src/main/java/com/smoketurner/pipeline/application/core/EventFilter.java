@@ -0,0 +1,247 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A conjunction of equality and set predicates on the fields of JSON events, such as {@code
+ * level=ERROR} or {@code service in (api, web)}. A field is a top-level property name, or a dotted
+ * path into nested objects such as {@code http.status}. Field values are compared as text, so
+ * {@code http.status=500} matches both {@code 500} and {@code "500"}.
+ */
+@Immutable
+public final class EventFilter {
+
+  private static final JsonFactory JSON = new JsonFactory();
+  private static final Pattern IN_EXPRESSION =
+      Pattern.compile("^\\s*([^=\\s]+)\\s+in\\s*\\((.*)\\)\\s*$", Pattern.CASE_INSENSITIVE);
+  private final Map<String, Set<String>> predicates;
+
+  /**
+   * Constructor
+   *
+   * @param predicates Allowed values of each field
+   */
+  public EventFilter(@Nonnull final Map<String, ? extends Collection<String>> predicates) {
+    final ImmutableMap.Builder<String, Set<String>> builder = ImmutableMap.builder();
+    predicates.forEach((field, values) -> builder.put(field, ImmutableSet.copyOf(values)));
+    this.predicates = builder.build();
+  }
+
+  /**
+   * Parse filter expressions of the form {@code field=value} or {@code field in (a, b)}. A field
+   * which appears in more than one expression must match all of them.
+   *
+   * @param expressions Filter expressions
+   * @return the filter
+   * @throws IllegalArgumentException if an expression is invalid
+   */
+  public static EventFilter parse(@Nonnull final Collection<String> expressions) {
+    final Map<String, Set<String>> predicates = new LinkedHashMap<>();
+    for (String expression : expressions) {
+      final String field;
+      final Set<String> values = new LinkedHashSet<>();
+
+      final Matcher matcher = IN_EXPRESSION.matcher(expression);
+      final int equals = expression.indexOf('=');
+      if (matcher.matches()) {
+        field = matcher.group(1);
+        for (String value : matcher.group(2).split(",")) {
+          values.add(value.trim());
+        }
+      } else if (equals > 0) {
+        field = expression.substring(0, equals).trim();
+        values.add(expression.substring(equals + 1).trim());
+      } else {
+        throw new IllegalArgumentException("Invalid filter expression: " + expression);
+      }
+      if (field.isEmpty()) {
+        throw new IllegalArgumentException("Invalid filter expression: " + expression);
+      }
+
+      final Set<String> existing = predicates.get(field);
+      if (existing == null) {
+        predicates.put(field, values);
+      } else {
+        existing.retainAll(values);
+      }
+    }
+    return new EventFilter(predicates);
+  }
+
+  /**
+   * Return the allowed values of each field
+   *
+   * @return map of field to allowed values
+   */
+  public Map<String, Set<String>> getPredicates() {
+    return predicates;
+  }
+
+  /**
+   * Does an event match every predicate?
+   *
+   * @param event UTF-8 bytes of a JSON event
+   * @return true if the event matches, otherwise false
+   */
+  public boolean test(@Nonnull final byte[] event) {
+    return test(extract(event, predicates.keySet(), prefixes(predicates.keySet())));
+  }
+
+  /**
+   * Do extracted field values match every predicate?
+   *
+   * @param values Field values extracted by {@link #extract(byte[], Set, Set)}
+   * @return true if the values match, otherwise false
+   */
+  boolean test(final Map<String, String> values) {
+    for (Map.Entry<String, Set<String>> predicate : predicates.entrySet()) {
+      final String value = values.get(predicate.getKey());
+      if (value == null || !predicate.getValue().contains(value)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Return every proper prefix of a set of dotted field paths, which are the nested objects that
+   * must be descended into to find the fields.
+   *
+   * @param fields Dotted field paths
+   * @return object paths
+   */
+  static Set<String> prefixes(final Collection<String> fields) {
+    final Set<String> prefixes = new HashSet<>();
+    for (String field : fields) {
+      int dot = field.indexOf('.');
+      while (dot > 0) {
+        prefixes.add(field.substring(0, dot));
+        dot = field.indexOf('.', dot + 1);
+      }
+    }
+    return prefixes;
+  }
+
+  /**
+   * Extract the scalar values of some fields from a JSON event, stopping as soon as every field has
+   * been found. Objects which contain none of the fields, and all arrays, are skipped without being
+   * parsed.
+   *
+   * @param event UTF-8 bytes of a JSON event
+   * @param fields Dotted field paths to extract
+   * @param objects Object paths to descend into, as returned by {@link #prefixes(Collection)}
+   * @return map of field path to value text, which is empty if the event is not a JSON object
+   */
+  static Map<String, String> extract(
+      final byte[] event, final Set<String> fields, final Set<String> objects) {
+    final Map<String, String> values = new HashMap<>();
+    if (fields.isEmpty()) {
+      return values;
+    }
+    try (JsonParser parser = JSON.createParser(event)) {
+      if (parser.nextToken() == JsonToken.START_OBJECT) {
+        extract(parser, "", fields, objects, values);
+      }
+    } catch (IOException e) {
+      // not JSON, or truncated after some of the fields were found
+    }
+    return values;
+  }
+
+  /**
+   * Extract field values from the current object of a parser
+   *
+   * @return true if every field has been found, otherwise false
+   */
+  private static boolean extract(
+      final JsonParser parser,
+      final String path,
+      final Set<String> fields,
+      final Set<String> objects,
+      final Map<String, String> values)
+      throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final String field =
+          path.isEmpty() ? parser.getCurrentName() : path + parser.getCurrentName();
+      final JsonToken token = parser.nextToken();
+      if (token == JsonToken.START_OBJECT) {
+        if (objects.contains(field)) {
+          if (extract(parser, field + ".", fields, objects, values)) {
+            return true;
+          }
+        } else {
+          parser.skipChildren();
+        }
+      } else if (token == JsonToken.START_ARRAY) {
+        parser.skipChildren();
+      } else if (token != null && fields.contains(field)) {
+        values.putIfAbsent(field, parser.getText());
+        if (values.size() == fields.size()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean equals(final Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (other == null || getClass() != other.getClass()) {
+      return false;
+    }
+    return predicates.equals(((EventFilter) other).predicates);
+  }
+
+  @Override
+  public int hashCode() {
+    return predicates.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    final List<String> expressions = new ArrayList<>(predicates.size());
+    predicates.forEach(
+        (field, values) ->
+            expressions.add(
+                values.size() == 1
+                    ? field + "=" + values.iterator().next()
+                    : field + " in (" + String.join(",", values) + ")"));
+    return String.join(" and ", expressions);
+  }
+}
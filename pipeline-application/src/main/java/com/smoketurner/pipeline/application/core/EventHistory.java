@@ -0,0 +1,204 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import com.google.common.base.Preconditions;
+import io.dropwizard.util.Duration;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Ring buffer of the most recently broadcast SSE frames, bounded by both the number of frames and
+ * their age, so a reconnecting client can be sent the events it missed. Frames must be added in
+ * increasing id order.
+ *
+ * <p>Alongside each frame is the latest event time of all earlier frames. That running maximum
+ * never decreases, so {@link #seek(long)} can binary search it even though event times arrive out
+ * of order.
+ */
+@ThreadSafe
+public class EventHistory {
+
+  private final long[] ids;
+  private final long[] timestamps;
+  private final long[] eventTimes;
+  private final long[] maxBefore;
+  private final byte[][] frames;
+  private final long maxAgeMillis;
+  private final Clock clock;
+  private int head = 0;
+  private int count = 0;
+  private long maxEventTime = Long.MIN_VALUE;
+
+  /**
+   * Constructor
+   *
+   * @param maxEvents Maximum number of frames to keep, or zero to keep none
+   * @param maxAge Maximum age of frames to keep
+   */
+  public EventHistory(final int maxEvents, @Nonnull final Duration maxAge) {
+    this(maxEvents, maxAge, Clock.systemUTC());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param maxEvents Maximum number of frames to keep, or zero to keep none
+   * @param maxAge Maximum age of frames to keep
+   * @param clock Clock used to age out frames
+   */
+  public EventHistory(
+      final int maxEvents, @Nonnull final Duration maxAge, @Nonnull final Clock clock) {
+    Preconditions.checkArgument(maxEvents >= 0, "maxEvents must not be negative");
+    this.ids = new long[maxEvents];
+    this.timestamps = new long[maxEvents];
+    this.eventTimes = new long[maxEvents];
+    this.maxBefore = new long[maxEvents];
+    this.frames = new byte[maxEvents][];
+    this.maxAgeMillis = maxAge.toMilliseconds();
+    this.clock = Objects.requireNonNull(clock);
+  }
+
+  /**
+   * Add a frame, evicting the oldest frame if the buffer is full
+   *
+   * @param id Event id of the frame, greater than any id already added
+   * @param eventTime Event time in epoch milliseconds
+   * @param frame Encoded SSE frame
+   */
+  public synchronized void add(final long id, final long eventTime, @Nonnull final byte[] frame) {
+    if (frames.length == 0) {
+      return;
+    }
+    final long now = clock.millis();
+    expire(now);
+
+    final int tail = (head + count) % frames.length;
+    ids[tail] = id;
+    timestamps[tail] = now;
+    eventTimes[tail] = eventTime;
+    maxBefore[tail] = maxEventTime;
+    frames[tail] = frame;
+    maxEventTime = Math.max(maxEventTime, eventTime);
+    if (count < frames.length) {
+      count++;
+    } else {
+      head = (head + 1) % frames.length;
+    }
+  }
+
+  /**
+   * Return the frames added after an event id, oldest first
+   *
+   * @param lastId Last event id the client received
+   * @param limit Maximum number of frames to return; the newest frames are kept
+   * @return frames with an id greater than {@code lastId}
+   */
+  public synchronized List<byte[]> since(final long lastId, final int limit) {
+    expire(clock.millis());
+
+    int first = count;
+    while (first > 0 && count - first < limit && ids[index(first - 1)] > lastId) {
+      first--;
+    }
+    if (first == count) {
+      return Collections.emptyList();
+    }
+
+    final List<byte[]> result = new ArrayList<>(count - first);
+    for (int i = first; i < count; i++) {
+      result.add(frames[index(i)]);
+    }
+    return result;
+  }
+
+  /**
+   * Find where to start replaying every event from the first retained event with an event time at
+   * or after {@code timestamp}. Events after that one are replayed even if their own event time is
+   * earlier.
+   *
+   * @param timestamp Event time in epoch milliseconds
+   * @return event id to pass to {@link #since(long, int)}, or {@code Long.MAX_VALUE} if no retained
+   *     event is that recent
+   */
+  public synchronized long seek(final long timestamp) {
+    expire(clock.millis());
+
+    // the first frame at or after the timestamp is the last one whose earlier
+    // frames are all before it
+    int low = 0;
+    int high = count - 1;
+    int found = -1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      if (maxBefore[index(mid)] < timestamp) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+
+    if (found < 0) {
+      return count == 0 ? Long.MAX_VALUE : ids[head] - 1;
+    }
+    if (eventTimes[index(found)] < timestamp) {
+      return Long.MAX_VALUE;
+    }
+    return ids[index(found)] - 1;
+  }
+
+  /**
+   * Is the history missing any events after an event id, because they were evicted?
+   *
+   * @param lastId Last event id the client received
+   * @return true if the oldest retained event is not the one directly after {@code lastId}
+   */
+  public synchronized boolean isMissing(final long lastId) {
+    return count == 0 || ids[head] > lastId + 1;
+  }
+
+  /**
+   * Return the number of frames retained
+   *
+   * @return number of frames
+   */
+  public synchronized int size() {
+    return count;
+  }
+
+  private int index(final int offset) {
+    return (head + offset) % frames.length;
+  }
+
+  /**
+   * Evict frames older than the maximum age
+   *
+   * @param now Current time in milliseconds
+   */
+  private void expire(final long now) {
+    while (count > 0 && timestamps[head] < now - maxAgeMillis) {
+      frames[head] = null;
+      head = (head + 1) % frames.length;
+      count--;
+    }
+  }
+}
@@ -0,0 +1,592 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Preconditions;
+import io.dropwizard.util.Duration;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of broadcast SSE frames on local disk, so clients can be replayed hours of
+ * events. The log is split into memory-mapped segment files named after the first event id they
+ * contain, and whole segments are deleted once the log exceeds its retention size or a segment's
+ * newest event exceeds its retention age.
+ *
+ * <p>Each record is the event id (8 bytes), the event time (8 bytes), the frame length (4 bytes)
+ * and the encoded frame. Every segment keeps a sparse in-memory index from event id to file
+ * position, which is rebuilt by scanning the segment when the log is reopened. Each index entry
+ * also holds the latest event time of all earlier records. That running maximum never decreases, so
+ * {@link #seek(long)} can binary search it even though event times arrive out of order. Appends
+ * must be made in increasing id order, but reads may run concurrently with appends.
+ */
+@ThreadSafe
+public class EventLog implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(EventLog.class);
+  private static final String SUFFIX = ".log";
+  private static final int HEADER_LENGTH = Long.BYTES + Long.BYTES + Integer.BYTES;
+  private final Path directory;
+  private final int segmentSize;
+  private final long retentionBytes;
+  private final long retentionMillis;
+  private final int indexInterval;
+  private final Clock clock;
+  private final ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+  @Nullable private Segment active;
+  private volatile long lastId = 0;
+  private long maxTimestamp = Long.MIN_VALUE;
+
+  // metrics
+  private final Meter appends;
+  private final Meter deletedSegments;
+
+  /**
+   * Constructor
+   *
+   * @param directory Directory to store segment files in, created if missing
+   * @param segmentSize Size of each segment file in bytes
+   * @param retentionBytes Maximum number of bytes to retain across all segments
+   * @param retentionAge Maximum age of the newest event in a segment before it is deleted
+   * @param indexInterval Number of bytes between index entries within a segment
+   * @throws IOException if unable to open the existing segments
+   */
+  public EventLog(
+      @Nonnull final Path directory,
+      final int segmentSize,
+      final long retentionBytes,
+      @Nonnull final Duration retentionAge,
+      final int indexInterval)
+      throws IOException {
+    this(directory, segmentSize, retentionBytes, retentionAge, indexInterval, Clock.systemUTC());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param directory Directory to store segment files in, created if missing
+   * @param segmentSize Size of each segment file in bytes
+   * @param retentionBytes Maximum number of bytes to retain across all segments
+   * @param retentionAge Maximum age of the newest event in a segment before it is deleted
+   * @param indexInterval Number of bytes between index entries within a segment
+   * @param clock Clock used to age out segments
+   * @throws IOException if unable to open the existing segments
+   */
+  public EventLog(
+      @Nonnull final Path directory,
+      final int segmentSize,
+      final long retentionBytes,
+      @Nonnull final Duration retentionAge,
+      final int indexInterval,
+      @Nonnull final Clock clock)
+      throws IOException {
+    Preconditions.checkArgument(segmentSize > HEADER_LENGTH, "segmentSize is too small");
+    Preconditions.checkArgument(retentionBytes > 0, "retentionBytes must be greater than zero");
+    Preconditions.checkArgument(indexInterval > 0, "indexInterval must be greater than zero");
+    this.directory = Objects.requireNonNull(directory);
+    this.segmentSize = segmentSize;
+    this.retentionBytes = retentionBytes;
+    this.retentionMillis = retentionAge.toMilliseconds();
+    this.indexInterval = indexInterval;
+    this.clock = Objects.requireNonNull(clock);
+
+    this.appends =
+        SharedMetricRegistries.getOrCreate("default").meter(name(EventLog.class, "appends"));
+    this.deletedSegments =
+        SharedMetricRegistries.getOrCreate("default")
+            .meter(name(EventLog.class, "deleted-segments"));
+
+    Files.createDirectories(directory);
+    recover();
+    enforceRetention();
+  }
+
+  /**
+   * Return the id of the newest event in the log
+   *
+   * @return newest event id, or zero if the log is empty
+   */
+  public long getLastId() {
+    return lastId;
+  }
+
+  /**
+   * Return the id of the oldest event retained in the log
+   *
+   * @return oldest event id, or zero if the log is empty
+   */
+  public long getFirstId() {
+    final Map.Entry<Long, Segment> first = segments.firstEntry();
+    return first == null ? 0 : first.getKey();
+  }
+
+  /**
+   * Return the number of bytes of records retained in the log
+   *
+   * @return size in bytes
+   */
+  public long getSize() {
+    long size = 0;
+    for (Segment segment : segments.values()) {
+      size += segment.size;
+    }
+    return size;
+  }
+
+  /**
+   * Append a frame to the log, starting a new segment if the current one is full
+   *
+   * @param id Event id of the frame, greater than any id already appended
+   * @param timestamp Event time in epoch milliseconds
+   * @param frame Encoded SSE frame
+   * @throws IOException if unable to create a new segment
+   */
+  public synchronized void append(final long id, final long timestamp, @Nonnull final byte[] frame)
+      throws IOException {
+    Preconditions.checkArgument(id > lastId, "event ids must increase");
+    final int length = HEADER_LENGTH + frame.length;
+    if (active == null || active.remaining() < length) {
+      roll(id, length);
+    }
+    active.append(id, timestamp, frame, maxTimestamp, clock.millis());
+    maxTimestamp = Math.max(maxTimestamp, timestamp);
+    lastId = id;
+    appends.mark();
+  }
+
+  /**
+   * Read the events after an event id, oldest first
+   *
+   * @param afterId Read events with an id greater than this
+   * @param limit Maximum number of events to read
+   * @return events read, or an empty list if there are no newer events
+   */
+  public List<Entry> read(final long afterId, final int limit) {
+    Map.Entry<Long, Segment> start = segments.floorEntry(afterId);
+    if (start == null) {
+      start = segments.firstEntry();
+    }
+    if (start == null) {
+      return Collections.emptyList();
+    }
+
+    final List<Entry> entries = new ArrayList<>();
+    for (Segment segment : segments.tailMap(start.getKey(), true).values()) {
+      segment.read(afterId, limit, entries);
+      if (entries.size() >= limit) {
+        break;
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Find where to start reading to replay every event from the first retained event with an event
+   * time at or after {@code timestamp}. Events after that one are replayed even if their own event
+   * time is earlier.
+   *
+   * @param timestamp Event time in epoch milliseconds
+   * @return event id to pass to {@link #read(long, int)}, which is the newest id if no retained
+   *     event is that recent
+   */
+  public long seek(final long timestamp) {
+    final List<Segment> candidates = new ArrayList<>(segments.values());
+
+    // the last segment which starts before any event at or after the timestamp
+    int low = 0;
+    int high = candidates.size() - 1;
+    int found = -1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      if (candidates.get(mid).firstMaxBefore() < timestamp) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+
+    if (found < 0) {
+      // every retained event is at or after the timestamp
+      return candidates.isEmpty() ? lastId : getFirstId() - 1;
+    }
+    for (int i = found; i < candidates.size(); i++) {
+      final long id = candidates.get(i).seekTimestamp(timestamp);
+      if (id != 0) {
+        return id - 1;
+      }
+    }
+    return lastId;
+  }
+
+  /**
+   * Delete the oldest segments until the log is within its retention size and age. The segment
+   * being appended to is never deleted.
+   */
+  public synchronized void enforceRetention() {
+    long size = getSize();
+    final long expiry = clock.millis() - retentionMillis;
+    Map.Entry<Long, Segment> oldest;
+    while ((oldest = segments.firstEntry()) != null && oldest.getValue() != active) {
+      final Segment segment = oldest.getValue();
+      if (size <= retentionBytes && segment.lastAppendMillis >= expiry) {
+        break;
+      }
+      segments.remove(oldest.getKey());
+      size -= segment.size;
+      segment.delete();
+      deletedSegments.mark();
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    for (Segment segment : segments.values()) {
+      segment.close();
+    }
+  }
+
+  /**
+   * Start a new segment for an event
+   *
+   * @param baseId Id of the first event in the segment
+   * @param length Length of the first record, which may exceed the segment size
+   * @throws IOException if unable to create the segment file
+   */
+  private void roll(final long baseId, final int length) throws IOException {
+    if (active != null) {
+      active.flush();
+    }
+    final Path path = directory.resolve(String.format("%020d%s", baseId, SUFFIX));
+    active = new Segment(path, Math.max(segmentSize, length), indexInterval);
+    segments.put(baseId, active);
+    LOGGER.debug("Started event log segment: {}", path);
+    enforceRetention();
+  }
+
+  /**
+   * Open the existing segment files, validating their records and rebuilding their indexes
+   *
+   * @throws IOException if unable to read the segment files
+   */
+  private void recover() throws IOException {
+    final List<Path> paths = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      stream.forEach(paths::add);
+    }
+    Collections.sort(paths);
+
+    for (Path path : paths) {
+      final String fileName = path.getFileName().toString();
+      final long baseId;
+      try {
+        baseId = Long.parseLong(fileName.substring(0, fileName.length() - SUFFIX.length()));
+      } catch (NumberFormatException e) {
+        LOGGER.warn("Ignoring unexpected file in event log directory: {}", path);
+        continue;
+      }
+
+      final Segment segment = Segment.open(path, indexInterval, lastId, maxTimestamp);
+      if (segment.size == 0) {
+        segment.delete();
+        continue;
+      }
+      segments.put(baseId, segment);
+      active = segment;
+      lastId = segment.lastId;
+      maxTimestamp = segment.maxTimestamp;
+    }
+    LOGGER.info(
+        "Opened event log with {} segments ({} bytes) up to event id {}",
+        segments.size(),
+        getSize(),
+        lastId);
+  }
+
+  /** An event read from the log */
+  public static final class Entry {
+    private final long id;
+    private final byte[] frame;
+
+    Entry(final long id, final byte[] frame) {
+      this.id = id;
+      this.frame = frame;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public byte[] getFrame() {
+      return frame;
+    }
+  }
+
+  /**
+   * One memory-mapped segment file. Only the owning log appends to a segment; readers see records
+   * up to the volatile {@link #size}, which is published after each record has been written.
+   */
+  private static final class Segment {
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int indexInterval;
+    private long[] indexIds = new long[16];
+    private long[] indexMaxBefore = new long[16];
+    private int[] indexPositions = new int[16];
+    private int indexCount = 0;
+    private int lastIndexed = -1;
+    private volatile int size = 0;
+    private volatile long lastId = 0;
+    private volatile long lastAppendMillis;
+    private long maxTimestamp = Long.MIN_VALUE;
+
+    Segment(final Path path, final int capacity, final int indexInterval) throws IOException {
+      this.path = path;
+      this.indexInterval = indexInterval;
+      this.channel =
+          FileChannel.open(
+              path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      this.buffer =
+          channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, channel.size()));
+      this.lastAppendMillis = Files.getLastModifiedTime(path).toMillis();
+    }
+
+    /**
+     * Open an existing segment, scanning for the end of its valid records
+     *
+     * @param path Segment file
+     * @param indexInterval Number of bytes between index entries
+     * @param previousId Id of the last event in the previous segment
+     * @param previousMax Latest event time in the previous segments
+     * @return the segment
+     * @throws IOException if unable to map the file
+     */
+    static Segment open(
+        final Path path, final int indexInterval, final long previousId, final long previousMax)
+        throws IOException {
+      final Segment segment = new Segment(path, 0, indexInterval);
+      final ByteBuffer view = segment.buffer.duplicate();
+      int position = 0;
+      long id = previousId;
+      long max = previousMax;
+      while (position + HEADER_LENGTH <= view.capacity()) {
+        final long nextId = view.getLong(position);
+        final long timestamp = view.getLong(position + Long.BYTES);
+        final int length = view.getInt(position + Long.BYTES + Long.BYTES);
+        if (nextId <= id || length < 0 || length > view.capacity() - position - HEADER_LENGTH) {
+          // pre-allocated space, or a record torn by a crash
+          break;
+        }
+        segment.index(nextId, max, position);
+        id = nextId;
+        max = Math.max(max, timestamp);
+        position += HEADER_LENGTH + length;
+      }
+      segment.lastId = id;
+      segment.maxTimestamp = max;
+      segment.size = position;
+      return segment;
+    }
+
+    int remaining() {
+      return buffer.capacity() - size;
+    }
+
+    void append(
+        final long id,
+        final long timestamp,
+        final byte[] frame,
+        final long maxBefore,
+        final long now) {
+      final int position = size;
+      final ByteBuffer view = buffer.duplicate();
+      view.position(position);
+      view.putLong(id).putLong(timestamp).putInt(frame.length).put(frame);
+      index(id, maxBefore, position);
+      lastId = id;
+      lastAppendMillis = now;
+      size = position + HEADER_LENGTH + frame.length;
+    }
+
+    /**
+     * Read the records after an event id, up to a total of {@code limit} entries
+     *
+     * @param afterId Read events with an id greater than this
+     * @param limit Maximum total number of entries
+     * @param entries List to add entries to
+     */
+    void read(final long afterId, final int limit, final List<Entry> entries) {
+      final int end = size;
+      if (lastId <= afterId) {
+        return;
+      }
+      final ByteBuffer view = buffer.duplicate();
+      int position = seek(afterId);
+      while (position < end && entries.size() < limit) {
+        final long id = view.getLong(position);
+        final int length = view.getInt(position + Long.BYTES + Long.BYTES);
+        if (id > afterId) {
+          final byte[] frame = new byte[length];
+          view.position(position + HEADER_LENGTH);
+          view.get(frame);
+          entries.add(new Entry(id, frame));
+        }
+        position += HEADER_LENGTH + length;
+      }
+    }
+
+    /**
+     * Find the first record with an event time at or after a timestamp
+     *
+     * @param timestamp Event time in epoch milliseconds
+     * @return event id of the record, or zero if there is none in this segment
+     */
+    long seekTimestamp(final long timestamp) {
+      final int end = size;
+      final ByteBuffer view = buffer.duplicate();
+      int position = seekTime(timestamp);
+      while (position < end) {
+        final long id = view.getLong(position);
+        if (view.getLong(position + Long.BYTES) >= timestamp) {
+          return id;
+        }
+        position += HEADER_LENGTH + view.getInt(position + Long.BYTES + Long.BYTES);
+      }
+      return 0;
+    }
+
+    /**
+     * Return the latest event time before the first record of this segment
+     *
+     * @return event time in epoch milliseconds
+     */
+    synchronized long firstMaxBefore() {
+      return indexCount == 0 ? Long.MAX_VALUE : indexMaxBefore[0];
+    }
+
+    /**
+     * Add an index entry if the record is far enough from the previous entry
+     *
+     * @param id Event id of the record
+     * @param maxBefore Latest event time of all earlier records
+     * @param position File position of the record
+     */
+    private synchronized void index(final long id, final long maxBefore, final int position) {
+      if (lastIndexed >= 0 && position - lastIndexed < indexInterval) {
+        return;
+      }
+      if (indexCount == indexIds.length) {
+        indexIds = Arrays.copyOf(indexIds, indexCount * 2);
+        indexMaxBefore = Arrays.copyOf(indexMaxBefore, indexCount * 2);
+        indexPositions = Arrays.copyOf(indexPositions, indexCount * 2);
+      }
+      indexIds[indexCount] = id;
+      indexMaxBefore[indexCount] = maxBefore;
+      indexPositions[indexCount] = position;
+      indexCount++;
+      lastIndexed = position;
+    }
+
+    /**
+     * Find the position of the last indexed record at or before an event id
+     *
+     * @param id Event id
+     * @return file position to start scanning from
+     */
+    private synchronized int seek(final long id) {
+      int low = 0;
+      int high = indexCount - 1;
+      int position = 0;
+      while (low <= high) {
+        final int mid = (low + high) >>> 1;
+        if (indexIds[mid] <= id) {
+          position = indexPositions[mid];
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      return position;
+    }
+
+    /**
+     * Find the position of the last indexed record with no earlier event at or after a timestamp
+     *
+     * @param timestamp Event time in epoch milliseconds
+     * @return file position to start scanning from
+     */
+    private synchronized int seekTime(final long timestamp) {
+      int low = 0;
+      int high = indexCount - 1;
+      int position = 0;
+      while (low <= high) {
+        final int mid = (low + high) >>> 1;
+        if (indexMaxBefore[mid] < timestamp) {
+          position = indexPositions[mid];
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      return position;
+    }
+
+    void flush() {
+      buffer.force();
+    }
+
+    void close() throws IOException {
+      flush();
+      channel.close();
+    }
+
+    void delete() {
+      try {
+        channel.close();
+        Files.deleteIfExists(path);
+        LOGGER.debug("Deleted event log segment: {}", path);
+      } catch (IOException e) {
+        LOGGER.warn("Unable to delete event log segment: {}", path, e);
+      }
+    }
+  }
+}
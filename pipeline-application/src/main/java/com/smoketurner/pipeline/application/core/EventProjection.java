@@ -0,0 +1,173 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.filter.FilteringParserDelegate;
+import com.fasterxml.jackson.core.filter.TokenFilter;
+import com.google.common.base.Preconditions;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Projects JSON events down to the fields selected by a list of JSON pointers, such as {@code
+ * /level} or {@code /http/status}. Events are projected with a streaming parser, so properties
+ * outside of the selected fields are skipped rather than read into a tree, and the selected fields
+ * keep their enclosing objects: {@code /http/status} projects an event to {@code
+ * {"http":{"status":500}}}.
+ *
+ * <p>Projections with the same pointers are equal, so the broadcaster can project each event once
+ * per distinct projection and share the result across subscribers.
+ */
+@Immutable
+public final class EventProjection {
+
+  private static final JsonFactory JSON = new JsonFactory();
+  private static final byte[] EMPTY_OBJECT = {'{', '}'};
+  private final SortedSet<String> pointers;
+  private final TokenFilter filter;
+
+  /**
+   * Constructor
+   *
+   * @param pointers JSON pointers of the fields to keep
+   * @throws IllegalArgumentException if a pointer is invalid or selects the whole event
+   */
+  public EventProjection(@Nonnull final Collection<String> pointers) {
+    Preconditions.checkArgument(!pointers.isEmpty(), "at least one pointer is required");
+    this.pointers = new TreeSet<>(pointers);
+
+    final List<JsonPointer> compiled = new ArrayList<>(this.pointers.size());
+    for (String pointer : this.pointers) {
+      final JsonPointer path = JsonPointer.compile(pointer);
+      Preconditions.checkArgument(!path.matches(), "Invalid JSON pointer: %s", pointer);
+      compiled.add(path);
+    }
+    this.filter = new PointersFilter(compiled);
+  }
+
+  /**
+   * Return the JSON pointers of this projection
+   *
+   * @return sorted JSON pointers
+   */
+  public SortedSet<String> getPointers() {
+    return pointers;
+  }
+
+  /**
+   * Project an event. An event which is not valid JSON is returned unchanged, and an object which
+   * contains none of the fields is projected to an empty object.
+   *
+   * @param event UTF-8 bytes of a JSON event
+   * @return UTF-8 bytes of the projected event
+   */
+  public byte[] apply(@Nonnull final byte[] event) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(event.length, 256));
+    try (JsonParser parser =
+            new FilteringParserDelegate(JSON.createParser(event), filter, true, true);
+        JsonGenerator generator = JSON.createGenerator(out)) {
+      while (parser.nextToken() != null) {
+        generator.copyCurrentEvent(parser);
+      }
+    } catch (IOException e) {
+      return event;
+    }
+    return out.size() == 0 ? EMPTY_OBJECT : out.toByteArray();
+  }
+
+  @Override
+  public boolean equals(final Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (other == null || getClass() != other.getClass()) {
+      return false;
+    }
+    return pointers.equals(((EventProjection) other).pointers);
+  }
+
+  @Override
+  public int hashCode() {
+    return pointers.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return String.join(",", pointers);
+  }
+
+  /** Includes the values at, and the containers along, any of a list of JSON pointers */
+  private static final class PointersFilter extends TokenFilter {
+    private final List<JsonPointer> pointers;
+
+    PointersFilter(final List<JsonPointer> pointers) {
+      this.pointers = pointers;
+    }
+
+    @Override
+    public TokenFilter includeProperty(final String name) {
+      final List<JsonPointer> next = new ArrayList<>(pointers.size());
+      for (JsonPointer pointer : pointers) {
+        final JsonPointer tail = pointer.matchProperty(name);
+        if (tail != null) {
+          if (tail.matches()) {
+            return TokenFilter.INCLUDE_ALL;
+          }
+          next.add(tail);
+        }
+      }
+      return filter(next);
+    }
+
+    @Override
+    public TokenFilter includeElement(final int index) {
+      final List<JsonPointer> next = new ArrayList<>(pointers.size());
+      for (JsonPointer pointer : pointers) {
+        final JsonPointer tail = pointer.matchElement(index);
+        if (tail != null) {
+          if (tail.matches()) {
+            return TokenFilter.INCLUDE_ALL;
+          }
+          next.add(tail);
+        }
+      }
+      return filter(next);
+    }
+
+    @Override
+    protected boolean _includeScalar() {
+      // a scalar where a pointer expects a container is not a match
+      return false;
+    }
+
+    @Nullable
+    private static TokenFilter filter(final List<JsonPointer> pointers) {
+      return pointers.isEmpty() ? null : new PointersFilter(pointers);
+    }
+  }
+}
@@ -0,0 +1,509 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import io.dropwizard.util.Duration;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded, gzip-compressed queue of events on local disk, which holds the events processed while a
+ * broadcaster has no connections. The spool is split into segment files numbered in the order they
+ * were written. Events are appended to the newest segment, which is rolled once it holds {@code
+ * segmentSize} uncompressed bytes, and read back from the oldest, which is deleted once it has been
+ * read. The oldest segments are dropped once the spool exceeds {@code maxBytes} on disk, or their
+ * newest event was spooled longer than {@code maxAge} ago.
+ *
+ * <p>The events of the newest segment are also kept in memory, up to a megabyte of them which have
+ * not been read, so a reader which keeps up with the writer is served from memory rather than
+ * rolling the segment to read it back. A reader which falls further behind reads the segment from
+ * disk once it has been rolled, skipping the events already read from memory.
+ *
+ * <p>Each record is the event id (8 bytes), the event time (8 bytes), the event length (4 bytes)
+ * and the event. Segments left by a previous process are read back on startup, and the last event
+ * id in them is found so a new process can continue after it. Events still buffered by the
+ * compressor are lost if the process dies without closing the spool, and events read from memory
+ * before then are read again.
+ */
+@ThreadSafe
+public class EventSpool implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(EventSpool.class);
+  private static final String SUFFIX = ".spool.gz";
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final long TAIL_BYTES = 1024 * 1024;
+  private final Path directory;
+  private final long segmentSize;
+  private final long maxBytes;
+  private final long maxAgeMillis;
+  private final Clock clock;
+
+  @GuardedBy("this")
+  private final Deque<Segment> segments = new ArrayDeque<>();
+
+  @GuardedBy("this")
+  private long nextSequence = 0;
+
+  @GuardedBy("this")
+  private long lastId = 0;
+
+  @GuardedBy("this")
+  @Nullable
+  private Writer writer;
+
+  @GuardedBy("this")
+  @Nullable
+  private DataInputStream reader;
+
+  @GuardedBy("this")
+  @Nullable
+  private Entry next;
+
+  @GuardedBy("this")
+  @Nullable
+  private Segment nextSegment;
+
+  // metrics
+  private final Meter spooledEvents;
+  private final Meter droppedSegments;
+
+  /**
+   * Constructor
+   *
+   * @param directory Directory to store segment files in, created if missing
+   * @param segmentSize Number of uncompressed bytes to write to a segment before rolling it
+   * @param maxBytes Maximum number of compressed bytes to keep across all segments
+   * @param maxAge Maximum time since a segment's newest event was spooled before it is dropped
+   * @throws IOException if unable to create the directory or list the existing segments
+   */
+  public EventSpool(
+      @Nonnull final Path directory,
+      final long segmentSize,
+      final long maxBytes,
+      @Nonnull final Duration maxAge)
+      throws IOException {
+    this(directory, segmentSize, maxBytes, maxAge, Clock.systemUTC());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param directory Directory to store segment files in, created if missing
+   * @param segmentSize Number of uncompressed bytes to write to a segment before rolling it
+   * @param maxBytes Maximum number of compressed bytes to keep across all segments
+   * @param maxAge Maximum time since a segment's newest event was spooled before it is dropped
+   * @param clock Clock used to age out segments
+   * @throws IOException if unable to create the directory or list the existing segments
+   */
+  public EventSpool(
+      @Nonnull final Path directory,
+      final long segmentSize,
+      final long maxBytes,
+      @Nonnull final Duration maxAge,
+      @Nonnull final Clock clock)
+      throws IOException {
+    Preconditions.checkArgument(segmentSize > 0, "segmentSize must be greater than zero");
+    Preconditions.checkArgument(maxBytes > 0, "maxBytes must be greater than zero");
+    this.directory = Objects.requireNonNull(directory);
+    this.segmentSize = segmentSize;
+    this.maxBytes = maxBytes;
+    this.maxAgeMillis = maxAge.toMilliseconds();
+    this.clock = Objects.requireNonNull(clock);
+
+    final MetricRegistry registry = SharedMetricRegistries.getOrCreate("default");
+    this.spooledEvents = registry.meter(name(EventSpool.class, "spooled-events"));
+    this.droppedSegments = registry.meter(name(EventSpool.class, "dropped-segments"));
+
+    Files.createDirectories(directory);
+    recover();
+  }
+
+  /** Find the segments left by a previous process, oldest first */
+  private synchronized void recover() throws IOException {
+    final List<Path> paths = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      stream.forEach(paths::add);
+    }
+    Collections.sort(paths);
+    for (Path path : paths) {
+      final String name = path.getFileName().toString();
+      try {
+        final long sequence = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        segments.add(
+            new Segment(path, Files.size(path), Files.getLastModifiedTime(path).toMillis()));
+        nextSequence = Math.max(nextSequence, sequence + 1);
+      } catch (NumberFormatException e) {
+        LOGGER.warn("Ignoring unexpected file in event spool: {}", path);
+      }
+    }
+    if (!segments.isEmpty()) {
+      lastId = readLastId(segments.peekLast().path);
+      LOGGER.info(
+          "Recovered {} event spool segments from {} up to event id {}",
+          segments.size(),
+          directory,
+          lastId);
+    }
+  }
+
+  /**
+   * Read the id of the last complete record of a segment
+   *
+   * @param path Segment file
+   * @return event id, or zero if the segment holds no complete records
+   * @throws IOException if unable to open the segment
+   */
+  private static long readLastId(final Path path) throws IOException {
+    long id = 0;
+    try (DataInputStream in = open(path)) {
+      while (true) {
+        final long next = in.readLong();
+        in.readLong();
+        ByteStreams.skipFully(in, in.readInt());
+        id = next;
+      }
+    } catch (EOFException e) {
+      // the end of the segment, or of the part written before a crash
+    } catch (ZipException e) {
+      LOGGER.warn("Unable to read the rest of corrupt event spool segment {}", path, e);
+    }
+    return id;
+  }
+
+  private static DataInputStream open(final Path path) throws IOException {
+    return new DataInputStream(
+        new GZIPInputStream(
+            new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE), BUFFER_SIZE));
+  }
+
+  /**
+   * Append an event, dropping the oldest segments if the spool is now too large
+   *
+   * @param id Event id, which must be greater than the id of every event already appended
+   * @param timestamp Event time in epoch milliseconds
+   * @param event UTF-8 bytes of the event data
+   * @throws IOException if unable to write to the spool
+   */
+  public synchronized void append(final long id, final long timestamp, @Nonnull final byte[] event)
+      throws IOException {
+    Preconditions.checkArgument(id > lastId, "Event id %s is not after %s", id, lastId);
+    if (writer == null || writer.uncompressed >= segmentSize) {
+      roll();
+      writer = new Writer(directory.resolve(String.format("%020d%s", nextSequence++, SUFFIX)));
+      segments.add(writer.segment);
+    }
+    writer.out.writeLong(id);
+    writer.out.writeLong(timestamp);
+    writer.out.writeInt(event.length);
+    writer.out.write(event);
+    writer.uncompressed += Long.BYTES * 2 + Integer.BYTES + event.length;
+    writer.records++;
+    lastId = id;
+    if (writer.tailing) {
+      writer.tail.add(new Entry(id, timestamp, event));
+      writer.tailBytes += event.length;
+      if (writer.tailBytes > TAIL_BYTES) {
+        // too far behind to keep in memory, so read the segment from disk
+        writer.tailing = false;
+        writer.tail.clear();
+        writer.tailBytes = 0;
+      }
+    }
+    writer.segment.bytes = writer.counter.getCount();
+    writer.segment.lastAppendMillis = clock.millis();
+    spooledEvents.mark();
+    enforceLimits();
+  }
+
+  /**
+   * Return the oldest event without removing it
+   *
+   * @return the oldest event, or null if the spool is empty
+   * @throws IOException if unable to read from the spool
+   */
+  @Nullable
+  public synchronized Entry peek() throws IOException {
+    while (next == null) {
+      enforceAge();
+      if (segments.isEmpty()) {
+        return null;
+      }
+      final Segment head = segments.peekFirst();
+      if (writer != null && writer.segment == head) {
+        if (writer.tailing) {
+          // read the newest segment from memory rather than rolling it
+          next = writer.tail.peekFirst();
+          nextSegment = next == null ? null : head;
+          return next;
+        }
+        // finish the compressed stream so the segment can be read
+        roll();
+      }
+      next = read(head);
+    }
+    return next;
+  }
+
+  /** Remove the event last returned by {@link #peek()} */
+  public synchronized void remove() {
+    if (nextSegment != null) {
+      // the segment may have been rolled, or its events dropped from memory,
+      // since, in which case the event is skipped when the segment is read
+      // from disk
+      nextSegment.consumed++;
+      if (writer != null && writer.segment == nextSegment && writer.tail.peekFirst() == next) {
+        writer.tailBytes -= writer.tail.removeFirst().event.length;
+      }
+      nextSegment = null;
+    }
+    next = null;
+  }
+
+  /**
+   * Return the id of the last event appended, including by a previous process
+   *
+   * @return event id, or zero if no event has been appended
+   */
+  public synchronized long getLastId() {
+    return lastId;
+  }
+
+  /**
+   * Are there no events left in the spool?
+   *
+   * @return true if the spool is empty, otherwise false
+   */
+  public synchronized boolean isEmpty() {
+    if (next != null || segments.isEmpty()) {
+      return next == null;
+    }
+    // every event of the newest segment may already have been read from memory
+    return segments.size() == 1
+        && writer != null
+        && writer.segment == segments.peekFirst()
+        && writer.segment.consumed == writer.records;
+  }
+
+  /**
+   * Return the number of bytes used on disk
+   *
+   * @return compressed size of all segments
+   */
+  public synchronized long size() {
+    long bytes = 0;
+    for (Segment segment : segments) {
+      bytes += segment.bytes;
+    }
+    return bytes;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    roll();
+    closeReader();
+  }
+
+  /**
+   * Read the next record of the oldest segment, skipping the records already read from memory, and
+   * deleting the segment once it has been read
+   *
+   * @param head Oldest segment
+   * @return the next event, or null if the segment has been read
+   * @throws IOException if unable to open or delete the segment
+   */
+  @GuardedBy("this")
+  @Nullable
+  private Entry read(final Segment head) throws IOException {
+    try {
+      if (reader == null) {
+        reader = open(head.path);
+        for (long i = 0; i < head.consumed; i++) {
+          reader.readLong();
+          reader.readLong();
+          ByteStreams.skipFully(reader, reader.readInt());
+        }
+      }
+      final long id = reader.readLong();
+      final long timestamp = reader.readLong();
+      final byte[] event = new byte[reader.readInt()];
+      reader.readFully(event);
+      return new Entry(id, timestamp, event);
+    } catch (EOFException e) {
+      // the end of the segment, or of the part written before a crash
+    } catch (ZipException e) {
+      LOGGER.warn("Skipping the rest of corrupt event spool segment {}", head.path, e);
+    }
+    closeReader();
+    segments.removeFirst();
+    Files.deleteIfExists(head.path);
+    return null;
+  }
+
+  /** Finish writing the newest segment, deleting it if every event was already read from memory */
+  @GuardedBy("this")
+  private void roll() throws IOException {
+    if (writer == null) {
+      return;
+    }
+    final Writer finished = writer;
+    writer = null;
+    finished.out.close();
+    finished.segment.bytes = finished.counter.getCount();
+    if (finished.segment.consumed == finished.records) {
+      segments.remove(finished.segment);
+      Files.deleteIfExists(finished.segment.path);
+    }
+  }
+
+  @GuardedBy("this")
+  private void closeReader() throws IOException {
+    if (reader != null) {
+      reader.close();
+      reader = null;
+    }
+  }
+
+  /** Drop the oldest segments while the spool is too large or too old */
+  @GuardedBy("this")
+  private void enforceLimits() throws IOException {
+    enforceAge();
+    long bytes = size();
+    while (bytes > maxBytes && segments.size() > 1) {
+      bytes -= drop().bytes;
+    }
+  }
+
+  @GuardedBy("this")
+  private void enforceAge() throws IOException {
+    final long cutoff = clock.millis() - maxAgeMillis;
+    while (!segments.isEmpty() && segments.peekFirst().lastAppendMillis < cutoff) {
+      drop();
+    }
+  }
+
+  /**
+   * Delete the oldest segment, even if it is being read or written
+   *
+   * @return the dropped segment
+   */
+  @GuardedBy("this")
+  private Segment drop() throws IOException {
+    final Segment head = segments.removeFirst();
+    if (writer != null && writer.segment == head) {
+      roll();
+    }
+    if (reader != null || nextSegment == head) {
+      // only the oldest segment is ever being read
+      closeReader();
+      next = null;
+      nextSegment = null;
+    }
+    Files.deleteIfExists(head.path);
+    droppedSegments.mark();
+    LOGGER.warn("Dropped event spool segment {} ({} bytes)", head.path, head.bytes);
+    return head;
+  }
+
+  /** A spooled event */
+  public static final class Entry {
+    private final long id;
+    private final long timestamp;
+    private final byte[] event;
+
+    Entry(final long id, final long timestamp, final byte[] event) {
+      this.id = id;
+      this.timestamp = timestamp;
+      this.event = event;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    public byte[] getEvent() {
+      return event;
+    }
+  }
+
+  private static final class Segment {
+    private final Path path;
+    private long bytes;
+    private long lastAppendMillis;
+    private long consumed = 0;
+
+    Segment(final Path path, final long bytes, final long lastAppendMillis) {
+      this.path = path;
+      this.bytes = bytes;
+      this.lastAppendMillis = lastAppendMillis;
+    }
+  }
+
+  /** The compressed output stream of the newest segment */
+  private final class Writer {
+    private final Segment segment;
+    private final CountingOutputStream counter;
+    private final DataOutputStream out;
+    private final Deque<Entry> tail = new ArrayDeque<>();
+    private long uncompressed = 0;
+    private long records = 0;
+    private long tailBytes = 0;
+    private boolean tailing = true;
+
+    Writer(final Path path) throws IOException {
+      this.segment = new Segment(path, 0, clock.millis());
+      this.counter = new CountingOutputStream(Files.newOutputStream(path));
+      this.out =
+          new DataOutputStream(
+              new BufferedOutputStream(new GZIPOutputStream(counter, BUFFER_SIZE), BUFFER_SIZE));
+    }
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An inverted index from field values to the filtered subscribers that accept them. An event's
+ * fields are extracted once, and each extracted value is looked up to count the predicates it
+ * satisfies for each subscriber, so matching takes time proportional to the number of subscribers
+ * with a satisfied predicate rather than the total number of subscribers.
+ */
+@NotThreadSafe
+public class FilterIndex {
+
+  private final Map<String, Map<String, List<Posting>>> postings = new HashMap<>();
+  private final Map<SseSubscriber, Posting> subscribers = new IdentityHashMap<>();
+  private final Map<String, Integer> fieldCounts = new HashMap<>();
+  private Set<String> fields = Collections.emptySet();
+  private Set<String> objects = Collections.emptySet();
+  private long epoch = 0;
+
+  /**
+   * Add a filtered subscriber
+   *
+   * @param subscriber Subscriber to add
+   * @param filter Filter of the subscriber
+   */
+  public void add(@Nonnull final SseSubscriber subscriber, @Nonnull final EventFilter filter) {
+    remove(subscriber);
+    final Posting posting = new Posting(subscriber, filter);
+    subscribers.put(subscriber, posting);
+    filter
+        .getPredicates()
+        .forEach(
+            (field, values) -> {
+              final Map<String, List<Posting>> byValue =
+                  postings.computeIfAbsent(field, f -> new HashMap<>());
+              for (String value : values) {
+                byValue.computeIfAbsent(value, v -> new ArrayList<>(1)).add(posting);
+              }
+              fieldCounts.merge(field, 1, Integer::sum);
+            });
+    updateFields();
+  }
+
+  /**
+   * Remove a filtered subscriber
+   *
+   * @param subscriber Subscriber to remove
+   * @return true if the subscriber was in the index, otherwise false
+   */
+  public boolean remove(@Nonnull final SseSubscriber subscriber) {
+    final Posting posting = subscribers.remove(subscriber);
+    if (posting == null) {
+      return false;
+    }
+    posting
+        .filter
+        .getPredicates()
+        .forEach(
+            (field, values) -> {
+              final Map<String, List<Posting>> byValue = postings.get(field);
+              for (String value : values) {
+                final List<Posting> list = byValue.get(value);
+                list.remove(posting);
+                if (list.isEmpty()) {
+                  byValue.remove(value);
+                }
+              }
+              if (fieldCounts.merge(field, -1, Integer::sum) == 0) {
+                fieldCounts.remove(field);
+                postings.remove(field);
+              }
+            });
+    updateFields();
+    return true;
+  }
+
+  /**
+   * Find the subscribers whose filters accept an event
+   *
+   * @param event UTF-8 bytes of a JSON event
+   * @return matching subscribers
+   */
+  public List<SseSubscriber> match(@Nonnull final byte[] event) {
+    if (subscribers.isEmpty()) {
+      return Collections.emptyList();
+    }
+    return match(EventFilter.extract(event, fields, objects));
+  }
+
+  /**
+   * Find the subscribers whose filters accept the field values of an event
+   *
+   * @param values Field values extracted from the event, which must include every field returned by
+   *     {@link #getFields()} that the event has, and may include others
+   * @return matching subscribers
+   */
+  public List<SseSubscriber> match(@Nonnull final Map<String, String> values) {
+    if (subscribers.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    final long current = ++epoch;
+    final List<SseSubscriber> matches = new ArrayList<>();
+    for (Map.Entry<String, String> value : values.entrySet()) {
+      final Map<String, List<Posting>> byValue = postings.get(value.getKey());
+      final List<Posting> list = byValue == null ? null : byValue.get(value.getValue());
+      if (list == null) {
+        continue;
+      }
+      for (Posting posting : list) {
+        if (posting.epoch != current) {
+          posting.epoch = current;
+          posting.hits = 0;
+        }
+        if (++posting.hits == posting.predicates) {
+          matches.add(posting.subscriber);
+        }
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * Return the fields used by the filters of any subscriber
+   *
+   * @return dotted field paths
+   */
+  public Set<String> getFields() {
+    return fields;
+  }
+
+  /**
+   * Return the filter of a subscriber
+   *
+   * @param subscriber Subscriber
+   * @return the filter, or null if the subscriber is not in the index
+   */
+  @Nullable
+  public EventFilter getFilter(@Nonnull final SseSubscriber subscriber) {
+    final Posting posting = subscribers.get(subscriber);
+    return posting == null ? null : posting.filter;
+  }
+
+  /**
+   * Are there any filtered subscribers?
+   *
+   * @return true if there are no filtered subscribers, otherwise false
+   */
+  public boolean isEmpty() {
+    return subscribers.isEmpty();
+  }
+
+  /**
+   * Return the number of filtered subscribers
+   *
+   * @return number of filtered subscribers
+   */
+  public int size() {
+    return subscribers.size();
+  }
+
+  private void updateFields() {
+    fields = Collections.unmodifiableSet(new HashSet<>(fieldCounts.keySet()));
+    objects = EventFilter.prefixes(fields);
+  }
+
+  private static final class Posting {
+    private final SseSubscriber subscriber;
+    private final EventFilter filter;
+    private final int predicates;
+    private long epoch = 0;
+    private int hits = 0;
+
+    Posting(final SseSubscriber subscriber, final EventFilter filter) {
+      this.subscriber = subscriber;
+      this.filter = filter;
+      this.predicates = filter.getPredicates().size();
+    }
+  }
+}
@@ -20,83 +20,893 @@ import static com.codahale.metrics.MetricRegistry.name;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.SharedMetricRegistries;
-import java.util.concurrent.atomic.AtomicInteger;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.dropwizard.util.Duration;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Predicate;
-import javax.ws.rs.core.MediaType;
-import org.glassfish.jersey.media.sse.OutboundEvent;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import org.glassfish.jersey.media.sse.SseBroadcaster;
-import org.glassfish.jersey.server.ChunkedOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class InstrumentedSseBroadcaster extends SseBroadcaster implements Predicate<String> {
+/**
+ * Broadcasts server-sent events to all connected {@link SseEventOutput} streams. Each event is
+ * encoded into its wire format once by {@link SseEncoder}, and the same frame is shared by every
+ * connection. Frames are handed to each {@link SseSubscriber}'s bounded queue rather than written
+ * directly, so broadcasting never blocks on a slow connection. Events are parsed, encoded and
+ * projected before the broadcaster's lock is taken, and appended to the event log or spool after it
+ * is released, so the lock is only held to give each event its id and queue it.
+ *
+ * <p>Every event is given an increasing id and kept in an {@link EventHistory}, so a client that
+ * reconnects with a {@code Last-Event-ID} is first sent the events it missed. Ids start from the
+ * current time in microseconds, so they keep increasing across restarts. When an {@link EventLog}
+ * is configured, every event is also appended to it, and a client too far behind for the in-memory
+ * history catches up from the log before joining the live stream.
+ *
+ * <p>A connection may have an {@link EventFilter}. The filters of all connections are kept in a
+ * {@link FilterIndex}, so each event is parsed at most once and only queued on the connections
+ * whose filters accept it. A connection may also have an {@link EventProjection}, in which case
+ * each event is projected and encoded once per distinct projection and that frame is shared by
+ * every connection with the same projection. Replayed events are filtered and projected the same
+ * way.
+ *
+ * <p>Connections may instead join a {@link ConsumerGroup}, which shares one stream between its
+ * members rather than sending every event to every connection. Group members always join the live
+ * stream, since the events they missed may have been sent to other members.
+ *
+ * <p>When an {@link AckTracker} is configured, the connections of its required consumers are first
+ * sent a {@code subscribed} event carrying the token they acknowledge with, and the ids of the
+ * events sent to them are kept in an {@link AckWindow} until they are acknowledged. Such
+ * connections also always join the live stream, since the events they did not acknowledge are
+ * redelivered from SQS, and are disconnected rather than dropping events when their queue or window
+ * is full.
+ *
+ * <p>When an {@link EventSpool} is configured, events broadcast while there are no connections are
+ * appended to the spool instead of being discarded. When a connection is added, the spool is
+ * drained through the live stream, as fast as the least loaded connection's queue allows, and new
+ * events are spooled behind the spooled ones until it is empty, so they stay in order. Events are
+ * given their ids when they are spooled, so {@link #getLastEventId()} covers the events still in
+ * the spool, while a connection which has acknowledged every event it was sent has only
+ * acknowledged up to the last event sent.
+ */
+public class InstrumentedSseBroadcaster implements Predicate<byte[]> {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(InstrumentedSseBroadcaster.class);
-  private static final OutboundEvent PING_EVENT =
-      new OutboundEvent.Builder().name("ping").data("ping").build();
-  private static final OutboundEvent.Builder EVENT_BUILDER =
-      new OutboundEvent.Builder().name("event").mediaType(MediaType.APPLICATION_JSON_TYPE);
-  private final AtomicInteger connectionCounter = new AtomicInteger(0);
+  private static final byte[] PING_EVENT = SseEncoder.encode("ping", "ping");
+  private static final AtomicLong SUBSCRIBER_IDS = new AtomicLong(0);
+  private static final int REPLAY_BATCH_SIZE = 1024;
+  private final Set<SseSubscriber> subscribers = ConcurrentHashMap.newKeySet();
+  private final Set<SseSubscriber> unfiltered = ConcurrentHashMap.newKeySet();
+  private final Executor writerExecutor;
+  private final int queueSize;
+  private final OverflowPolicy overflowPolicy;
+  private final EventHistory history;
+  @Nullable private final EventLog log;
+  @Nullable private final AckTracker acks;
+  @Nullable private final EventSpool spool;
+  private final Object lock = new Object();
+  private final Lock appendLock = new ReentrantLock();
+  private final Queue<Append> logQueue = new ConcurrentLinkedQueue<>();
+  private final Queue<Append> spoolQueue = new ConcurrentLinkedQueue<>();
+  private final AtomicLong unspooled = new AtomicLong(0);
+
+  @GuardedBy("lock")
+  private final FilterIndex filters = new FilterIndex();
+
+  @GuardedBy("lock")
+  private final Map<SseSubscriber, EventProjection> projections = new IdentityHashMap<>();
+
+  @GuardedBy("lock")
+  private final Map<String, ConsumerGroup> groups = new HashMap<>();
+
+  @GuardedBy("lock")
+  private final Map<SseSubscriber, ConsumerGroup> memberships = new IdentityHashMap<>();
+
+  @GuardedBy("lock")
+  private final Map<SseSubscriber, AckWindow> windows = new IdentityHashMap<>();
+
+  // written under the lock, and read without it to skip preparing events
+  // which will be spooled
+  private volatile boolean draining = false;
+
+  // written under the lock, and read without it to prepare events
+  private volatile Routes routes = Routes.NONE;
+
+  @GuardedBy("lock")
+  private long lastEventId = System.currentTimeMillis() * 1000;
+
+  @GuardedBy("lock")
+  private long lastSentId;
+
+  // metrics
   private final Meter pingRate;
   private final Meter eventRate;
+  private final Meter replayedEvents;
+  private final Meter replayMisses;
+  private final Meter drainedEvents;
 
-  /** Constructor */
+  /** Constructor that writes to each connection on the broadcasting thread */
   public InstrumentedSseBroadcaster() {
-    super();
+    this(builder());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param builder Builder of the broadcaster's settings
+   */
+  private InstrumentedSseBroadcaster(final Builder builder) {
+    Preconditions.checkArgument(builder.queueSize > 0, "queueSize must be greater than zero");
+    this.writerExecutor = Objects.requireNonNull(builder.writerExecutor);
+    this.queueSize = builder.queueSize;
+    this.overflowPolicy = Objects.requireNonNull(builder.overflowPolicy);
+    this.history = Objects.requireNonNull(builder.history);
+    this.log = builder.log;
+    this.acks = builder.acks;
+    this.spool = builder.spool;
+    if (log != null) {
+      // continue after the ids already in the log if the clock went backwards
+      this.lastEventId = Math.max(lastEventId, log.getLastId());
+    }
+    if (spool != null) {
+      // and after the ids already given to spooled events
+      this.lastEventId = Math.max(lastEventId, spool.getLastId());
+    }
+    this.lastSentId = lastEventId;
+
     final MetricRegistry registry = SharedMetricRegistries.getOrCreate("default");
     this.pingRate = registry.meter(name(SseBroadcaster.class, "broadcast", "ping-sends"));
     this.eventRate = registry.meter(name(SseBroadcaster.class, "broadcast", "event-sends"));
+    this.replayedEvents = registry.meter(name(InstrumentedSseBroadcaster.class, "replayed-events"));
+    this.replayMisses = registry.meter(name(InstrumentedSseBroadcaster.class, "replay-misses"));
+    this.drainedEvents = registry.meter(name(InstrumentedSseBroadcaster.class, "drained-events"));
   }
 
-  @Override
-  public <OUT extends ChunkedOutput<OutboundEvent>> boolean add(final OUT chunkedOutput) {
-    if (chunkedOutput.isClosed()) {
+  /**
+   * Return a builder of a broadcaster which writes to each connection on the broadcasting thread,
+   * queues up to 1024 frames per connection, drops the oldest frame when a queue is full, and
+   * retains up to 1024 events for five minutes.
+   *
+   * @return the builder
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Add a new connection which is only sent the events accepted by the options' filter, projected
+   * to a subset of their fields, first sending it any retained and accepted events after {@code
+   * lastEventId}. At most one queue's worth of the newest missed events are replayed. The
+   * connection of a required consumer instead joins the live stream and must acknowledge the events
+   * it is sent.
+   *
+   * @param output Connection to broadcast events to
+   * @param lastEventId Last event id received by a reconnecting client, or null for a new client
+   * @param options Events, fields and consumer of the connection
+   * @return true if the connection was added, false if it was already closed
+   * @throws IllegalStateException if the required consumer is connected to another broadcaster
+   */
+  public boolean add(
+      @Nonnull final SseEventOutput output,
+      @Nullable final Long lastEventId,
+      @Nonnull final SubscriptionOptions options) {
+    if (output.isClosed()) {
       return false;
     }
 
-    final boolean result = super.add(chunkedOutput);
-    if (result) {
-      final int active = connectionCounter.incrementAndGet();
-      LOGGER.debug("Opened new connection ({} total)", active);
+    final EventFilter filter = options.getFilter();
+    final EventProjection projection = options.getProjection();
+    final String consumer = options.getConsumer();
+    final boolean acknowledged = acks != null && acks.isRequired(consumer);
+    final SseSubscriber subscriber = newSubscriber(output, acknowledged);
+
+    // holding the lock means no event is broadcast between the replay and
+    // joining the live stream, so none are skipped or sent twice
+    synchronized (lock) {
+      if (acknowledged) {
+        track(subscriber, consumer);
+        join(subscriber, filter, projection);
+      } else if (lastEventId == null || lastEventId >= lastSentId) {
+        join(subscriber, filter, projection);
+      } else if (log == null || !history.isMissing(lastEventId)) {
+        final List<byte[]> missed = history.since(lastEventId, queueSize);
+        if (history.isMissing(lastEventId)) {
+          replayMisses.mark();
+          LOGGER.debug("Events after id {} are no longer retained", lastEventId);
+        }
+        int replayed = 0;
+        for (byte[] frame : missed) {
+          final byte[] replay = replayFrame(frame, filter, projection);
+          if (replay != null) {
+            subscriber.offer(replay);
+            replayed++;
+          }
+        }
+        replayedEvents.mark(replayed);
+        LOGGER.debug("Replayed {} events after id {}", replayed, lastEventId);
+        join(subscriber, filter, projection);
+      } else {
+        // too far behind for the in-memory history, so catch up from the
+        // event log on a writer thread before joining
+        try {
+          writerExecutor.execute(() -> catchUp(subscriber, lastEventId, filter, projection));
+        } catch (RejectedExecutionException e) {
+          LOGGER.warn("Unable to replay events to connection {}", subscriber.getId());
+          subscriber.close();
+          return false;
+        }
+        return true;
+      }
     }
-    return result;
+    LOGGER.debug("Opened connection {} ({} total)", subscriber.getId(), subscribers.size());
+    return true;
   }
 
-  @Override
-  public void onException(
-      final ChunkedOutput<OutboundEvent> chunkedOutput, final Exception exception) {
-    LOGGER.trace("Connection exception", exception);
+  /**
+   * Add a new connection which is only sent the events accepted by the options' filter, projected
+   * to a subset of their fields, first sending it every retained and accepted event from the first
+   * one with an event time at or after {@code timestamp}. The connection of a required consumer
+   * instead joins the live stream and must acknowledge the events it is sent.
+   *
+   * @param output Connection to broadcast events to
+   * @param timestamp Event time in epoch milliseconds to replay events from
+   * @param options Events, fields and consumer of the connection
+   * @return true if the connection was added, false if it was already closed
+   * @throws IllegalStateException if the required consumer is connected to another broadcaster
+   */
+  public boolean addSince(
+      @Nonnull final SseEventOutput output,
+      final long timestamp,
+      @Nonnull final SubscriptionOptions options) {
+    if (acks != null && acks.isRequired(options.getConsumer())) {
+      return add(output, null, options);
+    }
+    // the event log retains everything the in-memory history does, and more
+    final long afterId = log != null ? log.seek(timestamp) : history.seek(timestamp);
+    LOGGER.debug("Replaying events since {} after id {}", timestamp, afterId);
+    return add(output, afterId, options);
   }
 
-  @Override
-  public void onClose(final ChunkedOutput<OutboundEvent> chunkedOutput) {
-    final int active = connectionCounter.decrementAndGet();
-    LOGGER.debug("Closed connection ({} total)", active);
+  /**
+   * Add a new connection to a consumer group, creating the group if it has no members. Each event
+   * accepted by the group's filter is sent to exactly one member. If the group is a required
+   * consumer, each member must acknowledge the events it is sent.
+   *
+   * @param output Connection to broadcast events to
+   * @param group Group name
+   * @param partitionKey Dotted path of the field to partition events by, or null to balance by load
+   * @param filter Filter of the events to send to the group, or null to send every event
+   * @param projection Fields of each event to send to this member, or null to send whole events
+   * @return true if the connection was added, false if it was already closed
+   * @throws IllegalStateException if the group already has members with a different partition key
+   *     or filter, or the required group is connected to another broadcaster
+   */
+  public boolean addToGroup(
+      @Nonnull final SseEventOutput output,
+      @Nonnull final String group,
+      @Nullable final String partitionKey,
+      @Nullable final EventFilter filter,
+      @Nullable final EventProjection projection) {
+    if (output.isClosed()) {
+      return false;
+    }
+
+    synchronized (lock) {
+      ConsumerGroup consumers = groups.get(group);
+      if (consumers == null) {
+        consumers = new ConsumerGroup(group, partitionKey, filter);
+      } else if (!consumers.accepts(partitionKey, filter)) {
+        throw new IllegalStateException(
+            String.format(
+                "Consumer group %s is partitioned by %s with filter %s",
+                group, consumers.getPartitionKey(), consumers.getFilter()));
+      }
+
+      final boolean acknowledged = acks != null && acks.isRequired(group);
+      final SseSubscriber subscriber = newSubscriber(output, acknowledged);
+      if (acknowledged) {
+        track(subscriber, group);
+      }
+      groups.put(group, consumers);
+      consumers.add(subscriber);
+      memberships.put(subscriber, consumers);
+      if (projection != null) {
+        projections.put(subscriber, projection);
+      }
+      subscribers.add(subscriber);
+      updateRoutes();
+      drainIfSpooled();
+      LOGGER.debug(
+          "Opened connection {} in consumer group {} ({} members)",
+          subscriber.getId(),
+          group,
+          consumers.size());
+    }
+    return true;
   }
 
-  @Override
-  public void broadcast(final OutboundEvent chunk) {
-    super.broadcast(chunk);
+  /**
+   * Create the subscriber of a new connection. A connection which must acknowledge its events is
+   * disconnected when its queue is full, since a dropped event could never be acknowledged.
+   *
+   * @param output Connection to write frames to
+   * @param acknowledged Must the connection acknowledge the events it is sent?
+   * @return the subscriber
+   */
+  private SseSubscriber newSubscriber(final SseEventOutput output, final boolean acknowledged) {
+    return new SseSubscriber(
+        String.valueOf(SUBSCRIBER_IDS.incrementAndGet()),
+        output,
+        writerExecutor,
+        queueSize,
+        acknowledged ? OverflowPolicy.DISCONNECT : overflowPolicy,
+        this::onClose);
+  }
+
+  /**
+   * Start tracking the events sent to a connection of a required consumer, and send it the token to
+   * acknowledge them with
+   *
+   * @param subscriber Subscriber to track
+   * @param consumer Required consumer name
+   * @throws IllegalStateException if the consumer is connected to another broadcaster
+   */
+  @GuardedBy("lock")
+  private void track(final SseSubscriber subscriber, final String consumer) {
+    final String token;
+    try {
+      token = acks.register(consumer, this, subscriber);
+    } catch (IllegalStateException e) {
+      subscriber.close();
+      throw e;
+    }
+    windows.put(subscriber, new AckWindow());
+    subscriber.offer(SseEncoder.encode("subscribed", token));
+  }
+
+  /**
+   * Acknowledge every event up to and including an event id sent to a connection
+   *
+   * @param subscriber The connection
+   * @param eventId Last event id processed by the client
+   */
+  void acknowledge(final SseSubscriber subscriber, final long eventId) {
+    synchronized (lock) {
+      final AckWindow window = windows.get(subscriber);
+      if (window != null) {
+        window.acknowledge(eventId);
+      }
+    }
+  }
+
+  /**
+   * Return the last event id up to which a connection has acknowledged every event it was sent
+   *
+   * @param subscriber The connection
+   * @return the id before its oldest unacknowledged event, or the id of the last event sent if it
+   *     has acknowledged every event, which is before any events still in the spool
+   */
+  long watermark(final SseSubscriber subscriber) {
+    synchronized (lock) {
+      final AckWindow window = windows.get(subscriber);
+      if (window == null || window.isEmpty()) {
+        return lastSentId;
+      }
+      return window.first() - 1;
+    }
+  }
+
+  /**
+   * Return the id of the last event broadcast, including the events still in the spool, which are
+   * given their ids when they are spooled
+   *
+   * @return event id
+   */
+  public long getLastEventId() {
+    synchronized (lock) {
+      return lastEventId;
+    }
+  }
+
+  /**
+   * Write the events after {@code lastEventId} from the event log directly to a subscriber, then
+   * add it to the live stream once it has caught up.
+   *
+   * @param subscriber Subscriber to replay events to
+   * @param lastEventId Last event id received by the client
+   * @param filter Filter of the events to send, or null to send every event
+   * @param projection Fields of each event to send, or null to send whole events
+   */
+  private void catchUp(
+      final SseSubscriber subscriber,
+      final long lastEventId,
+      @Nullable final EventFilter filter,
+      @Nullable final EventProjection projection) {
+    if (lastEventId < log.getFirstId() - 1) {
+      replayMisses.mark();
+      LOGGER.debug("Events after id {} are no longer retained", lastEventId);
+    }
+
+    long cursor = lastEventId;
+    long replayed = 0;
+    try {
+      while (!subscriber.isClosed()) {
+        final List<EventLog.Entry> entries = log.read(cursor, REPLAY_BATCH_SIZE);
+        if (entries.size() < REPLAY_BATCH_SIZE) {
+          // close enough to the tail to finish under the lock, once the
+          // events queued for the log have been appended
+          synchronized (lock) {
+            appendQueued();
+            for (EventLog.Entry entry : log.read(cursor, Integer.MAX_VALUE)) {
+              final byte[] replay = replayFrame(entry.getFrame(), filter, projection);
+              if (replay != null) {
+                subscriber.offer(replay);
+                replayed++;
+              }
+            }
+            join(subscriber, filter, projection);
+          }
+          break;
+        }
+        for (EventLog.Entry entry : entries) {
+          final byte[] replay = replayFrame(entry.getFrame(), filter, projection);
+          if (replay != null) {
+            subscriber.write(replay);
+            replayed++;
+          }
+          cursor = entry.getId();
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.trace("Failed to replay events to connection {}", subscriber.getId(), e);
+      subscriber.close();
+    }
+    replayedEvents.mark(replayed);
+    LOGGER.debug(
+        "Replayed {} events after id {} from event log to connection {}",
+        replayed,
+        lastEventId,
+        subscriber.getId());
+  }
+
+  /**
+   * Add a subscriber to the live stream
+   *
+   * @param subscriber Subscriber to add
+   * @param filter Filter of the events to send, or null to send every event
+   * @param projection Fields of each event to send, or null to send whole events
+   */
+  @GuardedBy("lock")
+  private void join(
+      final SseSubscriber subscriber,
+      @Nullable final EventFilter filter,
+      @Nullable final EventProjection projection) {
+    if (projection != null) {
+      projections.put(subscriber, projection);
+    }
+    if (filter == null) {
+      unfiltered.add(subscriber);
+    } else {
+      filters.add(subscriber, filter);
+    }
+    subscribers.add(subscriber);
+    updateRoutes();
+    drainIfSpooled();
+  }
+
+  /**
+   * Update the fields to extract from, and the projections to apply to, each event before it is
+   * broadcast. The routes are only replaced when they change, so events prepared with the old ones
+   * are still sent as they are.
+   */
+  @GuardedBy("lock")
+  private void updateRoutes() {
+    final Set<String> fields = new HashSet<>(filters.getFields());
+    for (ConsumerGroup group : groups.values()) {
+      fields.addAll(group.getFields());
+    }
+    final Set<EventProjection> distinct = new HashSet<>(projections.values());
+    if (!fields.equals(routes.fields) || !distinct.equals(routes.projections)) {
+      routes = new Routes(fields, distinct);
+    }
+  }
+
+  /** Start draining the spool on a writer thread if it holds any events */
+  @GuardedBy("lock")
+  private void drainIfSpooled() {
+    if (spool == null || draining || (unspooled.get() == 0 && spool.isEmpty())) {
+      return;
+    }
+    draining = true;
+    try {
+      writerExecutor.execute(this::drain);
+    } catch (RejectedExecutionException e) {
+      draining = false;
+      LOGGER.warn("Unable to drain event spool");
+    }
+  }
+
+  /**
+   * Broadcast the spooled events to the live stream until the spool is empty or every connection
+   * has closed. Events broadcast meanwhile are spooled behind them, so they are sent in order.
+   */
+  private void drain() {
+    long drained = 0;
+    try {
+      while (true) {
+        awaitCapacity();
+        final EventSpool.Entry entry = spool.peek();
+        if (entry == null && unspooled.get() > 0) {
+          // events queued for the spool have not been appended yet
+          appendQueued();
+          continue;
+        }
+        final Outgoing outgoing = entry == null ? null : prepare(entry.getEvent());
+        synchronized (lock) {
+          // events are only queued for the spool under the lock, so none
+          // queued and an empty spool here means none were missed
+          if (subscribers.isEmpty() || (entry == null && unspooled.get() == 0 && spool.isEmpty())) {
+            draining = false;
+            break;
+          }
+          if (entry != null) {
+            sendEvent(entry.getId(), entry.getTimestamp(), outgoing);
+            spool.remove();
+            drained++;
+          }
+        }
+        flush();
+      }
+    } catch (IOException e) {
+      LOGGER.error("Unable to read event spool", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      synchronized (lock) {
+        draining = false;
+      }
+    }
+    drainedEvents.mark(drained);
+    eventRate.mark(drained);
+    LOGGER.info("Drained {} spooled events", drained);
+  }
+
+  /**
+   * Wait until some connection's queue is less than half full, so draining the spool does not
+   * overflow every queue, or until every connection has closed. A single slow connection does not
+   * hold up the others.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private void awaitCapacity() throws InterruptedException {
+    final int threshold = Math.max(1, queueSize / 2);
+    while (true) {
+      // with no connections the depth stays at MAX_VALUE, so return and
+      // let the caller stop draining
+      int depth = subscribers.isEmpty() ? 0 : Integer.MAX_VALUE;
+      for (SseSubscriber subscriber : subscribers) {
+        depth = Math.min(depth, subscriber.getQueueDepth());
+      }
+      if (depth < threshold) {
+        return;
+      }
+      TimeUnit.MILLISECONDS.sleep(1);
+    }
+  }
+
+  /**
+   * Filter and project a retained frame for replay to a subscriber
+   *
+   * @param frame Retained frame of the whole event
+   * @param filter Filter of the events to send, or null to send every event
+   * @param projection Fields of each event to send, or null to send whole events
+   * @return frame to send, or null if the filter does not accept the event
+   */
+  @Nullable
+  private static byte[] replayFrame(
+      final byte[] frame,
+      @Nullable final EventFilter filter,
+      @Nullable final EventProjection projection) {
+    if (filter == null && projection == null) {
+      return frame;
+    }
+    final byte[] data = SseEncoder.data(frame);
+    if (filter != null && !filter.test(data)) {
+      return null;
+    }
+    if (projection == null) {
+      return frame;
+    }
+    return SseEncoder.encode(SseEncoder.id(frame), "event", projection.apply(data));
+  }
+
+  private void onClose(final SseSubscriber subscriber) {
+    synchronized (lock) {
+      unfiltered.remove(subscriber);
+      filters.remove(subscriber);
+      projections.remove(subscriber);
+      final ConsumerGroup group = memberships.remove(subscriber);
+      if (group != null && group.remove(subscriber) && group.isEmpty()) {
+        groups.remove(group.getName());
+      }
+      final AckWindow window = windows.remove(subscriber);
+      if (window != null) {
+        acks.unregister(subscriber, window.size());
+      }
+      updateRoutes();
+    }
+    if (subscribers.remove(subscriber)) {
+      LOGGER.debug("Closed connection {} ({} total)", subscriber.getId(), subscribers.size());
+    }
+  }
+
+  /**
+   * Assign the next event id to an event, retain it, and queue it on every connection
+   *
+   * @param event UTF-8 bytes of the event data
+   */
+  public void broadcast(final byte[] event) {
+    broadcast(event, System.currentTimeMillis());
+  }
+
+  /**
+   * Assign the next event id to an event, retain it, and queue it on every connection, or spool it
+   * if there are no connections
+   *
+   * @param event UTF-8 bytes of the event data
+   * @param timestamp Event time in epoch milliseconds, used to replay events since a time
+   */
+  public void broadcast(final byte[] event, final long timestamp) {
+    publish(event, timestamp);
+  }
+
+  /**
+   * Broadcast an event, or append it to the spool if there are no connections or the spool is being
+   * drained. The event is parsed, encoded and projected before taking the lock, which is only held
+   * to assign its id and queue it, and it is appended to the event log or spool after the lock is
+   * released.
+   *
+   * @param event UTF-8 bytes of the event data
+   * @param timestamp Event time in epoch milliseconds
+   * @return true if the event was spooled or queued on a connection which is still open, otherwise
+   *     false
+   */
+  private boolean publish(final byte[] event, final long timestamp) {
+    final Outgoing outgoing = isSpooling() ? null : prepare(event);
+    final boolean spooled;
+    synchronized (lock) {
+      spooled = isSpooling();
+      if (spooled) {
+        unspooled.incrementAndGet();
+        spoolQueue.add(new Append(++lastEventId, timestamp, event));
+      } else {
+        sendEvent(++lastEventId, timestamp, outgoing == null ? prepare(event) : outgoing);
+      }
+    }
+    flush();
+    if (spooled) {
+      return true;
+    }
     eventRate.mark();
     LOGGER.trace("sent event");
+    return !isEmpty();
+  }
+
+  /**
+   * Are events appended to the spool rather than broadcast? Read without the lock, this is only a
+   * hint.
+   *
+   * @return true if there are no connections or the spool is being drained, otherwise false
+   */
+  private boolean isSpooling() {
+    return spool != null && (draining || subscribers.isEmpty());
+  }
+
+  /**
+   * Parse, encode and project an event for the current routes, without its id
+   *
+   * @param event UTF-8 bytes of the event data
+   * @return the prepared event
+   */
+  private Outgoing prepare(final byte[] event) {
+    final Routes current = routes;
+    final Map<EventProjection, byte[]> projected = new HashMap<>();
+    for (EventProjection projection : current.projections) {
+      projected.put(projection, SseEncoder.encode("event", projection.apply(event)));
+    }
+    return new Outgoing(
+        event,
+        current,
+        EventFilter.extract(event, current.fields, current.objects),
+        SseEncoder.encode("event", event),
+        projected);
+  }
+
+  /**
+   * Retain an event, queue it on every connection, and queue it to be appended to the event log
+   *
+   * @param id Event id, which was assigned when the event was broadcast or spooled
+   * @param timestamp Event time in epoch milliseconds
+   * @param outgoing Event prepared by {@link #prepare(byte[])}
+   */
+  @GuardedBy("lock")
+  private void sendEvent(final long id, final long timestamp, final Outgoing outgoing) {
+    lastSentId = id;
+    final byte[] frame = SseEncoder.withId(id, outgoing.frame);
+    history.add(id, timestamp, frame);
+    if (log != null) {
+      logQueue.add(new Append(id, timestamp, frame));
+    }
+
+    // the routes may have changed since the event was prepared
+    final Map<String, String> values =
+        outgoing.routes == routes
+            ? outgoing.values
+            : EventFilter.extract(outgoing.event, routes.fields, routes.objects);
+
+    // each distinct projection of this event is given its id at most once
+    final Map<EventProjection, byte[]> projected = projections.isEmpty() ? null : new HashMap<>();
+    for (SseSubscriber subscriber : unfiltered) {
+      deliver(subscriber, id, outgoing, frame, projected);
+    }
+    if (!filters.isEmpty()) {
+      for (SseSubscriber subscriber : filters.match(values)) {
+        deliver(subscriber, id, outgoing, frame, projected);
+      }
+    }
+    // a member may be disconnected while the event is delivered, which
+    // can remove its group, so iterate over a copy
+    for (ConsumerGroup group :
+        groups.isEmpty() ? groups.values() : new ArrayList<>(groups.values())) {
+      final SseSubscriber member = group.select(values);
+      if (member != null) {
+        deliver(member, id, outgoing, frame, projected);
+      }
+    }
+  }
+
+  /**
+   * Queue an event on a subscriber, projected if the subscriber has a projection, and record it in
+   * the subscriber's acknowledgement window if it has one
+   *
+   * @param subscriber Subscriber to queue the event on
+   * @param id Event id
+   * @param outgoing Prepared event
+   * @param frame Encoded frame of the whole event
+   * @param projected Frames already given their id for each projection, or null if there are none
+   */
+  @GuardedBy("lock")
+  private void deliver(
+      final SseSubscriber subscriber,
+      final long id,
+      final Outgoing outgoing,
+      final byte[] frame,
+      @Nullable final Map<EventProjection, byte[]> projected) {
+    if (!windows.isEmpty()) {
+      // recorded before queueing, so an event lost to an overflowing queue
+      // counts as unacknowledged when the connection closes
+      final AckWindow window = windows.get(subscriber);
+      if (window != null) {
+        window.add(id);
+        if (window.size() > acks.getMaxUnackedEvents()) {
+          LOGGER.warn(
+              "Disconnecting subscriber {} with {} unacknowledged events",
+              subscriber.getId(),
+              window.size());
+          subscriber.close();
+          return;
+        }
+      }
+    }
+    final EventProjection projection = projected == null ? null : projections.get(subscriber);
+    if (projection == null) {
+      subscriber.offer(frame);
+    } else {
+      subscriber.offer(
+          projected.computeIfAbsent(projection, p -> SseEncoder.withId(id, outgoing.project(p))));
+    }
   }
 
   /**
-   * Broadcasts an event to all connected consumers.
+   * Append the events queued for the event log and spool, unless another thread is already
+   * appending them. Whichever thread holds the append lock appends every queued event in id order,
+   * so publishers never wait for each other's appends.
+   */
+  private void flush() {
+    while ((!logQueue.isEmpty() || !spoolQueue.isEmpty()) && appendLock.tryLock()) {
+      try {
+        appendQueued();
+      } finally {
+        appendLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Append the events queued for the event log and spool, waiting for any thread already appending
+   * them. The lock may be held when this is called, but is never taken while the append lock is.
+   */
+  private void appendQueued() {
+    appendLock.lock();
+    try {
+      Append append;
+      while ((append = logQueue.poll()) != null) {
+        try {
+          log.append(append.id, append.timestamp, append.data);
+        } catch (IOException e) {
+          LOGGER.error("Unable to append event {} to event log", append.id, e);
+        }
+      }
+      while ((append = spoolQueue.poll()) != null) {
+        try {
+          spool.append(append.id, append.timestamp, append.data);
+        } catch (IOException e) {
+          LOGGER.error("Unable to append event {} to spool", append.id, e);
+        } finally {
+          unspooled.decrementAndGet();
+        }
+      }
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  private void send(final byte[] frame) {
+    for (SseSubscriber subscriber : subscribers) {
+      subscriber.offer(frame);
+    }
+  }
+
+  /**
+   * Broadcasts an event to all connected consumers. The event is written to each connection as raw
+   * UTF-8 bytes, without being decoded into a {@link String}.
    *
-   * @param event Event to broadcast
-   * @return true if there were no connected consumers before or after broadcasting, otherwise false
+   * @param event UTF-8 bytes of the event to broadcast, without a trailing newline
+   * @return true if there were no connected consumers before or after broadcasting and the event
+   *     was not spooled, otherwise false
    */
   @Override
-  public boolean test(final String event) {
-    if (isEmpty()) {
+  public boolean test(final byte[] event) {
+    return test(event, System.currentTimeMillis());
+  }
+
+  /**
+   * Broadcasts an event to all connected consumers. The event is written to each connection as raw
+   * UTF-8 bytes, without being decoded into a {@link String}.
+   *
+   * @param event UTF-8 bytes of the event to broadcast, without a trailing newline
+   * @param timestamp Event time in epoch milliseconds, used to replay events since a time
+   * @return true if there were no connected consumers before or after broadcasting and the event
+   *     was not spooled, otherwise false
+   */
+  public boolean test(final byte[] event, final long timestamp) {
+    if (spool == null && isEmpty()) {
       LOGGER.trace("No consumers, returning true");
       return true;
     }
 
-    broadcast(EVENT_BUILDER.data(event).build());
-
-    if (isEmpty()) {
+    if (!publish(event, timestamp)) {
       LOGGER.trace("No consumers, returning true");
       return true;
     }
@@ -106,7 +916,7 @@ public class InstrumentedSseBroadcaster extends SseBroadcaster implements Predic
 
   /** Send a ping event to all connected consumers */
   public void ping() {
-    super.broadcast(PING_EVENT);
+    send(PING_EVENT);
     pingRate.mark();
     LOGGER.trace("sent ping event");
   }
@@ -117,6 +927,174 @@ public class InstrumentedSseBroadcaster extends SseBroadcaster implements Predic
    * @return true if we have no connections, otherwise false
    */
   public boolean isEmpty() {
-    return connectionCounter.get() < 1;
+    return subscribers.isEmpty();
+  }
+
+  /**
+   * Will we accept events? We do if we have any connections, or a spool to hold events until we do.
+   *
+   * @return true if we have connections or a spool, otherwise false
+   */
+  public boolean isAccepting() {
+    return spool != null || !isEmpty();
+  }
+
+  /** The fields to extract from, and the projections to apply to, each event before it is sent */
+  private static final class Routes {
+    private static final Routes NONE = new Routes(Collections.emptySet(), Collections.emptySet());
+    private final Set<String> fields;
+    private final Set<String> objects;
+    private final Set<EventProjection> projections;
+
+    Routes(final Set<String> fields, final Set<EventProjection> projections) {
+      this.fields = fields;
+      this.objects = EventFilter.prefixes(fields);
+      this.projections = projections;
+    }
+  }
+
+  /** An event parsed, encoded and projected without its id */
+  private static final class Outgoing {
+    private final byte[] event;
+    private final Routes routes;
+    private final Map<String, String> values;
+    private final byte[] frame;
+    private final Map<EventProjection, byte[]> projected;
+
+    Outgoing(
+        final byte[] event,
+        final Routes routes,
+        final Map<String, String> values,
+        final byte[] frame,
+        final Map<EventProjection, byte[]> projected) {
+      this.event = event;
+      this.routes = routes;
+      this.values = values;
+      this.frame = frame;
+      this.projected = projected;
+    }
+
+    /**
+     * Return the frame of a projection of the event, without its id, projecting the event now if
+     * the projection was added after it was prepared
+     */
+    byte[] project(final EventProjection projection) {
+      final byte[] frame = projected.get(projection);
+      return frame != null ? frame : SseEncoder.encode("event", projection.apply(event));
+    }
+  }
+
+  /** An event queued to be appended to the event log or spool */
+  private static final class Append {
+    private final long id;
+    private final long timestamp;
+    private final byte[] data;
+
+    Append(final long id, final long timestamp, final byte[] data) {
+      this.id = id;
+      this.timestamp = timestamp;
+      this.data = data;
+    }
+  }
+
+  /** Builder of the settings of a broadcaster */
+  public static final class Builder {
+    private Executor writerExecutor = MoreExecutors.directExecutor();
+    private int queueSize = 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private EventHistory history = new EventHistory(1024, Duration.minutes(5));
+    @Nullable private EventLog log;
+    @Nullable private AckTracker acks;
+    @Nullable private EventSpool spool;
+
+    private Builder() {}
+
+    /**
+     * Set the executor to write queued frames to connections on, which defaults to the broadcasting
+     * thread
+     *
+     * @param writerExecutor Executor to write queued frames to connections on
+     * @return this builder
+     */
+    public Builder writerExecutor(@Nonnull final Executor writerExecutor) {
+      this.writerExecutor = Objects.requireNonNull(writerExecutor);
+      return this;
+    }
+
+    /**
+     * Set the maximum number of frames queued per connection
+     *
+     * @param queueSize Maximum number of frames queued per connection
+     * @return this builder
+     */
+    public Builder queueSize(final int queueSize) {
+      this.queueSize = queueSize;
+      return this;
+    }
+
+    /**
+     * Set what to do when a connection's queue is full
+     *
+     * @param overflowPolicy What to do when a connection's queue is full
+     * @return this builder
+     */
+    public Builder overflowPolicy(@Nonnull final OverflowPolicy overflowPolicy) {
+      this.overflowPolicy = Objects.requireNonNull(overflowPolicy);
+      return this;
+    }
+
+    /**
+     * Set the recent events to replay to reconnecting clients
+     *
+     * @param history Recent events to replay to reconnecting clients
+     * @return this builder
+     */
+    public Builder history(@Nonnull final EventHistory history) {
+      this.history = Objects.requireNonNull(history);
+      return this;
+    }
+
+    /**
+     * Set the event log to append events to and replay older events from
+     *
+     * @param log Event log to append events to and replay older events from, or null
+     * @return this builder
+     */
+    public Builder log(@Nullable final EventLog log) {
+      this.log = log;
+      return this;
+    }
+
+    /**
+     * Set the tracker of the events acknowledged by required consumers
+     *
+     * @param acks Tracker of the events acknowledged by required consumers, or null
+     * @return this builder
+     */
+    public Builder acks(@Nullable final AckTracker acks) {
+      this.acks = acks;
+      return this;
+    }
+
+    /**
+     * Set the spool to hold events broadcast while there are no connections
+     *
+     * @param spool Spool to hold events broadcast while there are no connections, or null
+     * @return this builder
+     */
+    public Builder spool(@Nullable final EventSpool spool) {
+      this.spool = spool;
+      return this;
+    }
+
+    /**
+     * Build the broadcaster
+     *
+     * @return the broadcaster
+     * @throws IllegalArgumentException if the queue size is not positive
+     */
+    public InstrumentedSseBroadcaster build() {
+      return new InstrumentedSseBroadcaster(this);
+    }
   }
 }
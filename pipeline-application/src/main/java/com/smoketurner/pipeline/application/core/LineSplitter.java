@@ -0,0 +1,156 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Objects;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Splits a stream of UTF-8 bytes into lines without decoding them into characters. A line is
+ * terminated by {@code \n} or {@code \r\n}, and the terminator is not included in the returned
+ * line. Since {@code \n} never occurs inside a multi-byte UTF-8 sequence, each line is passed
+ * through byte-for-byte.
+ *
+ * <p>Newlines are found eight bytes at a time by reading the buffer as little-endian longs.
+ */
+@NotThreadSafe
+public class LineSplitter {
+
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+  private static final VarHandle LONGS =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+  private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+  private static final long LOW_BITS = 0x0101010101010101L;
+  private static final long HIGH_BITS = 0x8080808080808080L;
+  private final InputStream input;
+  private byte[] buffer;
+  private int position = 0;
+  private int limit = 0;
+  private boolean eof = false;
+
+  /**
+   * Constructor
+   *
+   * @param input Input stream to split
+   */
+  public LineSplitter(@Nonnull final InputStream input) {
+    this(input, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param input Input stream to split
+   * @param bufferSize Initial size of the read buffer, which grows to fit longer lines
+   */
+  public LineSplitter(@Nonnull final InputStream input, final int bufferSize) {
+    Preconditions.checkArgument(bufferSize > 0, "bufferSize must be greater than zero");
+    this.input = Objects.requireNonNull(input);
+    this.buffer = new byte[bufferSize];
+  }
+
+  /**
+   * Return the next line
+   *
+   * @return bytes of the next line, or null at the end of the stream
+   * @throws IOException if unable to read from the stream
+   */
+  @Nullable
+  public byte[] next() throws IOException {
+    int scanned = position;
+    while (true) {
+      final int newline = indexOf(buffer, scanned, limit);
+      if (newline >= 0) {
+        final int end = newline > position && buffer[newline - 1] == '\r' ? newline - 1 : newline;
+        final byte[] line = Arrays.copyOfRange(buffer, position, end);
+        position = newline + 1;
+        return line;
+      }
+
+      if (eof) {
+        if (position == limit) {
+          return null;
+        }
+        final byte[] line = Arrays.copyOfRange(buffer, position, limit);
+        position = limit;
+        return line;
+      }
+
+      scanned = limit - position;
+      fill();
+    }
+  }
+
+  /**
+   * Move any partial line to the front of the buffer, growing it if the line fills the whole
+   * buffer, then read more bytes from the stream.
+   *
+   * @throws IOException if unable to read from the stream
+   */
+  private void fill() throws IOException {
+    final int remaining = limit - position;
+    if (position > 0) {
+      System.arraycopy(buffer, position, buffer, 0, remaining);
+    } else if (remaining == buffer.length) {
+      buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    }
+    position = 0;
+    limit = remaining;
+
+    final int n = input.read(buffer, limit, buffer.length - limit);
+    if (n < 0) {
+      eof = true;
+    } else {
+      limit += n;
+    }
+  }
+
+  /**
+   * Find the first newline in a range of a byte array
+   *
+   * @param bytes Bytes to search
+   * @param from First index to search (inclusive)
+   * @param to Last index to search (exclusive)
+   * @return index of the first newline, or -1 if there is none
+   */
+  static int indexOf(final byte[] bytes, final int from, final int to) {
+    int i = from;
+    for (; i + Long.BYTES <= to; i += Long.BYTES) {
+      // set the high bit of each byte that was a newline; a false positive
+      // can only appear above a real match, so the lowest set bit is exact
+      final long word = (long) LONGS.get(bytes, i) ^ NEWLINES;
+      final long matches = (word - LOW_BITS) & ~word & HIGH_BITS;
+      if (matches != 0) {
+        return i + (Long.numberOfTrailingZeros(matches) >>> 3);
+      }
+    }
+    for (; i < to; i++) {
+      if (bytes[i] == '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -28,16 +28,24 @@ import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.SharedMetricRegistries;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
 import com.smoketurner.pipeline.application.aws.AmazonSNSNotification;
+import com.smoketurner.pipeline.application.codec.CodecRegistry;
 import com.smoketurner.pipeline.application.exceptions.AmazonS3ConstraintException;
 import com.smoketurner.pipeline.application.exceptions.AmazonS3ZeroSizeException;
 import io.dropwizard.jackson.Jackson;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.function.Predicate;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -49,7 +57,10 @@ public class MessageProcessor implements Predicate<Message> {
   private static final Logger LOGGER = LoggerFactory.getLogger(MessageProcessor.class);
   private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
   private final AmazonS3Downloader s3;
-  private final InstrumentedSseBroadcaster broadcaster;
+  private final ChannelRouter router;
+  private final CodecRegistry codecs;
+  @Nullable private final ExecutorService recordExecutor;
+  private final int recordConcurrency;
 
   // metrics
   private final Histogram recordCounts;
@@ -63,8 +74,52 @@ public class MessageProcessor implements Predicate<Message> {
    */
   public MessageProcessor(
       @Nonnull final AmazonS3Downloader s3, @Nonnull final InstrumentedSseBroadcaster broadcaster) {
+    this(s3, broadcaster, new CodecRegistry(), null, 1);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param s3 S3 Downloader
+   * @param broadcaster SSE broadcaster
+   * @param codecs Decompression codecs
+   * @param recordExecutor Executor service to process additional records of a message on
+   * @param recordConcurrency Maximum number of records of one message to process concurrently
+   */
+  public MessageProcessor(
+      @Nonnull final AmazonS3Downloader s3,
+      @Nonnull final InstrumentedSseBroadcaster broadcaster,
+      @Nonnull final CodecRegistry codecs,
+      @Nullable final ExecutorService recordExecutor,
+      final int recordConcurrency) {
+    this(s3, new ChannelRouter(broadcaster), codecs, recordExecutor, recordConcurrency);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param s3 S3 Downloader
+   * @param router Channel router, which selects the SSE broadcasters of each object
+   * @param codecs Decompression codecs
+   * @param recordExecutor Executor service to process additional records of a message on
+   * @param recordConcurrency Maximum number of records of one message to process concurrently
+   */
+  public MessageProcessor(
+      @Nonnull final AmazonS3Downloader s3,
+      @Nonnull final ChannelRouter router,
+      @Nonnull final CodecRegistry codecs,
+      @Nullable final ExecutorService recordExecutor,
+      final int recordConcurrency) {
+    Preconditions.checkArgument(
+        recordConcurrency > 0, "recordConcurrency must be greater than zero");
+    Preconditions.checkArgument(
+        recordExecutor != null || recordConcurrency == 1,
+        "recordExecutor is required when recordConcurrency is greater than one");
     this.s3 = Objects.requireNonNull(s3);
-    this.broadcaster = Objects.requireNonNull(broadcaster);
+    this.router = Objects.requireNonNull(router);
+    this.codecs = Objects.requireNonNull(codecs);
+    this.recordExecutor = recordExecutor;
+    this.recordConcurrency = recordConcurrency;
 
     final MetricRegistry registry = SharedMetricRegistries.getOrCreate("default");
     this.recordCounts = registry.histogram(name(MessageProcessor.class, "record-counts"));
@@ -92,7 +147,7 @@ public class MessageProcessor implements Predicate<Message> {
       LOGGER.debug("Received SQS message: {}", message.getMessageId());
     }
 
-    if (broadcaster.isEmpty()) {
+    if (!router.isAccepting()) {
       LOGGER.debug("No connections found, skipping SQS message processing");
       return false;
     }
@@ -113,10 +168,13 @@ public class MessageProcessor implements Predicate<Message> {
     // if we don't have a valid SNS notification, try parsing the body as S3
     // event records
     final String body;
+    final ZonedDateTime notificationTime;
     if (notification.isValid()) {
       body = notification.getMessage();
+      notificationTime = notification.getTimestamp();
     } else {
       body = message.getBody();
+      notificationTime = null;
     }
 
     final S3EventNotification records;
@@ -137,17 +195,11 @@ public class MessageProcessor implements Predicate<Message> {
       return true;
     }
 
-    int recordsProcessed = 0;
-
-    for (S3EventNotificationRecord record : records.getRecords()) {
-      if (broadcaster.isEmpty()) {
-        LOGGER.debug("No connections found, not downloading from S3");
-        return false;
-      }
-
-      if (processRecord(record)) {
-        recordsProcessed++;
-      }
+    final int recordsProcessed;
+    if (recordCount > 1 && recordConcurrency > 1) {
+      recordsProcessed = processRecordsConcurrently(records.getRecords(), notificationTime);
+    } else {
+      recordsProcessed = processRecords(new ArrayDeque<>(records.getRecords()), notificationTime);
     }
 
     // if we've processed all of the records, which includes skipping over
@@ -166,13 +218,104 @@ public class MessageProcessor implements Predicate<Message> {
     return false;
   }
 
+  /**
+   * Process records from a queue until it is empty
+   *
+   * @param records S3 event notification records to process
+   * @param notificationTime Time the SNS notification was published, if known
+   * @return number of records successfully processed
+   */
+  private int processRecords(
+      final Queue<S3EventNotificationRecord> records,
+      @Nullable final ZonedDateTime notificationTime) {
+    int recordsProcessed = 0;
+
+    S3EventNotificationRecord record;
+    while ((record = records.poll()) != null) {
+      if (!router.isAccepting()) {
+        LOGGER.debug("No connections found, not downloading from S3");
+        break;
+      }
+
+      if (processRecord(record, eventTime(record, notificationTime))) {
+        recordsProcessed++;
+      }
+    }
+    return recordsProcessed;
+  }
+
+  /**
+   * Process the records of one message with up to {@link #recordConcurrency} workers sharing a
+   * queue of records. The calling thread acts as one of the workers.
+   *
+   * @param records S3 event notification records to process
+   * @param notificationTime Time the SNS notification was published, if known
+   * @return number of records successfully processed
+   */
+  private int processRecordsConcurrently(
+      final List<S3EventNotificationRecord> records,
+      @Nullable final ZonedDateTime notificationTime) {
+    final Queue<S3EventNotificationRecord> queue = new ConcurrentLinkedQueue<>(records);
+    final int workers = Math.min(recordConcurrency, records.size());
+
+    final List<Future<Integer>> futures = new ArrayList<>(workers - 1);
+    for (int i = 1; i < workers; i++) {
+      futures.add(recordExecutor.submit(() -> processRecords(queue, notificationTime)));
+    }
+
+    int recordsProcessed = processRecords(queue, notificationTime);
+    for (Future<Integer> future : futures) {
+      recordsProcessed += await(future);
+    }
+    return recordsProcessed;
+  }
+
+  /**
+   * Wait for a record worker to finish
+   *
+   * @param future Pending number of processed records
+   * @return number of records processed by the worker, or zero if it failed
+   */
+  private static int await(final Future<Integer> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      future.cancel(true);
+    } catch (ExecutionException e) {
+      LOGGER.error("Failed to process S3 event records", e.getCause());
+    }
+    return 0;
+  }
+
+  /**
+   * Return the time to broadcast a record's events with: the SNS notification time, or the S3 event
+   * time if the message was not an SNS notification.
+   *
+   * @param record S3 event notification record
+   * @param notificationTime Time the SNS notification was published, if known
+   * @return event time in epoch milliseconds
+   */
+  private static long eventTime(
+      final S3EventNotificationRecord record, @Nullable final ZonedDateTime notificationTime) {
+    if (notificationTime != null) {
+      return notificationTime.toInstant().toEpochMilli();
+    }
+    if (record.getEventTime() != null) {
+      return record.getEventTime().getMillis();
+    }
+    return System.currentTimeMillis();
+  }
+
   /**
    * Process an S3 event notification record by streaming object in {@link streamObject}
    *
    * @param record S3 event notification record
+   * @param timestamp Event time to broadcast the object's events with, in epoch milliseconds
    * @return true if the record was fully processed, otherwise false
    */
-  private boolean processRecord(@Nonnull final S3EventNotificationRecord record) {
+  private boolean processRecord(
+      @Nonnull final S3EventNotificationRecord record, final long timestamp) {
     LOGGER.trace("Event Record: {}", record);
 
     final S3Object download;
@@ -195,7 +338,7 @@ public class MessageProcessor implements Predicate<Message> {
 
     final int eventCount;
     try {
-      eventCount = streamObject(download);
+      eventCount = streamObject(download, timestamp);
     } catch (IOException e) {
       LOGGER.error(
           String.format("Error streaming key: %s/%s", download.getBucketName(), download.getKey()),
@@ -214,42 +357,55 @@ public class MessageProcessor implements Predicate<Message> {
   }
 
   /**
-   * Stream an {@link S3Object} object and process each line with the processor.
+   * Stream an {@link S3Object} object, decompressing it with the codec detected by {@link
+   * CodecRegistry}, and broadcast each line. Lines are split and broadcast as raw bytes, so events
+   * are never decoded from or re-encoded to UTF-8. The object is routed to its channels once, and
+   * each line is only broadcast to those channels.
    *
    * @param object S3Object to download and process
+   * @param timestamp Event time to broadcast the events with, in epoch milliseconds
    * @return number of events processed
    * @throws IOException if unable to stream the object
    */
-  private int streamObject(@Nonnull final S3Object object) throws IOException {
-
-    final AtomicInteger eventCount = new AtomicInteger(0);
-    try (S3ObjectInputStream input = object.getObjectContent()) {
-
-      final BufferedReader reader;
-      if (AmazonS3Downloader.isGZipped(object)) {
-        reader =
-            new BufferedReader(
-                new InputStreamReader(new StreamingGZIPInputStream(input), StandardCharsets.UTF_8));
-      } else {
-        reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
-      }
+  private int streamObject(@Nonnull final S3Object object, final long timestamp)
+      throws IOException {
+
+    int eventCount = 0;
+    // closing the decoded stream releases the codec's decoder state, then closes the S3 stream
+    try (S3ObjectInputStream input = object.getObjectContent();
+        InputStream decoded =
+            codecs.decode(
+                input, object.getObjectMetadata().getContentEncoding(), object.getKey())) {
+
+      final LineSplitter lines = new LineSplitter(decoded);
+      final List<InstrumentedSseBroadcaster> broadcasters =
+          router.route(object.getBucketName(), object.getKey());
 
       // failed will be true if we did not successfully broadcast all
-      // of the events because of no consumers
-      final boolean failed =
-          reader.lines().peek(event -> eventCount.incrementAndGet()).anyMatch(broadcaster::test);
+      // of the events because of no consumers on any of the channels
+      boolean failed = false;
+      byte[] event;
+      while (!failed && (event = lines.next()) != null) {
+        eventCount++;
+        failed = true;
+        for (InstrumentedSseBroadcaster broadcaster : broadcasters) {
+          if (!broadcaster.test(event, timestamp)) {
+            failed = false;
+          }
+        }
+      }
 
       if (failed) {
         // abort the current S3 download
         input.abort();
         LOGGER.error(
             "Partial events broadcast ({} sent) from key: {}/{}",
-            eventCount.get(),
+            eventCount,
             object.getBucketName(),
             object.getKey());
         throw new IOException("aborting download");
       }
     }
-    return eventCount.get();
+    return eventCount;
   }
 }
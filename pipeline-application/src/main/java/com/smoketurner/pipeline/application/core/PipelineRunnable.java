@@ -15,76 +15,261 @@
  */
 package com.smoketurner.pipeline.application.core;
 
+import static com.codahale.metrics.MetricRegistry.name;
+
 import com.amazonaws.services.sqs.model.Message;
 import com.amazonaws.services.sqs.model.OverLimitException;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class PipelineRunnable implements Runnable {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(PipelineRunnable.class);
-  private static final long DEFAULT_SLEEP_SECS = 1;
-  private static final long SQS_FAILURE_SLEEP_SECS = 10;
+  private static final long IDLE_SLEEP_MILLIS = 1000;
 
   private final MessageProcessor processor;
+  private final ExecutorService executor;
   private final AmazonSQSIterator sqs;
-  private final InstrumentedSseBroadcaster broadcaster;
+  private final AmazonSQSPrefetcher prefetcher;
+  private final AdaptivePollScheduler scheduler;
+  private final AmazonSQSDeleteBatcher deleter;
+  private final AmazonSQSLeaseTracker leases;
+  private final ChannelRouter router;
+  @Nullable private final AckTracker acks;
+  private final String name;
+
+  // metrics
+  private final Meter receivedMessages;
+  private final Meter processedMessages;
+  private final Timer batchTimer;
+
+  private volatile boolean running = true;
+
+  /**
+   * Constructor
+   *
+   * @param processor Message processor
+   * @param executor Executor service to run the message processor on
+   * @param sqs Amazon SQS iterator
+   * @param prefetcher Amazon SQS receive-ahead prefetcher for this poller
+   * @param scheduler Poll scheduler for this poller
+   * @param deleter Amazon SQS delete batcher
+   * @param leases Amazon SQS visibility lease tracker
+   * @param router Channel router, which tracks the SSE connections of every channel
+   * @param name Poller name, used to scope the metrics of this receive loop
+   */
+  public PipelineRunnable(
+      @Nonnull final MessageProcessor processor,
+      @Nonnull final ExecutorService executor,
+      @Nonnull final AmazonSQSIterator sqs,
+      @Nonnull final AmazonSQSPrefetcher prefetcher,
+      @Nonnull final AdaptivePollScheduler scheduler,
+      @Nonnull final AmazonSQSDeleteBatcher deleter,
+      @Nonnull final AmazonSQSLeaseTracker leases,
+      @Nonnull final ChannelRouter router,
+      @Nonnull final String name) {
+    this(processor, executor, sqs, prefetcher, scheduler, deleter, leases, router, null, name);
+  }
 
   /**
    * Constructor
    *
    * @param processor Message processor
+   * @param executor Executor service to run the message processor on
    * @param sqs Amazon SQS iterator
-   * @param broadcaster SSE broadcaster
+   * @param prefetcher Amazon SQS receive-ahead prefetcher for this poller
+   * @param scheduler Poll scheduler for this poller
+   * @param deleter Amazon SQS delete batcher
+   * @param leases Amazon SQS visibility lease tracker
+   * @param router Channel router, which tracks the SSE connections of every channel
+   * @param acks Tracker which defers deleting messages until their events are acknowledged, or null
+   *     to delete messages as soon as they are processed
+   * @param name Poller name, used to scope the metrics of this receive loop
    */
   public PipelineRunnable(
       @Nonnull final MessageProcessor processor,
+      @Nonnull final ExecutorService executor,
       @Nonnull final AmazonSQSIterator sqs,
-      @Nonnull final InstrumentedSseBroadcaster broadcaster) {
+      @Nonnull final AmazonSQSPrefetcher prefetcher,
+      @Nonnull final AdaptivePollScheduler scheduler,
+      @Nonnull final AmazonSQSDeleteBatcher deleter,
+      @Nonnull final AmazonSQSLeaseTracker leases,
+      @Nonnull final ChannelRouter router,
+      @Nullable final AckTracker acks,
+      @Nonnull final String name) {
 
     this.processor = Objects.requireNonNull(processor);
+    this.executor = Objects.requireNonNull(executor);
     this.sqs = Objects.requireNonNull(sqs);
-    this.broadcaster = Objects.requireNonNull(broadcaster);
+    this.prefetcher = Objects.requireNonNull(prefetcher);
+    this.scheduler = Objects.requireNonNull(scheduler);
+    this.deleter = Objects.requireNonNull(deleter);
+    this.leases = Objects.requireNonNull(leases);
+    this.router = Objects.requireNonNull(router);
+    this.acks = acks;
+    this.name = Objects.requireNonNull(name);
+
+    final MetricRegistry registry = SharedMetricRegistries.getOrCreate("default");
+    this.receivedMessages = registry.meter(name(PipelineRunnable.class, name, "received-messages"));
+    this.processedMessages =
+        registry.meter(name(PipelineRunnable.class, name, "processed-messages"));
+    this.batchTimer = registry.timer(name(PipelineRunnable.class, name, "batches"));
+  }
+
+  /**
+   * Return the name of this poller
+   *
+   * @return poller name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /** Signal this poller to exit its receive loop after the current batch has been processed. */
+  public void stop() {
+    LOGGER.debug("Stopping {}", name);
+    running = false;
+  }
+
+  /**
+   * Is this poller still running its receive loop?
+   *
+   * @return true if the poller has not been stopped, otherwise false
+   */
+  public boolean isRunning() {
+    return running;
   }
 
   @Override
   public void run() {
-    while (sqs.hasNext() && !Thread.currentThread().isInterrupted()) {
-      long sleepSeconds = DEFAULT_SLEEP_SECS;
+    LOGGER.info("Starting {}", name);
+    while (running && sqs.hasNext() && !Thread.currentThread().isInterrupted()) {
+      long sleepMillis = IDLE_SLEEP_MILLIS;
 
-      if (!broadcaster.isEmpty()) {
+      if (router.isAccepting() && (acks == null || acks.isReady())) {
 
         try {
-          final List<Message> messages = sqs.next();
+          // the next batch is received in the background while this
+          // batch is being processed
+          final List<Message> messages = prefetcher.next();
+          receivedMessages.mark(messages.size());
 
-          // Process each SQS message in parallel. If the message was
+          // Submit each SQS message to the bounded processor executor
+          // and wait for the whole batch. If the message was
           // successfully processed and all of the events in the S3
           // download were successfully broadcast, we can safely
-          // delete the message.
-          messages.parallelStream().filter(processor::test).forEach(sqs::deleteMessage);
+          // delete the message, or hand it to the ack tracker to be
+          // deleted once its events are acknowledged. Otherwise,
+          // release the message so it can immediately be picked up
+          // again.
+          try (Timer.Context context = batchTimer.time()) {
+            process(messages);
+          }
+
+          sleepMillis = scheduler.onReceive(messages.size());
 
         } catch (OverLimitException e) {
-          LOGGER.error("Reached SQS request limit, sleeping for " + sleepSeconds + " seconds", e);
-          sleepSeconds = SQS_FAILURE_SLEEP_SECS;
+          sleepMillis = scheduler.onError(e);
+          LOGGER.error("Reached SQS request limit, sleeping for " + sleepMillis + "ms", e);
         } catch (Exception e) {
+          sleepMillis = scheduler.onError(e);
           LOGGER.error(
-              "Failed to request messages from SQS, sleeping for " + sleepSeconds + " seconds", e);
-          sleepSeconds = SQS_FAILURE_SLEEP_SECS;
+              "Failed to request messages from SQS, sleeping for " + sleepMillis + "ms", e);
         }
 
       } else {
-        LOGGER.trace("No active connections found, sleeping for {} seconds", sleepSeconds);
+        LOGGER.trace("No active connections found, sleeping for {}ms", sleepMillis);
+        prefetcher.drain();
+      }
+
+      if (sleepMillis < 1) {
+        continue;
       }
 
       try {
-        TimeUnit.SECONDS.sleep(sleepSeconds);
+        TimeUnit.MILLISECONDS.sleep(sleepMillis);
       } catch (InterruptedException e) {
         Thread.currentThread().interrupt();
       }
     }
+    prefetcher.drain();
+    LOGGER.info("Stopped {}", name);
+  }
+
+  /**
+   * Process a batch of messages on the executor and wait for all of them to finish, then delete the
+   * processed messages, or wait for their events to be acknowledged, and release the rest.
+   *
+   * @param messages Messages to process
+   */
+  private void process(final List<Message> messages) {
+    final long generation = acks == null ? 0 : acks.getGeneration();
+    final List<Future<Boolean>> futures = new ArrayList<>(messages.size());
+    try {
+      for (Message message : messages) {
+        futures.add(executor.submit(() -> processor.test(message)));
+      }
+    } catch (RuntimeException e) {
+      futures.forEach(future -> future.cancel(true));
+      leases.release(messages);
+      throw e;
+    }
+
+    final List<Message> abandoned = new ArrayList<>();
+    for (int i = 0; i < messages.size(); i++) {
+      final Message message = messages.get(i);
+      if (!await(futures.get(i), message)) {
+        abandoned.add(message);
+      } else if (acks == null) {
+        delete(message);
+      } else {
+        processedMessages.mark();
+        acks.await(message, generation);
+      }
+    }
+    leases.release(abandoned);
+  }
+
+  /**
+   * Wait for a message to be processed
+   *
+   * @param future Pending result of {@link MessageProcessor#test}
+   * @param message Message being processed
+   * @return true if the message was fully processed, otherwise false
+   */
+  private static boolean await(final Future<Boolean> future, final Message message) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      future.cancel(true);
+    } catch (ExecutionException e) {
+      LOGGER.error("Failed to process message: " + message.getMessageId(), e.getCause());
+    }
+    return false;
+  }
+
+  /**
+   * Queue a fully processed message to be deleted from SQS
+   *
+   * @param message SQS message to delete
+   */
+  private void delete(final Message message) {
+    processedMessages.mark();
+    leases.complete(message);
+    deleter.deleteMessage(message);
   }
 }
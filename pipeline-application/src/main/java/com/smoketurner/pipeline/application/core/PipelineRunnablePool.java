@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Preconditions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class PipelineRunnablePool {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PipelineRunnablePool.class);
+  private final ExecutorService executor;
+  private final Function<String, PipelineRunnable> factory;
+  private final int maxPollers;
+
+  @GuardedBy("this")
+  private final List<PipelineRunnable> pollers = new ArrayList<>();
+
+  @GuardedBy("this")
+  private int nextPoller = 0;
+
+  /**
+   * Constructor
+   *
+   * @param executor Executor service to run each poller on
+   * @param factory Function to create a new poller with the given name
+   * @param maxPollers Maximum number of concurrent pollers
+   */
+  public PipelineRunnablePool(
+      @Nonnull final ExecutorService executor,
+      @Nonnull final Function<String, PipelineRunnable> factory,
+      final int maxPollers) {
+    Preconditions.checkArgument(maxPollers > 0, "maxPollers must be greater than zero");
+    this.executor = Objects.requireNonNull(executor);
+    this.factory = Objects.requireNonNull(factory);
+    this.maxPollers = maxPollers;
+
+    final MetricRegistry registry = SharedMetricRegistries.getOrCreate("default");
+    registry.register(
+        name(PipelineRunnablePool.class, "pollers"),
+        new Gauge<Integer>() {
+          @Override
+          public Integer getValue() {
+            return size();
+          }
+        });
+  }
+
+  /**
+   * Start or stop pollers until the requested number of pollers are running. Stopped pollers finish
+   * processing their current batch before exiting.
+   *
+   * @param count Number of pollers to run
+   * @return the number of pollers now running
+   * @throws IllegalArgumentException if count is negative or greater than the maximum
+   */
+  public synchronized int resize(final int count) {
+    Preconditions.checkArgument(
+        count >= 0 && count <= maxPollers, "pollers must be between 0 and %s", maxPollers);
+
+    while (pollers.size() < count) {
+      final PipelineRunnable poller = factory.apply("poller-" + nextPoller++);
+      pollers.add(poller);
+      executor.execute(poller);
+    }
+
+    while (pollers.size() > count) {
+      pollers.remove(pollers.size() - 1).stop();
+    }
+
+    LOGGER.info("Running {} SQS pollers", pollers.size());
+    return pollers.size();
+  }
+
+  /**
+   * Return the number of running pollers
+   *
+   * @return number of running pollers
+   */
+  public synchronized int size() {
+    return pollers.size();
+  }
+
+  /**
+   * Return the maximum number of pollers
+   *
+   * @return maximum number of pollers
+   */
+  public int getMaxPollers() {
+    return maxPollers;
+  }
+
+  /** Stop all of the running pollers */
+  public void stop() {
+    resize(0);
+  }
+}
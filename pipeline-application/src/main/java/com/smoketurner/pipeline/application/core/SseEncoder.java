@@ -0,0 +1,207 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import javax.annotation.Nonnull;
+
+/**
+ * Encodes server-sent events into their wire format once, so the same bytes can be written to every
+ * connection. All methods are stateless and safe to call from concurrent producers.
+ */
+public final class SseEncoder {
+
+  private static final byte[] EVENT = "event: ".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] ID = "id: ".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] DATA = "data: ".getBytes(StandardCharsets.UTF_8);
+  private static final byte NEWLINE = '\n';
+  private static final byte[] NO_PREFIX = new byte[0];
+
+  private SseEncoder() {}
+
+  /**
+   * Encode an event as {@code event: <name>\ndata: <data>\n\n}. Any line breaks within the data are
+   * written as separate {@code data:} lines, so a client reassembles the data with {@code \n}
+   * separators and the frame can never be split early.
+   *
+   * @param name Event name
+   * @param data UTF-8 bytes of the event data
+   * @return encoded frame
+   */
+  public static byte[] encode(@Nonnull final String name, @Nonnull final byte[] data) {
+    return encode(NO_PREFIX, name, data);
+  }
+
+  /**
+   * Encode an event with an id as {@code id: <id>\nevent: <name>\ndata: <data>\n\n}. The id is sent
+   * back by a reconnecting client in the {@code Last-Event-ID} header.
+   *
+   * @param id Event id
+   * @param name Event name
+   * @param data UTF-8 bytes of the event data
+   * @return encoded frame
+   */
+  public static byte[] encode(
+      final long id, @Nonnull final String name, @Nonnull final byte[] data) {
+    return encode(("id: " + id + "\n").getBytes(StandardCharsets.UTF_8), name, data);
+  }
+
+  /**
+   * Add an id to a frame encoded without one, so an event can be encoded before its id is assigned
+   *
+   * @param id Event id
+   * @param frame Frame encoded by {@link #encode(String, byte[])}
+   * @return encoded frame with the id
+   */
+  public static byte[] withId(final long id, @Nonnull final byte[] frame) {
+    final byte[] prefix = ("id: " + id + "\n").getBytes(StandardCharsets.UTF_8);
+    final byte[] result = new byte[prefix.length + frame.length];
+    put(result, put(result, 0, prefix), frame);
+    return result;
+  }
+
+  private static byte[] encode(
+      final byte[] prefix, @Nonnull final String name, @Nonnull final byte[] data) {
+    final byte[] nameBytes = Objects.requireNonNull(name).getBytes(StandardCharsets.UTF_8);
+
+    int breaks = 0;
+    for (byte b : data) {
+      if (b == '\n' || b == '\r') {
+        breaks++;
+      }
+    }
+
+    if (breaks == 0) {
+      // common case: one data line, assembled with a single allocation
+      final byte[] frame =
+          new byte
+              [prefix.length + EVENT.length + nameBytes.length + 1 + DATA.length + data.length + 2];
+      int pos = put(frame, 0, prefix);
+      pos = put(frame, pos, EVENT);
+      pos = put(frame, pos, nameBytes);
+      frame[pos++] = NEWLINE;
+      pos = put(frame, pos, DATA);
+      pos = put(frame, pos, data);
+      frame[pos++] = NEWLINE;
+      frame[pos] = NEWLINE;
+      return frame;
+    }
+
+    final ByteArrayOutputStream out =
+        new ByteArrayOutputStream(
+            prefix.length
+                + EVENT.length
+                + nameBytes.length
+                + data.length
+                + (breaks + 1) * (DATA.length + 1)
+                + 2);
+    out.write(prefix, 0, prefix.length);
+    out.write(EVENT, 0, EVENT.length);
+    out.write(nameBytes, 0, nameBytes.length);
+    out.write(NEWLINE);
+    out.write(DATA, 0, DATA.length);
+    for (int i = 0; i < data.length; i++) {
+      final byte b = data[i];
+      if (b == '\r' || b == '\n') {
+        if (b == '\r' && i + 1 < data.length && data[i + 1] == '\n') {
+          i++;
+        }
+        out.write(NEWLINE);
+        out.write(DATA, 0, DATA.length);
+      } else {
+        out.write(b);
+      }
+    }
+    out.write(NEWLINE);
+    out.write(NEWLINE);
+    return out.toByteArray();
+  }
+
+  /**
+   * Encode an event with UTF-8 string data
+   *
+   * @param name Event name
+   * @param data Event data
+   * @return encoded frame
+   */
+  public static byte[] encode(@Nonnull final String name, @Nonnull final String data) {
+    return encode(name, data.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Decode the data of an encoded frame, joining multiple {@code data:} lines with {@code \n}
+   *
+   * @param frame Encoded frame
+   * @return UTF-8 bytes of the event data
+   */
+  public static byte[] data(@Nonnull final byte[] frame) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(frame.length);
+    boolean first = true;
+    int start = 0;
+    while (start < frame.length) {
+      int end = start;
+      while (end < frame.length && frame[end] != NEWLINE) {
+        end++;
+      }
+      if (startsWith(frame, start, end, DATA)) {
+        if (!first) {
+          out.write(NEWLINE);
+        }
+        out.write(frame, start + DATA.length, end - start - DATA.length);
+        first = false;
+      }
+      start = end + 1;
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Decode the id of an encoded frame
+   *
+   * @param frame Encoded frame
+   * @return event id, or -1 if the frame does not start with an id
+   */
+  public static long id(@Nonnull final byte[] frame) {
+    if (!startsWith(frame, 0, frame.length, ID)) {
+      return -1;
+    }
+    long id = 0;
+    for (int i = ID.length; i < frame.length && frame[i] != NEWLINE; i++) {
+      id = id * 10 + (frame[i] - '0');
+    }
+    return id;
+  }
+
+  private static boolean startsWith(
+      final byte[] bytes, final int start, final int end, final byte[] prefix) {
+    if (end - start < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (bytes[start + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int put(final byte[] dest, final int pos, final byte[] src) {
+    System.arraycopy(src, 0, dest, pos, src.length);
+    return pos + src.length;
+  }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+
+/**
+ * Server-sent event stream of frames already encoded by {@link SseEncoder}. Each chunk is written
+ * to the connection as-is, so a frame broadcast to many connections is only serialized once.
+ */
+public class SseEventOutput extends ChunkedOutput<byte[]> {
+
+  /** Constructor */
+  public SseEventOutput() {
+    super(byte[].class);
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.annotation.Nonnull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One connected SSE client. Broadcast frames are placed on a bounded queue and written to the
+ * connection by a writer task on a separate executor, so a slow client only ever delays itself.
+ * When the queue is full, the {@link OverflowPolicy} decides whether to drop a frame or disconnect
+ * the client.
+ */
+public class SseSubscriber {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SseSubscriber.class);
+  private final String id;
+  private final SseEventOutput output;
+  private final Executor executor;
+  private final OverflowPolicy policy;
+  private final Consumer<SseSubscriber> onClose;
+  private final BlockingQueue<Frame> queue;
+  private final int batchSize;
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+
+  // metrics
+  private final MetricRegistry registry;
+  private final Meter drops;
+  private final Meter totalDrops;
+  private final Meter evictions;
+  private final Timer lag;
+
+  /**
+   * Constructor
+   *
+   * @param id Unique subscriber identifier, used in metric names
+   * @param output Connection to write frames to
+   * @param executor Executor service to write frames on
+   * @param queueSize Maximum number of frames queued for the connection
+   * @param policy What to do when the queue is full
+   * @param onClose Called once when the subscriber is closed
+   */
+  public SseSubscriber(
+      @Nonnull final String id,
+      @Nonnull final SseEventOutput output,
+      @Nonnull final Executor executor,
+      final int queueSize,
+      @Nonnull final OverflowPolicy policy,
+      @Nonnull final Consumer<SseSubscriber> onClose) {
+    Preconditions.checkArgument(queueSize > 0, "queueSize must be greater than zero");
+    this.id = Objects.requireNonNull(id);
+    this.output = Objects.requireNonNull(output);
+    this.executor = Objects.requireNonNull(executor);
+    this.policy = Objects.requireNonNull(policy);
+    this.onClose = Objects.requireNonNull(onClose);
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    this.batchSize = queueSize;
+
+    this.registry = SharedMetricRegistries.getOrCreate("default");
+    this.drops = registry.meter(name(SseSubscriber.class, id, "drops"));
+    this.lag = registry.timer(name(SseSubscriber.class, id, "lag"));
+    registry.register(name(SseSubscriber.class, id, "queue-depth"), (Gauge<Integer>) queue::size);
+    this.totalDrops = registry.meter(name(SseSubscriber.class, "drops"));
+    this.evictions = registry.meter(name(SseSubscriber.class, "evictions"));
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public SseEventOutput getOutput() {
+    return output;
+  }
+
+  /**
+   * Return the number of frames waiting to be written
+   *
+   * @return queue depth
+   */
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  public boolean isClosed() {
+    return closed.get();
+  }
+
+  /**
+   * Queue a frame to be written to the connection
+   *
+   * @param frame Encoded SSE frame
+   * @return true if the subscriber is still connected, otherwise false
+   */
+  public boolean offer(@Nonnull final byte[] frame) {
+    if (closed.get()) {
+      return false;
+    }
+
+    final Frame pending = new Frame(frame, System.nanoTime());
+    if (!queue.offer(pending)) {
+      switch (policy) {
+        case DROP_NEWEST:
+          markDropped();
+          break;
+        case DROP_OLDEST:
+          do {
+            if (queue.poll() != null) {
+              markDropped();
+            }
+          } while (!queue.offer(pending));
+          break;
+        case DISCONNECT:
+          LOGGER.warn("Disconnecting slow subscriber {} with {} queued events", id, queue.size());
+          evictions.mark();
+          close();
+          return false;
+      }
+    }
+    schedule();
+    return true;
+  }
+
+  /**
+   * Write a frame directly to the connection, bypassing the queue. Only used to replay events
+   * before the subscriber joins the live stream.
+   *
+   * @param frame Encoded SSE frame
+   * @throws IOException if unable to write to the connection
+   */
+  public void write(@Nonnull final byte[] frame) throws IOException {
+    output.write(frame);
+  }
+
+  /** Close the connection and discard any queued frames. */
+  public void close() {
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+    queue.clear();
+    try {
+      output.close();
+    } catch (IOException e) {
+      LOGGER.trace("Failed to close subscriber {}", id, e);
+    }
+    registry.remove(name(SseSubscriber.class, id, "drops"));
+    registry.remove(name(SseSubscriber.class, id, "lag"));
+    registry.remove(name(SseSubscriber.class, id, "queue-depth"));
+    onClose.accept(this);
+  }
+
+  private void markDropped() {
+    drops.mark();
+    totalDrops.mark();
+  }
+
+  /** Start a writer task unless one is already running. */
+  private void schedule() {
+    if (closed.get() || !scheduled.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      executor.execute(this::drain);
+    } catch (RejectedExecutionException e) {
+      scheduled.set(false);
+      LOGGER.warn("Unable to schedule writer for subscriber {}, closing", id);
+      close();
+    }
+  }
+
+  /**
+   * Write up to one queue's worth of frames to the connection, then yield the writer thread and
+   * reschedule if more frames have arrived.
+   */
+  private void drain() {
+    try {
+      Frame frame;
+      int written = 0;
+      while (written < batchSize && !closed.get() && (frame = queue.poll()) != null) {
+        if (output.isClosed()) {
+          close();
+          return;
+        }
+        output.write(frame.bytes);
+        lag.update(System.nanoTime() - frame.queuedNanos, TimeUnit.NANOSECONDS);
+        written++;
+      }
+    } catch (IOException e) {
+      LOGGER.trace("Failed to write to subscriber {}, closing", id, e);
+      close();
+      return;
+    } finally {
+      scheduled.set(false);
+    }
+    if (!queue.isEmpty()) {
+      schedule();
+    }
+  }
+
+  private static final class Frame {
+    private final byte[] bytes;
+    private final long queuedNanos;
+
+    Frame(final byte[] bytes, final long queuedNanos) {
+      this.bytes = bytes;
+      this.queuedNanos = queuedNanos;
+    }
+  }
+}
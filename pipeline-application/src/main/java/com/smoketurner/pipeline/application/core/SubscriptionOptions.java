@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import java.util.Objects;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Options of a connection added to an {@link InstrumentedSseBroadcaster}: which events it is sent,
+ * which of their fields, and which consumer it belongs to. Options are immutable, so each {@code
+ * with} method returns a copy, starting from {@link #ALL}.
+ */
+@Immutable
+public final class SubscriptionOptions {
+
+  /** Every event, whole, to an anonymous connection */
+  public static final SubscriptionOptions ALL = new SubscriptionOptions(null, null, null);
+
+  @Nullable private final EventFilter filter;
+  @Nullable private final EventProjection projection;
+  @Nullable private final String consumer;
+
+  /**
+   * Constructor
+   *
+   * @param filter Filter of the events to send, or null to send every event
+   * @param projection Fields of each event to send, or null to send whole events
+   * @param consumer Consumer name, or null for an anonymous connection
+   */
+  private SubscriptionOptions(
+      @Nullable final EventFilter filter,
+      @Nullable final EventProjection projection,
+      @Nullable final String consumer) {
+    this.filter = filter;
+    this.projection = projection;
+    this.consumer = consumer;
+  }
+
+  /**
+   * Return a copy of these options which only sends the events accepted by a filter
+   *
+   * @param filter Filter of the events to send, or null to send every event
+   * @return the options
+   */
+  public SubscriptionOptions withFilter(@Nullable final EventFilter filter) {
+    return new SubscriptionOptions(filter, projection, consumer);
+  }
+
+  /**
+   * Return a copy of these options which projects each event to a subset of its fields
+   *
+   * @param projection Fields of each event to send, or null to send whole events
+   * @return the options
+   */
+  public SubscriptionOptions withProjection(@Nullable final EventProjection projection) {
+    return new SubscriptionOptions(filter, projection, consumer);
+  }
+
+  /**
+   * Return a copy of these options for a named consumer. The connection of a required consumer
+   * joins the live stream and must acknowledge the events it is sent.
+   *
+   * @param consumer Consumer name, or null for an anonymous connection
+   * @return the options
+   */
+  public SubscriptionOptions withConsumer(@Nullable final String consumer) {
+    return new SubscriptionOptions(filter, projection, consumer);
+  }
+
+  @Nullable
+  public EventFilter getFilter() {
+    return filter;
+  }
+
+  @Nullable
+  public EventProjection getProjection() {
+    return projection;
+  }
+
+  @Nullable
+  public String getConsumer() {
+    return consumer;
+  }
+
+  @Override
+  public boolean equals(final Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (other == null || getClass() != other.getClass()) {
+      return false;
+    }
+    final SubscriptionOptions options = (SubscriptionOptions) other;
+    return Objects.equals(filter, options.filter)
+        && Objects.equals(projection, options.projection)
+        && Objects.equals(consumer, options.consumer);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(filter, projection, consumer);
+  }
+
+  @Override
+  public String toString() {
+    return "SubscriptionOptions{filter="
+        + filter
+        + ", projection="
+        + projection
+        + ", consumer="
+        + consumer
+        + "}";
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.managed;
+
+import com.smoketurner.pipeline.application.core.EventLog;
+import io.dropwizard.lifecycle.Managed;
+import java.util.Objects;
+import javax.annotation.Nonnull;
+
+public class EventLogManager implements Managed {
+
+  private final EventLog log;
+
+  /**
+   * Constructor
+   *
+   * @param log EventLog to manage
+   */
+  public EventLogManager(@Nonnull final EventLog log) {
+    this.log = Objects.requireNonNull(log);
+  }
+
+  @Override
+  public void start() throws Exception {
+    // nothing to start
+  }
+
+  @Override
+  public void stop() throws Exception {
+    log.close();
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.managed;
+
+import com.smoketurner.pipeline.application.core.PipelineRunnablePool;
+import io.dropwizard.lifecycle.Managed;
+import java.util.Objects;
+import javax.annotation.Nonnull;
+
+public class PipelineRunnablePoolManager implements Managed {
+
+  private final PipelineRunnablePool pool;
+  private final int pollers;
+
+  /**
+   * Constructor
+   *
+   * @param pool PipelineRunnablePool to manage
+   * @param pollers Number of pollers to start
+   */
+  public PipelineRunnablePoolManager(@Nonnull final PipelineRunnablePool pool, final int pollers) {
+    this.pool = Objects.requireNonNull(pool);
+    this.pollers = pollers;
+  }
+
+  @Override
+  public void start() throws Exception {
+    pool.resize(pollers);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    pool.stop();
+  }
+}
@@ -17,16 +17,31 @@ package com.smoketurner.pipeline.application.resources;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.smoketurner.pipeline.application.core.AckTracker;
+import com.smoketurner.pipeline.application.core.ChannelRouter;
+import com.smoketurner.pipeline.application.core.EventFilter;
+import com.smoketurner.pipeline.application.core.EventProjection;
 import com.smoketurner.pipeline.application.core.InstrumentedSseBroadcaster;
+import com.smoketurner.pipeline.application.core.SseEventOutput;
+import com.smoketurner.pipeline.application.core.SubscriptionOptions;
 import io.dropwizard.util.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Singleton;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.BeanParam;
+import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.GET;
-import javax.ws.rs.HeaderParam;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.ServiceUnavailableException;
-import org.glassfish.jersey.media.sse.EventOutput;
+import javax.ws.rs.core.Response;
 import org.glassfish.jersey.media.sse.SseFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,28 +52,182 @@ public class EventResource {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(EventResource.class);
   private static final Duration RETRY_AFTER = Duration.seconds(5);
-  private final InstrumentedSseBroadcaster broadcaster;
+  private final ChannelRouter router;
+  @Nullable private final AckTracker acks;
 
   /**
    * Constructor
    *
-   * @param broadcaster SSE broadcaster
+   * @param router Channel router
    */
-  public EventResource(@Nonnull final InstrumentedSseBroadcaster broadcaster) {
-    this.broadcaster = Preconditions.checkNotNull(broadcaster);
+  public EventResource(@Nonnull final ChannelRouter router) {
+    this(router, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param router Channel router
+   * @param acks Tracker of the events acknowledged by required consumers, if any
+   */
+  public EventResource(@Nonnull final ChannelRouter router, @Nullable final AckTracker acks) {
+    this.router = Preconditions.checkNotNull(router);
+    this.acks = acks;
   }
 
   @GET
   @Produces(SseFeature.SERVER_SENT_EVENTS)
-  public EventOutput fetch(@HeaderParam(SseFeature.LAST_EVENT_ID_HEADER) String lastEventId) {
-    if (!Strings.isNullOrEmpty(lastEventId)) {
-      LOGGER.debug("Found Last-Event-ID header: {}", lastEventId);
+  public SseEventOutput fetch(@BeanParam SubscriptionParams params) {
+    return subscribe(router.getBroadcaster(), params);
+  }
+
+  /**
+   * Acknowledge every event up to and including an event id on a connection of a required consumer
+   *
+   * @param connection Connection token, as sent in the connection's subscribed event
+   * @param id Last event id processed by the client
+   * @throws BadRequestException if the connection or event id is missing
+   * @throws NotFoundException if acknowledgements are not enabled or the connection is not open
+   */
+  @POST
+  @Path("ack")
+  public void acknowledge(@QueryParam("connection") String connection, @QueryParam("id") Long id) {
+    if (Strings.isNullOrEmpty(connection) || id == null) {
+      throw new BadRequestException("connection and id are required");
+    }
+    if (acks == null || !acks.acknowledge(connection, id)) {
+      throw new NotFoundException("Connection not found: " + connection);
     }
+  }
 
-    final EventOutput output = new EventOutput();
-    if (!broadcaster.add(output)) {
+  @GET
+  @Path("{channel}")
+  @Produces(SseFeature.SERVER_SENT_EVENTS)
+  public SseEventOutput fetchChannel(
+      @PathParam("channel") String channel, @BeanParam SubscriptionParams params) {
+    final InstrumentedSseBroadcaster broadcaster = router.getChannel(channel);
+    if (broadcaster == null) {
+      throw new NotFoundException("Channel not found: " + channel);
+    }
+    return subscribe(broadcaster, params);
+  }
+
+  /**
+   * Add a new connection to a broadcaster. A connection which joins a consumer group, or is a
+   * required consumer, always starts from the live stream, so its Last-Event-ID header and since
+   * parameter are ignored.
+   *
+   * @param broadcaster SSE broadcaster to subscribe to
+   * @param params Request parameters
+   * @return the connection
+   * @throws BadRequestException if the timestamp, a filter expression, a pointer or the partition
+   *     key is invalid
+   * @throws ClientErrorException if the consumer group has members with a different partition key
+   *     or filter, or the required consumer is connected to another channel
+   * @throws ServiceUnavailableException if the broadcaster did not accept the connection
+   */
+  private static SseEventOutput subscribe(
+      final InstrumentedSseBroadcaster broadcaster, final SubscriptionParams params) {
+    EventFilter filter = null;
+    EventProjection projection = null;
+    try {
+      if (params.getFilter() != null && !params.getFilter().isEmpty()) {
+        filter = EventFilter.parse(params.getFilter());
+      }
+      if (params.getFields() != null && !params.getFields().isEmpty()) {
+        projection = new EventProjection(params.getFields());
+      }
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException(e.getMessage());
+    }
+
+    final SseEventOutput output = new SseEventOutput();
+    final boolean added;
+    if (!Strings.isNullOrEmpty(params.getGroup())) {
+      try {
+        added =
+            broadcaster.addToGroup(
+                output,
+                params.getGroup(),
+                Strings.emptyToNull(params.getPartitionKey()),
+                filter,
+                projection);
+      } catch (IllegalStateException e) {
+        throw new ClientErrorException(e.getMessage(), Response.Status.CONFLICT);
+      }
+    } else if (!Strings.isNullOrEmpty(params.getPartitionKey())) {
+      throw new BadRequestException("partitionKey requires a consumer group");
+    } else {
+      try {
+        added = addSubscriber(broadcaster, output, params, filter, projection);
+      } catch (IllegalStateException e) {
+        throw new ClientErrorException(e.getMessage(), Response.Status.CONFLICT);
+      }
+    }
+    if (!added) {
       throw new ServiceUnavailableException(RETRY_AFTER.toSeconds());
     }
     return output;
   }
+
+  /**
+   * Add a new connection which receives every event, replaying any it missed
+   *
+   * @param broadcaster SSE broadcaster to subscribe to
+   * @param output Connection to add
+   * @param params Request parameters
+   * @param filter Filter of the events to send, if any
+   * @param projection Fields of each event to send, if any
+   * @return true if the connection was added, otherwise false
+   */
+  private static boolean addSubscriber(
+      final InstrumentedSseBroadcaster broadcaster,
+      final SseEventOutput output,
+      final SubscriptionParams params,
+      @Nullable final EventFilter filter,
+      @Nullable final EventProjection projection) {
+    final String consumer = Strings.emptyToNull(params.getConsumer());
+    final String lastEventId = params.getLastEventId();
+    Long lastId = null;
+    if (!Strings.isNullOrEmpty(lastEventId)) {
+      LOGGER.debug("Found Last-Event-ID header: {}", lastEventId);
+      try {
+        lastId = Long.valueOf(lastEventId.trim());
+      } catch (NumberFormatException e) {
+        LOGGER.debug("Ignoring invalid Last-Event-ID header: {}", lastEventId);
+      }
+    }
+
+    final SubscriptionOptions options =
+        SubscriptionOptions.ALL
+            .withFilter(filter)
+            .withProjection(projection)
+            .withConsumer(consumer);
+    if (lastId == null && !Strings.isNullOrEmpty(params.getSince())) {
+      // a reconnecting client resends the same URL, so Last-Event-ID wins
+      return broadcaster.addSince(output, parseTimestamp(params.getSince()), options);
+    }
+    return broadcaster.add(output, lastId, options);
+  }
+
+  /**
+   * Parse a timestamp given as epoch milliseconds or an ISO-8601 date-time with an offset, such as
+   * {@code 2019-05-01T14:05:00Z}
+   *
+   * @param value Timestamp to parse
+   * @return epoch milliseconds
+   * @throws BadRequestException if the timestamp is invalid
+   */
+  private static long parseTimestamp(final String value) {
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      // not epoch milliseconds
+    }
+    try {
+      return ZonedDateTime.parse(value.trim()).toInstant().toEpochMilli();
+    } catch (DateTimeParseException e) {
+      throw new BadRequestException("Invalid since timestamp: " + value);
+    }
+  }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.resources;
+
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.QueryParam;
+import org.glassfish.jersey.media.sse.SseFeature;
+
+/** Request parameters which control what a new SSE connection is sent */
+public class SubscriptionParams {
+
+  @HeaderParam(SseFeature.LAST_EVENT_ID_HEADER)
+  private String lastEventId;
+
+  @QueryParam("since")
+  private String since;
+
+  @QueryParam("filter")
+  private List<String> filter;
+
+  @QueryParam("fields")
+  private List<String> fields;
+
+  @QueryParam("group")
+  private String group;
+
+  @QueryParam("partitionKey")
+  private String partitionKey;
+
+  @QueryParam("consumer")
+  private String consumer;
+
+  /** @return Last-Event-ID header of a reconnecting client */
+  @Nullable
+  public String getLastEventId() {
+    return lastEventId;
+  }
+
+  /** @return timestamp to replay events from */
+  @Nullable
+  public String getSince() {
+    return since;
+  }
+
+  /** @return filter expressions which events must match */
+  @Nullable
+  public List<String> getFilter() {
+    return filter;
+  }
+
+  /** @return JSON pointers of the fields of each event to send */
+  @Nullable
+  public List<String> getFields() {
+    return fields;
+  }
+
+  /** @return consumer group to join */
+  @Nullable
+  public String getGroup() {
+    return group;
+  }
+
+  /** @return dotted path of the field to partition a consumer group's events by */
+  @Nullable
+  public String getPartitionKey() {
+    return partitionKey;
+  }
+
+  /** @return consumer name of a connection which acknowledges the events it is sent */
+  @Nullable
+  public String getConsumer() {
+    return consumer;
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.tasks;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.smoketurner.pipeline.application.core.PipelineRunnablePool;
+import io.dropwizard.servlets.tasks.Task;
+import java.io.PrintWriter;
+import java.util.Objects;
+import javax.annotation.Nonnull;
+
+/**
+ * Adjust the number of running SQS pollers at runtime.
+ *
+ * <p>Usage: {@code POST /tasks/pollers?count=4}. Without a count the current number of pollers is
+ * returned.
+ */
+public class PollersTask extends Task {
+
+  private static final String COUNT_PARAM = "count";
+  private final PipelineRunnablePool pool;
+
+  /**
+   * Constructor
+   *
+   * @param pool Poller pool to resize
+   */
+  public PollersTask(@Nonnull final PipelineRunnablePool pool) {
+    super("pollers");
+    this.pool = Objects.requireNonNull(pool);
+  }
+
+  @Override
+  public void execute(final ImmutableMultimap<String, String> parameters, final PrintWriter output)
+      throws Exception {
+    if (!parameters.containsKey(COUNT_PARAM)) {
+      output.printf("pollers: %d (max %d)%n", pool.size(), pool.getMaxPollers());
+      return;
+    }
+
+    final int count;
+    try {
+      count = Integer.parseInt(parameters.get(COUNT_PARAM).iterator().next().trim());
+    } catch (NumberFormatException e) {
+      output.println("count must be an integer");
+      return;
+    }
+
+    try {
+      output.printf("pollers: %d%n", pool.resize(count));
+    } catch (IllegalArgumentException e) {
+      output.println(e.getMessage());
+    }
+  }
+}
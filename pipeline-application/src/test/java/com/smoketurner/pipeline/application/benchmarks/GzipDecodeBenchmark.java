@@ -0,0 +1,156 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.benchmarks;
+
+import com.smoketurner.pipeline.application.codec.InflaterPool;
+import com.smoketurner.pipeline.application.codec.PooledGzipInputStream;
+import com.smoketurner.pipeline.application.core.StreamingGZIPInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the JDK gzip decode path with the pooled, large-buffer path on a gzipped file of JSON
+ * log lines. Each operation decodes and splits the whole file into lines, so MB/s is the score
+ * multiplied by {@code sizeMegabytes}.
+ *
+ * <p>Run with: {@code java -cp <test classpath> <this class>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GzipDecodeBenchmark {
+
+  @Param({"16"})
+  public int sizeMegabytes;
+
+  @Param({"65536"})
+  public int bufferSize;
+
+  private byte[] compressed;
+  private InflaterPool pool;
+
+  @Setup
+  public void setUp() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final long size = sizeMegabytes * 1024L * 1024L;
+    long written = 0;
+    try (OutputStream gzip = new GZIPOutputStream(out)) {
+      while (written < size) {
+        final byte[] line =
+            String.format(
+                    "{\"timestamp\":\"2019-05-01T12:%02d:%02d.%03dZ\",\"level\":\"%s\","
+                        + "\"request_id\":\"%016x\",\"path\":\"/v1/items/%d\",\"status\":%d,"
+                        + "\"duration_ms\":%d}\n",
+                    random.nextInt(60),
+                    random.nextInt(60),
+                    random.nextInt(1000),
+                    random.nextBoolean() ? "info" : "warn",
+                    random.nextLong(),
+                    random.nextInt(100_000),
+                    random.nextBoolean() ? 200 : 404,
+                    random.nextInt(2000))
+                .getBytes(StandardCharsets.UTF_8);
+        gzip.write(line);
+        written += line.length;
+      }
+    }
+    compressed = out.toByteArray();
+    pool = new InflaterPool(bufferSize, bufferSize, 4);
+  }
+
+  @Benchmark
+  public long jdkGzip() throws IOException {
+    return countLines(
+        new BufferedReader(
+            new InputStreamReader(
+                new StreamingGZIPInputStream(new ByteArrayInputStream(compressed)),
+                StandardCharsets.UTF_8)));
+  }
+
+  @Benchmark
+  public long pooledGzip() throws IOException {
+    return countLines(
+        new BufferedReader(
+            new InputStreamReader(
+                new PooledGzipInputStream(new ByteArrayInputStream(compressed), pool),
+                StandardCharsets.UTF_8),
+            bufferSize));
+  }
+
+  @Benchmark
+  public long jdkGzipBytes() throws IOException {
+    return drain(new StreamingGZIPInputStream(new ByteArrayInputStream(compressed)));
+  }
+
+  @Benchmark
+  public long pooledGzipBytes() throws IOException {
+    return drain(new PooledGzipInputStream(new ByteArrayInputStream(compressed), pool));
+  }
+
+  private static long countLines(final BufferedReader reader) throws IOException {
+    try (BufferedReader r = reader) {
+      long lines = 0;
+      while (r.readLine() != null) {
+        lines++;
+      }
+      return lines;
+    }
+  }
+
+  private static long drain(final InputStream input) throws IOException {
+    try (InputStream in = input) {
+      final byte[] buffer = new byte[8192];
+      long total = 0;
+      int n;
+      while ((n = in.read(buffer)) >= 0) {
+        total += n;
+      }
+      return total;
+    }
+  }
+
+  public static void main(final String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(GzipDecodeBenchmark.class.getSimpleName()).build())
+        .run();
+  }
+}
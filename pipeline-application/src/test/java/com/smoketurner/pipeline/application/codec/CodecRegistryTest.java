@@ -0,0 +1,151 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.codec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.snappy.FramedSnappyCompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.junit.Test;
+
+public class CodecRegistryTest {
+
+  private static final byte[] CONTENT =
+      "{\"event\":1}\n{\"event\":2}\n{\"event\":3}\n".getBytes(StandardCharsets.UTF_8);
+
+  private final CodecRegistry registry = new CodecRegistry();
+
+  @Test
+  public void testDecodeGzip() throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (OutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(CONTENT);
+    }
+    assertDecoded(out.toByteArray(), "gzip");
+  }
+
+  @Test
+  public void testDecodeZstd() throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (OutputStream zstd = new ZstdCompressorOutputStream(out)) {
+      zstd.write(CONTENT);
+    }
+    assertDecoded(out.toByteArray(), "zstd");
+  }
+
+  @Test
+  public void testDecodeLz4() throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (OutputStream lz4 = new FramedLZ4CompressorOutputStream(out)) {
+      lz4.write(CONTENT);
+    }
+    assertDecoded(out.toByteArray(), "lz4");
+  }
+
+  @Test
+  public void testDecodeSnappy() throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (OutputStream snappy = new FramedSnappyCompressorOutputStream(out)) {
+      snappy.write(CONTENT);
+    }
+    assertDecoded(out.toByteArray(), "snappy");
+  }
+
+  @Test
+  public void testDecodeBzip2() throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (OutputStream bzip2 = new BZip2CompressorOutputStream(out)) {
+      bzip2.write(CONTENT);
+    }
+    assertDecoded(out.toByteArray(), "bzip2");
+  }
+
+  @Test
+  public void testDecodeUncompressed() throws Exception {
+    assertThat(registry.detect(CONTENT, CONTENT.length, null, "events.json")).isEmpty();
+    assertDecoded(CONTENT, null);
+  }
+
+  @Test
+  public void testDecodeUncompressedStartingWithBzip2Magic() throws Exception {
+    final byte[] content = "BZh is not a bzip2 stream\n".getBytes(StandardCharsets.UTF_8);
+    assertThat(registry.detect(content, content.length, null, "events.json")).isEmpty();
+    final byte[] decoded =
+        ByteStreams.toByteArray(registry.decode(new ByteArrayInputStream(content), null, null));
+    assertThat(decoded).isEqualTo(content);
+  }
+
+  @Test
+  public void testDecodeEmptyBzip2() throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new BZip2CompressorOutputStream(out).close();
+    final byte[] empty = out.toByteArray();
+    assertThat(registry.detect(empty, empty.length, null, null))
+        .map(Codec::getName)
+        .contains("bzip2");
+  }
+
+  @Test
+  public void testDecodeEmpty() throws Exception {
+    final byte[] decoded =
+        ByteStreams.toByteArray(registry.decode(new ByteArrayInputStream(new byte[0]), null, null));
+    assertThat(decoded).isEmpty();
+  }
+
+  @Test
+  public void testDetectFallsBackToMetadata() {
+    final byte[] header = new byte[0];
+    assertThat(registry.detect(header, 0, " GZIP ", "events")).map(Codec::getName).contains("gzip");
+    assertThat(registry.detect(header, 0, null, "events.json.ZST"))
+        .map(Codec::getName)
+        .contains("zstd");
+    assertThat(registry.detect(header, 0, "lz4", "events.json.bz2"))
+        .map(Codec::getName)
+        .contains("lz4");
+  }
+
+  @Test
+  public void testMagicBytesWinOverMetadata() throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (OutputStream zstd = new ZstdCompressorOutputStream(out)) {
+      zstd.write(CONTENT);
+    }
+    final byte[] compressed = out.toByteArray();
+    assertThat(registry.detect(compressed, compressed.length, "gzip", "events.json.gz"))
+        .map(Codec::getName)
+        .contains("zstd");
+  }
+
+  private void assertDecoded(final byte[] compressed, final String codec) throws IOException {
+    if (codec != null) {
+      assertThat(registry.detect(compressed, compressed.length, null, null))
+          .map(Codec::getName)
+          .contains(codec);
+    }
+    final byte[] decoded =
+        ByteStreams.toByteArray(registry.decode(new ByteArrayInputStream(compressed), null, null));
+    assertThat(decoded).isEqualTo(CONTENT);
+  }
+}
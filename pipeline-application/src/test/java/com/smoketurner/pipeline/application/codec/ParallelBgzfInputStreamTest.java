@@ -0,0 +1,171 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.codec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+import org.junit.After;
+import org.junit.Test;
+
+public class ParallelBgzfInputStreamTest {
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+  private final InflaterPool pool = new InflaterPool(4096, 4096, 4);
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testInflatesBlocksInOrder() throws Exception {
+    final byte[] content = content(200_000);
+    final byte[] bgzf = bgzf(content, 10_000);
+
+    assertThat(ParallelBgzfInputStream.isBgzf(bgzf, bgzf.length)).isTrue();
+    try (InputStream input =
+        new ParallelBgzfInputStream(new ByteArrayInputStream(bgzf), executor, pool, 3)) {
+      assertThat(ByteStreams.toByteArray(input)).isEqualTo(content);
+    }
+  }
+
+  @Test
+  public void testCorruptBlock() throws Exception {
+    final byte[] bgzf = bgzf(content(50_000), 10_000);
+    // flip a bit in the CRC of the first block
+    final int blockSize = ((bgzf[16] & 0xff) | ((bgzf[17] & 0xff) << 8)) + 1;
+    bgzf[blockSize - 8] ^= 0x01;
+
+    try (InputStream input =
+        new ParallelBgzfInputStream(new ByteArrayInputStream(bgzf), executor, pool, 2)) {
+      ByteStreams.toByteArray(input);
+      failBecauseExceptionWasNotThrown(ZipException.class);
+    } catch (ZipException e) {
+      assertThat(e).hasMessageContaining("CRC");
+    }
+  }
+
+  @Test
+  public void testCodecUsesParallelPathForBgzf() throws Exception {
+    final byte[] content = content(100_000);
+    final GzipCodec codec = new GzipCodec(pool, executor, 4);
+
+    try (InputStream input = codec.decode(new ByteArrayInputStream(bgzf(content, 8_000)))) {
+      assertThat(input).isInstanceOf(ParallelBgzfInputStream.class);
+      assertThat(ByteStreams.toByteArray(input)).isEqualTo(content);
+    }
+  }
+
+  @Test
+  public void testCodecFallsBackForMultiMemberGzip() throws Exception {
+    final byte[] content = content(100_000);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < content.length; i += 30_000) {
+      try (OutputStream gzip = new GZIPOutputStream(new NonClosingOutputStream(out))) {
+        gzip.write(content, i, Math.min(30_000, content.length - i));
+      }
+    }
+
+    final GzipCodec codec = new GzipCodec(pool, executor, 4);
+    try (InputStream input = codec.decode(new ByteArrayInputStream(out.toByteArray()))) {
+      assertThat(input).isNotInstanceOf(ParallelBgzfInputStream.class);
+      assertThat(ByteStreams.toByteArray(input)).isEqualTo(content);
+    }
+  }
+
+  private static byte[] content(final int size) {
+    final StringBuilder builder = new StringBuilder(size);
+    int i = 0;
+    while (builder.length() < size) {
+      builder.append("{\"event\":").append(i++).append("}\n");
+    }
+    return builder.substring(0, size).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Compress content as BGZF blocks followed by the BGZF end-of-file marker
+   *
+   * @param content Content to compress
+   * @param blockSize Uncompressed bytes per block
+   * @return BGZF bytes
+   */
+  private static byte[] bgzf(final byte[] content, final int blockSize) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < content.length; i += blockSize) {
+      writeBlock(out, content, i, Math.min(blockSize, content.length - i));
+    }
+    writeBlock(out, content, 0, 0);
+    return out.toByteArray();
+  }
+
+  private static void writeBlock(
+      final ByteArrayOutputStream out, final byte[] content, final int off, final int len)
+      throws IOException {
+    final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    deflater.setInput(content, off, len);
+    deflater.finish();
+    final byte[] compressed = new byte[len + 1024];
+    final int compressedLength = deflater.deflate(compressed);
+    deflater.end();
+
+    final CRC32 crc = new CRC32();
+    crc.update(content, off, len);
+
+    final int blockSize = ParallelBgzfInputStream.HEADER_LENGTH + compressedLength + 8;
+    out.write(
+        new byte[] {0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0});
+    writeShort(out, blockSize - 1);
+    out.write(compressed, 0, compressedLength);
+    writeInt(out, crc.getValue());
+    writeInt(out, len);
+  }
+
+  private static void writeShort(final OutputStream out, final int value) throws IOException {
+    out.write(value & 0xff);
+    out.write((value >> 8) & 0xff);
+  }
+
+  private static void writeInt(final OutputStream out, final long value) throws IOException {
+    writeShort(out, (int) (value & 0xffff));
+    writeShort(out, (int) ((value >> 16) & 0xffff));
+  }
+
+  private static final class NonClosingOutputStream extends FilterOutputStream {
+    NonClosingOutputStream(final OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
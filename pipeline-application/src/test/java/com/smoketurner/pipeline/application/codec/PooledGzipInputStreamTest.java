@@ -0,0 +1,159 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.codec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
+import org.junit.Test;
+
+public class PooledGzipInputStreamTest {
+
+  private static final byte[] CONTENT = content(300_000);
+
+  @Test
+  public void testDecodesSingleMember() throws Exception {
+    final InflaterPool pool = new InflaterPool(65536, 65536, 2);
+    assertDecoded(gzip(CONTENT, 0, CONTENT.length), CONTENT, pool);
+  }
+
+  @Test
+  public void testDecodesWithTinyBuffers() throws Exception {
+    final InflaterPool pool = new InflaterPool(1, 7, 2);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(gzip(CONTENT, 0, 1000));
+    out.write(gzip(CONTENT, 1000, 2000));
+    assertDecoded(out.toByteArray(), Arrays.copyOf(CONTENT, 3000), pool);
+  }
+
+  @Test
+  public void testDecodesMultipleMembers() throws Exception {
+    final InflaterPool pool = new InflaterPool(4096, 8192, 2);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < CONTENT.length; i += 70_000) {
+      out.write(gzip(CONTENT, i, Math.min(70_000, CONTENT.length - i)));
+    }
+    assertDecoded(out.toByteArray(), CONTENT, pool);
+  }
+
+  @Test
+  public void testSkipsOptionalHeaderFields() throws Exception {
+    final GzipParameters parameters = new GzipParameters();
+    parameters.setFilename("events.json");
+    parameters.setComment("pipeline");
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (OutputStream gzip = new GzipCompressorOutputStream(out, parameters)) {
+      gzip.write(CONTENT);
+    }
+    assertDecoded(out.toByteArray(), CONTENT, new InflaterPool(4096, 4096, 1));
+  }
+
+  @Test
+  public void testIgnoresTrailingGarbage() throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(gzip(CONTENT, 0, CONTENT.length));
+    out.write(new byte[] {0, 0, 0, 0});
+    assertDecoded(out.toByteArray(), CONTENT, new InflaterPool(4096, 4096, 1));
+  }
+
+  @Test
+  public void testIgnoresTrailingGarbageStartingWithMagic() throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(gzip(CONTENT, 0, CONTENT.length));
+    out.write(new byte[] {0x1f, 0x00});
+    assertDecoded(out.toByteArray(), CONTENT, new InflaterPool(4096, 4096, 1));
+  }
+
+  @Test
+  public void testCorruptTrailer() throws Exception {
+    final byte[] compressed = gzip(CONTENT, 0, CONTENT.length);
+    compressed[compressed.length - 8] ^= 0x01;
+
+    try (InputStream input =
+        new PooledGzipInputStream(
+            new ByteArrayInputStream(compressed), new InflaterPool(4096, 4096, 1))) {
+      ByteStreams.toByteArray(input);
+      failBecauseExceptionWasNotThrown(ZipException.class);
+    } catch (ZipException e) {
+      assertThat(e).hasMessage("Corrupt GZIP trailer");
+    }
+  }
+
+  @Test
+  public void testNotGzip() throws Exception {
+    final InflaterPool pool = new InflaterPool(4096, 4096, 1);
+    try {
+      new PooledGzipInputStream(new ByteArrayInputStream(CONTENT), pool);
+      failBecauseExceptionWasNotThrown(ZipException.class);
+    } catch (ZipException e) {
+      assertThat(e).hasMessage("Not in GZIP format");
+    }
+    assertThat(pool.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void testReusesInflaters() throws Exception {
+    final InflaterPool pool = new InflaterPool(4096, 4096, 1);
+    final byte[] compressed = gzip(CONTENT, 0, CONTENT.length);
+
+    assertDecoded(compressed, CONTENT, pool);
+    final InflaterPool.Entry first = pool.acquire();
+    pool.release(first);
+
+    assertDecoded(compressed, CONTENT, pool);
+    assertThat(pool.acquire()).isSameAs(first);
+  }
+
+  private static void assertDecoded(
+      final byte[] compressed, final byte[] expected, final InflaterPool pool) throws IOException {
+    try (InputStream input =
+        new PooledGzipInputStream(new ByteArrayInputStream(compressed), pool)) {
+      assertThat(ByteStreams.toByteArray(input)).isEqualTo(expected);
+    }
+    assertThat(pool.size()).isEqualTo(1);
+  }
+
+  private static byte[] gzip(final byte[] content, final int off, final int len)
+      throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (OutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(content, off, len);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] content(final int size) {
+    final StringBuilder builder = new StringBuilder(size);
+    int i = 0;
+    while (builder.length() < size) {
+      builder.append("{\"event\":").append(i++).append(",\"level\":\"info\"}\n");
+    }
+    return builder.substring(0, size).getBytes(StandardCharsets.UTF_8);
+  }
+}
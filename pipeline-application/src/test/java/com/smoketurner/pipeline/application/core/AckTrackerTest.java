@@ -0,0 +1,214 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.amazonaws.services.sqs.model.Message;
+import io.dropwizard.util.Duration;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+public class AckTrackerTest {
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+  private final AmazonSQSDeleteBatcher deleter = mock(AmazonSQSDeleteBatcher.class);
+  private final AmazonSQSLeaseTracker leases = mock(AmazonSQSLeaseTracker.class);
+  private final AckTracker acks =
+      new AckTracker(Collections.singletonList("billing"), 2, deleter, leases);
+  private final InstrumentedSseBroadcaster broadcaster = broadcaster(acks);
+  private final Message message = new Message().withMessageId("1").withReceiptHandle("r1");
+
+  @Test
+  public void testDeletesOnceAcknowledged() throws Exception {
+    final SseEventOutput output = mock(SseEventOutput.class);
+    assertThat(acks.isReady()).isFalse();
+    broadcaster.add(output, null, SubscriptionOptions.ALL.withConsumer("billing"));
+    assertThat(acks.isReady()).isTrue();
+
+    final long generation = acks.getGeneration();
+    broadcaster.test(bytes("a"));
+    broadcaster.test(bytes("b"));
+    acks.await(message, generation);
+
+    final List<byte[]> frames = written(output, 3);
+    final String connection = new String(SseEncoder.data(frames.get(0)), StandardCharsets.UTF_8);
+    assertThat(acks.acknowledge(connection, SseEncoder.id(frames.get(1)))).isTrue();
+    verify(deleter, never()).deleteMessage(any());
+    assertThat(acks.size()).isEqualTo(1);
+
+    assertThat(acks.acknowledge(connection, SseEncoder.id(frames.get(2)))).isTrue();
+    verify(leases).complete(message);
+    verify(deleter).deleteMessage(message);
+    assertThat(acks.size()).isZero();
+  }
+
+  @Test
+  public void testEventsNotSentNeedNoAcknowledgement() throws Exception {
+    final SseEventOutput output = mock(SseEventOutput.class);
+    broadcaster.add(
+        output,
+        null,
+        SubscriptionOptions.ALL
+            .withFilter(EventFilter.parse(Collections.singletonList("level=ERROR")))
+            .withConsumer("billing"));
+
+    final long generation = acks.getGeneration();
+    broadcaster.test(bytes("{\"level\":\"INFO\"}"));
+    acks.await(message, generation);
+
+    verify(deleter).deleteMessage(message);
+  }
+
+  @Test
+  public void testReleasesWhenEventsAreLost() throws Exception {
+    final SseEventOutput output = mock(SseEventOutput.class);
+    broadcaster.add(output, null, SubscriptionOptions.ALL.withConsumer("billing"));
+
+    final long generation = acks.getGeneration();
+    broadcaster.test(bytes("a"));
+    acks.await(message, generation);
+
+    // exceeding maxUnackedEvents disconnects the consumer
+    broadcaster.test(bytes("b"));
+    broadcaster.test(bytes("c"));
+    assertThat(broadcaster.isEmpty()).isTrue();
+    assertThat(acks.isReady()).isFalse();
+    verify(leases).release(Collections.singletonList(message));
+    assertThat(acks.size()).isZero();
+
+    // a message processed before the loss is released too
+    final Message late = new Message().withMessageId("2").withReceiptHandle("r2");
+    acks.await(late, generation);
+    verify(leases).release(Collections.singletonList(late));
+    verify(deleter, never()).deleteMessage(any());
+  }
+
+  @Test
+  public void testOnlyRequiredConsumersAreTracked() throws Exception {
+    final SseEventOutput output = mock(SseEventOutput.class);
+    broadcaster.add(output, null, SubscriptionOptions.ALL.withConsumer("reporting"));
+    broadcaster.test(bytes("a"));
+
+    assertThat(acks.isRequired("reporting")).isFalse();
+    assertThat(written(output, 1).get(0)).isNotEmpty();
+    assertThat(acks.acknowledge("unknown", 1)).isFalse();
+  }
+
+  @Test
+  public void testConnectionsAcknowledgeWithRandomTokens() throws Exception {
+    final SseEventOutput first = mock(SseEventOutput.class);
+    final SseEventOutput second = mock(SseEventOutput.class);
+    broadcaster.add(first, null, SubscriptionOptions.ALL.withConsumer("billing"));
+    broadcaster.add(second, null, SubscriptionOptions.ALL.withConsumer("billing"));
+
+    final String token =
+        new String(SseEncoder.data(written(first, 1).get(0)), StandardCharsets.UTF_8);
+    final String other =
+        new String(SseEncoder.data(written(second, 1).get(0)), StandardCharsets.UTF_8);
+    assertThat(UUID.fromString(token).toString()).isEqualTo(token);
+    assertThat(other).isNotEqualTo(token);
+    assertThat(acks.acknowledge(token, 0)).isTrue();
+  }
+
+  @Test
+  public void testConsumerOnOneChannel() throws Exception {
+    broadcaster.add(
+        mock(SseEventOutput.class), null, SubscriptionOptions.ALL.withConsumer("billing"));
+    final InstrumentedSseBroadcaster channel = broadcaster(acks);
+
+    assertThatThrownBy(
+            () ->
+                channel.add(
+                    mock(SseEventOutput.class),
+                    null,
+                    SubscriptionOptions.ALL.withConsumer("billing")))
+        .isInstanceOf(IllegalStateException.class);
+    assertThat(channel.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void testWaitsForSpooledEvents() throws Exception {
+    final Queue<Runnable> tasks = new ArrayDeque<>();
+    try (EventSpool spool =
+        new EventSpool(folder.getRoot().toPath(), 1024, 1024 * 1024, Duration.hours(1))) {
+      final InstrumentedSseBroadcaster channel =
+          InstrumentedSseBroadcaster.builder()
+              .writerExecutor(tasks::add)
+              .queueSize(16)
+              .history(new EventHistory(16, Duration.minutes(5)))
+              .acks(acks)
+              .spool(spool)
+              .build();
+      channel.test(bytes("a"));
+
+      // the spool is drained on a writer thread, so events broadcast
+      // meanwhile are spooled behind it
+      final SseEventOutput output = mock(SseEventOutput.class);
+      channel.add(output, null, SubscriptionOptions.ALL.withConsumer("billing"));
+      final long generation = acks.getGeneration();
+      channel.test(bytes("b"));
+      acks.await(message, generation);
+      verify(deleter, never()).deleteMessage(any());
+
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        task.run();
+      }
+      final List<byte[]> frames = written(output, 3);
+      final String connection = new String(SseEncoder.data(frames.get(0)), StandardCharsets.UTF_8);
+      assertThat(acks.acknowledge(connection, SseEncoder.id(frames.get(1)))).isTrue();
+      verify(deleter, never()).deleteMessage(any());
+
+      assertThat(acks.acknowledge(connection, SseEncoder.id(frames.get(2)))).isTrue();
+      verify(deleter).deleteMessage(message);
+    }
+  }
+
+  private static InstrumentedSseBroadcaster broadcaster(final AckTracker acks) {
+    return InstrumentedSseBroadcaster.builder()
+        .queueSize(16)
+        .history(new EventHistory(16, Duration.minutes(5)))
+        .acks(acks)
+        .build();
+  }
+
+  private static byte[] bytes(final String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static List<byte[]> written(final SseEventOutput output, final int count)
+      throws Exception {
+    final ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+    verify(output, times(count)).write(captor.capture());
+    return captor.getAllValues().stream().collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.NoSuchElementException;
+import org.junit.Test;
+
+public class AckWindowTest {
+
+  @Test
+  public void testAcknowledge() {
+    final AckWindow window = new AckWindow();
+    assertThat(window.isEmpty()).isTrue();
+    window.add(10);
+    window.add(12);
+    window.add(15);
+
+    assertThat(window.acknowledge(9)).isZero();
+    assertThat(window.first()).isEqualTo(10);
+    assertThat(window.acknowledge(13)).isEqualTo(2);
+    assertThat(window.first()).isEqualTo(15);
+    assertThat(window.acknowledge(15)).isEqualTo(1);
+    assertThat(window.isEmpty()).isTrue();
+    assertThatThrownBy(window::first).isInstanceOf(NoSuchElementException.class);
+  }
+
+  @Test
+  public void testGrowsAcrossWrap() {
+    final AckWindow window = new AckWindow();
+    for (int i = 0; i < 50; i++) {
+      window.add(i);
+    }
+    window.acknowledge(39);
+    for (int i = 50; i < 500; i++) {
+      window.add(i);
+    }
+
+    assertThat(window.size()).isEqualTo(460);
+    assertThat(window.first()).isEqualTo(40);
+    assertThat(window.acknowledge(498)).isEqualTo(459);
+    assertThat(window.first()).isEqualTo(499);
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.amazonaws.services.sqs.model.OverLimitException;
+import com.codahale.metrics.SharedMetricRegistries;
+import io.dropwizard.util.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptivePollSchedulerTest {
+
+  private final AtomicInteger queued = new AtomicInteger(0);
+  private AdaptivePollScheduler scheduler;
+
+  @Before
+  public void setUp() {
+    SharedMetricRegistries.clear();
+    queued.set(0);
+    scheduler =
+        new AdaptivePollScheduler(
+            Duration.milliseconds(100), Duration.milliseconds(1000), queued::get);
+  }
+
+  @Test
+  public void testFullBatchPollsImmediately() {
+    assertThat(scheduler.onReceive(10)).isEqualTo(0);
+    assertThat(scheduler.getFailures()).isEqualTo(0);
+  }
+
+  @Test
+  public void testPartialBatch() {
+    assertThat(scheduler.onReceive(5)).isEqualTo(100);
+
+    queued.set(1000);
+    assertThat(scheduler.onReceive(5)).isEqualTo(0);
+  }
+
+  @Test
+  public void testEmptyReceiveBacksOff() {
+    for (int i = 0; i < 10; i++) {
+      final long delay = scheduler.onReceive(0);
+      assertThat(delay).isBetween(100L, Math.min(1000L, 100L << i));
+    }
+    assertThat(scheduler.getFailures()).isEqualTo(10);
+
+    // a full batch resets the backoff
+    assertThat(scheduler.onReceive(10)).isEqualTo(0);
+    assertThat(scheduler.getFailures()).isEqualTo(0);
+  }
+
+  @Test
+  public void testEmptyReceiveWithQueuedMessages() {
+    queued.set(5);
+    assertThat(scheduler.onReceive(0)).isEqualTo(0);
+    assertThat(scheduler.getFailures()).isEqualTo(0);
+  }
+
+  @Test
+  public void testOverLimitBacksOffFurther() {
+    final long delay = scheduler.onError(new OverLimitException("limit"));
+    assertThat(delay).isBetween(100L, 800L);
+    assertThat(scheduler.getFailures()).isEqualTo(4);
+  }
+
+  @Test
+  public void testErrorBacksOff() {
+    assertThat(scheduler.onError(new RuntimeException("error"))).isEqualTo(100);
+    assertThat(scheduler.getFailures()).isEqualTo(1);
+  }
+}
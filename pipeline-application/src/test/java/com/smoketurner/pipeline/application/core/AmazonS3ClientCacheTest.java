@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.amazonaws.services.s3.AmazonS3;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class AmazonS3ClientCacheTest {
+
+  private final AmazonS3 defaultClient = mock(AmazonS3.class);
+  private final AmazonS3 westClient = mock(AmazonS3.class);
+  private final AtomicInteger built = new AtomicInteger();
+
+  private final AmazonS3ClientCache cache =
+      new AmazonS3ClientCache(
+          defaultClient,
+          "us-east-1",
+          region -> {
+            built.incrementAndGet();
+            if ("us-west-2".equals(region)) {
+              return westClient;
+            }
+            throw new IllegalArgumentException("Cannot create enum from " + region);
+          });
+
+  @Test
+  public void testDefaultRegion() {
+    assertThat(cache.get(null)).isSameAs(defaultClient);
+    assertThat(cache.get("")).isSameAs(defaultClient);
+    assertThat(cache.get("us-east-1")).isSameAs(defaultClient);
+    assertThat(built.get()).isZero();
+  }
+
+  @Test
+  public void testOtherRegionIsCreatedOnce() {
+    assertThat(cache.get("us-west-2")).isSameAs(westClient);
+    assertThat(cache.get("us-west-2")).isSameAs(westClient);
+    assertThat(built.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testUnknownRegionUsesDefault() {
+    assertThat(cache.get("mars-north-1")).isSameAs(defaultClient);
+    assertThat(built.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testClose() {
+    cache.get("us-west-2");
+    cache.get("mars-north-1");
+    cache.close();
+
+    verify(westClient).shutdown();
+    verify(defaultClient, never()).shutdown();
+  }
+}
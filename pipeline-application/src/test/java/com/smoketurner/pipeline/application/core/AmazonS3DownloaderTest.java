@@ -20,23 +20,28 @@ import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.Headers;
 import com.amazonaws.services.s3.event.S3EventNotification.S3BucketEntity;
 import com.amazonaws.services.s3.event.S3EventNotification.S3Entity;
 import com.amazonaws.services.s3.event.S3EventNotification.S3EventNotificationRecord;
 import com.amazonaws.services.s3.event.S3EventNotification.S3ObjectEntity;
 import com.amazonaws.services.s3.model.GetObjectRequest;
-import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.smoketurner.pipeline.application.exceptions.AmazonS3ConstraintException;
 import com.smoketurner.pipeline.application.exceptions.AmazonS3ZeroSizeException;
+import java.io.ByteArrayInputStream;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 public class AmazonS3DownloaderTest {
 
@@ -71,6 +76,45 @@ public class AmazonS3DownloaderTest {
     assertThat(actual).isEqualTo(expected);
   }
 
+  @Test
+  public void testFetchRanged() throws Exception {
+    final AmazonS3Downloader ranged =
+        new AmazonS3Downloader(
+            new AmazonS3ClientCache(mockS3),
+            MoreExecutors.newDirectExecutorService(),
+            50,
+            40,
+            2,
+            0);
+
+    when(mockS3.getObject(any(GetObjectRequest.class)))
+        .thenAnswer(
+            invocation -> {
+              final GetObjectRequest request = invocation.getArgument(0);
+              final int start = (int) request.getRange()[0];
+              final int end = (int) Math.min(request.getRange()[1], 99);
+              final S3Object part = new S3Object();
+              part.setKey("object-key");
+              part.setBucketName("bucket-name");
+              part.getObjectMetadata()
+                  .setHeader(Headers.CONTENT_RANGE, "bytes " + start + "-" + end + "/100");
+              part.getObjectMetadata().setContentLength(end - start + 1);
+              part.setObjectContent(new ByteArrayInputStream(new byte[end - start + 1]));
+              return part;
+            });
+
+    final S3Object actual = ranged.fetch(record);
+    assertThat(actual.getObjectMetadata().getContentLength()).isEqualTo(100);
+    assertThat(ByteStreams.toByteArray(actual.getObjectContent())).hasSize(100);
+
+    final ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+    verify(mockS3, times(3)).getObject(captor.capture());
+    assertThat(captor.getAllValues().get(0).getRange()).containsExactly(0L, 39L);
+    assertThat(captor.getAllValues().get(0).getMatchingETagConstraints())
+        .containsExactly("object eTag");
+    assertThat(captor.getAllValues().get(2).getRange()).containsExactly(80L, 99L);
+  }
+
   @Test
   public void testFetchInvalidETag() throws Exception {
     when(mockS3.getObject(any(GetObjectRequest.class))).thenReturn(null);
@@ -126,36 +170,4 @@ public class AmazonS3DownloaderTest {
     }
     verify(mockS3).getObject(any(GetObjectRequest.class));
   }
-
-  @Test
-  public void testIsGzipped() {
-    assertThat(AmazonS3Downloader.isGZipped(null)).isFalse();
-
-    final S3Object object = new S3Object();
-    assertThat(AmazonS3Downloader.isGZipped(object)).isFalse();
-
-    final ObjectMetadata metadata = object.getObjectMetadata();
-    metadata.setContentEncoding("gzip");
-    assertThat(AmazonS3Downloader.isGZipped(object)).isTrue();
-
-    metadata.setContentEncoding("GZIP");
-    assertThat(AmazonS3Downloader.isGZipped(object)).isTrue();
-
-    metadata.setContentEncoding(" GzIP ");
-    assertThat(AmazonS3Downloader.isGZipped(object)).isTrue();
-
-    metadata.setContentEncoding(null);
-
-    object.setKey("test");
-    assertThat(AmazonS3Downloader.isGZipped(object)).isFalse();
-
-    object.setKey("test.gz");
-    assertThat(AmazonS3Downloader.isGZipped(object)).isTrue();
-
-    object.setKey("test.gz   ");
-    assertThat(AmazonS3Downloader.isGZipped(object)).isTrue();
-
-    object.setKey("test.GZ ");
-    assertThat(AmazonS3Downloader.isGZipped(object)).isTrue();
-  }
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class AmazonS3RangedInputStreamTest {
+
+  private static final byte[] CONTENT = new byte[1000];
+
+  static {
+    for (int i = 0; i < CONTENT.length; i++) {
+      CONTENT[i] = (byte) i;
+    }
+  }
+
+  private final AmazonS3 s3 = mock(AmazonS3.class);
+  private final ExecutorService executor = MoreExecutors.newDirectExecutorService();
+
+  @Test
+  public void testReadsPartsInOrder() throws Exception {
+    when(s3.getObject(any(GetObjectRequest.class)))
+        .thenAnswer(invocation -> part(invocation.getArgument(0)));
+
+    final GetObjectRequest request = new GetObjectRequest("bucket", "key").withRange(0, 99);
+    try (AmazonS3RangedInputStream stream =
+        new AmazonS3RangedInputStream(s3, executor, part(request), 100, 3, 0)) {
+      assertThat(stream.getLength()).isEqualTo(1000);
+      assertThat(ByteStreams.toByteArray(stream)).isEqualTo(CONTENT);
+    }
+
+    final ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+    verify(s3, times(9)).getObject(captor.capture());
+    for (GetObjectRequest actual : captor.getAllValues()) {
+      assertThat(actual.getVersionId()).isEqualTo("version");
+      assertThat(actual.getMatchingETagConstraints()).containsExactly("etag");
+    }
+    assertThat(captor.getAllValues().get(8).getRange()).containsExactly(900L, 999L);
+  }
+
+  @Test
+  public void testChangedETagFailsRead() throws Exception {
+    when(s3.getObject(any(GetObjectRequest.class))).thenReturn(null);
+
+    final GetObjectRequest request = new GetObjectRequest("bucket", "key").withRange(0, 99);
+    try (AmazonS3RangedInputStream stream =
+        new AmazonS3RangedInputStream(s3, executor, part(request), 100, 2, 0)) {
+      ByteStreams.toByteArray(stream);
+      failBecauseExceptionWasNotThrown(IOException.class);
+    } catch (IOException e) {
+      assertThat(e).hasMessageContaining("eTag changed");
+    }
+    verify(s3, atLeastOnce()).getObject(any(GetObjectRequest.class));
+  }
+
+  @Test(timeout = 5000)
+  public void testReadsFirstPartConcurrently() throws Exception {
+    when(s3.getObject(any(GetObjectRequest.class)))
+        .thenAnswer(invocation -> part(invocation.getArgument(0)));
+
+    final ExecutorService pool = Executors.newFixedThreadPool(3);
+    try {
+      final GetObjectRequest request = new GetObjectRequest("bucket", "key").withRange(0, 99);
+      final S3Object first = part(request);
+      final BlockingInputStream body = new BlockingInputStream(first.getObjectContent());
+      first.setObjectContent(new S3ObjectInputStream(body, null));
+
+      try (AmazonS3RangedInputStream stream =
+          new AmazonS3RangedInputStream(s3, pool, first, 100, 3, 0)) {
+        // the next parts are requested while the first is still being read
+        assertThat(body.started.await(1, TimeUnit.SECONDS)).isTrue();
+        verify(s3, timeout(1000).times(2)).getObject(any(GetObjectRequest.class));
+
+        body.released.countDown();
+        assertThat(ByteStreams.toByteArray(stream)).isEqualTo(CONTENT);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void testCloseAbortsPartsInFlight() throws Exception {
+    final ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      final GetObjectRequest request = new GetObjectRequest("bucket", "key").withRange(0, 99);
+      final S3Object first = part(request);
+      final BlockingInputStream body = new BlockingInputStream(first.getObjectContent());
+      first.setObjectContent(new S3ObjectInputStream(body, null));
+
+      final AmazonS3RangedInputStream stream =
+          new AmazonS3RangedInputStream(s3, pool, first, 100, 1, 0);
+      assertThat(body.started.await(1, TimeUnit.SECONDS)).isTrue();
+
+      stream.close();
+      assertThat(body.closed.await(1, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private static S3Object part(final GetObjectRequest request) {
+    final long[] range = request.getRange();
+    final int start = (int) range[0];
+    final int end = (int) Math.min(range[1], CONTENT.length - 1);
+
+    final S3Object object = new S3Object();
+    object.setBucketName(request.getBucketName());
+    object.setKey(request.getKey());
+    object.getObjectMetadata().setHeader(Headers.ETAG, "etag");
+    object.getObjectMetadata().setHeader(Headers.S3_VERSION_ID, "version");
+    object
+        .getObjectMetadata()
+        .setHeader(
+            Headers.CONTENT_RANGE, String.format("bytes %d-%d/%d", start, end, CONTENT.length));
+    object.getObjectMetadata().setContentLength(end - start + 1);
+    object.setObjectContent(
+        new S3ObjectInputStream(
+            new ByteArrayInputStream(Arrays.copyOfRange(CONTENT, start, end + 1)), null));
+    return object;
+  }
+
+  /** Blocks every read until released, and fails them once closed */
+  private static final class BlockingInputStream extends FilterInputStream {
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    BlockingInputStream(final InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      await();
+      return super.read();
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      await();
+      return super.read(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed.countDown();
+      released.countDown();
+      super.close();
+    }
+
+    private void await() throws IOException {
+      started.countDown();
+      try {
+        released.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      if (closed.getCount() == 0) {
+        throw new IOException("Stream aborted");
+      }
+    }
+  }
+}
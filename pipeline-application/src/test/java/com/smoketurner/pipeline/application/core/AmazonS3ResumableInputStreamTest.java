@@ -0,0 +1,169 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketException;
+import java.util.Arrays;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class AmazonS3ResumableInputStreamTest {
+
+  private static final byte[] CONTENT = new byte[500];
+
+  static {
+    for (int i = 0; i < CONTENT.length; i++) {
+      CONTENT[i] = (byte) i;
+    }
+  }
+
+  private final AmazonS3 s3 = mock(AmazonS3.class);
+
+  @Test
+  public void testResumesAfterConnectionReset() throws Exception {
+    when(s3.getObject(any(GetObjectRequest.class)))
+        .thenAnswer(invocation -> object(invocation.getArgument(0), Integer.MAX_VALUE));
+
+    final S3Object download = object(new GetObjectRequest("bucket", "key"), 123);
+    try (AmazonS3ResumableInputStream stream =
+        new AmazonS3ResumableInputStream(s3, download, 0, CONTENT.length - 1, 3)) {
+      assertThat(ByteStreams.toByteArray(stream)).isEqualTo(CONTENT);
+      assertThat(stream.getResumes()).isEqualTo(1);
+      assertThat(stream.getOffset()).isEqualTo(CONTENT.length);
+    }
+
+    final ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+    verify(s3).getObject(captor.capture());
+    assertThat(captor.getValue().getRange()).containsExactly(123L, 499L);
+    assertThat(captor.getValue().getVersionId()).isEqualTo("version");
+    assertThat(captor.getValue().getMatchingETagConstraints()).containsExactly("etag");
+  }
+
+  @Test
+  public void testGivesUpAfterMaxResumes() throws Exception {
+    final S3Object download = object(new GetObjectRequest("bucket", "key"), 100);
+    try (InputStream stream = new AmazonS3ResumableInputStream(s3, download, 0, 499, 0)) {
+      ByteStreams.toByteArray(stream);
+      failBecauseExceptionWasNotThrown(SocketException.class);
+    } catch (SocketException e) {
+      assertThat(e).hasMessage("Connection reset");
+    }
+    verify(s3, never()).getObject(any(GetObjectRequest.class));
+  }
+
+  @Test
+  public void testDoesNotResumeAfterPermanentFailure() throws Exception {
+    final S3Object download = object(new GetObjectRequest("bucket", "key"), 0);
+    download.setObjectContent(
+        new S3ObjectInputStream(
+            new InputStream() {
+              @Override
+              public int read() throws IOException {
+                throw new IOException("Corrupt response");
+              }
+            },
+            null));
+
+    try (InputStream stream = new AmazonS3ResumableInputStream(s3, download, 0, 499, 3)) {
+      ByteStreams.toByteArray(stream);
+      failBecauseExceptionWasNotThrown(IOException.class);
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Corrupt response");
+    }
+    verify(s3, never()).getObject(any(GetObjectRequest.class));
+  }
+
+  @Test
+  public void testChangedETagFailsResume() throws Exception {
+    when(s3.getObject(any(GetObjectRequest.class))).thenReturn(null);
+
+    final S3Object download = object(new GetObjectRequest("bucket", "key"), 100);
+    try (InputStream stream = new AmazonS3ResumableInputStream(s3, download, 0, 499, 3)) {
+      ByteStreams.toByteArray(stream);
+      failBecauseExceptionWasNotThrown(IOException.class);
+    } catch (IOException e) {
+      assertThat(e).hasMessageContaining("eTag changed");
+    }
+  }
+
+  /**
+   * Build an S3 object for a request whose stream fails after {@code failAfter} bytes
+   *
+   * @param request Request to respond to
+   * @param failAfter Number of bytes to return before the connection is reset
+   * @return S3 object
+   */
+  private static S3Object object(final GetObjectRequest request, final int failAfter) {
+    final long[] range = request.getRange();
+    final int start = range == null ? 0 : (int) range[0];
+
+    final S3Object object = new S3Object();
+    object.setBucketName(request.getBucketName());
+    object.setKey(request.getKey());
+    object.getObjectMetadata().setHeader(Headers.ETAG, "etag");
+    object.getObjectMetadata().setHeader(Headers.S3_VERSION_ID, "version");
+    object.setObjectContent(
+        new S3ObjectInputStream(
+            new ResettingInputStream(Arrays.copyOfRange(CONTENT, start, CONTENT.length), failAfter),
+            null));
+    return object;
+  }
+
+  private static final class ResettingInputStream extends InputStream {
+    private final InputStream delegate;
+    private int remaining;
+
+    ResettingInputStream(final byte[] buf, final int failAfter) {
+      this.delegate = new ByteArrayInputStream(buf);
+      this.remaining = failAfter;
+    }
+
+    @Override
+    public int read() throws IOException {
+      final byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (remaining == 0) {
+        throw new SocketException("Connection reset");
+      }
+      final int n = delegate.read(b, off, Math.min(len, remaining));
+      if (n > 0) {
+        remaining -= n;
+      }
+      return n;
+    }
+  }
+}
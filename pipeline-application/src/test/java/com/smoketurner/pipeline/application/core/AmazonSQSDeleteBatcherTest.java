@@ -0,0 +1,159 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.Message;
+import com.codahale.metrics.SharedMetricRegistries;
+import io.dropwizard.util.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class AmazonSQSDeleteBatcherTest {
+
+  private static final String QUEUE_URL = "http://sqs/test";
+  private final AmazonSQSClient mockSQS = mock(AmazonSQSClient.class);
+  private final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+  private AmazonSQSDeleteBatcher batcher;
+
+  @Before
+  public void setUp() {
+    SharedMetricRegistries.clear();
+    doReturn(mock(ScheduledFuture.class))
+        .when(scheduler)
+        .scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class));
+    batcher = new AmazonSQSDeleteBatcher(mockSQS, QUEUE_URL, scheduler, Duration.seconds(1), 2);
+  }
+
+  @Test
+  public void testDeleteMessageNull() throws Exception {
+    assertThat(batcher.deleteMessage(null)).isFalse();
+    assertThat(batcher.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testFullBatchIsSentImmediately() throws Exception {
+    when(mockSQS.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+        .thenReturn(new DeleteMessageBatchResult());
+
+    for (int i = 0; i < 9; i++) {
+      assertThat(batcher.deleteMessage(message(i))).isTrue();
+    }
+    verify(mockSQS, never()).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+    assertThat(batcher.size()).isEqualTo(9);
+
+    batcher.deleteMessage(message(9));
+
+    final ArgumentCaptor<DeleteMessageBatchRequest> captor =
+        ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+    verify(mockSQS).deleteMessageBatch(captor.capture());
+    assertThat(captor.getValue().getQueueUrl()).isEqualTo(QUEUE_URL);
+    assertThat(captor.getValue().getEntries()).hasSize(10);
+    assertThat(captor.getValue().getEntries().get(9).getReceiptHandle()).isEqualTo("handle-9");
+    assertThat(batcher.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testFlushPartialBatch() throws Exception {
+    when(mockSQS.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+        .thenReturn(new DeleteMessageBatchResult());
+
+    batcher.deleteMessage(message(0));
+    batcher.deleteMessage(message(1));
+    batcher.flush();
+
+    final ArgumentCaptor<DeleteMessageBatchRequest> captor =
+        ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+    verify(mockSQS).deleteMessageBatch(captor.capture());
+    assertThat(captor.getValue().getEntries()).hasSize(2);
+    assertThat(batcher.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRetryableFailureIsRequeued() throws Exception {
+    final DeleteMessageBatchResult result =
+        new DeleteMessageBatchResult()
+            .withSuccessful(new DeleteMessageBatchResultEntry().withId("0"))
+            .withFailed(
+                new BatchResultErrorEntry()
+                    .withId("1")
+                    .withSenderFault(false)
+                    .withCode("InternalError"));
+    when(mockSQS.deleteMessageBatch(any(DeleteMessageBatchRequest.class))).thenReturn(result);
+
+    batcher.deleteMessage(message(0));
+    batcher.deleteMessage(message(1));
+    batcher.flush();
+    assertThat(batcher.size()).isEqualTo(1);
+
+    // second attempt also fails, which exhausts the attempts
+    batcher.flush();
+    assertThat(batcher.size()).isEqualTo(0);
+    verify(mockSQS, times(2)).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+  }
+
+  @Test
+  public void testSenderFaultIsNotRetried() throws Exception {
+    final DeleteMessageBatchResult result =
+        new DeleteMessageBatchResult()
+            .withFailed(
+                new BatchResultErrorEntry()
+                    .withId("0")
+                    .withSenderFault(true)
+                    .withCode("ReceiptHandleIsInvalid"));
+    when(mockSQS.deleteMessageBatch(any(DeleteMessageBatchRequest.class))).thenReturn(result);
+
+    batcher.deleteMessage(message(0));
+    batcher.flush();
+    assertThat(batcher.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testCloseRetriesFailedBatch() throws Exception {
+    when(mockSQS.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+        .thenThrow(new AmazonServiceException("error"))
+        .thenReturn(new DeleteMessageBatchResult());
+
+    batcher.deleteMessage(message(0));
+    batcher.close();
+
+    verify(mockSQS, times(2)).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+    assertThat(batcher.size()).isEqualTo(0);
+  }
+
+  private static Message message(final int id) {
+    return new Message().withMessageId("id-" + id).withReceiptHandle("handle-" + id);
+  }
+}
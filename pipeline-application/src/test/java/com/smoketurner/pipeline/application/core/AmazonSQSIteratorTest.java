@@ -17,12 +17,9 @@ package com.smoketurner.pipeline.application.core;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
-import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.sqs.AmazonSQSClient;
 import com.amazonaws.services.sqs.model.Message;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
@@ -55,33 +52,4 @@ public class AmazonSQSIteratorTest {
     final List<Message> actual = iterator.next();
     assertThat(actual).isEqualTo(expected.getMessages());
   }
-
-  @Test
-  public void testDeleteMessage() throws Exception {
-    final Message message = new Message();
-    message.setReceiptHandle("myReceipt");
-    final boolean actual = iterator.deleteMessage(message);
-    verify(mockSQS).deleteMessage(QUEUE_URL, "myReceipt");
-    assertThat(actual).isTrue();
-  }
-
-  @Test
-  public void testDeleteMessageException() throws Exception {
-    doThrow(new AmazonServiceException("error"))
-        .when(mockSQS)
-        .deleteMessage(QUEUE_URL, "myReceipt");
-
-    final Message message = new Message();
-    message.setReceiptHandle("myReceipt");
-
-    final boolean actual = iterator.deleteMessage(message);
-    verify(mockSQS).deleteMessage(QUEUE_URL, "myReceipt");
-    assertThat(actual).isFalse();
-  }
-
-  @Test
-  public void testDeleteMessageNull() throws Exception {
-    final boolean actual = iterator.deleteMessage(null);
-    assertThat(actual).isFalse();
-  }
 }
@@ -0,0 +1,236 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.codahale.metrics.SharedMetricRegistries;
+import io.dropwizard.util.Duration;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class AmazonSQSLeaseTrackerTest {
+
+  private static final String QUEUE_URL = "http://sqs/test";
+  private final AmazonSQSClient mockSQS = mock(AmazonSQSClient.class);
+  private final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+  private final Message message1 = new Message().withMessageId("1").withReceiptHandle("handle-1");
+  private final Message message2 = new Message().withMessageId("2").withReceiptHandle("handle-2");
+
+  @Before
+  public void setUp() {
+    SharedMetricRegistries.clear();
+    doReturn(mock(ScheduledFuture.class))
+        .when(scheduler)
+        .scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class));
+    when(mockSQS.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class)))
+        .thenReturn(new ChangeMessageVisibilityBatchResult());
+  }
+
+  @Test
+  public void testTrackAndComplete() {
+    final AmazonSQSLeaseTracker leases = tracker(Duration.seconds(30), Duration.seconds(10));
+    leases.track(Arrays.asList(message1, message2));
+    assertThat(leases.size()).isEqualTo(2);
+
+    leases.complete(message1);
+    assertThat(leases.size()).isEqualTo(1);
+    verify(mockSQS, never())
+        .changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+  }
+
+  @Test
+  public void testRelease() {
+    final AmazonSQSLeaseTracker leases = tracker(Duration.seconds(30), Duration.seconds(10));
+    leases.track(Arrays.asList(message1, message2));
+    leases.release(Collections.singletonList(message2));
+
+    final ArgumentCaptor<ChangeMessageVisibilityBatchRequest> captor =
+        ArgumentCaptor.forClass(ChangeMessageVisibilityBatchRequest.class);
+    verify(mockSQS).changeMessageVisibilityBatch(captor.capture());
+    assertThat(captor.getValue().getEntries()).hasSize(1);
+    assertThat(captor.getValue().getEntries().get(0).getReceiptHandle()).isEqualTo("handle-2");
+    assertThat(captor.getValue().getEntries().get(0).getVisibilityTimeout()).isEqualTo(0);
+    assertThat(leases.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void testReleaseUntracked() {
+    final AmazonSQSLeaseTracker leases = tracker(Duration.seconds(30), Duration.seconds(10));
+    leases.release(Collections.singletonList(message1));
+    verify(mockSQS, never())
+        .changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+  }
+
+  @Test
+  public void testHeartbeatSkipsFreshLeases() {
+    final AmazonSQSLeaseTracker leases = tracker(Duration.seconds(30), Duration.seconds(10));
+    leases.track(Collections.singletonList(message1));
+    leases.heartbeat();
+    verify(mockSQS, never())
+        .changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+  }
+
+  @Test
+  public void testHeartbeatExtendsExpiringLeases() {
+    final AmazonSQSLeaseTracker leases = tracker(Duration.seconds(2), Duration.seconds(1));
+    leases.track(Arrays.asList(message1, message2));
+    leases.heartbeat();
+
+    final ArgumentCaptor<ChangeMessageVisibilityBatchRequest> captor =
+        ArgumentCaptor.forClass(ChangeMessageVisibilityBatchRequest.class);
+    verify(mockSQS).changeMessageVisibilityBatch(captor.capture());
+    assertThat(captor.getValue().getEntries()).hasSize(2);
+    assertThat(captor.getValue().getEntries().get(0).getVisibilityTimeout()).isEqualTo(2);
+    assertThat(leases.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void testHeartbeatDropsInvalidReceiptHandles() {
+    when(mockSQS.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class)))
+        .thenReturn(
+            new ChangeMessageVisibilityBatchResult()
+                .withFailed(
+                    new BatchResultErrorEntry()
+                        .withId("0")
+                        .withSenderFault(true)
+                        .withCode("ReceiptHandleIsInvalid")));
+
+    final AmazonSQSLeaseTracker leases = tracker(Duration.seconds(2), Duration.seconds(1));
+    leases.track(Collections.singletonList(message1));
+    leases.heartbeat();
+    assertThat(leases.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testHeartbeatRetriesFailedExtensions() {
+    final Clock clock = mock(Clock.class);
+    when(clock.millis()).thenReturn(0L, 15_000L);
+    when(mockSQS.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class)))
+        .thenReturn(
+            new ChangeMessageVisibilityBatchResult()
+                .withFailed(
+                    new BatchResultErrorEntry()
+                        .withId("1")
+                        .withSenderFault(false)
+                        .withCode("InternalError")))
+        .thenThrow(new AmazonServiceException("unavailable"))
+        .thenReturn(new ChangeMessageVisibilityBatchResult());
+
+    final AmazonSQSLeaseTracker leases =
+        new AmazonSQSLeaseTracker(
+            mockSQS, QUEUE_URL, scheduler, Duration.seconds(30), Duration.seconds(10), clock);
+    leases.track(Arrays.asList(message1, message2));
+
+    // the second entry failed, so only it is retried
+    leases.heartbeat();
+    // the whole request failed, so it is retried again
+    leases.heartbeat();
+    leases.heartbeat();
+
+    final ArgumentCaptor<ChangeMessageVisibilityBatchRequest> captor =
+        ArgumentCaptor.forClass(ChangeMessageVisibilityBatchRequest.class);
+    verify(mockSQS, times(3)).changeMessageVisibilityBatch(captor.capture());
+    final List<ChangeMessageVisibilityBatchRequest> requests = captor.getAllValues();
+    assertThat(requests.get(0).getEntries()).hasSize(2);
+    final String failed = requests.get(0).getEntries().get(1).getReceiptHandle();
+    assertThat(requests.get(1).getEntries()).hasSize(1);
+    assertThat(requests.get(1).getEntries().get(0).getReceiptHandle()).isEqualTo(failed);
+    assertThat(requests.get(2).getEntries()).hasSize(1);
+    assertThat(requests.get(2).getEntries().get(0).getReceiptHandle()).isEqualTo(failed);
+
+    // once extended, both leases are skipped
+    leases.heartbeat();
+    verify(mockSQS, times(3))
+        .changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+    assertThat(leases.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void testHeartbeatDoesNotExtendReleasedLeases() {
+    final AmazonSQSLeaseTracker leases = tracker(Duration.seconds(2), Duration.seconds(1));
+    final Map<String, Message> messages = new HashMap<>();
+    for (int i = 0; i < 11; i++) {
+      final Message message =
+          new Message().withMessageId(String.valueOf(i)).withReceiptHandle("handle-" + i);
+      messages.put(message.getReceiptHandle(), message);
+    }
+    leases.track(messages.values());
+
+    // while the first batch is being extended, release one of its messages and one of the next
+    final List<String> extended = new ArrayList<>();
+    when(mockSQS.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class)))
+        .thenAnswer(
+            invocation -> {
+              final ChangeMessageVisibilityBatchRequest request = invocation.getArgument(0);
+              request.getEntries().forEach(entry -> extended.add(entry.getReceiptHandle()));
+              final Message current = messages.get(extended.get(0));
+              final Message next =
+                  messages.values().stream()
+                      .filter(message -> !extended.contains(message.getReceiptHandle()))
+                      .findFirst()
+                      .get();
+              leases.release(Arrays.asList(current, next));
+              return new ChangeMessageVisibilityBatchResult();
+            })
+        .thenReturn(new ChangeMessageVisibilityBatchResult());
+    leases.heartbeat();
+
+    final ArgumentCaptor<ChangeMessageVisibilityBatchRequest> captor =
+        ArgumentCaptor.forClass(ChangeMessageVisibilityBatchRequest.class);
+    verify(mockSQS, times(3)).changeMessageVisibilityBatch(captor.capture());
+    final List<ChangeMessageVisibilityBatchRequest> requests = captor.getAllValues();
+    assertThat(requests.get(0).getEntries()).hasSize(10);
+    // the release of both messages
+    assertThat(requests.get(1).getEntries()).hasSize(2);
+    assertThat(requests.get(1).getEntries().get(0).getVisibilityTimeout()).isEqualTo(0);
+    // the message released before the first batch was extended is released again
+    assertThat(requests.get(2).getEntries()).hasSize(1);
+    assertThat(requests.get(2).getEntries().get(0).getReceiptHandle()).isEqualTo(extended.get(0));
+    assertThat(requests.get(2).getEntries().get(0).getVisibilityTimeout()).isEqualTo(0);
+    // the message released before the second batch was extended is skipped, leaving it empty
+    assertThat(leases.size()).isEqualTo(9);
+  }
+
+  private AmazonSQSLeaseTracker tracker(final Duration timeout, final Duration heartbeat) {
+    return new AmazonSQSLeaseTracker(mockSQS, QUEUE_URL, scheduler, timeout, heartbeat);
+  }
+}
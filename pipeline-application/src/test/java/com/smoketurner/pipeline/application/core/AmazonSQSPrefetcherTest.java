@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.OverLimitException;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AmazonSQSPrefetcherTest {
+
+  private final AmazonSQSIterator sqs = mock(AmazonSQSIterator.class);
+  private final AmazonSQSLeaseTracker leases = mock(AmazonSQSLeaseTracker.class);
+  private final ExecutorService executor = MoreExecutors.newDirectExecutorService();
+  private final List<Message> batch1 =
+      Collections.singletonList(new Message().withMessageId("1").withReceiptHandle("handle-1"));
+  private final List<Message> batch2 =
+      Collections.singletonList(new Message().withMessageId("2").withReceiptHandle("handle-2"));
+
+  @Before
+  public void setUp() {
+    SharedMetricRegistries.clear();
+    reset(sqs, leases);
+    when(sqs.next()).thenReturn(batch1).thenReturn(batch2);
+  }
+
+  @Test
+  public void testNoPrefetch() {
+    final AmazonSQSPrefetcher prefetcher = new AmazonSQSPrefetcher(sqs, leases, executor, 0, 100);
+    assertThat(prefetcher.next()).isEqualTo(batch1);
+    assertThat(prefetcher.depth()).isEqualTo(0);
+    verify(sqs).next();
+    verify(leases).track(batch1);
+  }
+
+  @Test
+  public void testPrefetch() {
+    final AmazonSQSPrefetcher prefetcher = new AmazonSQSPrefetcher(sqs, leases, executor, 1, 100);
+    assertThat(prefetcher.next()).isEqualTo(batch1);
+    assertThat(prefetcher.depth()).isEqualTo(1);
+    verify(sqs, times(2)).next();
+    verify(leases).track(batch2);
+
+    // the second batch was already received ahead of time
+    assertThat(prefetcher.next()).isEqualTo(batch2);
+    assertThat(prefetcher.depth()).isEqualTo(1);
+    verify(sqs, times(3)).next();
+  }
+
+  @Test
+  public void testPrefetchLimitedByInFlightMessages() {
+    when(leases.size()).thenReturn(95);
+    final AmazonSQSPrefetcher prefetcher = new AmazonSQSPrefetcher(sqs, leases, executor, 2, 100);
+    assertThat(prefetcher.next()).isEqualTo(batch1);
+    assertThat(prefetcher.depth()).isEqualTo(0);
+    verify(sqs).next();
+  }
+
+  @Test
+  public void testDrainReleasesPrefetchedMessages() {
+    final AmazonSQSPrefetcher prefetcher = new AmazonSQSPrefetcher(sqs, leases, executor, 1, 100);
+    prefetcher.next();
+    prefetcher.drain();
+    assertThat(prefetcher.depth()).isEqualTo(0);
+    verify(leases).release(batch2);
+    verify(leases, never()).release(batch1);
+  }
+
+  @Test(expected = OverLimitException.class)
+  public void testPrefetchFailureIsRethrown() {
+    when(sqs.next()).thenReturn(batch1).thenThrow(new OverLimitException("limit"));
+    final AmazonSQSPrefetcher prefetcher = new AmazonSQSPrefetcher(sqs, leases, executor, 1, 100);
+    prefetcher.next();
+    prefetcher.next();
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class ChannelRouterTest {
+
+  private final InstrumentedSseBroadcaster all = mock(InstrumentedSseBroadcaster.class);
+  private final InstrumentedSseBroadcaster logs = mock(InstrumentedSseBroadcaster.class);
+  private final InstrumentedSseBroadcaster archives = mock(InstrumentedSseBroadcaster.class);
+  private final InstrumentedSseBroadcaster everything = mock(InstrumentedSseBroadcaster.class);
+  private final ChannelRouter router =
+      new ChannelRouter(
+          all,
+          Arrays.asList(
+              new ChannelRouter.Channel(
+                  "logs",
+                  Collections.singletonList("bucket"),
+                  Arrays.asList("logs/", "app/*/access-??.gz"),
+                  logs),
+              new ChannelRouter.Channel(
+                  "archives",
+                  Collections.emptyList(),
+                  Collections.singletonList("archive/**.gz"),
+                  archives),
+              new ChannelRouter.Channel(
+                  "everything",
+                  Collections.singletonList("other"),
+                  Collections.emptyList(),
+                  everything)));
+
+  @Test
+  public void testRoutesPrefixes() {
+    assertThat(router.route("bucket", "logs/2019/05/01.gz")).containsExactly(all, logs);
+    assertThat(router.route("bucket", "logs/")).containsExactly(all, logs);
+    assertThat(router.route("bucket", "logs")).containsExactly(all);
+    assertThat(router.route("other", "logs/2019/05/01.gz")).containsExactly(all, everything);
+    assertThat(router.route("unknown", "logs/2019/05/01.gz")).containsExactly(all);
+  }
+
+  @Test
+  public void testRoutesGlobs() {
+    assertThat(router.route("bucket", "app/web/access-01.gz")).containsExactly(all, logs);
+    assertThat(router.route("bucket", "app/web/db/access-01.gz")).containsExactly(all);
+    assertThat(router.route("bucket", "app/web/access-1.gz")).containsExactly(all);
+    assertThat(router.route("bucket", "app/web/access-01.gz.tmp")).containsExactly(all);
+    assertThat(router.route("unknown", "archive/2019/05/01.gz")).containsExactly(all, archives);
+    assertThat(router.route("other", "archive/01.gz")).containsExactly(all, archives, everything);
+    assertThat(router.route("unknown", "archive/01.txt")).containsExactly(all);
+  }
+
+  @Test
+  public void testCompileGlob() {
+    assertThat(ChannelRouter.compileGlob("a.b/*.gz").matcher("a.b/c.gz").matches()).isTrue();
+    assertThat(ChannelRouter.compileGlob("a.b/*.gz").matcher("axb/c.gz").matches()).isFalse();
+    assertThat(ChannelRouter.compileGlob("a/**").matcher("a/b/c").matches()).isTrue();
+    assertThat(ChannelRouter.literalLength("a/b?c*")).isEqualTo(3);
+    assertThat(ChannelRouter.literalLength("a/b")).isEqualTo(3);
+  }
+
+  @Test
+  public void testGetChannel() {
+    assertThat(router.getBroadcaster()).isSameAs(all);
+    assertThat(router.getChannel("logs")).isSameAs(logs);
+    assertThat(router.getChannel("unknown")).isNull();
+  }
+
+  @Test
+  public void testIsEmpty() {
+    when(all.isEmpty()).thenReturn(true);
+    when(logs.isEmpty()).thenReturn(true);
+    when(archives.isEmpty()).thenReturn(true);
+    when(everything.isEmpty()).thenReturn(true);
+    assertThat(router.isEmpty()).isTrue();
+
+    when(archives.isEmpty()).thenReturn(false);
+    assertThat(router.isEmpty()).isFalse();
+  }
+
+  @Test
+  public void testPing() {
+    router.ping();
+    verify(all).ping();
+    verify(logs).ping();
+    verify(archives).ping();
+    verify(everything).ping();
+  }
+}
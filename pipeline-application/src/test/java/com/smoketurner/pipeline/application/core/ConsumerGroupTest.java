@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import org.junit.Test;
+
+public class ConsumerGroupTest {
+
+  private final SseSubscriber first = mock(SseSubscriber.class);
+  private final SseSubscriber second = mock(SseSubscriber.class);
+  private final SseSubscriber third = mock(SseSubscriber.class);
+
+  @Test
+  public void testSelectsInTurnWhenIdle() {
+    final ConsumerGroup group = new ConsumerGroup("workers", null, null);
+    assertThat(group.select(bytes("{}"))).isNull();
+    group.add(first);
+    group.add(second);
+    group.add(third);
+
+    assertThat(group.select(bytes("{}"))).isSameAs(first);
+    assertThat(group.select(bytes("{}"))).isSameAs(second);
+    assertThat(group.select(bytes("{}"))).isSameAs(third);
+    assertThat(group.select(bytes("{}"))).isSameAs(first);
+  }
+
+  @Test
+  public void testSelectsLeastLoaded() {
+    final ConsumerGroup group = new ConsumerGroup("workers", null, null);
+    group.add(first);
+    group.add(second);
+    group.add(third);
+    when(first.getQueueDepth()).thenReturn(5);
+    when(second.getQueueDepth()).thenReturn(2);
+    when(third.getQueueDepth()).thenReturn(7);
+
+    assertThat(group.select(bytes("{}"))).isSameAs(second);
+    assertThat(group.select(bytes("{}"))).isSameAs(second);
+  }
+
+  @Test
+  public void testSelectsByPartitionKey() {
+    final ConsumerGroup group = new ConsumerGroup("workers", "user.id", null);
+    group.add(first);
+    group.add(second);
+    group.add(third);
+
+    final SseSubscriber member = group.select(bytes("{\"user\":{\"id\":\"abc\"}}"));
+    for (int i = 0; i < 10; i++) {
+      assertThat(group.select(bytes("{\"user\":{\"id\":\"abc\"},\"n\":" + i + "}")))
+          .isSameAs(member);
+    }
+    // events without the key are balanced by load
+    assertThat(group.select(bytes("{}"))).isNotNull();
+  }
+
+  @Test
+  public void testFilter() {
+    final ConsumerGroup group =
+        new ConsumerGroup(
+            "workers", "id", EventFilter.parse(Collections.singletonList("level=ERROR")));
+    group.add(first);
+
+    assertThat(group.select(bytes("{\"id\":1,\"level\":\"ERROR\"}"))).isSameAs(first);
+    assertThat(group.select(bytes("{\"id\":1,\"level\":\"INFO\"}"))).isNull();
+    assertThat(group.accepts("id", EventFilter.parse(Collections.singletonList("level=ERROR"))))
+        .isTrue();
+    assertThat(group.accepts("id", null)).isFalse();
+    assertThat(group.accepts(null, group.getFilter())).isFalse();
+  }
+
+  @Test
+  public void testRemove() {
+    final ConsumerGroup group = new ConsumerGroup("workers", null, null);
+    group.add(first);
+    group.add(second);
+    assertThat(group.remove(first)).isTrue();
+    assertThat(group.remove(first)).isFalse();
+    assertThat(group.select(bytes("{}"))).isSameAs(second);
+    assertThat(group.remove(second)).isTrue();
+    assertThat(group.isEmpty()).isTrue();
+  }
+
+  private static byte[] bytes(final String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.collect.ImmutableSet;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class EventFilterTest {
+
+  @Test
+  public void testParse() {
+    final EventFilter filter =
+        EventFilter.parse(Arrays.asList("level = ERROR", "service IN (api, web)"));
+    assertThat(filter.getPredicates())
+        .containsEntry("level", ImmutableSet.of("ERROR"))
+        .containsEntry("service", ImmutableSet.of("api", "web"));
+    assertThat(filter.toString()).isEqualTo("level=ERROR and service in (api,web)");
+  }
+
+  @Test
+  public void testParseIntersectsRepeatedFields() {
+    final EventFilter filter =
+        EventFilter.parse(Arrays.asList("level in (ERROR, WARN)", "level in (WARN, INFO)"));
+    assertThat(filter.getPredicates()).containsEntry("level", ImmutableSet.of("WARN"));
+  }
+
+  @Test
+  public void testParseInvalid() {
+    assertThatThrownBy(() -> EventFilter.parse(Collections.singletonList("level")))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> EventFilter.parse(Collections.singletonList("=ERROR")))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void testMatches() {
+    final EventFilter filter =
+        EventFilter.parse(Arrays.asList("level=ERROR", "http.status in (500, 503)"));
+    assertThat(filter.test(bytes("{\"level\":\"ERROR\",\"http\":{\"status\":503}}"))).isTrue();
+    assertThat(
+            filter.test(
+                bytes("{\"http\":{\"path\":\"/\",\"status\":\"500\"},\"level\":\"ERROR\"}")))
+        .isTrue();
+    assertThat(filter.test(bytes("{\"level\":\"ERROR\",\"http\":{\"status\":200}}"))).isFalse();
+    assertThat(filter.test(bytes("{\"level\":\"ERROR\"}"))).isFalse();
+    assertThat(filter.test(bytes("{\"level\":\"ERROR\",\"http\":[{\"status\":500}]}"))).isFalse();
+    assertThat(filter.test(bytes("not json"))).isFalse();
+    assertThat(filter.test(bytes("[1, 2]"))).isFalse();
+  }
+
+  @Test
+  public void testExtractStopsAtLastField() {
+    assertThat(
+            EventFilter.extract(
+                bytes(
+                    "{\"a\":{\"b\":1,\"c\":[true]},\"d\":null,\"e\":{\"f\":2}} trailing garbage {"),
+                ImmutableSet.of("a.b", "d"),
+                EventFilter.prefixes(ImmutableSet.of("a.b", "d"))))
+        .containsOnlyKeys("a.b", "d")
+        .containsEntry("a.b", "1")
+        .containsEntry("d", "null");
+  }
+
+  private static byte[] bytes(final String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.dropwizard.util.Duration;
+import java.time.Clock;
+import org.junit.Test;
+
+public class EventHistoryTest {
+
+  private static final byte[] FIRST = {1};
+  private static final byte[] SECOND = {2};
+  private static final byte[] THIRD = {3};
+
+  private final Clock clock = mock(Clock.class);
+
+  @Test
+  public void testSince() {
+    final EventHistory history = new EventHistory(10, Duration.minutes(1), clock);
+    history.add(1, 1, FIRST);
+    history.add(2, 2, SECOND);
+    history.add(3, 3, THIRD);
+
+    assertThat(history.since(0, 10)).containsExactly(FIRST, SECOND, THIRD);
+    assertThat(history.since(1, 10)).containsExactly(SECOND, THIRD);
+    assertThat(history.since(3, 10)).isEmpty();
+    assertThat(history.since(0, 2)).containsExactly(SECOND, THIRD);
+    assertThat(history.isMissing(0)).isFalse();
+    assertThat(history.isMissing(2)).isFalse();
+  }
+
+  @Test
+  public void testEvictsOldestWhenFull() {
+    final EventHistory history = new EventHistory(2, Duration.minutes(1), clock);
+    history.add(1, 1, FIRST);
+    history.add(2, 2, SECOND);
+    history.add(3, 3, THIRD);
+
+    assertThat(history.size()).isEqualTo(2);
+    assertThat(history.since(0, 10)).containsExactly(SECOND, THIRD);
+    assertThat(history.isMissing(0)).isTrue();
+    assertThat(history.isMissing(1)).isFalse();
+  }
+
+  @Test
+  public void testEvictsExpired() {
+    final EventHistory history = new EventHistory(10, Duration.seconds(10), clock);
+    when(clock.millis()).thenReturn(0L);
+    history.add(1, 1, FIRST);
+    when(clock.millis()).thenReturn(5000L);
+    history.add(2, 2, SECOND);
+    when(clock.millis()).thenReturn(12000L);
+
+    assertThat(history.since(0, 10)).containsExactly(SECOND);
+    assertThat(history.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void testSeek() {
+    final EventHistory history = new EventHistory(10, Duration.minutes(1), clock);
+    assertThat(history.seek(0)).isEqualTo(Long.MAX_VALUE);
+
+    // event times arrive out of order
+    history.add(1, 100, FIRST);
+    history.add(2, 300, SECOND);
+    history.add(3, 200, THIRD);
+
+    assertThat(history.seek(50)).isEqualTo(0);
+    assertThat(history.seek(100)).isEqualTo(0);
+    assertThat(history.seek(150)).isEqualTo(1);
+    assertThat(history.seek(250)).isEqualTo(1);
+    assertThat(history.seek(300)).isEqualTo(1);
+    assertThat(history.seek(301)).isEqualTo(Long.MAX_VALUE);
+  }
+
+  @Test
+  public void testDisabled() {
+    final EventHistory history = new EventHistory(0, Duration.minutes(1), clock);
+    history.add(1, 1, FIRST);
+    assertThat(history.size()).isEqualTo(0);
+    assertThat(history.since(0, 10)).isEmpty();
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.dropwizard.util.Duration;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EventLogTest {
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final Clock clock = mock(Clock.class);
+  private EventLog log;
+
+  @After
+  public void tearDown() throws Exception {
+    if (log != null) {
+      log.close();
+    }
+  }
+
+  @Test
+  public void testAppendAndRead() throws Exception {
+    log = open(1024, 1024 * 1024);
+    for (long id = 1; id <= 5; id++) {
+      log.append(id, id, frame(id));
+    }
+
+    assertThat(log.getFirstId()).isEqualTo(1);
+    assertThat(log.getLastId()).isEqualTo(5);
+    assertThat(ids(log.read(0, 100))).containsExactly(1L, 2L, 3L, 4L, 5L);
+    assertThat(ids(log.read(3, 100))).containsExactly(4L, 5L);
+    assertThat(ids(log.read(1, 2))).containsExactly(2L, 3L);
+    assertThat(log.read(5, 100)).isEmpty();
+    assertThat(new String(log.read(1, 1).get(0).getFrame(), StandardCharsets.UTF_8))
+        .isEqualTo("event-2");
+  }
+
+  @Test
+  public void testReadsAcrossSegments() throws Exception {
+    log = open(64, 1024 * 1024);
+    for (long id = 1; id <= 50; id++) {
+      log.append(id, id, frame(id));
+    }
+
+    assertThat(segmentFiles()).hasSizeGreaterThan(5);
+    assertThat(ids(log.read(0, 100))).hasSize(50);
+    assertThat(ids(log.read(17, 3))).containsExactly(18L, 19L, 20L);
+    assertThat(ids(log.read(49, 100))).containsExactly(50L);
+  }
+
+  @Test
+  public void testFrameLargerThanSegment() throws Exception {
+    log = open(64, 1024 * 1024);
+    final byte[] large = new byte[1000];
+    log.append(1, 1, large);
+    log.append(2, 2, frame(2));
+
+    assertThat(log.read(0, 1).get(0).getFrame()).isEqualTo(large);
+    assertThat(ids(log.read(1, 10))).containsExactly(2L);
+  }
+
+  @Test
+  public void testRetentionBySize() throws Exception {
+    log = open(64, 200);
+    for (long id = 1; id <= 50; id++) {
+      log.append(id, id, frame(id));
+    }
+
+    assertThat(log.getSize()).isLessThanOrEqualTo(200 + 64);
+    assertThat(log.getFirstId()).isGreaterThan(1);
+    assertThat(ids(log.read(0, 100))).endsWith(50L);
+    assertThat(ids(log.read(0, 100)).get(0)).isEqualTo(log.getFirstId());
+  }
+
+  @Test
+  public void testRetentionByAge() throws Exception {
+    when(clock.millis()).thenReturn(0L);
+    log = open(90, 1024 * 1024);
+    for (long id = 1; id <= 10; id++) {
+      log.append(id, id, frame(id));
+    }
+    // three records fit in a segment, so 10 to 12 share the active segment
+    when(clock.millis()).thenReturn(Duration.hours(2).toMilliseconds());
+    log.append(11, 11, frame(11));
+    log.append(12, 12, frame(12));
+    log.enforceRetention();
+
+    assertThat(ids(log.read(0, 100))).containsExactly(10L, 11L, 12L);
+    assertThat(log.getFirstId()).isEqualTo(10);
+  }
+
+  @Test
+  public void testRecoversAfterReopen() throws Exception {
+    log = open(64, 1024 * 1024);
+    for (long id = 1; id <= 20; id++) {
+      log.append(id, id, frame(id));
+    }
+    log.close();
+
+    log = open(64, 1024 * 1024);
+    assertThat(log.getFirstId()).isEqualTo(1);
+    assertThat(log.getLastId()).isEqualTo(20);
+    log.append(21, 21, frame(21));
+    assertThat(ids(log.read(18, 100))).containsExactly(19L, 20L, 21L);
+  }
+
+  @Test
+  public void testSeek() throws Exception {
+    log = open(64, 1024 * 1024);
+    // event times arrive out of order: 100, 300, 200, 400, 500, ...
+    for (long id = 1; id <= 50; id++) {
+      final long timestamp = id == 2 ? 300 : id == 3 ? 200 : id * 100;
+      log.append(id, timestamp, frame(id));
+    }
+
+    assertThat(log.seek(0)).isEqualTo(0);
+    assertThat(log.seek(100)).isEqualTo(0);
+    assertThat(log.seek(150)).isEqualTo(1);
+    assertThat(log.seek(250)).isEqualTo(1);
+    assertThat(log.seek(301)).isEqualTo(3);
+    assertThat(log.seek(2450)).isEqualTo(24);
+    assertThat(log.seek(5000)).isEqualTo(49);
+    assertThat(log.seek(5001)).isEqualTo(50);
+  }
+
+  @Test
+  public void testSeekAfterReopen() throws Exception {
+    log = open(64, 1024 * 1024);
+    for (long id = 1; id <= 20; id++) {
+      log.append(id, id * 100, frame(id));
+    }
+    log.close();
+
+    log = open(64, 1024 * 1024);
+    assertThat(log.seek(1050)).isEqualTo(10);
+  }
+
+  private EventLog open(final int segmentSize, final long retentionBytes) throws IOException {
+    return new EventLog(
+        folder.getRoot().toPath(), segmentSize, retentionBytes, Duration.hours(1), 32, clock);
+  }
+
+  private List<Path> segmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+      return files.collect(Collectors.toList());
+    }
+  }
+
+  private static byte[] frame(final long id) {
+    return ("event-" + id).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static List<Long> ids(final List<EventLog.Entry> entries) {
+    return entries.stream().map(EventLog.Entry::getId).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class EventProjectionTest {
+
+  @Test
+  public void testProjectsFields() {
+    final EventProjection projection =
+        new EventProjection(Arrays.asList("/level", "/http/status", "/tags/1"));
+    assertThat(
+            apply(
+                projection,
+                "{\"time\":1,\"level\":\"ERROR\",\"http\":{\"path\":\"/\",\"status\":500},"
+                    + "\"tags\":[\"a\",\"b\",\"c\"],\"body\":{\"level\":\"nested\"}}"))
+        .isEqualTo("{\"level\":\"ERROR\",\"http\":{\"status\":500},\"tags\":[\"b\"]}");
+  }
+
+  @Test
+  public void testProjectsWholeContainers() {
+    final EventProjection projection = new EventProjection(Collections.singletonList("/http"));
+    assertThat(apply(projection, "{\"a\":1,\"http\":{\"status\":500,\"headers\":[1,2]}}"))
+        .isEqualTo("{\"http\":{\"status\":500,\"headers\":[1,2]}}");
+  }
+
+  @Test
+  public void testScalarWhereContainerExpected() {
+    final EventProjection projection =
+        new EventProjection(Collections.singletonList("/http/status"));
+    assertThat(apply(projection, "{\"http\":\"500\"}")).isEqualTo("{}");
+    assertThat(apply(projection, "{\"other\":1}")).isEqualTo("{}");
+  }
+
+  @Test
+  public void testInvalidJsonIsUnchanged() {
+    final EventProjection projection = new EventProjection(Collections.singletonList("/level"));
+    assertThat(apply(projection, "not json")).isEqualTo("not json");
+  }
+
+  @Test
+  public void testEquality() {
+    assertThat(new EventProjection(Arrays.asList("/a", "/b")))
+        .isEqualTo(new EventProjection(Arrays.asList("/b", "/a", "/a")))
+        .hasSameHashCodeAs(new EventProjection(Arrays.asList("/b", "/a")));
+  }
+
+  @Test
+  public void testInvalidPointers() {
+    assertThatThrownBy(() -> new EventProjection(Collections.singletonList("level")))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> new EventProjection(Collections.singletonList("")))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> new EventProjection(Collections.emptyList()))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private static String apply(final EventProjection projection, final String event) {
+    return new String(
+        projection.apply(event.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.dropwizard.util.Duration;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EventSpoolTest {
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+  private final Clock clock = mock(Clock.class);
+
+  @Test
+  public void testDrainsInOrderAcrossSegments() throws Exception {
+    try (EventSpool spool = spool(64, 1024 * 1024)) {
+      assertThat(spool.isEmpty()).isTrue();
+      assertThat(spool.peek()).isNull();
+      for (int i = 0; i < 100; i++) {
+        spool.append(i + 1, i, bytes("event-" + i));
+      }
+      assertThat(segments()).isGreaterThan(1);
+
+      final List<String> events = drain(spool);
+      assertThat(events).hasSize(100);
+      assertThat(events.get(0)).isEqualTo("event-0");
+      assertThat(events.get(99)).isEqualTo("event-99");
+      assertThat(spool.isEmpty()).isTrue();
+    }
+    assertThat(segments()).isZero();
+  }
+
+  @Test
+  public void testReadsNewestSegmentFromMemory() throws Exception {
+    try (EventSpool spool = spool(1024 * 1024, 1024 * 1024)) {
+      for (int i = 0; i < 100; i++) {
+        spool.append(i + 1, i, bytes("event-" + i));
+        assertThat(drain(spool)).containsExactly("event-" + i);
+        assertThat(spool.isEmpty()).isTrue();
+      }
+      // keeping up with the writer does not roll a segment per event
+      assertThat(segments()).isEqualTo(1);
+    }
+    assertThat(segments()).isZero();
+  }
+
+  @Test
+  public void testRemovesEventPeekedBeforeMemoryOverflows() throws Exception {
+    try (EventSpool spool = spool(16 * 1024 * 1024, 64 * 1024 * 1024)) {
+      spool.append(1, 0, bytes("event-1"));
+      assertThat(spool.peek().getId()).isEqualTo(1);
+
+      // more than a megabyte of unread events drops them from memory
+      spool.append(2, 1, new byte[2 * 1024 * 1024]);
+      spool.remove();
+
+      final EventSpool.Entry entry = spool.peek();
+      assertThat(entry.getId()).isEqualTo(2);
+      assertThat(entry.getEvent()).hasSize(2 * 1024 * 1024);
+      spool.remove();
+      assertThat(spool.peek()).isNull();
+      assertThat(spool.isEmpty()).isTrue();
+    }
+  }
+
+  @Test
+  public void testSkipsEventsReadFromMemoryOnceRolled() throws Exception {
+    try (EventSpool spool = spool(64, 1024 * 1024)) {
+      spool.append(1, 0, bytes("event-0"));
+      spool.append(2, 1, bytes("event-1"));
+      assertThat(drain(spool, 1)).containsExactly("event-0");
+
+      // peeked before the segment is rolled and removed after
+      assertThat(spool.peek().getEvent()).isEqualTo(bytes("event-1"));
+      for (int i = 2; i < 10; i++) {
+        spool.append(i + 1, i, bytes("event-" + i));
+      }
+      assertThat(segments()).isGreaterThan(1);
+      spool.remove();
+
+      final List<String> events = drain(spool);
+      assertThat(events).hasSize(8);
+      assertThat(events.get(0)).isEqualTo("event-2");
+      assertThat(events.get(7)).isEqualTo("event-9");
+      assertThat(spool.isEmpty()).isTrue();
+    }
+  }
+
+  @Test
+  public void testPeekDoesNotRemove() throws Exception {
+    try (EventSpool spool = spool(1024, 1024 * 1024)) {
+      spool.append(6, 5, bytes("a"));
+      assertThat(spool.peek().getTimestamp()).isEqualTo(5);
+      assertThat(spool.peek().getEvent()).isEqualTo(bytes("a"));
+
+      // appends while reading go behind the events already spooled
+      spool.append(7, 6, bytes("b"));
+      assertThat(drain(spool)).containsExactly("a", "b");
+    }
+  }
+
+  @Test
+  public void testRecoversAfterRestart() throws Exception {
+    try (EventSpool spool = spool(64, 1024 * 1024)) {
+      for (int i = 0; i < 10; i++) {
+        spool.append(i + 1, i, bytes("event-" + i));
+      }
+    }
+    try (EventSpool spool = spool(64, 1024 * 1024)) {
+      assertThat(spool.isEmpty()).isFalse();
+      assertThat(spool.getLastId()).isEqualTo(10);
+      assertThat(spool.peek().getId()).isEqualTo(1);
+      spool.append(11, 10, bytes("event-10"));
+      final List<String> events = drain(spool);
+      assertThat(events).hasSize(11);
+      assertThat(events.get(0)).isEqualTo("event-0");
+      assertThat(events.get(10)).isEqualTo("event-10");
+    }
+  }
+
+  @Test
+  public void testDropsOldestSegmentsOverMaxSize() throws Exception {
+    try (EventSpool spool = spool(64, 256)) {
+      for (int i = 0; i < 1000; i++) {
+        spool.append(i + 1, i, bytes("event-" + i));
+      }
+      assertThat(spool.size()).isLessThanOrEqualTo(256);
+
+      final List<String> events = drain(spool);
+      assertThat(events).isNotEmpty().hasSizeLessThan(1000);
+      assertThat(events.get(events.size() - 1)).isEqualTo("event-999");
+    }
+  }
+
+  @Test
+  public void testDropsSegmentsOverMaxAge() throws Exception {
+    when(clock.millis()).thenReturn(0L);
+    try (EventSpool spool = spool(1024, 1024 * 1024)) {
+      spool.append(1, 0, bytes("old"));
+
+      when(clock.millis()).thenReturn(Duration.hours(2).toMilliseconds());
+      assertThat(spool.peek()).isNull();
+      assertThat(spool.isEmpty()).isTrue();
+    }
+  }
+
+  private EventSpool spool(final long segmentSize, final long maxBytes) throws IOException {
+    return new EventSpool(
+        folder.getRoot().toPath(), segmentSize, maxBytes, Duration.hours(1), clock);
+  }
+
+  private long segments() throws IOException {
+    try (Stream<?> files = Files.list(folder.getRoot().toPath())) {
+      return files.count();
+    }
+  }
+
+  private static List<String> drain(final EventSpool spool) throws IOException {
+    return drain(spool, Integer.MAX_VALUE);
+  }
+
+  private static List<String> drain(final EventSpool spool, final int limit) throws IOException {
+    final List<String> events = new ArrayList<>();
+    EventSpool.Entry entry;
+    while (events.size() < limit && (entry = spool.peek()) != null) {
+      events.add(new String(entry.getEvent(), StandardCharsets.UTF_8));
+      spool.remove();
+    }
+    return events;
+  }
+
+  private static byte[] bytes(final String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
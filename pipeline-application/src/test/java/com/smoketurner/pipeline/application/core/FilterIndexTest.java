@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class FilterIndexTest {
+
+  private final FilterIndex index = new FilterIndex();
+  private final SseSubscriber errors = mock(SseSubscriber.class);
+  private final SseSubscriber apiErrors = mock(SseSubscriber.class);
+  private final SseSubscriber web = mock(SseSubscriber.class);
+
+  @Test
+  public void testMatch() {
+    index.add(errors, EventFilter.parse(Collections.singletonList("level=ERROR")));
+    index.add(apiErrors, EventFilter.parse(Arrays.asList("level=ERROR", "service in (api, db)")));
+    index.add(web, EventFilter.parse(Collections.singletonList("service=web")));
+    assertThat(index.size()).isEqualTo(3);
+
+    assertThat(index.match(bytes("{\"level\":\"ERROR\",\"service\":\"api\"}")))
+        .containsExactlyInAnyOrder(errors, apiErrors);
+    assertThat(index.match(bytes("{\"level\":\"ERROR\",\"service\":\"web\"}")))
+        .containsExactlyInAnyOrder(errors, web);
+    assertThat(index.match(bytes("{\"level\":\"INFO\",\"service\":\"db\"}"))).isEmpty();
+    assertThat(index.match(bytes("{\"service\":\"web\"}"))).containsExactly(web);
+  }
+
+  @Test
+  public void testMatchValuesOfOtherFields() {
+    index.add(errors, EventFilter.parse(Collections.singletonList("level=ERROR")));
+    assertThat(index.getFields()).containsExactly("level");
+
+    final Map<String, String> values = new HashMap<>();
+    values.put("level", "ERROR");
+    values.put("partition", "7");
+    assertThat(index.match(values)).containsExactly(errors);
+  }
+
+  @Test
+  public void testRemove() {
+    index.add(errors, EventFilter.parse(Collections.singletonList("level=ERROR")));
+    index.add(web, EventFilter.parse(Collections.singletonList("service=web")));
+
+    assertThat(index.remove(errors)).isTrue();
+    assertThat(index.remove(errors)).isFalse();
+    assertThat(index.getFilter(errors)).isNull();
+    assertThat(index.match(bytes("{\"level\":\"ERROR\",\"service\":\"web\"}")))
+        .containsExactly(web);
+
+    assertThat(index.remove(web)).isTrue();
+    assertThat(index.isEmpty()).isTrue();
+    assertThat(index.match(bytes("{\"service\":\"web\"}"))).isEmpty();
+  }
+
+  private static byte[] bytes(final String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -16,18 +16,330 @@
 package com.smoketurner.pipeline.application.core;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
-import org.glassfish.jersey.media.sse.EventOutput;
+import io.dropwizard.util.Duration;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 
 public class InstrumentedSseBroadcasterTest {
 
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
   @Test
   public void testAdd() {
     final InstrumentedSseBroadcaster broadcaster = new InstrumentedSseBroadcaster();
     assertThat(broadcaster.isEmpty()).isTrue();
-    final EventOutput output = new EventOutput();
-    broadcaster.add(output);
+    final SseEventOutput output = new SseEventOutput();
+    broadcaster.add(output, null, SubscriptionOptions.ALL);
     assertThat(broadcaster.isEmpty()).isFalse();
   }
+
+  @Test
+  public void testBroadcastAssignsIncreasingIds() throws Exception {
+    final InstrumentedSseBroadcaster broadcaster = new InstrumentedSseBroadcaster();
+    final SseEventOutput output = mock(SseEventOutput.class);
+    broadcaster.add(output, null, SubscriptionOptions.ALL);
+
+    broadcaster.test(bytes("a"));
+    broadcaster.test(bytes("b"));
+
+    final List<String> frames = written(output, 2);
+    assertThat(id(frames.get(1))).isEqualTo(id(frames.get(0)) + 1);
+    assertThat(frames.get(0)).endsWith("event: event\ndata: a\n\n");
+  }
+
+  @Test
+  public void testReplaysMissedEvents() throws Exception {
+    final InstrumentedSseBroadcaster broadcaster = new InstrumentedSseBroadcaster();
+    final SseEventOutput first = mock(SseEventOutput.class);
+    broadcaster.add(first, null, SubscriptionOptions.ALL);
+
+    broadcaster.test(bytes("a"));
+    broadcaster.test(bytes("b"));
+    broadcaster.test(bytes("c"));
+    final List<String> frames = written(first, 3);
+
+    final SseEventOutput second = mock(SseEventOutput.class);
+    broadcaster.add(second, id(frames.get(0)), SubscriptionOptions.ALL);
+    broadcaster.test(bytes("d"));
+
+    final List<String> replayed = written(second, 3);
+    assertThat(replayed.subList(0, 2)).isEqualTo(frames.subList(1, 3));
+    assertThat(replayed.get(2)).endsWith("data: d\n\n");
+  }
+
+  @Test
+  public void testNoReplayWithoutLastEventId() throws Exception {
+    final InstrumentedSseBroadcaster broadcaster = new InstrumentedSseBroadcaster();
+    final SseEventOutput first = mock(SseEventOutput.class);
+    broadcaster.add(first, null, SubscriptionOptions.ALL);
+    broadcaster.test(bytes("a"));
+
+    final SseEventOutput second = mock(SseEventOutput.class);
+    broadcaster.add(second, null, SubscriptionOptions.ALL);
+    broadcaster.test(bytes("b"));
+
+    assertThat(written(second, 1).get(0)).endsWith("data: b\n\n");
+  }
+
+  @Test
+  public void testReplaysFromEventLog() throws Exception {
+    try (EventLog log =
+        new EventLog(folder.getRoot().toPath(), 1024, 1024 * 1024, Duration.hours(1), 64)) {
+      final InstrumentedSseBroadcaster broadcaster =
+          InstrumentedSseBroadcaster.builder()
+              .queueSize(16)
+              .history(new EventHistory(1, Duration.minutes(5)))
+              .log(log)
+              .build();
+      final SseEventOutput first = mock(SseEventOutput.class);
+      broadcaster.add(first, null, SubscriptionOptions.ALL);
+      for (int i = 0; i < 2000; i++) {
+        broadcaster.test(bytes(String.valueOf(i)));
+      }
+      final List<String> frames = written(first, 2000);
+
+      final SseEventOutput second = mock(SseEventOutput.class);
+      broadcaster.add(second, id(frames.get(9)), SubscriptionOptions.ALL);
+      broadcaster.test(bytes("live"));
+
+      final List<String> replayed = written(second, 1991);
+      assertThat(replayed.subList(0, 1990)).isEqualTo(frames.subList(10, 2000));
+      assertThat(replayed.get(1990)).endsWith("data: live\n\n");
+    }
+  }
+
+  @Test
+  public void testReplaysSinceTimestamp() throws Exception {
+    final InstrumentedSseBroadcaster broadcaster = new InstrumentedSseBroadcaster();
+    final SseEventOutput first = mock(SseEventOutput.class);
+    broadcaster.add(first, null, SubscriptionOptions.ALL);
+    broadcaster.test(bytes("a"), 1000);
+    broadcaster.test(bytes("b"), 2000);
+    broadcaster.test(bytes("c"), 3000);
+    final List<String> frames = written(first, 3);
+
+    final SseEventOutput second = mock(SseEventOutput.class);
+    broadcaster.addSince(second, 1500, SubscriptionOptions.ALL);
+
+    assertThat(written(second, 2)).isEqualTo(frames.subList(1, 3));
+  }
+
+  @Test
+  public void testFiltersEvents() throws Exception {
+    final InstrumentedSseBroadcaster broadcaster = new InstrumentedSseBroadcaster();
+    final SseEventOutput all = mock(SseEventOutput.class);
+    final SseEventOutput errors = mock(SseEventOutput.class);
+    broadcaster.add(all, null, SubscriptionOptions.ALL);
+    broadcaster.add(
+        errors,
+        null,
+        SubscriptionOptions.ALL.withFilter(
+            EventFilter.parse(Collections.singletonList("level=ERROR"))));
+
+    broadcaster.test(bytes("{\"level\":\"INFO\"}"));
+    broadcaster.test(bytes("{\"level\":\"ERROR\"}"));
+    broadcaster.test(bytes("not json"));
+
+    final List<String> frames = written(all, 3);
+    assertThat(written(errors, 1)).containsExactly(frames.get(1));
+
+    // a reconnecting filtered client is only replayed the accepted events
+    final SseEventOutput reconnected = mock(SseEventOutput.class);
+    broadcaster.add(
+        reconnected,
+        id(frames.get(0)) - 1,
+        SubscriptionOptions.ALL.withFilter(
+            EventFilter.parse(Collections.singletonList("level=ERROR"))));
+    assertThat(written(reconnected, 1)).containsExactly(frames.get(1));
+  }
+
+  @Test
+  public void testProjectsEvents() throws Exception {
+    final InstrumentedSseBroadcaster broadcaster = new InstrumentedSseBroadcaster();
+    final SseEventOutput all = mock(SseEventOutput.class);
+    final SseEventOutput first = mock(SseEventOutput.class);
+    final SseEventOutput second = mock(SseEventOutput.class);
+    broadcaster.add(all, null, SubscriptionOptions.ALL);
+    broadcaster.add(
+        first,
+        null,
+        SubscriptionOptions.ALL.withProjection(new EventProjection(Arrays.asList("/a", "/c/d"))));
+    broadcaster.add(
+        second,
+        null,
+        SubscriptionOptions.ALL.withProjection(new EventProjection(Arrays.asList("/c/d", "/a"))));
+
+    broadcaster.test(bytes("{\"a\":1,\"b\":2,\"c\":{\"d\":3,\"e\":4}}"));
+
+    final List<String> frames = written(all, 1);
+    final String projected = written(first, 1).get(0);
+    assertThat(projected)
+        .isEqualTo(
+            "id: " + id(frames.get(0)) + "\nevent: event\ndata: {\"a\":1,\"c\":{\"d\":3}}\n\n");
+
+    // subscribers with the same projection share one frame
+    final ArgumentCaptor<byte[]> firstFrame = ArgumentCaptor.forClass(byte[].class);
+    final ArgumentCaptor<byte[]> secondFrame = ArgumentCaptor.forClass(byte[].class);
+    verify(first).write(firstFrame.capture());
+    verify(second).write(secondFrame.capture());
+    assertThat(secondFrame.getValue()).isSameAs(firstFrame.getValue());
+
+    // replayed events are projected too
+    final SseEventOutput reconnected = mock(SseEventOutput.class);
+    broadcaster.add(
+        reconnected,
+        id(frames.get(0)) - 1,
+        SubscriptionOptions.ALL.withProjection(new EventProjection(Arrays.asList("/a", "/c/d"))));
+    assertThat(written(reconnected, 1)).containsExactly(projected);
+  }
+
+  @Test
+  public void testConsumerGroup() throws Exception {
+    final InstrumentedSseBroadcaster broadcaster = new InstrumentedSseBroadcaster();
+    final SseEventOutput all = mock(SseEventOutput.class);
+    final SseEventOutput first = mock(SseEventOutput.class);
+    final SseEventOutput second = mock(SseEventOutput.class);
+    broadcaster.add(all, null, SubscriptionOptions.ALL);
+    broadcaster.addToGroup(first, "workers", null, null, null);
+    broadcaster.addToGroup(second, "workers", null, null, null);
+
+    for (int i = 0; i < 4; i++) {
+      broadcaster.test(bytes(String.valueOf(i)));
+    }
+
+    final List<String> frames = written(all, 4);
+    final List<String> delivered = new ArrayList<>(written(first, 2));
+    delivered.addAll(written(second, 2));
+    assertThat(delivered).containsExactlyInAnyOrderElementsOf(frames);
+
+    assertThatThrownBy(
+            () -> broadcaster.addToGroup(mock(SseEventOutput.class), "workers", "id", null, null))
+        .isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void testSpoolsWithoutConnections() throws Exception {
+    try (EventSpool spool =
+        new EventSpool(folder.getRoot().toPath(), 1024, 1024 * 1024, Duration.hours(1))) {
+      final InstrumentedSseBroadcaster broadcaster =
+          InstrumentedSseBroadcaster.builder()
+              .queueSize(16)
+              .history(new EventHistory(16, Duration.minutes(5)))
+              .spool(spool)
+              .build();
+      assertThat(broadcaster.isAccepting()).isTrue();
+      assertThat(broadcaster.test(bytes("a"))).isFalse();
+      assertThat(broadcaster.test(bytes("b"))).isFalse();
+      assertThat(spool.isEmpty()).isFalse();
+
+      final SseEventOutput output = mock(SseEventOutput.class);
+      broadcaster.add(output, null, SubscriptionOptions.ALL);
+      broadcaster.test(bytes("c"));
+
+      final List<String> frames = written(output, 3);
+      assertThat(frames.get(0)).endsWith("data: a\n\n");
+      assertThat(frames.get(1)).endsWith("data: b\n\n");
+      assertThat(frames.get(2)).endsWith("data: c\n\n");
+      assertThat(id(frames.get(2))).isEqualTo(id(frames.get(0)) + 2);
+      assertThat(spool.isEmpty()).isTrue();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testConcurrentPublishersKeepIdsInOrder() throws Exception {
+    try (EventLog log =
+        new EventLog(folder.getRoot().toPath(), 1024 * 1024, 1024 * 1024, Duration.hours(1), 64)) {
+      final InstrumentedSseBroadcaster broadcaster =
+          InstrumentedSseBroadcaster.builder().queueSize(4096).log(log).build();
+      final SseEventOutput output = mock(SseEventOutput.class);
+      broadcaster.add(output, null, SubscriptionOptions.ALL);
+
+      final ExecutorService executor = Executors.newFixedThreadPool(4);
+      try {
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+          futures.add(
+              executor.submit(
+                  () -> {
+                    for (int i = 0; i < 500; i++) {
+                      broadcaster.test(bytes(String.valueOf(i)));
+                    }
+                  }));
+        }
+        for (Future<?> future : futures) {
+          future.get();
+        }
+      } finally {
+        executor.shutdown();
+      }
+
+      final List<String> frames = written(output, 2000);
+      final List<EventLog.Entry> entries = log.read(0, Integer.MAX_VALUE);
+      assertThat(entries).hasSize(2000);
+      for (int i = 1; i < frames.size(); i++) {
+        assertThat(id(frames.get(i))).isEqualTo(id(frames.get(i - 1)) + 1);
+        assertThat(entries.get(i).getId()).isEqualTo(entries.get(i - 1).getId() + 1);
+      }
+      assertThat(entries.get(0).getId()).isEqualTo(id(frames.get(0)));
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void testStopsDrainingOnceConnectionsClose() throws Exception {
+    try (EventSpool spool =
+        new EventSpool(folder.getRoot().toPath(), 1024, 1024 * 1024, Duration.hours(1))) {
+      final InstrumentedSseBroadcaster broadcaster =
+          InstrumentedSseBroadcaster.builder()
+              .queueSize(16)
+              .history(new EventHistory(16, Duration.minutes(5)))
+              .spool(spool)
+              .build();
+      broadcaster.test(bytes("a"));
+      broadcaster.test(bytes("b"));
+
+      // the connection closes on its first write, leaving no connections
+      final SseEventOutput output = mock(SseEventOutput.class);
+      doThrow(new IOException("closed")).when(output).write(any(byte[].class));
+      broadcaster.add(output, null, SubscriptionOptions.ALL);
+
+      assertThat(broadcaster.isEmpty()).isTrue();
+      assertThat(spool.isEmpty()).isFalse();
+    }
+  }
+
+  private static byte[] bytes(final String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static List<String> written(final SseEventOutput output, final int count)
+      throws Exception {
+    final ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+    verify(output, times(count)).write(captor.capture());
+    return captor.getAllValues().stream()
+        .map(frame -> new String(frame, StandardCharsets.UTF_8))
+        .collect(Collectors.toList());
+  }
+
+  private static long id(final String frame) {
+    return Long.parseLong(frame.substring("id: ".length(), frame.indexOf('\n')));
+  }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class LineSplitterTest {
+
+  @Test
+  public void testSplitsLines() throws Exception {
+    assertThat(split("a\nbc\r\n\ndef", 64)).containsExactly("a", "bc", "", "def");
+  }
+
+  @Test
+  public void testTrailingNewline() throws Exception {
+    assertThat(split("a\nb\n", 64)).containsExactly("a", "b");
+  }
+
+  @Test
+  public void testEmptyStream() throws Exception {
+    assertThat(split("", 64)).isEmpty();
+  }
+
+  @Test
+  public void testLinesLongerThanBuffer() throws Exception {
+    final StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      expected.append((char) ('a' + i % 26));
+    }
+    final String line = expected.toString();
+    assertThat(split(line + "\r\n" + line + "\n" + line, 7)).containsExactly(line, line, line);
+  }
+
+  @Test
+  public void testCarriageReturnSplitAcrossReads() throws Exception {
+    assertThat(split("abcdefg\r\nh", 8)).containsExactly("abcdefg", "h");
+  }
+
+  @Test
+  public void testMultiByteCharacters() throws Exception {
+    assertThat(split("{\"name\":\"café ☕\"}\n😀", 3))
+        .containsExactly("{\"name\":\"café ☕\"}", "😀");
+  }
+
+  @Test
+  public void testIndexOf() {
+    final byte[] bytes = new byte[40];
+    assertThat(LineSplitter.indexOf(bytes, 0, bytes.length)).isEqualTo(-1);
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) 0x8a;
+    }
+    assertThat(LineSplitter.indexOf(bytes, 0, bytes.length)).isEqualTo(-1);
+
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = '\n';
+      assertThat(LineSplitter.indexOf(bytes, 0, bytes.length)).isEqualTo(i);
+      assertThat(LineSplitter.indexOf(bytes, i, bytes.length)).isEqualTo(i);
+      assertThat(LineSplitter.indexOf(bytes, 0, i)).isEqualTo(-1);
+      bytes[i] = (byte) 0x0b;
+    }
+  }
+
+  private static List<String> split(final String content, final int bufferSize) throws IOException {
+    final LineSplitter splitter =
+        new LineSplitter(
+            new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), bufferSize);
+    final List<String> lines = new ArrayList<>();
+    byte[] line;
+    while ((line = splitter.next()) != null) {
+      lines.add(new String(line, StandardCharsets.UTF_8));
+    }
+    return lines;
+  }
+}
@@ -17,10 +17,13 @@ package com.smoketurner.pipeline.application.core;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -32,11 +35,22 @@ import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.amazonaws.services.sqs.model.Message;
 import com.google.common.io.Resources;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.smoketurner.pipeline.application.codec.Codec;
+import com.smoketurner.pipeline.application.codec.CodecRegistry;
+import com.smoketurner.pipeline.application.codec.GzipCodec;
+import com.smoketurner.pipeline.application.codec.InflaterPool;
 import com.smoketurner.pipeline.application.exceptions.AmazonS3ConstraintException;
 import com.smoketurner.pipeline.application.exceptions.AmazonS3ZeroSizeException;
 import io.dropwizard.testing.FixtureHelpers;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.glassfish.jersey.media.sse.OutboundEvent;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -58,87 +72,87 @@ public class MessageProcessorTest {
   public void testProcessNullMessage() throws Exception {
     final boolean actual = processor.test(null);
 
-    verify(broadcaster, never()).isEmpty();
-    verify(broadcaster, never()).broadcast(any(OutboundEvent.class));
+    verify(broadcaster, never()).isAccepting();
+    verify(broadcaster, never()).broadcast(any(byte[].class));
     verify(s3, never()).fetch(any(S3EventNotificationRecord.class));
     assertThat(actual).isFalse();
   }
 
   @Test
   public void testProcessNoConnections() throws Exception {
-    when(broadcaster.isEmpty()).thenReturn(true);
+    when(broadcaster.isAccepting()).thenReturn(false);
     final boolean actual = processor.test(message);
 
-    verify(broadcaster).isEmpty();
-    verify(broadcaster, never()).test(anyString());
+    verify(broadcaster).isAccepting();
+    verify(broadcaster, never()).test(any(byte[].class), anyLong());
     verify(s3, never()).fetch(any(S3EventNotificationRecord.class));
     assertThat(actual).isFalse();
   }
 
   @Test
   public void testProcessSNSParseFailure() throws Exception {
-    when(broadcaster.isEmpty()).thenReturn(false);
+    when(broadcaster.isAccepting()).thenReturn(true);
     final boolean actual = processor.test(message);
 
-    verify(broadcaster).isEmpty();
-    verify(broadcaster, never()).test(anyString());
+    verify(broadcaster).isAccepting();
+    verify(broadcaster, never()).test(any(byte[].class), anyLong());
     verify(s3, never()).fetch(any(S3EventNotificationRecord.class));
     assertThat(actual).isTrue();
   }
 
   @Test
   public void testProcessS3EventFetchFailure() throws Exception {
-    when(broadcaster.isEmpty()).thenReturn(false);
+    when(broadcaster.isAccepting()).thenReturn(true);
     when(s3.fetch(any(S3EventNotificationRecord.class)))
         .thenThrow(new AmazonServiceException("error"));
 
     message.setBody(FixtureHelpers.fixture("fixtures/sns_notification.json"));
     final boolean actual = processor.test(message);
 
-    verify(broadcaster, times(2)).isEmpty();
-    verify(broadcaster, never()).test(anyString());
+    verify(broadcaster, times(2)).isAccepting();
+    verify(broadcaster, never()).test(any(byte[].class), anyLong());
     verify(s3).fetch(any(S3EventNotificationRecord.class));
     assertThat(actual).isFalse();
   }
 
   @Test
   public void testProcessNoConnectionsAfterParse() throws Exception {
-    when(broadcaster.isEmpty()).thenReturn(false, true);
+    when(broadcaster.isAccepting()).thenReturn(true, false);
 
     message.setBody(FixtureHelpers.fixture("fixtures/sns_notification.json"));
     final boolean actual = processor.test(message);
 
-    verify(broadcaster, times(2)).isEmpty();
-    verify(broadcaster, never()).test(anyString());
+    verify(broadcaster, times(2)).isAccepting();
+    verify(broadcaster, never()).test(any(byte[].class), anyLong());
     verify(s3, never()).fetch(any(S3EventNotificationRecord.class));
     assertThat(actual).isFalse();
   }
 
   @Test
   public void testProcessS3ZeroSizeFailure() throws Exception {
-    when(broadcaster.isEmpty()).thenReturn(false);
+    when(broadcaster.isAccepting()).thenReturn(true);
     when(s3.fetch(any(S3EventNotificationRecord.class))).thenThrow(new AmazonS3ZeroSizeException());
 
     message.setBody(FixtureHelpers.fixture("fixtures/sns_notification.json"));
     final boolean actual = processor.test(message);
 
-    verify(broadcaster, times(2)).isEmpty();
-    verify(broadcaster, never()).test(anyString());
+    verify(broadcaster, times(2)).isAccepting();
+    verify(broadcaster, never()).test(any(byte[].class), anyLong());
     verify(s3).fetch(any(S3EventNotificationRecord.class));
     assertThat(actual).isTrue();
   }
 
   @Test
   public void testProcessS3ConstraintFailure() throws Exception {
-    when(broadcaster.isEmpty()).thenReturn(false);
+    when(broadcaster.isAccepting()).thenReturn(true);
     when(s3.fetch(any(S3EventNotificationRecord.class)))
         .thenThrow(new AmazonS3ConstraintException());
 
     message.setBody(FixtureHelpers.fixture("fixtures/sns_notification.json"));
     final boolean actual = processor.test(message);
 
-    verify(broadcaster, times(2)).isEmpty();
-    verify(broadcaster, never()).test(anyString());
+    verify(broadcaster, times(2)).isAccepting();
+    verify(broadcaster, never()).test(any(byte[].class), anyLong());
     verify(s3).fetch(any(S3EventNotificationRecord.class));
     assertThat(actual).isTrue();
   }
@@ -154,17 +168,20 @@ public class MessageProcessorTest {
     final ObjectMetadata metadata = new ObjectMetadata();
     metadata.setContentEncoding("gzip");
     final S3Object object = new S3Object();
+    object.setBucketName("smoketurner-uploads");
+    object.setKey("events/testing.json.gz");
     object.setObjectMetadata(metadata);
     object.setObjectContent(stream);
 
-    when(broadcaster.isEmpty()).thenReturn(false);
+    when(broadcaster.isAccepting()).thenReturn(true);
     when(s3.fetch(any(S3EventNotificationRecord.class))).thenReturn(object);
 
     message.setBody(FixtureHelpers.fixture("fixtures/sns_notification.json"));
     final boolean actual = processor.test(message);
 
-    verify(broadcaster, times(2)).isEmpty();
-    verify(broadcaster, times(10)).test(anyString());
+    verify(broadcaster, times(2)).isAccepting();
+    verify(broadcaster, times(10))
+        .test(any(byte[].class), eq(Instant.parse("2015-11-10T22:49:44.296Z").toEpochMilli()));
     verify(s3).fetch(any(S3EventNotificationRecord.class));
     verify(request, never()).abort();
     assertThat(actual).isTrue();
@@ -181,17 +198,19 @@ public class MessageProcessorTest {
     final ObjectMetadata metadata = new ObjectMetadata();
     metadata.setContentEncoding("gzip");
     final S3Object object = new S3Object();
+    object.setBucketName("smoketurner-uploads");
+    object.setKey("events/testing.json.gz");
     object.setObjectMetadata(metadata);
     object.setObjectContent(stream);
 
-    when(broadcaster.isEmpty()).thenReturn(false);
+    when(broadcaster.isAccepting()).thenReturn(true);
     when(s3.fetch(any(S3EventNotificationRecord.class))).thenReturn(object);
 
     message.setBody(FixtureHelpers.fixture("fixtures/sqs_records.json"));
     final boolean actual = processor.test(message);
 
-    verify(broadcaster, times(2)).isEmpty();
-    verify(broadcaster, times(10)).test(anyString());
+    verify(broadcaster, times(2)).isAccepting();
+    verify(broadcaster, times(10)).test(any(byte[].class), anyLong());
     verify(s3).fetch(any(S3EventNotificationRecord.class));
     verify(request, never()).abort();
     assertThat(actual).isTrue();
@@ -208,19 +227,162 @@ public class MessageProcessorTest {
     final ObjectMetadata metadata = new ObjectMetadata();
     metadata.setContentEncoding("gzip");
     final S3Object object = new S3Object();
+    object.setBucketName("smoketurner-uploads");
+    object.setKey("events/testing.json.gz");
     object.setObjectMetadata(metadata);
     object.setObjectContent(stream);
 
-    when(broadcaster.test(anyString())).thenReturn(false, false, false, false, true);
+    when(broadcaster.isAccepting()).thenReturn(true);
+    when(broadcaster.test(any(byte[].class), anyLong()))
+        .thenReturn(false, false, false, false, true);
     when(s3.fetch(any(S3EventNotificationRecord.class))).thenReturn(object);
 
     message.setBody(FixtureHelpers.fixture("fixtures/sns_notification.json"));
     final boolean actual = processor.test(message);
 
-    verify(broadcaster, times(2)).isEmpty();
-    verify(broadcaster, times(5)).test(anyString());
+    verify(broadcaster, times(2)).isAccepting();
+    verify(broadcaster, times(5)).test(any(byte[].class), anyLong());
     verify(s3).fetch(any(S3EventNotificationRecord.class));
     verify(request).abort();
     assertThat(actual).isFalse();
   }
+
+  @Test
+  public void testProcessClosesDecodedStream() throws Exception {
+    final AtomicInteger closed = new AtomicInteger(0);
+    final Codec gzip = spy(new GzipCodec());
+    doAnswer(
+            invocation ->
+                new FilterInputStream((InputStream) invocation.callRealMethod()) {
+                  @Override
+                  public void close() throws IOException {
+                    closed.incrementAndGet();
+                    super.close();
+                  }
+                })
+        .when(gzip)
+        .decode(any(InputStream.class));
+    final MessageProcessor closing =
+        new MessageProcessor(
+            s3, broadcaster, new CodecRegistry(Collections.singletonList(gzip)), null, 1);
+
+    when(broadcaster.isAccepting()).thenReturn(true);
+    when(s3.fetch(any(S3EventNotificationRecord.class))).thenAnswer(invocation -> gzipObject());
+
+    message.setBody(FixtureHelpers.fixture("fixtures/sns_notification.json"));
+    final boolean actual = closing.test(message);
+
+    verify(broadcaster, times(10)).test(any(byte[].class), anyLong());
+    assertThat(closed.get()).isEqualTo(1);
+    assertThat(actual).isTrue();
+  }
+
+  @Test
+  public void testProcessReturnsInflaterToPool() throws Exception {
+    final InflaterPool pool = new InflaterPool(1024, 1024, 4);
+    final MessageProcessor pooled =
+        new MessageProcessor(
+            s3,
+            broadcaster,
+            new CodecRegistry(Collections.singletonList(new GzipCodec(pool, null, 1))),
+            null,
+            1);
+
+    when(broadcaster.isAccepting()).thenReturn(true);
+    when(s3.fetch(any(S3EventNotificationRecord.class))).thenAnswer(invocation -> gzipObject());
+
+    message.setBody(FixtureHelpers.fixture("fixtures/sns_notification.json"));
+    assertThat(pooled.test(message)).isTrue();
+    assertThat(pool.size()).isEqualTo(1);
+
+    // the second object reuses the pooled inflater
+    assertThat(pooled.test(message)).isTrue();
+    assertThat(pool.size()).isEqualTo(1);
+    verify(broadcaster, times(20)).test(any(byte[].class), anyLong());
+  }
+
+  @Test
+  public void testProcessRecordsConcurrently() throws Exception {
+    final MessageProcessor concurrent =
+        new MessageProcessor(
+            s3, broadcaster, new CodecRegistry(), MoreExecutors.newDirectExecutorService(), 2);
+
+    when(broadcaster.isAccepting()).thenReturn(true);
+    when(s3.fetch(any(S3EventNotificationRecord.class))).thenAnswer(invocation -> gzipObject());
+
+    message.setBody(FixtureHelpers.fixture("fixtures/sqs_records_multiple.json"));
+    final boolean actual = concurrent.test(message);
+
+    verify(broadcaster, times(30)).test(any(byte[].class), anyLong());
+    verify(s3, times(3)).fetch(any(S3EventNotificationRecord.class));
+    assertThat(actual).isTrue();
+  }
+
+  @Test
+  public void testProcessRecordsConcurrentlyPartialFailure() throws Exception {
+    final MessageProcessor concurrent =
+        new MessageProcessor(
+            s3, broadcaster, new CodecRegistry(), MoreExecutors.newDirectExecutorService(), 3);
+
+    when(broadcaster.isAccepting()).thenReturn(true);
+    when(s3.fetch(any(S3EventNotificationRecord.class)))
+        .thenAnswer(invocation -> gzipObject())
+        .thenThrow(new AmazonServiceException("error"))
+        .thenAnswer(invocation -> gzipObject());
+
+    message.setBody(FixtureHelpers.fixture("fixtures/sqs_records_multiple.json"));
+    final boolean actual = concurrent.test(message);
+
+    verify(broadcaster, times(20)).test(any(byte[].class), anyLong());
+    verify(s3, times(3)).fetch(any(S3EventNotificationRecord.class));
+    assertThat(actual).isFalse();
+  }
+
+  @Test
+  public void testProcessRoutesToChannels() throws Exception {
+    final InstrumentedSseBroadcaster events = mock(InstrumentedSseBroadcaster.class);
+    final InstrumentedSseBroadcaster other = mock(InstrumentedSseBroadcaster.class);
+    final ChannelRouter router =
+        new ChannelRouter(
+            broadcaster,
+            Arrays.asList(
+                new ChannelRouter.Channel(
+                    "events",
+                    Collections.singletonList("smoketurner-uploads"),
+                    Collections.singletonList("events/*.gz"),
+                    events),
+                new ChannelRouter.Channel(
+                    "other", Collections.emptyList(), Collections.singletonList("other/"), other)));
+    final MessageProcessor routed = new MessageProcessor(s3, router, new CodecRegistry(), null, 1);
+
+    when(broadcaster.isAccepting()).thenReturn(false);
+    when(events.isAccepting()).thenReturn(true);
+    when(other.isAccepting()).thenReturn(false);
+    when(broadcaster.test(any(byte[].class), anyLong())).thenReturn(true);
+    when(s3.fetch(any(S3EventNotificationRecord.class))).thenAnswer(invocation -> gzipObject());
+
+    message.setBody(FixtureHelpers.fixture("fixtures/sns_notification.json"));
+    final boolean actual = routed.test(message);
+
+    verify(broadcaster, times(10)).test(any(byte[].class), anyLong());
+    verify(events, times(10)).test(any(byte[].class), anyLong());
+    verify(other, never()).test(any(byte[].class), anyLong());
+    assertThat(actual).isTrue();
+  }
+
+  private static S3Object gzipObject() throws Exception {
+    final S3ObjectInputStream stream =
+        new S3ObjectInputStream(
+            Resources.asByteSource(Resources.getResource("fixtures/s3_object.txt.gz")).openStream(),
+            mock(HttpRequestBase.class));
+
+    final ObjectMetadata metadata = new ObjectMetadata();
+    metadata.setContentEncoding("gzip");
+    final S3Object object = new S3Object();
+    object.setBucketName("smoketurner-uploads");
+    object.setKey("events/testing.json.gz");
+    object.setObjectMetadata(metadata);
+    object.setObjectContent(stream);
+    return object;
+  }
 }
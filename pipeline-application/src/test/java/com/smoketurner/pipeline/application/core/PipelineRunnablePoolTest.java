@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.codahale.metrics.SharedMetricRegistries;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PipelineRunnablePoolTest {
+
+  private final ExecutorService executor = mock(ExecutorService.class);
+  private final List<String> names = new ArrayList<>();
+  private final List<PipelineRunnable> created = new ArrayList<>();
+  private PipelineRunnablePool pool;
+
+  @Before
+  public void setUp() {
+    SharedMetricRegistries.clear();
+    pool =
+        new PipelineRunnablePool(
+            executor,
+            name -> {
+              names.add(name);
+              final PipelineRunnable runnable = mock(PipelineRunnable.class);
+              created.add(runnable);
+              return runnable;
+            },
+            4);
+  }
+
+  @Test
+  public void testResizeUp() {
+    assertThat(pool.size()).isEqualTo(0);
+    assertThat(pool.resize(3)).isEqualTo(3);
+    assertThat(pool.size()).isEqualTo(3);
+    assertThat(names).containsExactly("poller-0", "poller-1", "poller-2");
+    verify(executor, times(3)).execute(any(PipelineRunnable.class));
+  }
+
+  @Test
+  public void testResizeDown() {
+    pool.resize(3);
+    assertThat(pool.resize(1)).isEqualTo(1);
+    verify(created.get(0), times(0)).stop();
+    verify(created.get(1)).stop();
+    verify(created.get(2)).stop();
+
+    pool.resize(2);
+    assertThat(names).containsExactly("poller-0", "poller-1", "poller-2", "poller-3");
+  }
+
+  @Test
+  public void testStop() {
+    pool.resize(2);
+    pool.stop();
+    assertThat(pool.size()).isEqualTo(0);
+    verify(created.get(0)).stop();
+    verify(created.get(1)).stop();
+  }
+
+  @Test
+  public void testResizeTooLarge() {
+    try {
+      pool.resize(5);
+      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).isEqualTo("pollers must be between 0 and 4");
+    }
+    assertThat(pool.size()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class SseEncoderTest {
+
+  @Test
+  public void testEncode() {
+    final byte[] actual = SseEncoder.encode("event", "{\"name\":\"café\"}");
+    assertThat(new String(actual, StandardCharsets.UTF_8))
+        .isEqualTo("event: event\ndata: {\"name\":\"café\"}\n\n");
+  }
+
+  @Test
+  public void testEncodeEmpty() {
+    final byte[] actual = SseEncoder.encode("ping", new byte[0]);
+    assertThat(new String(actual, StandardCharsets.UTF_8)).isEqualTo("event: ping\ndata: \n\n");
+  }
+
+  @Test
+  public void testEncodeLineBreaks() {
+    final byte[] actual = SseEncoder.encode("event", "a\rb\r\nc\nd");
+    assertThat(new String(actual, StandardCharsets.UTF_8))
+        .isEqualTo("event: event\ndata: a\ndata: b\ndata: c\ndata: d\n\n");
+  }
+
+  @Test
+  public void testEncodeWithId() {
+    final byte[] actual = SseEncoder.encode(42, "event", "{}".getBytes(StandardCharsets.UTF_8));
+    assertThat(new String(actual, StandardCharsets.UTF_8))
+        .isEqualTo("id: 42\nevent: event\ndata: {}\n\n");
+  }
+
+  @Test
+  public void testWithId() {
+    final byte[] frame = SseEncoder.encode("event", "a\nb".getBytes(StandardCharsets.UTF_8));
+    final byte[] actual = SseEncoder.withId(42, frame);
+    assertThat(actual)
+        .isEqualTo(SseEncoder.encode(42, "event", "a\nb".getBytes(StandardCharsets.UTF_8)));
+    assertThat(SseEncoder.id(actual)).isEqualTo(42);
+  }
+
+  @Test
+  public void testData() {
+    assertThat(
+            SseEncoder.data(SseEncoder.encode(42, "event", "{}".getBytes(StandardCharsets.UTF_8))))
+        .isEqualTo("{}".getBytes(StandardCharsets.UTF_8));
+    assertThat(SseEncoder.data(SseEncoder.encode("event", "a\r\nb\nc")))
+        .isEqualTo("a\nb\nc".getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testId() {
+    assertThat(SseEncoder.id(SseEncoder.encode(42, "event", new byte[0]))).isEqualTo(42);
+    assertThat(SseEncoder.id(SseEncoder.encode("event", new byte[0]))).isEqualTo(-1);
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.core;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+public class SseSubscriberTest {
+
+  private static final AtomicInteger IDS = new AtomicInteger(0);
+  private static final byte[] FIRST = {1};
+  private static final byte[] SECOND = {2};
+  private static final byte[] THIRD = {3};
+
+  private final SseEventOutput output = mock(SseEventOutput.class);
+  private final List<Runnable> tasks = new ArrayList<>();
+  private final Executor executor = tasks::add;
+  private final List<SseSubscriber> closed = new ArrayList<>();
+
+  @Test
+  public void testWritesInOrder() throws Exception {
+    final SseSubscriber subscriber = subscriber(Runnable::run, OverflowPolicy.DROP_OLDEST);
+    assertThat(subscriber.offer(FIRST)).isTrue();
+    assertThat(subscriber.offer(SECOND)).isTrue();
+
+    final InOrder inOrder = inOrder(output);
+    inOrder.verify(output).write(FIRST);
+    inOrder.verify(output).write(SECOND);
+    assertThat(subscriber.getQueueDepth()).isEqualTo(0);
+  }
+
+  @Test
+  public void testDropOldest() throws Exception {
+    final SseSubscriber subscriber = subscriber(executor, OverflowPolicy.DROP_OLDEST);
+    assertThat(subscriber.offer(FIRST)).isTrue();
+    assertThat(subscriber.offer(SECOND)).isTrue();
+    assertThat(subscriber.offer(THIRD)).isTrue();
+    assertThat(subscriber.getQueueDepth()).isEqualTo(2);
+    runTasks();
+
+    verify(output, never()).write(FIRST);
+    final InOrder inOrder = inOrder(output);
+    inOrder.verify(output).write(SECOND);
+    inOrder.verify(output).write(THIRD);
+  }
+
+  @Test
+  public void testDropNewest() throws Exception {
+    final SseSubscriber subscriber = subscriber(executor, OverflowPolicy.DROP_NEWEST);
+    assertThat(subscriber.offer(FIRST)).isTrue();
+    assertThat(subscriber.offer(SECOND)).isTrue();
+    assertThat(subscriber.offer(THIRD)).isTrue();
+    runTasks();
+
+    final InOrder inOrder = inOrder(output);
+    inOrder.verify(output).write(FIRST);
+    inOrder.verify(output).write(SECOND);
+    verify(output, never()).write(THIRD);
+  }
+
+  @Test
+  public void testDisconnect() throws Exception {
+    final SseSubscriber subscriber = subscriber(executor, OverflowPolicy.DISCONNECT);
+    assertThat(subscriber.offer(FIRST)).isTrue();
+    assertThat(subscriber.offer(SECOND)).isTrue();
+    assertThat(subscriber.offer(THIRD)).isFalse();
+    runTasks();
+
+    assertThat(subscriber.isClosed()).isTrue();
+    assertThat(closed).containsExactly(subscriber);
+    verify(output).close();
+    verify(output, never()).write(any(byte[].class));
+    assertThat(subscriber.offer(FIRST)).isFalse();
+  }
+
+  @Test
+  public void testClosesOnWriteFailure() throws Exception {
+    doThrow(new IOException("broken pipe")).when(output).write(FIRST);
+
+    final SseSubscriber subscriber = subscriber(Runnable::run, OverflowPolicy.DROP_OLDEST);
+    subscriber.offer(FIRST);
+
+    assertThat(subscriber.isClosed()).isTrue();
+    assertThat(closed).containsExactly(subscriber);
+    verify(output).close();
+  }
+
+  @Test
+  public void testCloseRemovesOnlyItsOwnMetrics() throws Exception {
+    final MetricRegistry registry = SharedMetricRegistries.getOrCreate("default");
+    final SseSubscriber first =
+        new SseSubscriber(
+            "metrics-1", output, executor, 2, OverflowPolicy.DROP_OLDEST, closed::add);
+    final SseSubscriber tenth =
+        new SseSubscriber(
+            "metrics-10", output, executor, 2, OverflowPolicy.DROP_OLDEST, closed::add);
+
+    first.close();
+
+    assertThat(registry.getNames())
+        .doesNotContain(name(SseSubscriber.class, "metrics-1", "queue-depth"))
+        .contains(
+            name(SseSubscriber.class, "metrics-10", "drops"),
+            name(SseSubscriber.class, "metrics-10", "lag"),
+            name(SseSubscriber.class, "metrics-10", "queue-depth"));
+    tenth.close();
+  }
+
+  private SseSubscriber subscriber(final Executor executor, final OverflowPolicy policy) {
+    return new SseSubscriber(
+        "test-" + IDS.incrementAndGet(), output, executor, 2, policy, closed::add);
+  }
+
+  private void runTasks() {
+    while (!tasks.isEmpty()) {
+      tasks.remove(0).run();
+    }
+  }
+}
@@ -17,14 +17,20 @@ package com.smoketurner.pipeline.application.resources;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.smoketurner.pipeline.application.core.ChannelRouter;
 import com.smoketurner.pipeline.application.core.InstrumentedSseBroadcaster;
+import com.smoketurner.pipeline.application.core.SseEventOutput;
+import com.smoketurner.pipeline.application.core.SubscriptionOptions;
 import io.dropwizard.testing.junit.ResourceTestRule;
+import java.util.Collections;
+import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Response;
-import org.glassfish.jersey.media.sse.EventOutput;
 import org.glassfish.jersey.media.sse.EventSource;
 import org.glassfish.jersey.media.sse.SseFeature;
 import org.junit.ClassRule;
@@ -34,12 +40,19 @@ public class EventResourceTest {
 
   private static final InstrumentedSseBroadcaster broadcaster =
       mock(InstrumentedSseBroadcaster.class);
+  private static final InstrumentedSseBroadcaster channel = mock(InstrumentedSseBroadcaster.class);
+  private static final ChannelRouter router =
+      new ChannelRouter(
+          broadcaster,
+          Collections.singletonList(
+              new ChannelRouter.Channel(
+                  "logs", Collections.emptyList(), Collections.singletonList("logs/"), channel)));
 
   @ClassRule
   public static final ResourceTestRule resources =
       ResourceTestRule.builder()
           .addProvider(SseFeature.class)
-          .addResource(new EventResource(broadcaster))
+          .addResource(new EventResource(router))
           .build();
 
   @Test
@@ -48,9 +61,78 @@ public class EventResourceTest {
     assertThat(response.getStatus()).isEqualTo(503);
   }
 
+  @Test
+  public void testGetChannelUnavailable() throws Exception {
+    final Response response = resources.client().target("/v1/events/logs").request().get();
+    assertThat(response.getStatus()).isEqualTo(503);
+    verify(channel).add(any(SseEventOutput.class), any(), any(SubscriptionOptions.class));
+  }
+
+  @Test
+  public void testGetUnknownChannel() throws Exception {
+    final Response response = resources.client().target("/v1/events/unknown").request().get();
+    assertThat(response.getStatus()).isEqualTo(404);
+  }
+
+  @Test
+  public void testGetEventsInvalidFilter() throws Exception {
+    final Response response =
+        resources.client().target("/v1/events").queryParam("filter", "level").request().get();
+    assertThat(response.getStatus()).isEqualTo(400);
+  }
+
+  @Test
+  public void testGetEventsInvalidFields() throws Exception {
+    final Response response =
+        resources.client().target("/v1/events").queryParam("fields", "level").request().get();
+    assertThat(response.getStatus()).isEqualTo(400);
+  }
+
+  @Test
+  public void testGetEventsGroupConflict() throws Exception {
+    when(broadcaster.addToGroup(any(SseEventOutput.class), eq("workers"), any(), any(), any()))
+        .thenThrow(new IllegalStateException("conflict"));
+    final Response response =
+        resources.client().target("/v1/events").queryParam("group", "workers").request().get();
+    assertThat(response.getStatus()).isEqualTo(409);
+  }
+
+  @Test
+  public void testGetEventsPartitionKeyWithoutGroup() throws Exception {
+    final Response response =
+        resources.client().target("/v1/events").queryParam("partitionKey", "id").request().get();
+    assertThat(response.getStatus()).isEqualTo(400);
+  }
+
+  @Test
+  public void testAckWithoutTracker() throws Exception {
+    final Response response =
+        resources
+            .client()
+            .target("/v1/events/ack")
+            .queryParam("connection", "1")
+            .queryParam("id", 100)
+            .request()
+            .post(Entity.text(""));
+    assertThat(response.getStatus()).isEqualTo(404);
+  }
+
+  @Test
+  public void testAckMissingId() throws Exception {
+    final Response response =
+        resources
+            .client()
+            .target("/v1/events/ack")
+            .queryParam("connection", "1")
+            .request()
+            .post(Entity.text(""));
+    assertThat(response.getStatus()).isEqualTo(400);
+  }
+
   @Test
   public void testGetEvents() throws Exception {
-    when(broadcaster.add(any(EventOutput.class))).thenReturn(true);
+    when(broadcaster.add(any(SseEventOutput.class), any(), any(SubscriptionOptions.class)))
+        .thenReturn(true);
     final WebTarget target = resources.client().target("/v1/events");
     final EventSource source = EventSource.target(target).build();
     // TODO not sure how to test this
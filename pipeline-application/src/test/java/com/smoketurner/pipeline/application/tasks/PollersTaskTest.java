@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2019 Smoke Turner, LLC (github@smoketurner.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.smoketurner.pipeline.application.tasks;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.smoketurner.pipeline.application.core.PipelineRunnablePool;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import org.junit.Test;
+
+public class PollersTaskTest {
+
+  private final PipelineRunnablePool pool = mock(PipelineRunnablePool.class);
+  private final PollersTask task = new PollersTask(pool);
+  private final StringWriter output = new StringWriter();
+
+  @Test
+  public void testExecute() throws Exception {
+    when(pool.resize(4)).thenReturn(4);
+    task.execute(ImmutableMultimap.of("count", "4"), new PrintWriter(output, true));
+    verify(pool).resize(4);
+    assertThat(output.toString()).isEqualTo(String.format("pollers: 4%n"));
+  }
+
+  @Test
+  public void testExecuteNoCount() throws Exception {
+    when(pool.size()).thenReturn(2);
+    when(pool.getMaxPollers()).thenReturn(8);
+    task.execute(ImmutableMultimap.of(), new PrintWriter(output, true));
+    verify(pool, never()).resize(2);
+    assertThat(output.toString()).isEqualTo(String.format("pollers: 2 (max 8)%n"));
+  }
+
+  @Test
+  public void testExecuteInvalidCount() throws Exception {
+    task.execute(ImmutableMultimap.of("count", "abc"), new PrintWriter(output, true));
+    assertThat(output.toString()).isEqualTo(String.format("count must be an integer%n"));
+  }
+}